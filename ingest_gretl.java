@@ -5,6 +5,14 @@
 //DEPS com.fasterxml.jackson.core:jackson-databind:2.17.1
 //DEPS com.fasterxml.jackson.core:jackson-core:2.17.1
 //DEPS com.fasterxml.jackson.core:jackson-annotations:2.17.1
+//DEPS dev.langchain4j:langchain4j-embeddings-all-minilm-l6-v2-q:1.8.0-beta15
+//SOURCES src/main/java/ch/so/agi/gretl/copilot/support/PgVector.java
+//SOURCES src/main/java/ch/so/agi/gretl/copilot/support/EmbeddingDimensions.java
+//SOURCES src/main/java/ch/so/agi/gretl/copilot/embedding/EmbeddingBackend.java
+
+import ch.so.agi.gretl.copilot.embedding.EmbeddingBackend;
+import ch.so.agi.gretl.copilot.support.EmbeddingDimensions;
+import ch.so.agi.gretl.copilot.support.PgVector;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.*;
@@ -16,6 +24,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.DriverManager;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -38,18 +47,31 @@ public class ingest_gretl {
       "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 " +
       "(KHTML, like Gecko) Chrome/122.0.0.0 Safari/537.36");
 
-  // pgvector dimension; must match your table definition
-  static final int    EMB_DIM   = Integer.parseInt(env("EMB_DIM", "1536"));
+  // Embedding dimension, sent to OpenAI as "dimensions"; must match openai.embedding-dimensions of the app.
+  // The embedding columns are resized to it while the tables are empty (e.g. with --truncate).
+  // Local embeddings always have EmbeddingBackend.LOCAL_DIMENSIONS.
+  static int          EMB_DIM   = Integer.parseInt(env("EMB_DIM", "3072"));
 
   // OpenAI
   static final String OPENAI_API_KEY   = env("OPENAI_API_KEY", "");
   static final String OPENAI_BASE_URL  = env("OPENAI_BASE_URL", "https://api.openai.com");
-  static final String OPENAI_EMB_MODEL = env("OPENAI_EMBED_MODEL", "text-embedding-3-small"); // 1536-d
+  static final String OPENAI_EMB_MODEL = env("OPENAI_EMBED_MODEL", "text-embedding-3-large"); // up to 3072-d
   static final int    OPENAI_TIMEOUT_S = Integer.parseInt(env("OPENAI_TIMEOUT_S", "60"));
 
+  // Pipeline: pages are fetched and embedded concurrently on virtual threads, then written one page per transaction
+  static final int    FETCH_CONCURRENCY = Integer.parseInt(env("FETCH_CONCURRENCY", "4"));
+  static final double FETCH_RATE_LIMIT  = Double.parseDouble(env("FETCH_RATE_LIMIT", "5"));   // pages per second, 0 = unlimited
+  static final int    EMBED_CONCURRENCY = Integer.parseInt(env("EMBED_CONCURRENCY", "8"));
+  static final double EMBED_RATE_LIMIT  = Double.parseDouble(env("EMBED_RATE_LIMIT", "0"));  // requests per second, 0 = unlimited
+  static final int    PIPELINE_QUEUE    = Integer.parseInt(env("PIPELINE_QUEUE", "16"));     // pages buffered between stages
+
   // Feature toggles (env defaults, overridable via CLI flags)
   static boolean dbEnabled     = Boolean.parseBoolean(env("ENABLE_DB", "true"));
   static boolean openaiEnabled = Boolean.parseBoolean(env("ENABLE_OPENAI", "true"));
+  // Embed in-process with the app's local model (copilot.embedding.backend=local) instead of calling OpenAI
+  static boolean localEmbeddings = "local".equalsIgnoreCase(env("EMBED_BACKEND", "openai"));
+  // Bulk load: binary COPY into temporary staging tables and one INSERT ... SELECT per table, instead of JDBC batches
+  static boolean copyEnabled   = Boolean.parseBoolean(env("ENABLE_COPY", "false"));
 
   // --- HARDCODED WHITELIST --------------------------------------------------
   static final List<Pattern> ALLOWLIST = List.of(
@@ -80,10 +102,17 @@ public class ingest_gretl {
     boolean forceOpenaiFlag = hasFlag(args, "--openai", "--embeddings");
     if (disableOpenaiFlag) openaiEnabled = false;
     if (forceOpenaiFlag) openaiEnabled = true;
+    if (hasFlag(args, "--local-embeddings")) localEmbeddings = true;
+    if (disableOpenaiFlag) localEmbeddings = false;
 
     boolean apiKeyPresent = !OPENAI_API_KEY.isBlank();
     boolean openaiNoticePrinted = false;
-    if (openaiEnabled && !apiKeyPresent) {
+    if (localEmbeddings) {
+      openaiEnabled = false;
+      openaiNoticePrinted = true;
+      EMB_DIM = EmbeddingBackend.LOCAL_DIMENSIONS;
+      System.out.println("🧠 Embedding in-process with " + EmbeddingBackend.LOCAL_MODEL + " (" + EMB_DIM + " dimensions).");
+    } else if (openaiEnabled && !apiKeyPresent) {
       if (forceOpenaiFlag) {
         require(false, "OPENAI_API_KEY is required when embeddings are enabled");
       } else {
@@ -104,78 +133,367 @@ public class ingest_gretl {
     }
 
     boolean doReset = hasFlag(args, "--reset", "-r");
+    boolean doTruncate = hasFlag(args, "--truncate");
+    if (hasFlag(args, "--copy")) copyEnabled = true;
 
     try (java.sql.Connection cx = dbEnabled ? DriverManager.getConnection(JDBC_URL, JDBC_USER, JDBC_PASS) : null) {
       if (cx != null) {
         try (java.sql.Statement st = cx.createStatement()) {
           //st.execute("SET search_path TO rag");
         }
+        ensureSearchColumn(cx);
         cx.setAutoCommit(false);
+        ensureIncrementalColumns(cx);
+        ensureCorpusVersioning(cx);
+        cx.commit();
+        lockCorpus(cx);
       }
 
-      if (doReset) {
+      if (doTruncate) {
         if (cx != null) {
           resetDatabase(cx);
           cx.commit();
           System.out.println("✅ Database content wiped (fresh start).");
         } else {
-          System.out.println("ℹ️  Reset requested but database is disabled – skipping.");
+          System.out.println("ℹ️  Truncate requested but database is disabled – skipping.");
         }
       }
 
+      if (cx != null) {
+        ensureEmbeddingDimension(cx);
+        ensureQuantizedColumns(cx);
+        cx.commit();
+      }
+
+      CorpusSnapshot snapshot = cx != null ? CorpusSnapshot.begin(cx, doReset) : null;
+      boolean changed;
       if (inputPath != null) {
         File inputFile = new File(inputPath);
         require(inputFile.exists(), "Input file not found: " + inputPath);
-        String baseUrl = inputFile.toURI().toString();
+        changed = new Pipeline(cx, false, snapshot).run(inputFile.toURI().toString());
+      } else {
+        changed = new Pipeline(cx, true, snapshot).run(determineStartUrl(startUrlOverride));
+      }
+      if (snapshot != null) {
+        snapshot.finish(changed);
+      }
+    }
+  }
+
+  // ------------------------ Pipeline ----------------------------------------
+  // fetch → parse/section → embed → write. Fetching (with parsing) and embedding run on virtual threads,
+  // capped by FETCH_CONCURRENCY/EMBED_CONCURRENCY and the rate limits; bounded queues between the stages
+  // hold back the crawl when embedding or writing falls behind. A single writer owns the connection and
+  // writes every page in its own transaction, rows in document order, as before.
+  // Re-runs are incremental: pages answering 304 or hashing as before skip embedding and writing, and
+  // of a changed page only sections and examples with a new content hash are embedded (see PageWriter).
+  static final class Pipeline {
+    static final Page END = new Page(null, null, null, List.of(), List.of(), null, null);
+
+    final java.sql.Connection cx;
+    final boolean followLinks;
+    final CorpusSnapshot snapshot;
+    final Map<String, StoredPage> stored;
+    final java.util.concurrent.atomic.AtomicInteger unchangedPages = new java.util.concurrent.atomic.AtomicInteger();
+    final java.util.concurrent.atomic.AtomicInteger embeddingCalls = new java.util.concurrent.atomic.AtomicInteger();
+    final BlockingQueue<Page> toEmbed = new ArrayBlockingQueue<>(PIPELINE_QUEUE);
+    final BlockingQueue<Page> toWrite = new ArrayBlockingQueue<>(PIPELINE_QUEUE);
+    final Semaphore fetchSlots = new Semaphore(FETCH_CONCURRENCY);
+    final Semaphore embedSlots = new Semaphore(EMBED_CONCURRENCY);
+    // pages taken from toEmbed but not yet handed to the writer, so a slow writer stops the embedder
+    final Semaphore pagesInFlight = new Semaphore(PIPELINE_QUEUE);
+    final RateLimiter fetchRate = new RateLimiter(FETCH_RATE_LIMIT);
+    final RateLimiter embedRate = new RateLimiter(EMBED_RATE_LIMIT);
+
+    Pipeline(java.sql.Connection cx, boolean followLinks, CorpusSnapshot snapshot) throws Exception {
+      this.cx = cx;
+      this.followLinks = followLinks;
+      this.snapshot = snapshot;
+      this.stored = loadStoredPages(cx);
+    }
+
+    // Returns whether any page was written, i.e. the new corpus version differs from the active one.
+    boolean run(String startUrl) throws Exception {
+      long start = System.nanoTime();
+      try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+           PageWriter writer = new PageWriter(cx, copyEnabled, snapshot == null ? 0 : snapshot.version, stored)) {
         try {
-          org.jsoup.nodes.Document doc = parseLocalFile(inputFile, baseUrl);
-          processDocument(doc, baseUrl, cx);
-          if (cx != null) cx.commit();
-          System.out.println("Ingested: " + baseUrl);
-        } catch (Exception e) {
-          if (cx != null) cx.rollback();
-          throw e;
+          Future<?> crawler = threads.submit(() -> { crawl(threads, startUrl); return null; });
+          Future<?> embedder = threads.submit(() -> { embedPages(threads); return null; });
+          writePages(writer);
+          crawler.get();
+          embedder.get();
+        } finally {
+          // after a normal run every stage is done; after a write failure this unblocks the others
+          threads.shutdownNow();
         }
-      } else {
-        Queue<String> q = new ArrayDeque<>();
-        Set<String> seen = new HashSet<>();
-        String startUrl = determineStartUrl(startUrlOverride);
-        q.add(startUrl);
-
-        while (!q.isEmpty()) {
-          String url = q.poll();
-          if (seen.contains(url) || !isAllowed(url)) continue;
-          seen.add(url);
-
-          try {
-            org.jsoup.nodes.Document doc = fetchDocument(url);
-            List<String> discovered = processDocument(doc, url, cx);
-            for (String href : discovered) {
-              if (!seen.contains(href)) {
-                q.add(href);
+        writer.printStats(System.nanoTime() - start);
+        System.out.printf(Locale.ROOT, "⏭️  %d unchanged pages skipped, %d embedding calls%n",
+            unchangedPages.get(), embeddingCalls.get());
+        return writer.pages > 0;
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof Exception cause ? cause : e;
+      }
+    }
+
+    // Breadth-first over the allowed links; each fetch runs on its own virtual thread.
+    void crawl(ExecutorService threads, String startUrl) throws InterruptedException {
+      Set<String> seen = new HashSet<>();
+      BlockingQueue<List<String>> discovered = new LinkedBlockingQueue<>();
+      int running = 0;
+      Deque<String> q = new ArrayDeque<>(List.of(startUrl));
+      try {
+        while (!q.isEmpty() || running > 0) {
+          while (!q.isEmpty()) {
+            String url = q.poll();
+            if (!seen.add(url) || !isAllowed(url)) continue;
+            running++;
+            threads.submit(() -> {
+              List<String> links = List.of();
+              try {
+                links = fetchAndParse(url);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              } finally {
+                discovered.add(links);
               }
+            });
+          }
+          if (running > 0) {
+            List<String> links = discovered.take();
+            running--;
+            if (followLinks) {
+              for (String href : links) if (!seen.contains(href)) q.add(href);
+            }
+          }
+        }
+      } finally {
+        toEmbed.put(END);
+      }
+    }
+
+    List<String> fetchAndParse(String url) throws InterruptedException {
+      fetchSlots.acquire();
+      try {
+        fetchRate.acquire();
+        StoredPage known = stored.get(url);
+        Fetched fetched = fetchDocument(url, known);
+        if (fetched == null) {
+          unchangedPages.incrementAndGet();
+          System.out.println("Unchanged (304): " + url);
+          return known.links();
+        }
+        Page page = parsePage(fetched.doc(), url, fetched.etag());
+        if (known != null && page.contentHash().equals(known.contentHash())) {
+          unchangedPages.incrementAndGet();
+          System.out.println("Unchanged: " + url);
+          return page.links();
+        }
+        toEmbed.put(page);
+        return page.links();
+      } catch (InterruptedException e) {
+        throw e;
+      } catch (Exception e) {
+        System.err.println("ERROR " + url + ": " + e.getMessage());
+        e.printStackTrace();
+        return List.of();
+      } finally {
+        fetchSlots.release();
+      }
+    }
+
+    // Pages are embedded concurrently; each page is handed to the writer once all of its texts are embedded.
+    // At most PIPELINE_QUEUE pages are embedded or waiting for toWrite at a time, so toEmbed fills up and
+    // the crawler waits when the writer falls behind.
+    void embedPages(ExecutorService threads) throws InterruptedException {
+      Phaser inFlight = new Phaser(1);
+      try {
+        for (Page page = toEmbed.take(); page != END; page = toEmbed.take()) {
+          Page current = page;
+          pagesInFlight.acquire();
+          inFlight.register();
+          threads.submit(() -> {
+            try {
+              embedPage(threads, current);
+              toWrite.put(current);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } catch (Exception e) {
+              System.err.println("ERROR " + current.url() + ": " + e.getMessage());
+              e.printStackTrace();
+            } finally {
+              pagesInFlight.release();
+              inFlight.arriveAndDeregister();
             }
+          });
+        }
+        inFlight.awaitAdvanceInterruptibly(inFlight.arrive());
+      } finally {
+        toWrite.put(END);
+      }
+    }
 
-            if (cx != null) cx.commit();
-            System.out.println("Ingested: " + url);
-          } catch (Exception e) {
-            if (cx != null) cx.rollback();
-            System.err.println("ERROR " + url + ": " + e.getMessage());
-            e.printStackTrace();
+    void embedPage(ExecutorService threads, Page page) throws Exception {
+      if (cx == null) return; // nothing is written, so nothing needs a vector
+      // rows whose hash is already stored stay as they are and keep their vector
+      StoredPage known = stored.getOrDefault(page.url(), StoredPage.NONE);
+      List<Future<float[]>> sections = new ArrayList<>();
+      List<Future<float[]>> examples = new ArrayList<>();
+      for (Section section : page.sections()) {
+        sections.add(known.chunkHashes().contains(section.hash) ? null
+            : threads.submit(() -> embed(section.embeddingText())));
+        for (Example example : section.examples) {
+          examples.add(known.exampleHashes().contains(example.hash) ? null
+              : threads.submit(() -> embed(example.embeddingText())));
+        }
+      }
+      int s = 0, e = 0;
+      try {
+        for (Section section : page.sections()) {
+          Future<float[]> embedding = sections.get(s++);
+          if (embedding != null) section.embedding = embedding.get();
+          for (Example example : section.examples) {
+            embedding = examples.get(e++);
+            if (embedding != null) example.embedding = embedding.get();
           }
         }
+      } catch (ExecutionException ex) {
+        sections.stream().filter(Objects::nonNull).forEach(future -> future.cancel(true));
+        examples.stream().filter(Objects::nonNull).forEach(future -> future.cancel(true));
+        throw ex.getCause() instanceof Exception cause ? cause : ex;
+      }
+    }
+
+    float[] embed(String text) throws Exception {
+      embedSlots.acquire();
+      try {
+        embedRate.acquire();
+        embeddingCalls.incrementAndGet();
+        return localEmbeddings ? LocalEmbeddings.embed(text) : openaiEmbedPooled(text);
+      } finally {
+        embedSlots.release();
+      }
+    }
+
+    void writePages(PageWriter writer) throws Exception {
+      for (Page page = toWrite.take(); page != END; page = toWrite.take()) {
+        try {
+          writer.write(page);
+          System.out.println("Ingested: " + page.url());
+        } catch (Exception e) {
+          if (!followLinks) throw e;
+          System.err.println("ERROR " + page.url() + ": " + e.getMessage());
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  // Spaces out acquisitions to at most perSecond per second; 0 disables the limit.
+  static final class RateLimiter {
+    final long intervalNanos;
+    long next = System.nanoTime();
+
+    RateLimiter(double perSecond) {
+      this.intervalNanos = perSecond > 0 ? (long) (1_000_000_000L / perSecond) : 0;
+    }
+
+    void acquire() throws InterruptedException {
+      if (intervalNanos == 0) return;
+      long wait;
+      synchronized (this) {
+        long now = System.nanoTime();
+        next = Math.max(next, now);
+        wait = next - now;
+        next += intervalNanos;
       }
+      if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  // ------------------------ Parsed page -------------------------------------
+  record Page(String url, String title, String rawMd, List<Section> sections, List<String> links,
+              String etag, String contentHash) {}
+
+  record Prop(String task, String name, String type, boolean required, String def, String desc) {}
+
+  static final class Section {
+    final String taskName, url, anchor, heading, text, html;
+    final List<Prop> props = new ArrayList<>();
+    final List<Example> examples = new ArrayList<>();
+    String hash;
+    float[] embedding;
+
+    Section(String taskName, String url, String anchor, String heading, String text, String html) {
+      this.taskName = taskName; this.url = url; this.anchor = anchor;
+      this.heading = heading; this.text = text; this.html = html;
+    }
+    String embeddingText() { return heading + "\n" + text; }
+    String contentHash() { return sha256(embeddingKey(), taskName, url, anchor, heading, text, html); }
+  }
+
+  static final class Example {
+    final String task, title, codeMd, explanation;
+    String hash;
+    float[] embedding;
+
+    Example(String task, String title, String codeMd, String explanation) {
+      this.task = task; this.title = title; this.codeMd = codeMd; this.explanation = explanation;
     }
+    String embeddingText() { return title + "\n" + codeMd + (explanation == null ? "" : "\n" + explanation); }
+    String contentHash() { return sha256(embeddingKey(), task, title, codeMd, explanation); }
   }
 
-  static List<String> processDocument(org.jsoup.nodes.Document doc, String url, java.sql.Connection cx) throws Exception {
+  // Hashes identify rows across runs, so they cover everything written for the row plus the embedding
+  // model and dimension (a different model means new vectors). Repeated content on a page gets its
+  // occurrence number mixed in, keeping the hashes of one page unique. The page hash covers all of it.
+  static String pageHash(String title, String rawMd, List<Section> sections, List<String> links) {
+    Map<String, Integer> occurrences = new HashMap<>();
+    List<String> parts = new ArrayList<>(List.of(String.valueOf(title), String.valueOf(rawMd)));
+    for (Section section : sections) {
+      section.hash = unique(section.contentHash(), occurrences);
+      parts.add(section.hash);
+      for (Example example : section.examples) {
+        example.hash = unique(example.contentHash(), occurrences);
+        parts.add(example.hash);
+      }
+    }
+    parts.addAll(links);
+    return sha256(parts.toArray(String[]::new));
+  }
+
+  static String unique(String hash, Map<String, Integer> occurrences) {
+    int n = occurrences.merge(hash, 1, Integer::sum);
+    return n == 1 ? hash : sha256(hash, String.valueOf(n));
+  }
+
+  static String embeddingKey() { return embeddingModel() == null ? "none" : embeddingModel() + "/" + EMB_DIM; }
+
+  // null while vectors are zeroed
+  static String embeddingModel() {
+    return localEmbeddings ? EmbeddingBackend.LOCAL_MODEL : openaiEnabled ? OPENAI_EMB_MODEL : null;
+  }
+
+  static String sha256(String... parts) {
+    try {
+      java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+      for (String part : parts) {
+        if (part != null) digest.update(part.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        digest.update((byte) (part == null ? 1 : 0)); // separator, distinguishes null from ""
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (java.security.NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static Page parsePage(org.jsoup.nodes.Document doc, String url, String etag) {
     Element main = Optional.ofNullable(doc.selectFirst("section#tasks.level2, div#tasks.level2, section#tasks, div#tasks"))
                            .orElseGet(() -> Optional.ofNullable(doc.selectFirst("main, .md-content, .content, article"))
                                                    .orElse(doc.body()));
     String title = doc.title();
     String pageMd = main.text();
-
-    long pageId = upsertPage(cx, url, title, pageMd);
+    List<Section> sections = new ArrayList<>();
 
     for (Element h : main.select("h3")) {
       String heading = norm(h.text());
@@ -183,10 +501,6 @@ public class ingest_gretl {
       String baseUrl = url.contains("#") ? url.substring(0, url.indexOf('#')) : url;
       String sectionUrl = (anchor != null && !anchor.isEmpty()) ? baseUrl + "#" + anchor : url;
 
-
-      System.out.println(heading);
-
-
       if ("h2".equals(h.tagName()) && (anchor == null || anchor.isEmpty()) && h.parent() == main) {
         continue;
       }
@@ -207,11 +521,8 @@ public class ingest_gretl {
       String sectionText = Jsoup.parse(sectionHtml).text();
 
       String taskName = guessTask(heading);
-
-      insertChunk(cx, pageId, taskName, "task", sectionUrl, anchor, heading, sectionText, sectionHtml);
-      if (!dbEnabled) {
-        System.out.printf(Locale.ROOT, "→ Section [%s] %s%n", heading, sectionUrl);
-      }
+      Section section = new Section(taskName, sectionUrl, anchor, heading, sectionText, sectionHtml);
+      sections.add(section);
 
       Element frag = Jsoup.parse(sectionHtml).body();
       for (Element table : frag.select("table")) {
@@ -252,12 +563,7 @@ public class ingest_gretl {
           String desc = get(tds, descIdx);
 
           boolean isReq = parseRequired(required, columnIsOptional);
-          upsertProp(cx,
-              (taskName != null ? taskName : heading),
-              prop, type, isReq, def, desc, null);
-          if (!dbEnabled) {
-            System.out.printf(Locale.ROOT, "   · %s (%s) required=%s%n", prop, type, isReq);
-          }
+          section.props.add(new Prop((taskName != null ? taskName : heading), prop, type, isReq, def, desc));
         }
       }
 
@@ -283,7 +589,7 @@ public class ingest_gretl {
       for (Element code : frag.select("pre > code")) {
         String lang = code.className();
         String codeMd = "```" + lang.replace("language-", "") + "\n" + code.text() + "\n```";
-        insertExample(cx, (taskName != null ? taskName : heading), heading + " example", codeMd, exampleExplanation);
+        section.examples.add(new Example((taskName != null ? taskName : heading), heading + " example", codeMd, exampleExplanation));
       }
     }
 
@@ -303,7 +609,8 @@ public class ingest_gretl {
 
       unique.add(normalized);
     }
-    return new ArrayList<>(unique);
+    List<String> links = new ArrayList<>(unique);
+    return new Page(url, title, pageMd, sections, links, etag, pageHash(title, pageMd, sections, links));
   }
 
   static String stripFragment(String url) {
@@ -311,19 +618,34 @@ public class ingest_gretl {
     return idx >= 0 ? url.substring(0, idx) : url;
   }
 
-  static org.jsoup.nodes.Document fetchDocument(String location) throws Exception {
+  record Fetched(org.jsoup.nodes.Document doc, String etag) {}
+
+  // Returns null when the server confirms (304) that the stored copy of an http(s) page is current,
+  // asked with its ETag and, as If-Modified-Since, the time the page was last written. Pages without a
+  // stored hash (written before content hashes, or by an aborted run) are always downloaded.
+  static Fetched fetchDocument(String location, StoredPage known) throws Exception {
+    if (known != null && known.contentHash() == null) known = null;
     if (location.startsWith("file:")) {
       File file = new File(java.net.URI.create(location));
-      return parseLocalFile(file, location);
+      return new Fetched(parseLocalFile(file, location), null);
     }
 
     if (location.startsWith("http://") || location.startsWith("https://")) {
-      Request request = new Request.Builder()
+      Request.Builder builder = new Request.Builder()
           .url(location)
           .header("User-Agent", USER_AGENT)
-          .header("Accept", "text/html,application/xhtml+xml")
-          .build();
-      try (Response resp = http.newCall(request).execute()) {
+          .header("Accept", "text/html,application/xhtml+xml");
+      if (known != null && known.etag() != null) {
+        builder.header("If-None-Match", known.etag());
+      }
+      if (known != null && known.fetchedAt() != null) {
+        builder.header("If-Modified-Since", java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME
+            .format(known.fetchedAt().atZoneSameInstant(java.time.ZoneOffset.UTC)));
+      }
+      try (Response resp = http.newCall(builder.build()).execute()) {
+        if (resp.code() == 304 && known != null) {
+          return null;
+        }
         if (!resp.isSuccessful() || resp.body() == null) {
           String body = resp.body() != null ? resp.body().string() : "";
           throw new RuntimeException("Failed to download " + location + ": " + resp.code() + " " + body);
@@ -335,13 +657,13 @@ public class ingest_gretl {
           fos.write(bytes);
         }
         temp.toFile().deleteOnExit();
-        return parseLocalFile(temp.toFile(), location);
+        return new Fetched(parseLocalFile(temp.toFile(), location), resp.header("ETag"));
       }
     }
 
     File maybeFile = new File(location);
     if (maybeFile.exists()) {
-      return parseLocalFile(maybeFile, maybeFile.toURI().toString());
+      return new Fetched(parseLocalFile(maybeFile, maybeFile.toURI().toString()), null);
     }
 
     throw new IllegalArgumentException("Unsupported location: " + location);
@@ -392,6 +714,268 @@ public class ingest_gretl {
     }
   }
 
+  // ------------------------ Schema helper -----------------------------------
+  // Stored, weighted tsvector used by the copilot's lexical search. Being a generated column it is
+  // filled by Postgres on every insert below; this only adds it to databases created before it existed.
+  static void ensureSearchColumn(java.sql.Connection cx) throws Exception {
+    if (cx == null) return;
+    String sql = """
+      ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS search_tsv tsvector
+        GENERATED ALWAYS AS (
+          setweight(to_tsvector('german', COALESCE(heading, '')), 'A') ||
+          setweight(to_tsvector('german', COALESCE(content_text, '')), 'C')
+        ) STORED;
+      CREATE INDEX IF NOT EXISTS idx_doc_chunks_search_tsv ON rag.doc_chunks USING gin (search_tsv);
+    """;
+    try (java.sql.Statement st = cx.createStatement()) {
+      st.execute(sql);
+    }
+  }
+
+  // Resize the embedding columns to EMB_DIM. Only possible while no embeddings are stored; the
+  // quantized copies depend on the column and are recreated by ensureQuantizedColumns.
+  static void ensureEmbeddingDimension(java.sql.Connection cx) throws Exception {
+    if (cx == null) return;
+    int dim;
+    long stored;
+    try (java.sql.Statement st = cx.createStatement();
+         java.sql.ResultSet rs = st.executeQuery("""
+           SELECT (SELECT atttypmod FROM pg_attribute
+                    WHERE attrelid = 'rag.doc_chunks'::regclass AND attname = 'embedding'),
+                  (SELECT count(*) FROM rag.doc_chunks WHERE embedding IS NOT NULL)
+                + (SELECT count(*) FROM rag.task_examples WHERE embedding IS NOT NULL)
+         """)) {
+      rs.next();
+      dim = rs.getInt(1);
+      stored = rs.getLong(2);
+    }
+    if (dim == EMB_DIM) return;
+    require(stored == 0, "rag embedding columns have " + dim + " dimensions but EMB_DIM=" + EMB_DIM
+        + " – run with --truncate to re-embed everything with the new dimension");
+    String sql = """
+      ALTER TABLE rag.doc_chunks DROP COLUMN IF EXISTS embedding_half;
+      ALTER TABLE rag.doc_chunks DROP COLUMN IF EXISTS embedding_bit;
+      ALTER TABLE rag.doc_chunks    ALTER COLUMN embedding TYPE vector(%1$d);
+      ALTER TABLE rag.task_examples ALTER COLUMN embedding TYPE vector(%1$d);
+    """.formatted(EMB_DIM);
+    try (java.sql.Statement st = cx.createStatement()) {
+      st.execute(sql);
+    }
+    System.out.println("✅ Embedding columns resized from " + dim + " to " + EMB_DIM + " dimensions.");
+  }
+
+  // halfvec and binary-quantized copies of doc_chunks.embedding, sized like the embedding column and
+  // computed by Postgres for every row we insert (coarse search of copilot.finder.vector-search)
+  static void ensureQuantizedColumns(java.sql.Connection cx) throws Exception {
+    if (cx == null) return;
+    int dim;
+    try (java.sql.Statement st = cx.createStatement();
+         java.sql.ResultSet rs = st.executeQuery(
+             "SELECT atttypmod FROM pg_attribute WHERE attrelid = 'rag.doc_chunks'::regclass AND attname = 'embedding'")) {
+      dim = rs.next() ? rs.getInt(1) : -1;
+    }
+    if (dim <= 0) {
+      System.out.println("ℹ️  rag.doc_chunks.embedding has no fixed dimension – skipping quantized columns.");
+      return;
+    }
+    String sql = """
+      ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS embedding_half halfvec(%1$d)
+        GENERATED ALWAYS AS (embedding::halfvec(%1$d)) STORED;
+      ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS embedding_bit bit(%1$d)
+        GENERATED ALWAYS AS (binary_quantize(embedding)::bit(%1$d)) STORED;
+    """.formatted(dim);
+    try (java.sql.Statement st = cx.createStatement()) {
+      st.execute(sql);
+    }
+  }
+
+  // Content hashes and conditional-fetch state of incremental runs. Task properties and examples get
+  // their page, so rows of a page can be diffed and superseded like its chunks.
+  static void ensureIncrementalColumns(java.sql.Connection cx) throws Exception {
+    if (cx == null) return;
+    String sql = """
+      ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS content_hash text;
+      ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS etag text;
+      ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS links text[];
+      ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS content_hash text;
+      ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS page_id bigint REFERENCES rag.pages(id) ON DELETE CASCADE;
+      ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS content_hash text;
+      ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS page_id bigint REFERENCES rag.pages(id) ON DELETE CASCADE;
+      ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS content_hash text;
+      CREATE INDEX IF NOT EXISTS idx_doc_chunks_page_hash ON rag.doc_chunks (page_id, content_hash);
+      CREATE INDEX IF NOT EXISTS idx_task_props_page ON rag.task_properties (page_id);
+      CREATE INDEX IF NOT EXISTS idx_task_examples_page ON rag.task_examples (page_id);
+    """;
+    try (java.sql.Statement st = cx.createStatement()) {
+      st.execute(sql);
+    }
+  }
+
+  // What the previous runs stored per page: its hash and fetch state, and the hashes of its current rows.
+  record StoredPage(long id, String contentHash, String etag, java.time.OffsetDateTime fetchedAt, List<String> links,
+                    Set<String> chunkHashes, Set<String> exampleHashes) {
+    static final StoredPage NONE = new StoredPage(0, null, null, null, List.of(), Set.of(), Set.of());
+  }
+
+  static Map<String, StoredPage> loadStoredPages(java.sql.Connection cx) throws Exception {
+    Map<String, StoredPage> stored = new HashMap<>();
+    if (cx == null) return stored;
+    String sql = """
+      SELECT p.url, p.id, p.content_hash, p.etag, p.fetched_at, p.links,
+             ARRAY(SELECT c.content_hash FROM rag.doc_chunks c
+                    WHERE c.page_id = p.id AND c.content_hash IS NOT NULL AND c.superseded_in IS NULL),
+             ARRAY(SELECT e.content_hash FROM rag.task_examples e
+                    WHERE e.page_id = p.id AND e.content_hash IS NOT NULL AND e.superseded_in IS NULL)
+        FROM rag.pages p
+    """;
+    try (java.sql.Statement st = cx.createStatement();
+         java.sql.ResultSet rs = st.executeQuery(sql)) {
+      while (rs.next()) {
+        stored.put(rs.getString(1), new StoredPage(rs.getLong(2), rs.getString(3), rs.getString(4),
+            rs.getObject(5, java.time.OffsetDateTime.class), textList(rs.getArray(6)),
+            Set.copyOf(textList(rs.getArray(7))), Set.copyOf(textList(rs.getArray(8)))));
+      }
+    }
+    cx.commit();
+    return stored;
+  }
+
+  static List<String> textList(java.sql.Array array) throws Exception {
+    return array == null ? List.of() : List.of((String[]) array.getArray());
+  }
+
+  // ------------------------ Corpus versions ---------------------------------
+  // Every run writes a new corpus version next to the active one: rows it adds get the version as
+  // corpus_version, rows it replaces as superseded_in. The app only reads the rows of
+  // rag.corpus_state.active_version, so nothing of the run is visible until finish() switches the pointer
+  // and notifies the app (LISTEN rag_corpus, CorpusVersion.CHANNEL) in one transaction; the superseded rows
+  // are deleted right after. Rows of a run that did not get that far are discarded by the next one.
+  static final String CORPUS_CHANNEL = "rag_corpus";
+
+  static void ensureCorpusVersioning(java.sql.Connection cx) throws Exception {
+    if (cx == null) return;
+    String sql = """
+      CREATE TABLE IF NOT EXISTS rag.corpus_state (
+        id boolean PRIMARY KEY DEFAULT true CHECK (id),
+        active_version bigint NOT NULL,
+        activated_at timestamptz NOT NULL DEFAULT now()
+      );
+      INSERT INTO rag.corpus_state(active_version) VALUES (0) ON CONFLICT DO NOTHING;
+      ALTER TABLE rag.corpus_state ADD COLUMN IF NOT EXISTS embedding_model text;
+      ALTER TABLE rag.corpus_state ADD COLUMN IF NOT EXISTS embedding_dimensions int;
+      ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS corpus_version bigint NOT NULL DEFAULT 0;
+      ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS corpus_version bigint NOT NULL DEFAULT 0;
+      ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS superseded_in bigint;
+      ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS corpus_version bigint NOT NULL DEFAULT 0;
+      ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS superseded_in bigint;
+      ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS corpus_version bigint NOT NULL DEFAULT 0;
+      ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS superseded_in bigint;
+      CREATE INDEX IF NOT EXISTS idx_doc_chunks_version ON rag.doc_chunks (corpus_version, superseded_in);
+    """;
+    try (java.sql.Statement st = cx.createStatement()) {
+      st.execute(sql);
+    }
+  }
+
+  // Session-level advisory lock: two runs writing the same next version would corrupt each other.
+  static void lockCorpus(java.sql.Connection cx) throws Exception {
+    try (java.sql.Statement st = cx.createStatement();
+         java.sql.ResultSet rs = st.executeQuery("SELECT pg_try_advisory_lock(hashtext('rag.corpus'))")) {
+      rs.next();
+      require(rs.getBoolean(1), "another ingest is running against " + JDBC_URL);
+    }
+    cx.commit();
+  }
+
+  static final class CorpusSnapshot {
+    static final List<String> TABLES = List.of("rag.doc_chunks", "rag.task_properties", "rag.task_examples");
+
+    final java.sql.Connection cx;
+    final long active;
+    final long version;
+
+    CorpusSnapshot(java.sql.Connection cx, long active) {
+      this.cx = cx;
+      this.active = active;
+      this.version = active + 1;
+    }
+
+    // With supersedeAll (--reset) every current row is replaced, i.e. everything is embedded again.
+    static CorpusSnapshot begin(java.sql.Connection cx, boolean supersedeAll) throws Exception {
+      long active;
+      try (java.sql.Statement st = cx.createStatement();
+           java.sql.ResultSet rs = st.executeQuery("SELECT active_version FROM rag.corpus_state")) {
+        rs.next();
+        active = rs.getLong(1);
+      }
+      CorpusSnapshot snapshot = new CorpusSnapshot(cx, active);
+      int discarded = 0;
+      for (String table : TABLES) {
+        discarded += snapshot.update("DELETE FROM " + table + " WHERE corpus_version > ?", active);
+        snapshot.update("UPDATE " + table + " SET superseded_in = NULL WHERE superseded_in > ?", active);
+      }
+      // their stored hashes describe rows that were just discarded
+      snapshot.update("UPDATE rag.pages SET content_hash = NULL, etag = NULL WHERE corpus_version > ?", active);
+      int collected = snapshot.collectGarbage();
+      if (supersedeAll) {
+        for (String table : TABLES) {
+          snapshot.update("UPDATE " + table + " SET superseded_in = ? WHERE superseded_in IS NULL", snapshot.version);
+        }
+        // otherwise pages answering 304 or hashing as before would be skipped and vanish with their rows
+        snapshot.update("UPDATE rag.pages SET content_hash = NULL, etag = NULL WHERE corpus_version <= ?", active);
+      }
+      cx.commit();
+      if (discarded > 0 || collected > 0) {
+        System.out.printf(Locale.ROOT, "🧹 Discarded %d rows of an unfinished run, removed %d superseded rows.%n",
+            discarded, collected);
+      }
+      System.out.printf(Locale.ROOT, "ℹ️  Writing corpus version %d (active: %d).%n", snapshot.version, active);
+      return snapshot;
+    }
+
+    void finish(boolean changed) throws Exception {
+      if (!changed) {
+        cx.rollback();
+        System.out.printf(Locale.ROOT, "ℹ️  Nothing written – corpus version %d stays active.%n", active);
+        return;
+      }
+      // the app compares the model with its query embeddings (EmbeddingSchemaValidator)
+      try (java.sql.PreparedStatement ps = cx.prepareStatement(
+          "UPDATE rag.corpus_state SET active_version = ?, activated_at = now(), embedding_model = ?, embedding_dimensions = ?")) {
+        ps.setLong(1, version);
+        ps.setString(2, embeddingModel());
+        ps.setInt(3, EMB_DIM);
+        ps.executeUpdate();
+      }
+      try (java.sql.PreparedStatement ps = cx.prepareStatement("SELECT pg_notify(?, ?)")) {
+        ps.setString(1, CORPUS_CHANNEL);
+        ps.setString(2, Long.toString(version));
+        ps.execute();
+      }
+      cx.commit();
+      System.out.printf(Locale.ROOT, "✅ Corpus version %d active.%n", version);
+      int collected = new CorpusSnapshot(cx, version).collectGarbage();
+      cx.commit();
+      System.out.printf(Locale.ROOT, "🧹 Removed %d superseded rows.%n", collected);
+    }
+
+    // Rows superseded in the active version or before are no longer visible to anyone.
+    int collectGarbage() throws Exception {
+      int collected = 0;
+      for (String table : TABLES) {
+        collected += update("DELETE FROM " + table + " WHERE superseded_in <= ?", active);
+      }
+      return collected;
+    }
+
+    int update(String sql, long value) throws Exception {
+      try (java.sql.PreparedStatement ps = cx.prepareStatement(sql)) {
+        ps.setLong(1, value);
+        return ps.executeUpdate();
+      }
+    }
+  }
+
   // ------------------------ Whitelist helpers -------------------------------
   static boolean isAllowed(String url) {
     if (url.startsWith("file:")) return true;
@@ -406,87 +990,382 @@ public class ingest_gretl {
   }
 
   // ------------------------ DB ops ------------------------------------------
-  static long upsertPage(java.sql.Connection cx, String url, String title, String rawMd) throws Exception {
-    if (cx == null) return -1L;
-    String sql = """
-        INSERT INTO rag.pages(url,title,raw_md)
-        VALUES (?,?,?)
+  // Writes one changed page per transaction into the run's corpus version. Rows are diffed by content hash
+  // against what the page has in the active version: rows whose hash is gone (or legacy rows without one)
+  // are superseded, rows with a new hash inserted, the rest left untouched. The statements are prepared once; the new rows of a page are sent as one JDBC
+  // batch per table, or with --copy as binary COPY into temporary staging tables followed by one
+  // INSERT ... SELECT per table. Vectors are bound as PgVector, i.e. in binary form when the JDBC URL
+  // enables binary transfer for the vector OID, and never as ?::vector literals.
+  static final class PageWriter implements AutoCloseable {
+    static final String PAGE_SQL = """
+        INSERT INTO rag.pages(url,title,raw_md,content_hash,etag,links,corpus_version)
+        VALUES (?,?,?,?,?,?,?)
         ON CONFLICT (url)
-        DO UPDATE SET title=EXCLUDED.title, raw_md=EXCLUDED.raw_md, fetched_at=now()
+        DO UPDATE SET title=EXCLUDED.title, raw_md=EXCLUDED.raw_md, content_hash=EXCLUDED.content_hash,
+                      etag=EXCLUDED.etag, links=EXCLUDED.links, corpus_version=EXCLUDED.corpus_version,
+                      fetched_at=now()
         RETURNING id
       """;
-    try (java.sql.PreparedStatement ps = cx.prepareStatement(sql)) {
-      ps.setString(1, url);
-      ps.setString(2, title);
-      ps.setString(3, rawMd);
-      java.sql.ResultSet rs = ps.executeQuery();
-      rs.next();
-      return rs.getLong(1);
-    }
-  }
-
-  static void insertChunk(java.sql.Connection cx, long pageId, String task, String sectionType,
-                          String url, String anchor, String heading, String text, String mdHtml) throws Exception {
-    if (cx == null) return;
-    float[] emb = openaiEmbedPooled(heading + "\n" + text);
-    String sql = """
+    static final String SUPERSEDE_CHUNKS_SQL = """
+        UPDATE rag.doc_chunks SET superseded_in = ?
+         WHERE superseded_in IS NULL
+           AND page_id = ? AND (content_hash IS NULL OR content_hash <> ALL (?))
+      """;
+    // rows ingested before they had a page are matched by task name
+    static final String SUPERSEDE_PROPS_SQL = """
+        UPDATE rag.task_properties SET superseded_in = ?
+         WHERE superseded_in IS NULL
+           AND ((page_id = ? AND (content_hash IS NULL OR content_hash <> ALL (?)))
+                OR (page_id IS NULL AND task_name = ANY (?)))
+      """;
+    static final String SUPERSEDE_EXAMPLES_SQL = """
+        UPDATE rag.task_examples SET superseded_in = ?
+         WHERE superseded_in IS NULL
+           AND ((page_id = ? AND (content_hash IS NULL OR content_hash <> ALL (?)))
+                OR (page_id IS NULL AND task_name = ANY (?)))
+      """;
+    static final String CHUNK_SQL = """
         INSERT INTO rag.doc_chunks
-          (page_id,task_name,section_type,url,anchor,heading,content_text,content_md,embedding)
+          (page_id,corpus_version,task_name,section_type,url,anchor,heading,content_text,content_md,embedding,
+           content_hash)
         VALUES
-          (?,?,?,?,?,?,?,?, ?::vector)
+          (?,?,?,?,?,?,?,?,?,?,?)
       """;
-    try (java.sql.PreparedStatement ps = cx.prepareStatement(sql)) {
-      ps.setLong(1, pageId);
-      ps.setString(2, task);
-      ps.setString(3, sectionType);
-      ps.setString(4, url);
-      ps.setString(5, anchor);
-      ps.setString(6, heading);
-      ps.setString(7, text);
-      ps.setString(8, mdHtml);
-      ps.setString(9, vectorLiteral(emb));
-      ps.executeUpdate();
-    }
-  }
-
-  static void upsertProp(java.sql.Connection cx, String task, String name, String type,
-                         boolean req, String def, String desc, String[] enums) throws Exception {
-    if (cx == null) return;
-    String sql = """
-        INSERT INTO rag.task_properties(task_name,property_name,type,required,default_value,description,enum_values)
-        VALUES (?,?,?,?,?,?,?)
+    static final String PROP_SQL = """
+        INSERT INTO rag.task_properties
+          (page_id,corpus_version,task_name,property_name,type,required,default_value,description,enum_values,
+           content_hash)
+        VALUES (?,?,?,?,?,?,?,?,NULL,?)
+        ON CONFLICT DO NOTHING
+      """;
+    static final String EXAMPLE_SQL = """
+        INSERT INTO rag.task_examples(page_id,corpus_version,task_name,title,code_md,explanation,embedding,content_hash)
+        VALUES (?,?,?,?,?,?,?,?)
+      """;
+    static final String STAGING_DDL = """
+        CREATE TEMP TABLE IF NOT EXISTS stage_doc_chunks (
+          ord int, task_name text, section_type text, url text, anchor text, heading text,
+          content_text text, content_md text, embedding vector, content_hash text) ON COMMIT DELETE ROWS;
+        CREATE TEMP TABLE IF NOT EXISTS stage_task_properties (
+          ord int, task_name text, property_name text, type text, required boolean,
+          default_value text, description text, content_hash text) ON COMMIT DELETE ROWS;
+        CREATE TEMP TABLE IF NOT EXISTS stage_task_examples (
+          ord int, task_name text, title text, code_md text, explanation text,
+          embedding vector, content_hash text) ON COMMIT DELETE ROWS;
+      """;
+    static final String CHUNK_MERGE_SQL = """
+        INSERT INTO rag.doc_chunks
+          (page_id,corpus_version,task_name,section_type,url,anchor,heading,content_text,content_md,embedding,
+           content_hash)
+        SELECT ?, ?, task_name, section_type, url, anchor, heading, content_text, content_md, embedding, content_hash
+          FROM stage_doc_chunks ORDER BY ord
+      """;
+    static final String PROP_MERGE_SQL = """
+        INSERT INTO rag.task_properties
+          (page_id,corpus_version,task_name,property_name,type,required,default_value,description,content_hash)
+        SELECT ?, ?, task_name, property_name, type, required, default_value, description, content_hash
+          FROM stage_task_properties ORDER BY ord
         ON CONFLICT DO NOTHING
       """;
-    try (java.sql.PreparedStatement ps = cx.prepareStatement(sql)) {
-      ps.setString(1, task);
-      ps.setString(2, name);
-      ps.setString(3, type);
-      ps.setBoolean(4, req);
-      ps.setString(5, def);
-      ps.setString(6, desc);
-      if (enums == null) {
-        ps.setArray(7, null);
+    static final String EXAMPLE_MERGE_SQL = """
+        INSERT INTO rag.task_examples(page_id,corpus_version,task_name,title,code_md,explanation,embedding,content_hash)
+        SELECT ?, ?, task_name, title, code_md, explanation, embedding, content_hash
+          FROM stage_task_examples ORDER BY ord
+      """;
+
+    final java.sql.Connection cx;
+    final boolean copy;
+    final long version;
+    final Map<String, StoredPage> stored;
+    final List<java.sql.PreparedStatement> statements = new ArrayList<>();
+    java.sql.PreparedStatement pageStmt, supersedeChunksStmt, supersedePropsStmt, supersedeExamplesStmt;
+    java.sql.PreparedStatement chunkStmt, propStmt, exampleStmt;
+    org.postgresql.copy.CopyManager copyManager;
+    long pages, chunks, props, examples, superseded, writeNanos;
+
+    PageWriter(java.sql.Connection cx, boolean copy, long version, Map<String, StoredPage> stored) throws Exception {
+      this.cx = cx;
+      this.copy = copy;
+      this.version = version;
+      this.stored = stored;
+      if (cx == null) return;
+      pageStmt = prepare(PAGE_SQL);
+      supersedeChunksStmt = prepare(SUPERSEDE_CHUNKS_SQL);
+      supersedePropsStmt = prepare(SUPERSEDE_PROPS_SQL);
+      supersedeExamplesStmt = prepare(SUPERSEDE_EXAMPLES_SQL);
+      if (copy) {
+        try (java.sql.Statement st = cx.createStatement()) {
+          st.execute(STAGING_DDL);
+        }
+        cx.commit();
+        copyManager = cx.unwrap(org.postgresql.PGConnection.class).getCopyAPI();
+        chunkStmt = prepare(CHUNK_MERGE_SQL);
+        propStmt = prepare(PROP_MERGE_SQL);
+        exampleStmt = prepare(EXAMPLE_MERGE_SQL);
       } else {
-        ps.setArray(7, cx.createArrayOf("text", enums));
+        chunkStmt = prepare(CHUNK_SQL);
+        propStmt = prepare(PROP_SQL);
+        exampleStmt = prepare(EXAMPLE_SQL);
       }
-      ps.executeUpdate();
+    }
+
+    java.sql.PreparedStatement prepare(String sql) throws Exception {
+      java.sql.PreparedStatement ps = cx.prepareStatement(sql);
+      statements.add(ps);
+      return ps;
+    }
+
+    void write(Page page) throws Exception {
+      if (cx == null) {
+        print(page);
+        return;
+      }
+      StoredPage known = stored.getOrDefault(page.url(), StoredPage.NONE);
+      long start = System.nanoTime();
+      int[] counts;
+      try {
+        long pageId = upsertPage(page);
+        superseded += supersedeRemoved(pageId, page);
+        counts = copy ? copyRows(pageId, page, known) : batchRows(pageId, page, known);
+        cx.commit();
+      } catch (Exception e) {
+        cx.rollback();
+        throw e;
+      }
+      writeNanos += System.nanoTime() - start;
+      pages++;
+      chunks += counts[0];
+      props += counts[1];
+      examples += counts[2];
+    }
+
+    long upsertPage(Page page) throws Exception {
+      pageStmt.setString(1, page.url());
+      pageStmt.setString(2, page.title());
+      pageStmt.setString(3, page.rawMd());
+      pageStmt.setString(4, page.contentHash());
+      pageStmt.setString(5, page.etag());
+      pageStmt.setArray(6, cx.createArrayOf("text", page.links().toArray()));
+      pageStmt.setLong(7, version);
+      try (java.sql.ResultSet rs = pageStmt.executeQuery()) {
+        rs.next();
+        return rs.getLong(1);
+      }
+    }
+
+    // Properties belong to their section and carry its hash.
+    int supersedeRemoved(long pageId, Page page) throws Exception {
+      Set<String> sectionHashes = new LinkedHashSet<>();
+      Set<String> exampleHashes = new LinkedHashSet<>();
+      Set<String> tasks = new LinkedHashSet<>();
+      for (Section section : page.sections()) {
+        sectionHashes.add(section.hash);
+        section.props.forEach(p -> tasks.add(p.task()));
+        for (Example example : section.examples) {
+          exampleHashes.add(example.hash);
+          tasks.add(example.task);
+        }
+      }
+      java.sql.Array sectionArray = cx.createArrayOf("text", sectionHashes.toArray());
+      java.sql.Array taskArray = cx.createArrayOf("text", tasks.toArray());
+      supersedeChunksStmt.setLong(1, version);
+      supersedeChunksStmt.setLong(2, pageId);
+      supersedeChunksStmt.setArray(3, sectionArray);
+      supersedePropsStmt.setLong(1, version);
+      supersedePropsStmt.setLong(2, pageId);
+      supersedePropsStmt.setArray(3, sectionArray);
+      supersedePropsStmt.setArray(4, taskArray);
+      supersedeExamplesStmt.setLong(1, version);
+      supersedeExamplesStmt.setLong(2, pageId);
+      supersedeExamplesStmt.setArray(3, cx.createArrayOf("text", exampleHashes.toArray()));
+      supersedeExamplesStmt.setArray(4, taskArray);
+      return supersedeChunksStmt.executeUpdate() + supersedePropsStmt.executeUpdate()
+          + supersedeExamplesStmt.executeUpdate();
+    }
+
+    int[] batchRows(long pageId, Page page, StoredPage known) throws Exception {
+      int[] counts = new int[3];
+      try {
+        for (Section section : page.sections()) {
+          if (!known.chunkHashes().contains(section.hash)) {
+            System.out.println(section.heading);
+            chunkStmt.setLong(1, pageId);
+            chunkStmt.setLong(2, version);
+            chunkStmt.setString(3, section.taskName);
+            chunkStmt.setString(4, "task");
+            chunkStmt.setString(5, section.url);
+            chunkStmt.setString(6, section.anchor);
+            chunkStmt.setString(7, section.heading);
+            chunkStmt.setString(8, section.text);
+            chunkStmt.setString(9, section.html);
+            chunkStmt.setObject(10, new PgVector(section.embedding));
+            chunkStmt.setString(11, section.hash);
+            chunkStmt.addBatch();
+            counts[0]++;
+            for (Prop p : section.props) {
+              propStmt.setLong(1, pageId);
+              propStmt.setLong(2, version);
+              propStmt.setString(3, p.task());
+              propStmt.setString(4, p.name());
+              propStmt.setString(5, p.type());
+              propStmt.setBoolean(6, p.required());
+              propStmt.setString(7, p.def());
+              propStmt.setString(8, p.desc());
+              propStmt.setString(9, section.hash);
+              propStmt.addBatch();
+              counts[1]++;
+            }
+          }
+          for (Example example : section.examples) {
+            if (known.exampleHashes().contains(example.hash)) continue;
+            exampleStmt.setLong(1, pageId);
+            exampleStmt.setLong(2, version);
+            exampleStmt.setString(3, example.task);
+            exampleStmt.setString(4, example.title);
+            exampleStmt.setString(5, example.codeMd);
+            exampleStmt.setString(6, example.explanation);
+            exampleStmt.setObject(7, new PgVector(example.embedding));
+            exampleStmt.setString(8, example.hash);
+            exampleStmt.addBatch();
+            counts[2]++;
+          }
+        }
+        chunkStmt.executeBatch();
+        propStmt.executeBatch();
+        exampleStmt.executeBatch();
+      } catch (Exception e) {
+        // a failed page must not leave its rows queued for the next page's batch
+        for (java.sql.PreparedStatement stmt : List.of(chunkStmt, propStmt, exampleStmt)) {
+          try { stmt.clearBatch(); } catch (java.sql.SQLException suppressed) { e.addSuppressed(suppressed); }
+        }
+        throw e;
+      }
+      return counts;
+    }
+
+    int[] copyRows(long pageId, Page page, StoredPage known) throws Exception {
+      CopyBuffer chunkRows = new CopyBuffer();
+      CopyBuffer propRows = new CopyBuffer();
+      CopyBuffer exampleRows = new CopyBuffer();
+      int[] counts = new int[3];
+      for (Section section : page.sections()) {
+        if (!known.chunkHashes().contains(section.hash)) {
+          System.out.println(section.heading);
+          chunkRows.row(10).int4(counts[0]++).text(section.taskName).text("task").text(section.url)
+              .text(section.anchor).text(section.heading).text(section.text).text(section.html)
+              .vector(section.embedding).text(section.hash);
+          for (Prop p : section.props) {
+            propRows.row(8).int4(counts[1]++).text(p.task()).text(p.name()).text(p.type())
+                .bool(p.required()).text(p.def()).text(p.desc()).text(section.hash);
+          }
+        }
+        for (Example example : section.examples) {
+          if (known.exampleHashes().contains(example.hash)) continue;
+          exampleRows.row(7).int4(counts[2]++).text(example.task).text(example.title).text(example.codeMd)
+              .text(example.explanation).vector(example.embedding).text(example.hash);
+        }
+      }
+      if (counts[0] > 0) {
+        copyManager.copyIn("COPY stage_doc_chunks FROM STDIN (FORMAT binary)", chunkRows.finish());
+        chunkStmt.setLong(1, pageId);
+        chunkStmt.setLong(2, version);
+        chunkStmt.executeUpdate();
+      }
+      if (counts[1] > 0) {
+        copyManager.copyIn("COPY stage_task_properties FROM STDIN (FORMAT binary)", propRows.finish());
+        propStmt.setLong(1, pageId);
+        propStmt.setLong(2, version);
+        propStmt.executeUpdate();
+      }
+      if (counts[2] > 0) {
+        copyManager.copyIn("COPY stage_task_examples FROM STDIN (FORMAT binary)", exampleRows.finish());
+        exampleStmt.setLong(1, pageId);
+        exampleStmt.setLong(2, version);
+        exampleStmt.executeUpdate();
+      }
+      return counts;
+    }
+
+    void print(Page page) {
+      for (Section section : page.sections()) {
+        System.out.println(section.heading);
+        System.out.printf(Locale.ROOT, "→ Section [%s] %s%n", section.heading, section.url);
+        for (Prop p : section.props) {
+          System.out.printf(Locale.ROOT, "   · %s (%s) required=%s%n", p.name(), p.type(), p.required());
+        }
+      }
+    }
+
+    void printStats(long wallNanos) {
+      if (cx == null) return;
+      long rows = pages + chunks + props + examples;
+      double wall = wallNanos / 1e9;
+      double write = writeNanos / 1e9;
+      System.out.printf(Locale.ROOT,
+          "📊 %d rows (%d pages, %d chunks, %d properties, %d examples, %d superseded) via %s in %.1f s: "
+              + "%.0f rows/s overall, %.1f s writing (%.0f rows/s)%n",
+          rows, pages, chunks, props, examples, superseded, copy ? "COPY" : "JDBC batches", wall, rows / Math.max(wall, 1e-9),
+          write, rows / Math.max(write, 1e-9));
+    }
+
+    @Override
+    public void close() throws Exception {
+      for (java.sql.PreparedStatement ps : statements) ps.close();
     }
   }
 
-  static void insertExample(java.sql.Connection cx, String task, String title, String codeMd, String expl) throws Exception {
-    if (cx == null) return;
-    float[] emb = openaiEmbedPooled(title + "\n" + codeMd + (expl == null ? "" : "\n" + expl));
-    String sql = """
-        INSERT INTO rag.task_examples(task_name,title,code_md,explanation,embedding)
-        VALUES (?,?,?,?, ?::vector)
-      """;
-    try (java.sql.PreparedStatement ps = cx.prepareStatement(sql)) {
-      ps.setString(1, task);
-      ps.setString(2, title);
-      ps.setString(3, codeMd);
-      ps.setString(4, expl);
-      ps.setString(5, vectorLiteral(emb));
-      ps.executeUpdate();
+  // Rows in PostgreSQL's binary COPY format: signature and header, then per row the field count and
+  // length-prefixed values (-1 for NULL), and a -1 trailer. Vectors use vector_recv's layout (PgVector).
+  static final class CopyBuffer {
+    final java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+    final java.io.DataOutputStream out = new java.io.DataOutputStream(bytes);
+
+    CopyBuffer() throws java.io.IOException {
+      out.write(new byte[] {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0});
+      out.writeInt(0); // flags
+      out.writeInt(0); // header extension length
+    }
+
+    CopyBuffer row(int fields) throws java.io.IOException { out.writeShort(fields); return this; }
+
+    CopyBuffer int4(int value) throws java.io.IOException { out.writeInt(4); out.writeInt(value); return this; }
+
+    CopyBuffer bool(boolean value) throws java.io.IOException { out.writeInt(1); out.writeByte(value ? 1 : 0); return this; }
+
+    CopyBuffer text(String value) throws java.io.IOException {
+      if (value == null) { out.writeInt(-1); return this; }
+      byte[] utf8 = value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+      return this;
+    }
+
+    CopyBuffer vector(float[] value) throws java.io.IOException {
+      if (value == null) { out.writeInt(-1); return this; }
+      PgVector vector = new PgVector(value);
+      byte[] binary = new byte[vector.lengthInBytes()];
+      vector.toBytes(binary, 0);
+      out.writeInt(binary.length);
+      out.write(binary);
+      return this;
+    }
+
+    java.io.InputStream finish() throws java.io.IOException {
+      out.writeShort(-1);
+      return new java.io.ByteArrayInputStream(bytes.toByteArray());
+    }
+  }
+
+  // ------------------------ Local Embeddings --------------------------------
+  // The model the app uses with copilot.embedding.backend=local, loaded on first use. The ONNX session is
+  // thread-safe; EMBED_CONCURRENCY bounds the parallel calls, best kept near the number of cores. Texts
+  // longer than the model's 512 tokens are split and mean-pooled by the model, like openaiEmbedPooled.
+  static final class LocalEmbeddings {
+    static final dev.langchain4j.model.embedding.EmbeddingModel MODEL =
+        new dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel();
+
+    static float[] embed(String text) {
+      return MODEL.embed(text.replaceAll("\\s+", " ").trim()).content().vector();
     }
   }
 
@@ -497,6 +1376,7 @@ public class ingest_gretl {
     }
     ObjectNode req = mapper.createObjectNode();
     req.put("model", OPENAI_EMB_MODEL);
+    req.put("dimensions", EMB_DIM);
     req.put("input", text.replaceAll("\\s+", " ").trim());
 
     Request request = new Request.Builder()
@@ -514,12 +1394,28 @@ public class ingest_gretl {
       JsonNode root = mapper.readTree(resp.body().byteStream());
       JsonNode arr = root.path("data").get(0).path("embedding");
       if (!arr.isArray()) throw new RuntimeException("Unexpected embedding response");
-      int n = arr.size();
-      float[] out = new float[EMB_DIM];
-      for (int i = 0; i < EMB_DIM; i++) {
-        out[i] = (i < n) ? (float) arr.get(i).asDouble() : 0.0f; // truncate/pad
+      float[] out = new float[arr.size()];
+      for (int i = 0; i < out.length; i++) {
+        out[i] = (float) arr.get(i).asDouble();
       }
-      return out;
+      return EmbeddingDimensions.fit(out, EMB_DIM);
+    }
+  }
+
+  // Concurrent embedding can hit the OpenAI rate limit: retry 429 and 5xx with backoff (or Retry-After).
+  static final int OPENAI_MAX_ATTEMPTS = Integer.parseInt(env("OPENAI_MAX_ATTEMPTS", "5"));
+
+  static Response executeWithRetry(Request request) throws Exception {
+    for (int attempt = 1; ; attempt++) {
+      Response resp = http.newCall(request).execute();
+      boolean retryable = resp.code() == 429 || resp.code() >= 500;
+      if (!retryable || attempt >= OPENAI_MAX_ATTEMPTS) return resp;
+      String retryAfter = resp.header("Retry-After");
+      resp.close();
+      long waitMs = retryAfter != null && retryAfter.matches("\\d+")
+          ? Long.parseLong(retryAfter) * 1000
+          : (500L << (attempt - 1)) + ThreadLocalRandom.current().nextLong(250);
+      Thread.sleep(waitMs);
     }
   }
 
@@ -587,18 +1483,6 @@ public class ingest_gretl {
     return false;
   }
 
-  // pgvector helper: build "[0.1,0.2,...]" without Arrays.stream on float[]
-  static String vectorLiteral(float[] v) {
-    StringBuilder sb = new StringBuilder(16 * v.length);
-    sb.append('[');
-    for (int i = 0; i < v.length; i++) {
-      if (i > 0) sb.append(',');
-      sb.append(String.format(Locale.ROOT, "%.6f", v[i]));
-    }
-    sb.append(']');
-    return sb.toString();
-  }
-
 // ===== Embedding split/pooling config =====
 static final int   MAX_TOKENS_PER_INPUT = 7500;  // leave headroom under 8192
 static final int   CHARS_PER_TOKEN      = 4;     // rough heuristic
@@ -673,6 +1557,9 @@ static List<String> splitForEmbedding(String raw) {
   // Mean-pool embeddings across pieces.
   // Sends a single API call with "input": [piece1, piece2, ...]
   static float[] openaiEmbedPooled(String text) throws Exception {
+    if (!openaiEnabled) {
+      return new float[EMB_DIM];
+    }
     List<String> inputs = splitForEmbedding(text);
     // Build JSON: { model, input: [ ... ] }
     ArrayNode inputArr = mapper.createArrayNode();
@@ -680,6 +1567,7 @@ static List<String> splitForEmbedding(String raw) {
 
     ObjectNode req = mapper.createObjectNode();
     req.put("model", OPENAI_EMB_MODEL);
+    req.put("dimensions", EMB_DIM);
     req.set("input", inputArr);
 
     Request request = new Request.Builder()
@@ -689,7 +1577,7 @@ static List<String> splitForEmbedding(String raw) {
         .post(RequestBody.create(req.toString(), MediaType.parse("application/json")))
         .build();
 
-    try (Response resp = http.newCall(request).execute()) {
+    try (Response resp = executeWithRetry(request)) {
       if (!resp.isSuccessful()) {
         String body = resp.body() != null ? resp.body().string() : "";
         throw new RuntimeException("OpenAI error " + resp.code() + ": " + body);
@@ -700,27 +1588,24 @@ static List<String> splitForEmbedding(String raw) {
 
       // Determine output dimension from first vector
       int dim = data.get(0).path("embedding").size();
-      // Conform to configured EMB_DIM (truncate/pad)
-      float[] sum = new float[Math.max(EMB_DIM, dim)];
+      float[] sum = new float[dim];
       int count = 0;
 
       for (JsonNode item : data) {
         JsonNode v = item.path("embedding");
         if (!v.isArray()) continue;
-        for (int i = 0; i < v.size(); i++) {
+        for (int i = 0; i < Math.min(dim, v.size()); i++) {
           sum[i] += (float) v.get(i).asDouble();
         }
         count++;
       }
       if (count == 0) throw new RuntimeException("No embeddings returned");
 
-      // Mean pool and shape to EMB_DIM
-      float[] out = new float[EMB_DIM];
-      for (int i = 0; i < EMB_DIM; i++) {
-        float val = (i < sum.length ? sum[i] : 0f) / count;
-        out[i] = val;
+      // Mean pool, then cut to EMB_DIM and re-normalize (the mean of unit vectors is shorter than 1)
+      for (int i = 0; i < dim; i++) {
+        sum[i] /= count;
       }
-      return out;
+      return EmbeddingDimensions.fit(sum, EMB_DIM);
     }
   }
 }
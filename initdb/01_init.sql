@@ -48,10 +48,67 @@ CREATE TABLE IF NOT EXISTS rag.task_examples (
 CREATE INDEX IF NOT EXISTS idx_doc_chunks_task_section ON rag.doc_chunks (task_name, section_type);
 CREATE INDEX IF NOT EXISTS idx_task_props ON rag.task_properties (task_name, property_name);
 
+-- Weighted full-text vector (heading 'A', content 'C'), kept up to date by Postgres
+ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS search_tsv tsvector
+  GENERATED ALWAYS AS (
+    setweight(to_tsvector('german', COALESCE(heading, '')), 'A') ||
+    setweight(to_tsvector('german', COALESCE(content_text, '')), 'C')
+  ) STORED;
+CREATE INDEX IF NOT EXISTS idx_doc_chunks_search_tsv ON rag.doc_chunks USING gin (search_tsv);
+
+-- Incremental ingest: content hashes of pages and rows, conditional-fetch state, and the page of
+-- properties/examples so that ingest_gretl.java can diff and delete the rows of a changed page
+ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS content_hash TEXT;
+ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS etag TEXT;
+ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS links TEXT[];
+ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS content_hash TEXT;
+ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS page_id BIGINT REFERENCES rag.pages(id) ON DELETE CASCADE;
+ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS content_hash TEXT;
+ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS page_id BIGINT REFERENCES rag.pages(id) ON DELETE CASCADE;
+ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS content_hash TEXT;
+CREATE INDEX IF NOT EXISTS idx_doc_chunks_page_hash ON rag.doc_chunks (page_id, content_hash);
+CREATE INDEX IF NOT EXISTS idx_task_props_page ON rag.task_properties (page_id);
+CREATE INDEX IF NOT EXISTS idx_task_examples_page ON rag.task_examples (page_id);
+
+-- Corpus versions: the app only reads rows with corpus_version <= active_version that are not superseded_in
+-- a version <= active_version. ingest_gretl.java writes each run as active_version + 1 and switches the pointer
+-- (with NOTIFY rag_corpus) once the run is complete.
+CREATE TABLE IF NOT EXISTS rag.corpus_state (
+  id BOOLEAN PRIMARY KEY DEFAULT true CHECK (id),
+  active_version BIGINT NOT NULL,
+  activated_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+  -- model and dimension the active version was embedded with (checked by the app's EmbeddingSchemaValidator)
+  embedding_model TEXT,
+  embedding_dimensions INT
+);
+INSERT INTO rag.corpus_state(active_version) VALUES (0) ON CONFLICT DO NOTHING;
+ALTER TABLE rag.pages ADD COLUMN IF NOT EXISTS corpus_version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS corpus_version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS superseded_in BIGINT;
+ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS corpus_version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE rag.task_properties ADD COLUMN IF NOT EXISTS superseded_in BIGINT;
+ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS corpus_version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE rag.task_examples ADD COLUMN IF NOT EXISTS superseded_in BIGINT;
+CREATE INDEX IF NOT EXISTS idx_doc_chunks_version ON rag.doc_chunks (corpus_version, superseded_in);
+
 -- Vector indexes (create after data is loaded; lists depends on dataset size)
 --CREATE INDEX idx_doc_chunks_embed ON rag.doc_chunks USING ivfflat (embedding vector_cosine_ops) WITH (lists = 100);
 --CREATE INDEX idx_task_examples_embed ON rag.task_examples USING ivfflat (embedding vector_cosine_ops) WITH (lists = 100);
 
--- text-embedding-3-large
+-- text-embedding-3-large. The dimension must equal openai.embedding-dimensions of the app and EMB_DIM of
+-- ingest_gretl.java (the model returns shortened vectors on request, e.g. 1024). pgvector indexes vector
+-- columns only up to 2000 dimensions; below that limit an HNSW index on embedding itself is possible:
+--CREATE INDEX idx_doc_chunks_embed_hnsw ON rag.doc_chunks USING hnsw (embedding vector_cosine_ops);
 ALTER TABLE rag.doc_chunks    ALTER COLUMN embedding TYPE vector(3072);
 ALTER TABLE rag.task_examples ALTER COLUMN embedding TYPE vector(3072);
+
+-- Quantized copies of the embedding for the coarse semantic search (copilot.finder.vector-search=halfvec|binary,
+-- pgvector >= 0.7). halfvec halves, bit (sign of each dimension) shrinks the scanned data 32x; the app re-ranks the
+-- coarse candidates with the exact distance on embedding.
+ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS embedding_half halfvec(3072)
+  GENERATED ALWAYS AS (embedding::halfvec(3072)) STORED;
+ALTER TABLE rag.doc_chunks ADD COLUMN IF NOT EXISTS embedding_bit bit(3072)
+  GENERATED ALWAYS AS (binary_quantize(embedding)::bit(3072)) STORED;
+-- Optional ANN indexes on the quantized columns; hnsw.ef_search must then be at least the coarse candidate count
+--CREATE INDEX idx_doc_chunks_embed_half ON rag.doc_chunks USING hnsw (embedding_half halfvec_cosine_ops);
+--CREATE INDEX idx_doc_chunks_embed_bit ON rag.doc_chunks USING hnsw (embedding_bit bit_hamming_ops);
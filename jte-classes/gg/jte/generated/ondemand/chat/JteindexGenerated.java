@@ -0,0 +1,26 @@
+package gg.jte.generated.ondemand.chat;
+@SuppressWarnings("unchecked")
+public final class JteindexGenerated {
+	public static final String JTE_NAME = "chat/index.jte";
+	public static final int[] JTE_LINE_INFO = {0,0,0,0,0,165,165,165,165,165,175,175,175,175,175,175,175,175,175,185,185,185,0,0,0,0};
+	public static void render(gg.jte.html.HtmlTemplateOutput jteOutput, gg.jte.html.HtmlInterceptor jteHtmlInterceptor, String clientId) {
+		jteOutput.writeContent("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n    <meta charset=\"UTF-8\">\n    <title>GRETL Copilot Chat</title>\n    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">\n    <style>\n        :root {\n            color-scheme: light dark;\n            font-family: \"Segoe UI\", Roboto, sans-serif;\n            background-color: #f5f5f5;\n            color: #1f2933;\n        }\n\n        body {\n            margin: 0;\n            padding: 0;\n            display: flex;\n            justify-content: center;\n            background: linear-gradient(180deg, #f5f5f5 0%, #dce7f7 100%);\n        }\n\n        .chat-shell {\n            width: min(900px, 100%);\n            min-height: 100vh;\n            display: flex;\n            flex-direction: column;\n            padding: 2rem 1.5rem 3rem;\n            box-sizing: border-box;\n        }\n\n        h1 {\n            margin-top: 0;\n            font-size: 2rem;\n            font-weight: 600;\n            text-align: center;\n            color: #133c82;\n        }\n\n        .conversation {\n            flex: 1;\n            overflow-y: auto;\n            background-color: rgba(255, 255, 255, 0.85);\n            border-radius: 12px;\n            padding: 1.5rem;\n            box-shadow: 0 10px 30px rgba(19, 60, 130, 0.08);\n            display: flex;\n            flex-direction: column;\n            gap: 1rem;\n        }\n\n        .conversation::-webkit-scrollbar {\n            width: 10px;\n        }\n\n        .conversation::-webkit-scrollbar-thumb {\n            background-color: rgba(19, 60, 130, 0.3);\n            border-radius: 5px;\n        }\n\n        .message {\n            border-radius: 10px;\n            padding: 0.75rem 1rem;\n            box-shadow: 0 4px 10px rgba(0, 0, 0, 0.05);\n            line-height: 1.5;\n        }\n\n        .message-body {\n            white-space: normal;\n        }\n\n        .message-user {\n            align-self: flex-end;\n            background-color: #133c82;\n            color: #ffffff;\n        }\n\n        .message-assistant {\n            align-self: flex-start;\n            background-color: #ffffff;\n            border: 1px solid rgba(19, 60, 130, 0.2);\n        }\n\n        .message-system {\n            align-self: center;\n            background-color: #fdecea;\n            color: #7a271a;\n            border: 1px solid #f8b4a0;\n        }\n\n        .message-meta {\n            font-size: 0.8rem;\n            font-weight: 600;\n            text-transform: uppercase;\n            letter-spacing: 0.08em;\n            margin-bottom: 0.3rem;\n        }\n\n        .composer {\n            margin-top: 1.5rem;\n            display: grid;\n            gap: 0.75rem;\n        }\n\n        .composer label {\n            font-weight: 600;\n            color: #133c82;\n        }\n\n        .composer textarea {\n            resize: vertical;\n            min-height: 120px;\n            border-radius: 10px;\n            padding: 1rem;\n            border: 1px solid rgba(19, 60, 130, 0.25);\n            font: inherit;\n        }\n\n        .composer textarea:focus {\n            outline: 3px solid rgba(19, 60, 130, 0.2);\n        }\n\n        .composer button {\n            justify-self: flex-end;\n            background-color: #133c82;\n            color: #ffffff;\n            border: none;\n            padding: 0.75rem 1.75rem;\n            font-size: 1rem;\n            border-radius: 999px;\n            cursor: pointer;\n            transition: transform 0.15s ease, box-shadow 0.15s ease;\n        }\n\n        .composer button:hover,\n        .composer button:focus {\n            transform: translateY(-1px);\n            box-shadow: 0 8px 16px rgba(19, 60, 130, 0.18);\n        }\n\n        .empty-state {\n            text-align: center;\n            color: rgba(19, 60, 130, 0.6);\n            margin-top: auto;\n        }\n\n        @media (max-width: 600px) {\n            .chat-shell {\n                padding: 1.5rem 1rem 2rem;\n            }\n\n            h1 {\n                font-size: 1.6rem;\n            }\n        }\n    </style>\n</head>\n<body>\n<main class=\"chat-shell\">\n    <h1>GRETL Copilot</h1>\n    <div id=\"conversation\"\n         class=\"conversation\"\n         hx-ext=\"sse\"\n         hx-swap=\"beforeend\"\n         sse-connect=\"/ui/chat/stream/");
+		jteOutput.setContext("div", "sse-connect");
+		jteOutput.writeUserContent(clientId);
+		jteOutput.setContext("div", null);
+		jteOutput.writeContent("\"\n         sse-swap=\"message\"\n         sse-target=\"#conversation\">\n        <div class=\"empty-state\" id=\"empty-state\">Start a conversation to see responses from the GRETL copilot.</div>\n    </div>\n    <form class=\"composer\"\n          hx-post=\"/ui/chat/messages\"\n          hx-target=\"#conversation\"\n          hx-swap=\"beforeend\"\n          hx-on::after-request=\"if(event.detail.successful){const input=document.getElementById('message');if(input){input.value='';input.focus();}}\">\n        <input type=\"hidden\" name=\"clientId\" id=\"clientId\"");
+		var __jte_html_attribute_0 = clientId;
+		if (gg.jte.runtime.TemplateUtils.isAttributeRendered(__jte_html_attribute_0)) {
+			jteOutput.writeContent(" value=\"");
+			jteOutput.setContext("input", "value");
+			jteOutput.writeUserContent(__jte_html_attribute_0);
+			jteOutput.setContext("input", null);
+			jteOutput.writeContent("\"");
+		}
+		jteOutput.writeContent(">\n        <label for=\"message\">Your request</label>\n        <textarea id=\"message\" name=\"message\" placeholder=\"Ask for GRETL tasks, explanations, or new ideas.\" required></textarea>\n        <button type=\"submit\">Send</button>\n    </form>\n</main>\n<script src=\"https://unpkg.com/htmx.org@2.0.8\"></script>\n<script src=\"https://cdn.jsdelivr.net/npm/htmx-ext-sse@2.2.4/sse.min.js\"></script>\n</body>\n</html>\n");
+	}
+	public static void renderMap(gg.jte.html.HtmlTemplateOutput jteOutput, gg.jte.html.HtmlInterceptor jteHtmlInterceptor, java.util.Map<String, Object> params) {
+		String clientId = (String)params.get("clientId");
+		render(jteOutput, jteHtmlInterceptor, clientId);
+	}
+}
@@ -0,0 +1,45 @@
+package gg.jte.generated.ondemand.chat;
+@SuppressWarnings("unchecked")
+public final class JtemessageGenerated {
+	public static final String JTE_NAME = "chat/message.jte";
+	public static final int[] JTE_LINE_INFO = {0,0,0,0,0,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,2,2,2,3,3,3,3,3,3,3,3,3,3,3,3,5,5,5,0,0,0,0};
+	public static void render(gg.jte.html.HtmlTemplateOutput jteOutput, gg.jte.html.HtmlInterceptor jteHtmlInterceptor, ch.so.agi.gretl.copilot.chat.view.ChatMessageView message) {
+		jteOutput.writeContent("<div");
+		var __jte_html_attribute_0 = message.cssClass();
+		if (gg.jte.runtime.TemplateUtils.isAttributeRendered(__jte_html_attribute_0)) {
+			jteOutput.writeContent(" class=\"");
+			jteOutput.setContext("div", "class");
+			jteOutput.writeUserContent(__jte_html_attribute_0);
+			jteOutput.setContext("div", null);
+			jteOutput.writeContent("\"");
+		}
+		var __jte_html_attribute_1 = message.id();
+		if (gg.jte.runtime.TemplateUtils.isAttributeRendered(__jte_html_attribute_1)) {
+			jteOutput.writeContent(" id=\"");
+			jteOutput.setContext("div", "id");
+			jteOutput.writeUserContent(__jte_html_attribute_1);
+			jteOutput.setContext("div", null);
+			jteOutput.writeContent("\"");
+		}
+		jteOutput.writeContent(">\n    <div class=\"message-meta\">");
+		jteOutput.setContext("div", null);
+		jteOutput.writeUserContent(message.header());
+		jteOutput.writeContent("</div>\n    <div class=\"message-body\"");
+		var __jte_html_attribute_2 = message.bodyId();
+		if (gg.jte.runtime.TemplateUtils.isAttributeRendered(__jte_html_attribute_2)) {
+			jteOutput.writeContent(" id=\"");
+			jteOutput.setContext("div", "id");
+			jteOutput.writeUserContent(__jte_html_attribute_2);
+			jteOutput.setContext("div", null);
+			jteOutput.writeContent("\"");
+		}
+		jteOutput.writeContent(">");
+		jteOutput.setContext("div", null);
+		jteOutput.writeUserContent(message.templateContent());
+		jteOutput.writeContent("</div>\n</div>\n");
+	}
+	public static void renderMap(gg.jte.html.HtmlTemplateOutput jteOutput, gg.jte.html.HtmlInterceptor jteHtmlInterceptor, java.util.Map<String, Object> params) {
+		ch.so.agi.gretl.copilot.chat.view.ChatMessageView message = (ch.so.agi.gretl.copilot.chat.view.ChatMessageView)params.get("message");
+		render(jteOutput, jteHtmlInterceptor, message);
+	}
+}
@@ -0,0 +1,511 @@
+///usr/bin/env jbang "$0" "$@" ; exit $?
+//JAVA 21+
+//DEPS com.fasterxml.jackson.core:jackson-databind:2.17.1
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the chat UI without OpenAI.
+ *
+ *   jbang loadtest_gretl.java stub   # OpenAI-compatible stub server (chat completions, streaming, embeddings)
+ *   jbang loadtest_gretl.java run    # drives /ui/chat/messages + /ui/chat/stream/{clientId}, prints p50/p95/p99
+ *
+ * Start the app against the stub with OPENAI_API_KEY=stub GRETL_OPENAI_BASE_URL=http://localhost:8089/v1.
+ * Latencies are distributions: "fixed:200", "uniform:100-400", "normal:300,80" or
+ * "lognormal:300,0.5" (median in ms, sigma); all values in milliseconds.
+ */
+public class loadtest_gretl {
+  // ----- Stub server ----------------------------------------------------------
+  static final int    STUB_PORT              = Integer.parseInt(env("STUB_PORT", "8089"));
+  // Time until the first token (streaming) or until the first token of a complete answer
+  static final String STUB_CHAT_LATENCY      = env("STUB_CHAT_LATENCY", "lognormal:600,0.4");
+  // Time between two streamed tokens; also added per token to non-streamed answers
+  static final String STUB_TOKEN_INTERVAL    = env("STUB_TOKEN_INTERVAL", "normal:25,8");
+  static final int    STUB_ANSWER_TOKENS     = Integer.parseInt(env("STUB_ANSWER_TOKENS", "150"));
+  static final String STUB_EMBEDDING_LATENCY = env("STUB_EMBEDDING_LATENCY", "lognormal:150,0.3");
+  static final int    STUB_EMBEDDING_DIM     = Integer.parseInt(env("STUB_EMBEDDING_DIMENSIONS", "3072"));
+  // Share of requests answered with one of STUB_ERROR_STATUS (comma-separated), e.g. 0.02 and "429,500"
+  static final double STUB_ERROR_RATE        = Double.parseDouble(env("STUB_ERROR_RATE", "0"));
+  static final String STUB_ERROR_STATUS      = env("STUB_ERROR_STATUS", "429,500");
+  // Share of streamed answers whose connection is dropped halfway through
+  static final double STUB_STREAM_ABORT_RATE = Double.parseDouble(env("STUB_STREAM_ABORT_RATE", "0"));
+
+  // ----- Load driver ----------------------------------------------------------
+  static final String LOAD_URL         = env("LOAD_URL", "http://localhost:8080");
+  static final int    LOAD_CONCURRENCY = Integer.parseInt(env("LOAD_CONCURRENCY", "8"));
+  static final Duration LOAD_DURATION  = Duration.parse(env("LOAD_DURATION", "PT60S"));
+  static final Duration LOAD_WARMUP    = Duration.parse(env("LOAD_WARMUP", "PT10S"));
+  static final Duration LOAD_TIMEOUT   = Duration.parse(env("LOAD_TIMEOUT", "PT120S"));
+  // File with one message per line; default: built-in mix of find/explain/generate questions
+  static final String LOAD_MESSAGES    = env("LOAD_MESSAGES", "");
+  // Append a counter to every message, so neither single flight nor the answer cache can share answers
+  static final boolean LOAD_UNIQUE     = Boolean.parseBoolean(env("LOAD_UNIQUE", "true"));
+
+  static final List<String> DEFAULT_MESSAGES = List.of(
+      "Wie importiere ich INTERLIS-Daten in die Datenbank?",
+      "Welcher Task exportiert eine Tabelle als CSV-Datei?",
+      "Ich muss eine XTF-Datei validieren. Welcher Task passt?",
+      "Erkläre mir den Task Ili2pgImport.",
+      "Erkläre die Parameter von SqlExecutor.",
+      "Erstelle einen Task, der eine GeoPackage-Datei in Postgres importiert.",
+      "Erstelle einen Gradle-Task, der Dateien per FTP hochlädt.");
+
+  static final String[] WORDS = (
+      "Der Task liest die Daten aus der Quelle und schreibt sie in das Ziel . Mit dem Parameter "
+      + "`database` wird die Verbindung angegeben , mit `dataFile` die Datei . Optional lässt sich "
+      + "das Modell über `models` festlegen . Fehler werden im Log ausgegeben und brechen den Job ab .").split(" ");
+
+  static final ObjectMapper mapper = new ObjectMapper();
+
+  public static void main(String[] args) throws Exception {
+    String mode = args.length == 0 ? "" : args[0];
+    switch (mode) {
+      case "stub" -> stub();
+      case "run" -> run();
+      default -> {
+        System.err.println("Usage: jbang loadtest_gretl.java stub|run (configuration via environment, see source)");
+        System.exit(2);
+      }
+    }
+  }
+
+  // ===== Stub server ==========================================================
+
+  static void stub() throws IOException {
+    Latency chatLatency = Latency.parse(STUB_CHAT_LATENCY);
+    Latency tokenInterval = Latency.parse(STUB_TOKEN_INTERVAL);
+    Latency embeddingLatency = Latency.parse(STUB_EMBEDDING_LATENCY);
+    int[] errorStatus = Arrays.stream(STUB_ERROR_STATUS.split(",")).map(String::trim)
+        .filter(s -> !s.isEmpty()).mapToInt(Integer::parseInt).toArray();
+
+    HttpServer server = HttpServer.create(new InetSocketAddress(STUB_PORT), 512);
+    server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    server.createContext("/", exchange -> {
+      try (exchange) {
+        String path = exchange.getRequestURI().getPath();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+          sendJson(exchange, 405, error("Only POST is supported"));
+        } else if (injectError(exchange, errorStatus)) {
+          // answered with an error
+        } else if (path.endsWith("/chat/completions")) {
+          chatCompletion(exchange, chatLatency, tokenInterval);
+        } else if (path.endsWith("/embeddings")) {
+          embeddings(exchange, embeddingLatency);
+        } else {
+          sendJson(exchange, 404, error("Unknown endpoint " + path));
+        }
+      } catch (IOException ex) {
+        // client went away, e.g. a cancelled chat request
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    server.start();
+    System.out.printf("OpenAI stub listening on http://localhost:%d/v1 (chat %s, token %s, embeddings %s, errors %.1f%%)%n",
+        STUB_PORT, STUB_CHAT_LATENCY, STUB_TOKEN_INTERVAL, STUB_EMBEDDING_LATENCY, STUB_ERROR_RATE * 100);
+  }
+
+  static boolean injectError(HttpExchange exchange, int[] errorStatus) throws IOException {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (errorStatus.length == 0 || random.nextDouble() >= STUB_ERROR_RATE) {
+      return false;
+    }
+    exchange.getRequestBody().readAllBytes();
+    int status = errorStatus[random.nextInt(errorStatus.length)];
+    sendJson(exchange, status, error("Injected error " + status));
+    return true;
+  }
+
+  static void chatCompletion(HttpExchange exchange, Latency chatLatency, Latency tokenInterval)
+      throws IOException, InterruptedException {
+    JsonNode request = mapper.readTree(exchange.getRequestBody());
+    String model = request.path("model").asText("gpt-4o-mini");
+    boolean stream = request.path("stream").asBoolean(false);
+    List<String> tokens = answerTokens(request.path("messages"));
+    String id = "chatcmpl-" + UUID.randomUUID();
+    long created = System.currentTimeMillis() / 1000;
+
+    Thread.sleep(chatLatency.nextMillis());
+    if (!stream) {
+      for (int i = 1; i < tokens.size(); i++) {
+        Thread.sleep(tokenInterval.nextMillis());
+      }
+      ObjectNode response = mapper.createObjectNode()
+          .put("id", id).put("object", "chat.completion").put("created", created).put("model", model);
+      ObjectNode choice = response.putArray("choices").addObject().put("index", 0).put("finish_reason", "stop");
+      choice.putObject("message").put("role", "assistant").put("content", String.join("", tokens));
+      usage(response, request, tokens.size());
+      sendJson(exchange, 200, response);
+      return;
+    }
+
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+    exchange.sendResponseHeaders(200, 0);
+    OutputStream out = exchange.getResponseBody();
+    boolean abort = ThreadLocalRandom.current().nextDouble() < STUB_STREAM_ABORT_RATE;
+    for (int i = 0; i < tokens.size(); i++) {
+      if (i > 0) {
+        Thread.sleep(tokenInterval.nextMillis());
+      }
+      if (abort && i == tokens.size() / 2) {
+        out.close();
+        return;
+      }
+      ObjectNode chunk = chunk(id, created, model);
+      ObjectNode choice = (ObjectNode) chunk.get("choices").get(0);
+      ObjectNode delta = choice.putObject("delta");
+      if (i == 0) {
+        delta.put("role", "assistant");
+      }
+      delta.put("content", tokens.get(i));
+      choice.putNull("finish_reason");
+      writeEvent(out, mapper.writeValueAsString(chunk));
+    }
+    ObjectNode last = chunk(id, created, model);
+    ObjectNode lastChoice = (ObjectNode) last.get("choices").get(0);
+    lastChoice.putObject("delta");
+    lastChoice.put("finish_reason", "stop");
+    if (request.path("stream_options").path("include_usage").asBoolean(false)) {
+      usage(last, request, tokens.size());
+    }
+    writeEvent(out, mapper.writeValueAsString(last));
+    writeEvent(out, "[DONE]");
+  }
+
+  static void embeddings(HttpExchange exchange, Latency latency) throws IOException, InterruptedException {
+    JsonNode request = mapper.readTree(exchange.getRequestBody());
+    List<String> inputs = new ArrayList<>();
+    JsonNode input = request.path("input");
+    if (input.isArray()) {
+      input.forEach(node -> inputs.add(node.asText()));
+    } else {
+      inputs.add(input.asText());
+    }
+    int dimensions = request.path("dimensions").asInt(STUB_EMBEDDING_DIM);
+    boolean base64 = "base64".equals(request.path("encoding_format").asText());
+
+    Thread.sleep(latency.nextMillis());
+    ObjectNode response = mapper.createObjectNode().put("object", "list")
+        .put("model", request.path("model").asText("text-embedding-3-large"));
+    ArrayNode data = response.putArray("data");
+    int promptTokens = 0;
+    for (int i = 0; i < inputs.size(); i++) {
+      float[] vector = vectorOf(inputs.get(i), dimensions);
+      ObjectNode item = data.addObject().put("object", "embedding").put("index", i);
+      if (base64) {
+        ByteBuffer bytes = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : vector) bytes.putFloat(value);
+        item.put("embedding", Base64.getEncoder().encodeToString(bytes.array()));
+      } else {
+        ArrayNode values = item.putArray("embedding");
+        for (float value : vector) values.add(value);
+      }
+      promptTokens += tokenCount(inputs.get(i));
+    }
+    response.putObject("usage").put("prompt_tokens", promptTokens).put("total_tokens", promptTokens);
+    sendJson(exchange, 200, response);
+  }
+
+  /**
+   * The classifier prompt (it lists the task types) gets a task type picked by keyword like the
+   * in-process fallback model; every other prompt gets a Markdown answer of STUB_ANSWER_TOKENS tokens.
+   */
+  static List<String> answerTokens(JsonNode messages) {
+    String system = "";
+    String user = "";
+    for (JsonNode message : messages) {
+      String content = message.path("content").isTextual()
+          ? message.path("content").asText()
+          : message.path("content").toString();
+      if ("system".equals(message.path("role").asText())) system = content;
+      if ("user".equals(message.path("role").asText())) user = content;
+    }
+    if (system.contains("FIND_TASK") && system.contains("GENERATE_TASK")) {
+      String text = user.toLowerCase(Locale.ROOT);
+      if (text.contains("erklä") || text.contains("erkla") || text.contains("explain")) return List.of("EXPLAIN_TASK");
+      if (text.contains("erstell") || text.contains("generier") || text.contains("create")) return List.of("GENERATE_TASK");
+      return List.of("FIND_TASK");
+    }
+    List<String> tokens = new ArrayList<>(STUB_ANSWER_TOKENS);
+    tokens.add("## Antwort\n\n");
+    for (int i = 1; i < STUB_ANSWER_TOKENS; i++) {
+      String word = WORDS[i % WORDS.length];
+      tokens.add(i % 40 == 0 ? "\n\n- " + word : " " + word);
+    }
+    return tokens;
+  }
+
+  /** Unit vector derived from the text, so identical texts get identical embeddings. */
+  static float[] vectorOf(String text, int dimensions) {
+    SplittableRandom random = new SplittableRandom(text.hashCode());
+    float[] vector = new float[dimensions];
+    double norm = 0;
+    for (int i = 0; i < dimensions; i++) {
+      vector[i] = (float) random.nextGaussian();
+      norm += vector[i] * vector[i];
+    }
+    norm = Math.sqrt(norm);
+    for (int i = 0; i < dimensions; i++) vector[i] /= (float) norm;
+    return vector;
+  }
+
+  static ObjectNode chunk(String id, long created, String model) {
+    ObjectNode chunk = mapper.createObjectNode()
+        .put("id", id).put("object", "chat.completion.chunk").put("created", created).put("model", model);
+    chunk.putArray("choices").addObject().put("index", 0);
+    return chunk;
+  }
+
+  static void usage(ObjectNode response, JsonNode request, int completionTokens) {
+    int promptTokens = tokenCount(request.path("messages").toString());
+    response.putObject("usage")
+        .put("prompt_tokens", promptTokens)
+        .put("completion_tokens", completionTokens)
+        .put("total_tokens", promptTokens + completionTokens);
+  }
+
+  static int tokenCount(String text) { return Math.max(1, text.length() / 4); }
+
+  static ObjectNode error(String message) {
+    ObjectNode body = mapper.createObjectNode();
+    body.putObject("error").put("message", message).put("type", "stub_error");
+    return body;
+  }
+
+  static void writeEvent(OutputStream out, String data) throws IOException {
+    out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  static void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+    byte[] bytes = mapper.writeValueAsBytes(body);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  /** Latency distribution in milliseconds. */
+  record Latency(String kind, double a, double b) {
+
+    static Latency parse(String spec) {
+      String[] parts = spec.split(":", 2);
+      String kind = parts[0].trim();
+      String[] values = parts.length > 1 ? parts[1].split("[,-]") : new String[] {"0"};
+      double a = Double.parseDouble(values[0].trim());
+      double b = values.length > 1 ? Double.parseDouble(values[1].trim()) : 0;
+      require(List.of("fixed", "uniform", "normal", "lognormal").contains(kind), "Unknown latency distribution: " + spec);
+      return new Latency(kind, a, b);
+    }
+
+    long nextMillis() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      double value = switch (kind) {
+        case "uniform" -> a + random.nextDouble() * (b - a);
+        case "normal" -> a + random.nextGaussian() * b;
+        case "lognormal" -> a * Math.exp(random.nextGaussian() * b);
+        default -> a;
+      };
+      return Math.max(0, Math.round(value));
+    }
+  }
+
+  // ===== Load driver ==========================================================
+
+  static void run() throws Exception {
+    List<String> messages = LOAD_MESSAGES.isBlank()
+        ? DEFAULT_MESSAGES
+        : Files.readAllLines(Path.of(LOAD_MESSAGES)).stream().filter(line -> !line.isBlank()).toList();
+    require(!messages.isEmpty(), "No messages to send");
+
+    HttpClient http = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(10))
+        .executor(Executors.newVirtualThreadPerTaskExecutor())
+        .build();
+    Results results = new Results();
+    AtomicLong sequence = new AtomicLong();
+    long start = System.nanoTime();
+    long measureFrom = start + LOAD_WARMUP.toNanos();
+    long end = measureFrom + LOAD_DURATION.toNanos();
+
+    System.out.printf("Driving %s with %d clients for %s (+ %s warm-up)%n",
+        LOAD_URL, LOAD_CONCURRENCY, LOAD_DURATION, LOAD_WARMUP);
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < LOAD_CONCURRENCY; i++) {
+        int offset = i;
+        clients.submit(() -> {
+          new VirtualUser(http, messages, offset, sequence, results).run(measureFrom, end);
+          return null;
+        });
+      }
+    }
+    results.print(Duration.ofNanos(Math.min(System.nanoTime(), end) - measureFrom));
+  }
+
+  /** One browser tab: an open SSE stream and one message at a time. */
+  static final class VirtualUser {
+    final HttpClient http;
+    final List<String> messages;
+    final AtomicLong sequence;
+    final Results results;
+    final String clientId = UUID.randomUUID().toString();
+    final BlockingQueue<String> done = new LinkedBlockingQueue<>();
+    final AtomicLong firstUpdate = new AtomicLong();
+    int next;
+
+    VirtualUser(HttpClient http, List<String> messages, int offset, AtomicLong sequence, Results results) {
+      this.http = http;
+      this.messages = messages;
+      this.next = offset;
+      this.sequence = sequence;
+      this.results = results;
+    }
+
+    void run(long measureFrom, long end) throws Exception {
+      HttpResponse<Stream<String>> stream = http.send(
+          HttpRequest.newBuilder(URI.create(LOAD_URL + "/ui/chat/stream/" + clientId))
+              .header("Accept", "text/event-stream").GET().build(),
+          HttpResponse.BodyHandlers.ofLines());
+      require(stream.statusCode() == 200, "SSE stream returned HTTP " + stream.statusCode());
+      Thread reader = Thread.ofVirtual().start(() -> readEvents(stream.body()));
+      try {
+        while (System.nanoTime() < end) {
+          send(nextMessage(), measureFrom);
+        }
+      } finally {
+        reader.interrupt();
+        stream.body().close();
+      }
+    }
+
+    void send(String message, long measureFrom) throws Exception {
+      done.clear();
+      firstUpdate.set(0);
+      long started = System.nanoTime();
+      String form = "clientId=" + clientId + "&message=" + URLEncoder.encode(message, StandardCharsets.UTF_8);
+      HttpResponse<String> response = http.send(
+          HttpRequest.newBuilder(URI.create(LOAD_URL + "/ui/chat/messages"))
+              .header("Content-Type", "application/x-www-form-urlencoded")
+              .POST(HttpRequest.BodyPublishers.ofString(form)).build(),
+          HttpResponse.BodyHandlers.ofString());
+      boolean measured = started >= measureFrom;
+      if (response.statusCode() != 200) {
+        if (measured) results.failed("HTTP " + response.statusCode());
+        Thread.sleep(100);
+        return;
+      }
+      if (response.body().contains("message-system")) {
+        // rejected by the ChatExecutor (queue full or too many requests of this client)
+        if (measured) results.failed("rejected");
+        Thread.sleep(100);
+        return;
+      }
+      String outcome = done.poll(LOAD_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+      long finished = System.nanoTime();
+      if (!measured) return;
+      if (outcome == null) {
+        results.failed("timeout");
+      } else if ("error".equals(outcome)) {
+        results.failed("error");
+      } else {
+        long first = firstUpdate.get();
+        results.completed(outcome, finished - started, first == 0 ? finished - started : first - started);
+      }
+    }
+
+    String nextMessage() {
+      String message = messages.get(next++ % messages.size());
+      return LOAD_UNIQUE ? message + " (" + sequence.incrementAndGet() + ")" : message;
+    }
+
+    void readEvents(Stream<String> lines) {
+      String[] event = {"message"};
+      try {
+        lines.forEach(line -> {
+          if (line.startsWith("event:")) {
+            event[0] = line.substring(6).trim();
+          } else if (line.startsWith("data:")) {
+            String data = line.substring(5).trim();
+            if ("done".equals(event[0])) {
+              done.offer(data);
+            } else {
+              firstUpdate.compareAndSet(0, System.nanoTime());
+            }
+          } else if (line.isEmpty()) {
+            event[0] = "message";
+          }
+        });
+      } catch (RuntimeException ex) {
+        // stream closed at the end of the run
+      }
+    }
+  }
+
+  static final class Results {
+    final Map<String, List<Long>> latencies = new TreeMap<>();
+    final List<Long> all = new ArrayList<>();
+    final List<Long> firstUpdates = new ArrayList<>();
+    final Map<String, Integer> failures = new TreeMap<>();
+
+    synchronized void completed(String taskType, long nanos, long firstUpdateNanos) {
+      latencies.computeIfAbsent(taskType, type -> new ArrayList<>()).add(nanos);
+      all.add(nanos);
+      firstUpdates.add(firstUpdateNanos);
+    }
+
+    synchronized void failed(String reason) {
+      failures.merge(reason, 1, Integer::sum);
+    }
+
+    synchronized void print(Duration measured) {
+      double seconds = Math.max(1e-9, measured.toNanos() / 1e9);
+      int failed = failures.values().stream().mapToInt(Integer::intValue).sum();
+      System.out.printf("%nCompleted %d, failed %d %s in %.1f s: %.2f answers/s%n",
+          all.size(), failed, failures.isEmpty() ? "" : failures, seconds, all.size() / seconds);
+      System.out.printf("%-14s %7s %9s %9s %9s %9s%n", "", "count", "p50 ms", "p95 ms", "p99 ms", "max ms");
+      line("end-to-end", all);
+      line("first update", firstUpdates);
+      latencies.forEach(loadtest_gretl::line);
+    }
+  }
+
+  static void line(String label, List<Long> nanos) {
+    if (nanos.isEmpty()) return;
+    long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+    System.out.printf("%-14s %7d %9.0f %9.0f %9.0f %9.0f%n", label, sorted.length,
+        percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), sorted[sorted.length - 1] / 1e6);
+  }
+
+  /** Nearest-rank percentile in milliseconds. */
+  static double percentile(long[] sorted, double p) {
+    int rank = (int) Math.ceil(p * sorted.length);
+    return sorted[Math.max(0, rank - 1)] / 1e6;
+  }
+
+  static String env(String k, String d) { String v = System.getenv(k); return (v == null || v.isEmpty()) ? d : v; }
+  static void require(boolean cond, String msg) { if (!cond) throw new IllegalArgumentException(msg); }
+}
@@ -0,0 +1,128 @@
+package ch.so.agi.gretl.copilot.benchmark;
+
+import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderDocument;
+import ch.so.agi.gretl.copilot.support.PgVector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the {@code rag.doc_chunks} rows of the {@code pg_dump} in {@code embeddings/} so that
+ * benchmarks run against the real documentation corpus without a database.
+ * <p>
+ * The dump location is taken from the system property {@code gretl.fixture}, which the Gradle
+ * {@code jmh} configuration sets.
+ */
+public final class RagFixture {
+
+    private static final String CHUNK_INSERT = "INSERT INTO rag.doc_chunks VALUES (";
+
+    private final List<Chunk> chunks;
+
+    private RagFixture(List<Chunk> chunks) {
+        this.chunks = chunks;
+    }
+
+    public static RagFixture load() {
+        Path dump = Path.of(System.getProperty("gretl.fixture", "embeddings/03_rag_inserts_small.sql"));
+        try {
+            return parse(Files.readString(dump, StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot read benchmark fixture " + dump.toAbsolutePath(), ex);
+        }
+    }
+
+    public List<Chunk> chunks() {
+        return chunks;
+    }
+
+    public List<TaskFinderDocument> documents() {
+        return chunks.stream().map(Chunk::document).toList();
+    }
+
+    public float[][] embeddings() {
+        return chunks.stream().map(Chunk::embedding).toArray(float[][]::new);
+    }
+
+    static RagFixture parse(String sql) {
+        List<Chunk> chunks = new ArrayList<>();
+        int position = sql.indexOf(CHUNK_INSERT);
+        while (position >= 0) {
+            List<String> values = new ArrayList<>();
+            int end = parseValues(sql, position + CHUNK_INSERT.length(), values);
+            // id, page_id, task_name, section_type, url, anchor, heading, content_text, content_md, embedding
+            chunks.add(new Chunk(
+                    Long.parseLong(values.get(0)),
+                    new TaskFinderDocument(
+                            nonNull(values.get(2)),
+                            nonNull(values.get(6)),
+                            nonNull(values.get(4)),
+                            nonNull(values.get(5)),
+                            nonNull(values.get(7)),
+                            0.0d,
+                            0.0d),
+                    nonNull(values.get(8)),
+                    PgVector.parse(values.get(9))));
+            position = sql.indexOf(CHUNK_INSERT, end);
+        }
+        return new RagFixture(List.copyOf(chunks));
+    }
+
+    /**
+     * Parses a {@code VALUES} tuple of string literals, numbers and {@code NULL}s and returns the
+     * offset after the closing parenthesis.
+     */
+    private static int parseValues(String sql, int offset, List<String> values) {
+        int i = offset;
+        while (true) {
+            while (Character.isWhitespace(sql.charAt(i))) {
+                i++;
+            }
+            if (sql.charAt(i) == '\'') {
+                StringBuilder literal = new StringBuilder();
+                i++;
+                while (true) {
+                    char c = sql.charAt(i++);
+                    if (c == '\'') {
+                        if (sql.charAt(i) == '\'') {
+                            literal.append('\'');
+                            i++;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(c);
+                }
+                values.add(literal.toString());
+            } else {
+                int start = i;
+                while (sql.charAt(i) != ',' && sql.charAt(i) != ')') {
+                    i++;
+                }
+                String token = sql.substring(start, i).trim();
+                values.add(token.equals("NULL") ? null : token);
+            }
+            while (Character.isWhitespace(sql.charAt(i))) {
+                i++;
+            }
+            if (sql.charAt(i++) == ')') {
+                return i;
+            }
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * One row of {@code rag.doc_chunks}.
+     */
+    public record Chunk(long id, TaskFinderDocument document, String markdown, float[] embedding) {
+    }
+}
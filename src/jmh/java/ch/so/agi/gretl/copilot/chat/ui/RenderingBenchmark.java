@@ -0,0 +1,97 @@
+package ch.so.agi.gretl.copilot.chat.ui;
+
+import ch.so.agi.gretl.copilot.benchmark.RagFixture;
+import ch.so.agi.gretl.copilot.chat.view.ChatMessageView;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
+import gg.jte.ContentType;
+import gg.jte.TemplateEngine;
+import gg.jte.resolve.DirectoryCodeResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of an answer: Markdown to HTML with {@link MarkdownRenderer} and the chat message
+ * template with {@link ChatViewRenderer}.
+ * <p>
+ * The Markdown inputs are the chunks of the dump in {@code embeddings/}. The templates are compiled
+ * once from {@code -Dgretl.templates} (default {@code src/main/jte}) into a temporary directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Renderers {
+        MarkdownRenderer markdownRenderer;
+        ChatViewRenderer viewRenderer;
+        String[] markdown;
+        String[] html;
+
+        @Setup(Level.Trial)
+        public void load() {
+            markdownRenderer = new MarkdownRenderer();
+            viewRenderer = new ChatViewRenderer(templateEngine());
+            markdown = RagFixture.load().chunks().stream()
+                    .map(RagFixture.Chunk::markdown)
+                    .filter(text -> text != null && !text.isBlank())
+                    .toArray(String[]::new);
+            html = new String[markdown.length];
+            for (int i = 0; i < markdown.length; i++) {
+                html[i] = markdownRenderer.render(markdown[i]);
+            }
+            // compiles the template outside of the measurement
+            viewRenderer.renderMessage(ChatMessageView.assistant(html[0], TaskType.FIND_TASK));
+        }
+
+        private static TemplateEngine templateEngine() {
+            Path templates = Path.of(System.getProperty("gretl.templates", "src/main/jte"));
+            try {
+                Path classes = Files.createTempDirectory("gretl-jte-");
+                return TemplateEngine.create(new DirectoryCodeResolver(templates), classes, ContentType.Html);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not create the template class directory", ex);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next(int size) {
+            int current = next;
+            next = (next + 1) % size;
+            return current;
+        }
+    }
+
+    @Benchmark
+    public String markdown(Renderers renderers, Cursor cursor) {
+        return renderers.markdownRenderer.render(renderers.markdown[cursor.next(renderers.markdown.length)]);
+    }
+
+    @Benchmark
+    public String message(Renderers renderers, Cursor cursor) {
+        String html = renderers.html[cursor.next(renderers.html.length)];
+        return renderers.viewRenderer.renderMessage(ChatMessageView.assistant(html, TaskType.FIND_TASK));
+    }
+}
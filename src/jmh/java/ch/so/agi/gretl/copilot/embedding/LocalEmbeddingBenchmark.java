@@ -0,0 +1,77 @@
+package ch.so.agi.gretl.copilot.embedding;
+
+import ch.so.agi.gretl.copilot.benchmark.RagFixture;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of {@link EmbeddingBackend#LOCAL}: the latency of a single query embedding, as the finder
+ * computes it per request, and the time per chunk when the ingester's chunks of the fixture dump are
+ * embedded as one batch (which the model spreads over all cores).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalEmbeddingBenchmark {
+
+    private static final int BATCH = 64;
+
+    private static final List<String> QUERIES = List.of(
+            "Wie kopiere ich Dateien auf einen FTP-Server?",
+            "INTERLIS-Datei in eine PostGIS-Datenbank importieren",
+            "Shapefile nach GeoPackage exportieren",
+            "Daten zwischen zwei Datenbanken mit SQL transferieren",
+            "AV-Daten validieren und ersetzen");
+
+    @State(Scope.Benchmark)
+    public static class Model {
+        EmbeddingModel model;
+        List<TextSegment> chunks;
+        int next;
+
+        @Setup(Level.Trial)
+        public void load() {
+            model = new AllMiniLmL6V2QuantizedEmbeddingModel();
+            chunks = RagFixture.load().chunks().stream()
+                    .limit(BATCH)
+                    .map(chunk -> TextSegment.from(chunk.markdown()))
+                    .toList();
+        }
+
+        String nextQuery() {
+            String query = QUERIES.get(next);
+            next = (next + 1) % QUERIES.size();
+            return query;
+        }
+    }
+
+    @Benchmark
+    public Embedding query(Model model) {
+        return model.model.embed(model.nextQuery()).content();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Embedding> chunkBatch(Model model) {
+        return model.model.embedAll(model.chunks).content();
+    }
+}
@@ -0,0 +1,48 @@
+package ch.so.agi.gretl.copilot.orchestration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the classifier's answer with {@link TaskType#fromModelResponse(String)}, for the
+ * shapes the model returns in practice.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskTypeBenchmark {
+
+    private static final String[] RESPONSES = {
+            "FIND_TASK",
+            "explain_task\n",
+            " GENERATE_TASK ",
+            "Die Anfrage passt am besten zu OTHER."
+    };
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        String nextResponse() {
+            String response = RESPONSES[next];
+            next = (next + 1) % RESPONSES.length;
+            return response;
+        }
+    }
+
+    @Benchmark
+    public TaskType fromModelResponse(Cursor cursor) {
+        return TaskType.fromModelResponse(cursor.nextResponse());
+    }
+}
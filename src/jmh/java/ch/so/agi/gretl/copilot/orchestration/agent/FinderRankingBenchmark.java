@@ -0,0 +1,119 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import ch.so.agi.gretl.copilot.benchmark.RagFixture;
+import ch.so.agi.gretl.copilot.orchestration.agent.index.Bm25Index;
+import ch.so.agi.gretl.copilot.orchestration.agent.index.LexicalSearchBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java side of the parallel finder retrieval: the score fusion in {@link TaskFinderAgent#rank}
+ * (normalization, {@code compoundKey} building and merging) and the whitespace clean-up of
+ * {@link TaskFinderAgent#extractSnippet}.
+ * <p>
+ * The candidate lists are derived from the dump in {@code embeddings/}: the lexical list is the
+ * BM25 result of each query of {@link LexicalSearchBenchmark}, the semantic list the nearest chunks
+ * (score {@code 1 / (1 + cosine distance)} as in the SQL) to the embedding of the best lexical hit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FinderRankingBenchmark {
+
+    private static final int CANDIDATE_LIMIT = 12;
+
+    @State(Scope.Benchmark)
+    public static class Candidates {
+        List<List<TaskFinderDocument>> lexical;
+        List<List<TaskFinderDocument>> semantic;
+        String[] contents;
+
+        @Setup(Level.Trial)
+        public void load() {
+            List<RagFixture.Chunk> chunks = RagFixture.load().chunks();
+            Bm25Index.Builder builder = Bm25Index.builder();
+            for (RagFixture.Chunk chunk : chunks) {
+                builder.add(chunk.document().heading(), chunk.document().content());
+            }
+            Bm25Index index = builder.build();
+
+            lexical = new ArrayList<>();
+            semantic = new ArrayList<>();
+            for (String query : LexicalSearchBenchmark.QUERIES) {
+                Bm25Index.Result[] results = index.search(query, CANDIDATE_LIMIT);
+                List<TaskFinderDocument> lexicalMatches = new ArrayList<>();
+                for (Bm25Index.Result result : results) {
+                    lexicalMatches.add(withScores(chunks.get(result.id()).document(), result.score(), 0.0d));
+                }
+                float[] queryVector = chunks.get(results.length > 0 ? results[0].id() : 0).embedding();
+                lexical.add(lexicalMatches);
+                semantic.add(nearest(chunks, queryVector));
+            }
+            contents = chunks.stream().map(chunk -> chunk.document().content()).toArray(String[]::new);
+        }
+
+        private static List<TaskFinderDocument> nearest(List<RagFixture.Chunk> chunks, float[] query) {
+            return chunks.stream()
+                    .map(chunk -> withScores(chunk.document(), 0.0d,
+                            1.0d / (1.0d + cosineDistance(query, chunk.embedding()))))
+                    .sorted(Comparator.comparingDouble(TaskFinderDocument::semanticScore).reversed())
+                    .limit(CANDIDATE_LIMIT)
+                    .toList();
+        }
+
+        private static TaskFinderDocument withScores(TaskFinderDocument document, double lexical, double semantic) {
+            return new TaskFinderDocument(document.taskName(), document.heading(), document.url(),
+                    document.anchor(), document.content(), lexical, semantic);
+        }
+
+        private static double cosineDistance(float[] a, float[] b) {
+            double dot = 0.0d;
+            double normA = 0.0d;
+            double normB = 0.0d;
+            for (int i = 0; i < a.length; i++) {
+                dot += a[i] * b[i];
+                normA += a[i] * a[i];
+                normB += b[i] * b[i];
+            }
+            return 1.0d - dot / Math.sqrt(normA * normB);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next(int size) {
+            int current = next;
+            next = (next + 1) % size;
+            return current;
+        }
+    }
+
+    @Benchmark
+    public List<TaskFinderAgent.RankedDocument> rank(Candidates candidates, Cursor cursor) {
+        int query = cursor.next(candidates.lexical.size());
+        return TaskFinderAgent.rank(candidates.lexical.get(query), candidates.semantic.get(query));
+    }
+
+    @Benchmark
+    public String extractSnippet(Candidates candidates, Cursor cursor) {
+        return TaskFinderAgent.extractSnippet(candidates.contents[cursor.next(candidates.contents.length)]);
+    }
+}
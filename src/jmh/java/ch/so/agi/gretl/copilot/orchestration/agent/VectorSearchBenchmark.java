@@ -0,0 +1,210 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import ch.so.agi.gretl.copilot.benchmark.RagFixture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Semantic search of {@link DatabaseTaskFinderRepository} per
+ * {@link DatabaseTaskFinderRepository.VectorSearch} mode, against the database given by
+ * {@code -Dgretl.jdbc.url}.
+ * <p>
+ * Query vectors are the embeddings of the dump. During setup the recall@{@value #LIMIT} of the
+ * quantized modes against the exact ranking is computed in memory on the same embeddings (float16
+ * copies and sign bits, re-ranked exactly) for several oversampling factors and printed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorSearchBenchmark {
+
+    private static final int LIMIT = 10;
+    private static final int OVERSAMPLE = 4;
+    private static final int[] RECALL_OVERSAMPLES = {1, 2, 4, 8};
+    private static final int QUERIES = 50;
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        float[][] vectors;
+        short[][] halves;
+        long[][] bits;
+        int next;
+
+        @Setup(Level.Trial)
+        public void load() {
+            vectors = Arrays.stream(RagFixture.load().embeddings())
+                    .filter(vector -> vector.length > 0)
+                    .map(VectorSearchBenchmark::normalize)
+                    .toArray(float[][]::new);
+            halves = Arrays.stream(vectors).map(VectorSearchBenchmark::toHalf).toArray(short[][]::new);
+            bits = Arrays.stream(vectors).map(VectorSearchBenchmark::toBits).toArray(long[][]::new);
+            printRecall(this);
+        }
+
+        float[] nextQuery() {
+            float[] query = vectors[next];
+            next = (next + 7) % vectors.length;
+            return query;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"EXACT", "HALFVEC", "BINARY"})
+        DatabaseTaskFinderRepository.VectorSearch vectorSearch;
+
+        DatabaseTaskFinderRepository repository;
+
+        @Setup(Level.Trial)
+        public void connect() {
+            SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+                    System.getProperty("gretl.jdbc.url", "jdbc:postgresql://localhost:54323/gretl_rag"),
+                    System.getProperty("gretl.jdbc.user", "gretl"),
+                    System.getProperty("gretl.jdbc.password", "gretl"),
+                    true);
+            repository = new DatabaseTaskFinderRepository(JdbcClient.create(dataSource), vectorSearch, OVERSAMPLE);
+        }
+    }
+
+    @Benchmark
+    public List<TaskFinderDocument> sqlSearch(Corpus corpus, Database database) {
+        return database.repository.searchSemantic(corpus.nextQuery(), LIMIT);
+    }
+
+    static int[] exact(Corpus corpus, float[] query) {
+        return topK(IntStream.range(0, corpus.vectors.length), LIMIT,
+                row -> -dot(query, corpus.vectors[row]));
+    }
+
+    static int[] halfvec(Corpus corpus, float[] query, int oversample) {
+        short[] halfQuery = toHalf(query);
+        int[] coarse = topK(IntStream.range(0, corpus.halves.length), LIMIT * oversample,
+                row -> -dotHalf(halfQuery, corpus.halves[row]));
+        return topK(Arrays.stream(coarse), LIMIT, row -> -dot(query, corpus.vectors[row]));
+    }
+
+    static int[] binary(Corpus corpus, float[] query, int oversample) {
+        long[] bitQuery = toBits(query);
+        int[] coarse = topK(IntStream.range(0, corpus.bits.length), LIMIT * oversample,
+                row -> hamming(bitQuery, corpus.bits[row]));
+        return topK(Arrays.stream(coarse), LIMIT, row -> -dot(query, corpus.vectors[row]));
+    }
+
+    private static void printRecall(Corpus corpus) {
+        int queries = Math.min(QUERIES, corpus.vectors.length);
+        for (int oversample : RECALL_OVERSAMPLES) {
+            double half = 0.0d;
+            double bit = 0.0d;
+            for (int q = 0; q < queries; q++) {
+                float[] query = corpus.vectors[(q * 31) % corpus.vectors.length];
+                int[] truth = exact(corpus, query);
+                half += overlap(truth, halfvec(corpus, query, oversample));
+                bit += overlap(truth, binary(corpus, query, oversample));
+            }
+            System.out.printf("recall@%d over %d chunks, oversample %d: halfvec %.3f, binary %.3f%n",
+                    LIMIT, corpus.vectors.length, oversample, half / queries, bit / queries);
+        }
+    }
+
+    private static double overlap(int[] truth, int[] found) {
+        return (double) Arrays.stream(found).filter(row -> Arrays.stream(truth).anyMatch(t -> t == row)).count()
+                / truth.length;
+    }
+
+    /**
+     * The {@code k} rows with the lowest cost, cheapest first, kept in an insertion-sorted buffer.
+     */
+    private static int[] topK(IntStream rows, int k, IntToDoubleFunction cost) {
+        int[] best = new int[k];
+        double[] bestCost = new double[k];
+        int[] size = new int[1];
+        rows.forEach(row -> {
+            double c = cost.applyAsDouble(row);
+            int n = size[0];
+            if (n == k && c >= bestCost[n - 1]) {
+                return;
+            }
+            int i = n == k ? n - 1 : n++;
+            while (i > 0 && bestCost[i - 1] > c) {
+                best[i] = best[i - 1];
+                bestCost[i] = bestCost[i - 1];
+                i--;
+            }
+            best[i] = row;
+            bestCost[i] = c;
+            size[0] = n;
+        });
+        return Arrays.copyOf(best, size[0]);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static short[] toHalf(float[] vector) {
+        short[] half = new short[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            half[i] = Float.floatToFloat16(vector[i]);
+        }
+        return half;
+    }
+
+    private static long[] toBits(float[] vector) {
+        long[] bits = new long[(vector.length + 63) / 64];
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0.0f) {
+                bits[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        return bits;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0.0d;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static double dotHalf(short[] a, short[] b) {
+        double sum = 0.0d;
+        for (int i = 0; i < a.length; i++) {
+            sum += Float.float16ToFloat(a[i]) * Float.float16ToFloat(b[i]);
+        }
+        return sum;
+    }
+
+    private static int hamming(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,111 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import ch.so.agi.gretl.copilot.benchmark.RagFixture;
+import ch.so.agi.gretl.copilot.orchestration.agent.DatabaseTaskFinderRepository;
+import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the in-memory BM25 index with the Postgres full-text query of the finder.
+ * <p>
+ * {@code bm25Search} and {@code bm25Build} only need the dump in {@code embeddings/}.
+ * {@code sqlSearch} queries the database given by {@code -Dgretl.jdbc.url} (default: the
+ * docker-compose instance) and is skipped with an error if it cannot connect.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LexicalSearchBenchmark {
+
+    public static final String[] QUERIES = {
+            "Wie importiere ich INTERLIS-Daten in die Datenbank?",
+            "CSV-Datei exportieren",
+            "Daten validieren mit ilivalidator",
+            "GeoPackage nach DXF konvertieren",
+            "Dateien per FTP hochladen",
+            "SQL-Skripte ausführen",
+            "av2ch",
+            "Excel-Datei aus CSV erstellen"
+    };
+
+    private static final int LIMIT = 12;
+
+    @State(Scope.Thread)
+    public static class QueryCursor {
+        private int next;
+
+        String nextQuery() {
+            String query = QUERIES[next];
+            next = (next + 1) % QUERIES.length;
+            return query;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        List<TaskFinderDocument> documents;
+        Bm25Index index;
+
+        @Setup(Level.Trial)
+        public void load() {
+            documents = RagFixture.load().documents();
+            index = buildIndex(documents);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Database {
+        DatabaseTaskFinderRepository repository;
+        SingleConnectionDataSource dataSource;
+
+        @Setup(Level.Trial)
+        public void connect() {
+            dataSource = new SingleConnectionDataSource(
+                    System.getProperty("gretl.jdbc.url", "jdbc:postgresql://localhost:54323/gretl_rag"),
+                    System.getProperty("gretl.jdbc.user", "gretl"),
+                    System.getProperty("gretl.jdbc.password", "gretl"),
+                    true);
+            repository = new DatabaseTaskFinderRepository(JdbcClient.create(dataSource));
+        }
+    }
+
+    @Benchmark
+    public Bm25Index.Result[] bm25Search(Corpus corpus, QueryCursor cursor) {
+        return corpus.index.search(cursor.nextQuery(), LIMIT);
+    }
+
+    @Benchmark
+    public Bm25Index bm25Build(Corpus corpus) {
+        return buildIndex(corpus.documents);
+    }
+
+    @Benchmark
+    public List<TaskFinderDocument> sqlSearch(Database database, QueryCursor cursor) {
+        return database.repository.searchLexical(cursor.nextQuery(), LIMIT);
+    }
+
+    private static Bm25Index buildIndex(List<TaskFinderDocument> documents) {
+        Bm25Index.Builder builder = Bm25Index.builder();
+        for (TaskFinderDocument document : documents) {
+            builder.add(document.heading(), document.content());
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,71 @@
+package ch.so.agi.gretl.copilot.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a query embedding as pgvector parameter: the former {@code String.format("%.8f")}
+ * literal, the {@link PgVector} text form and its binary form. Run with {@code -prof gc} to compare
+ * allocations as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorEncodingBenchmark {
+
+    @Param({"1536", "3072"})
+    int dimensions;
+
+    private float[] vector;
+    private byte[] buffer;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (random.nextDouble() * 0.1d - 0.05d);
+        }
+        buffer = new byte[new PgVector(vector).lengthInBytes()];
+    }
+
+    @Benchmark
+    public String formatted() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(String.format(Locale.US, "%.8f", vector[i]));
+        }
+        return builder.append(']').toString();
+    }
+
+    @Benchmark
+    public String text() {
+        return PgVector.format(vector);
+    }
+
+    @Benchmark
+    public byte[] binary() {
+        PgVector parameter = new PgVector(vector);
+        parameter.toBytes(buffer, 0);
+        return buffer;
+    }
+}
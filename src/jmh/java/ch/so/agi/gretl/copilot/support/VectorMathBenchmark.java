@@ -0,0 +1,96 @@
+package ch.so.agi.gretl.copilot.support;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar against Vector API loops of {@link VectorMath} at the dimensions of the local model (384),
+ * a shortened OpenAI embedding (1024) and {@code text-embedding-3-large} (3072). {@code topK} scans
+ * {@value #ROWS} contiguous rows, about the size of the chunk corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorMathBenchmark {
+
+    private static final int ROWS = 2_000;
+    private static final int K = 10;
+
+    @State(Scope.Benchmark)
+    public static class Vectors {
+        @Param({"scalar", "simd"})
+        String kernel;
+
+        @Param({"384", "1024", "3072"})
+        int dimension;
+
+        VectorKernel math;
+        float[] a;
+        float[] b;
+        byte[] x;
+        byte[] y;
+        float[] matrix;
+
+        @Setup(Level.Trial)
+        public void create() {
+            math = "simd".equals(kernel) ? new SimdVectorKernel() : new ScalarVectorKernel();
+            Random random = new Random(42);
+            a = randomVector(random, dimension);
+            b = randomVector(random, dimension);
+            x = VectorMath.quantize(a).values();
+            y = VectorMath.quantize(b).values();
+            matrix = randomVector(random, ROWS * dimension);
+        }
+    }
+
+    @Benchmark
+    public float dot(Vectors vectors) {
+        return vectors.math.dot(vectors.a, 0, vectors.b, 0, vectors.dimension);
+    }
+
+    @Benchmark
+    public float cosine(Vectors vectors) {
+        return vectors.math.cosine(vectors.a, 0, vectors.b, 0, vectors.dimension);
+    }
+
+    @Benchmark
+    public float squaredDistance(Vectors vectors) {
+        return vectors.math.squaredDistance(vectors.a, 0, vectors.b, 0, vectors.dimension);
+    }
+
+    @Benchmark
+    public int int8Dot(Vectors vectors) {
+        return vectors.math.dot(vectors.x, vectors.y, vectors.dimension);
+    }
+
+    /**
+     * {@link VectorMath#topK} with the benchmarked kernel.
+     */
+    @Benchmark
+    public VectorMath.TopK topK(Vectors vectors) {
+        return VectorMath.topK(vectors.math, vectors.matrix, vectors.dimension, vectors.a, K);
+    }
+
+    private static float[] randomVector(Random random, int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
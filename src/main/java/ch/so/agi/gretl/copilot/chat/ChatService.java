@@ -1,22 +1,247 @@
 package ch.so.agi.gretl.copilot.chat;
 
+import ch.so.agi.gretl.copilot.chat.cache.SemanticAnswerCache;
 import ch.so.agi.gretl.copilot.chat.dto.ChatRequest;
 import ch.so.agi.gretl.copilot.chat.dto.ChatResponse;
+import ch.so.agi.gretl.copilot.orchestration.AnswerListener;
 import ch.so.agi.gretl.copilot.orchestration.TaskExecutionResult;
 import ch.so.agi.gretl.copilot.orchestration.TaskOrchestrator;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.support.QueryText;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Answers chat requests through the {@link TaskOrchestrator}.
+ * <p>
+ * Identical questions that arrive while one of them is still being answered are coalesced
+ * ("single flight"): requests are keyed on the {@link QueryText#normalize(String) normalized}
+ * message, only the first one runs the orchestrator and the others wait for its
+ * {@link TaskExecutionResult}. Streamed tokens are forwarded to every waiting caller, including the
+ * part generated before a caller joined. If the first caller is cancelled, a waiting caller takes
+ * over, and its listener is {@linkplain AnswerListener#restart() restarted} before the answer is
+ * streamed again. Joined requests are counted in {@code gretl.chat.singleflight.joined}.
+ * <p>
+ * {@link #respondAsync} registers a question as soon as it is admitted to a bounded executor, so
+ * identical questions join it while it still waits for a slot, and join it without being admitted
+ * themselves: a burst of one popular question takes a single slot.
+ * <p>
+ * Once the orchestrator has classified a question, the {@link SemanticAnswerCache} is asked for the
+ * answer of a sufficiently similar earlier question of the same task type.
+ */
 @Service
-public class ChatService {
+public class ChatService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatService.class);
 
     private final TaskOrchestrator orchestrator;
+    private final SemanticAnswerCache answerCache;
+    private final boolean singleFlight;
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder joined = new LongAdder();
 
     public ChatService(TaskOrchestrator orchestrator) {
+        this(orchestrator, SemanticAnswerCache.disabled(), true);
+    }
+
+    @Autowired
+    public ChatService(TaskOrchestrator orchestrator,
+                       SemanticAnswerCache answerCache,
+                       @Value("${copilot.chat.single-flight.enabled:true}") boolean singleFlight) {
         this.orchestrator = orchestrator;
+        this.answerCache = answerCache;
+        this.singleFlight = singleFlight;
     }
 
     public ChatResponse respond(ChatRequest request) {
-        TaskExecutionResult result = orchestrator.orchestrate(request.message());
+        return respond(request, AnswerListener.NONE);
+    }
+
+    /**
+     * Like {@link #respond(ChatRequest)}, reporting the answer to {@code listener} while a streaming
+     * agent generates it.
+     */
+    public ChatResponse respond(ChatRequest request, AnswerListener listener) {
+        return toResponse(singleFlight
+                ? coalesce(request.message(), listener)
+                : answer(request.message(), listener));
+    }
+
+    /**
+     * Answers {@code request} asynchronously. An identical request in flight is joined without
+     * calling {@code admission}; otherwise {@code admission} is given the work that answers the
+     * request, e.g. to run it on the {@link ch.so.agi.gretl.copilot.chat.execution.ChatExecutor}, and
+     * identical requests join it from then on. If the joined request is cancelled, this one is
+     * admitted instead.
+     *
+     * @param admission runs the work, or throws if it cannot be accepted
+     */
+    public CompletableFuture<ChatResponse> respondAsync(ChatRequest request, AnswerListener listener,
+                                                        Function<Supplier<ChatResponse>, CompletableFuture<ChatResponse>> admission) {
+        if (!singleFlight) {
+            return admission.apply(() -> respond(request, listener));
+        }
+        String key = QueryText.normalize(request.message());
+        Flight flight = new Flight();
+        Flight existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            existing.join(listener);
+            joined.increment();
+            return existing.result
+                    .thenApply(ChatService::toResponse)
+                    .exceptionallyCompose(error -> {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        if (cause instanceof CancellationException) {
+                            existing.leave(listener);
+                            listener.restart();
+                            return respondAsync(request, listener, admission);
+                        }
+                        return CompletableFuture.failedFuture(cause);
+                    });
+        }
+
+        flight.join(listener);
+        CompletableFuture<ChatResponse> admitted;
+        try {
+            admitted = admission.apply(() -> toResponse(lead(key, flight, request.message())));
+        } catch (RuntimeException ex) {
+            inFlight.remove(key, flight);
+            flight.result.cancel(false);
+            throw ex;
+        }
+        // Cancelled or failed before the work started, e.g. while waiting for a slot.
+        admitted.whenComplete((response, error) -> {
+            if (error != null && !flight.result.isDone()) {
+                inFlight.remove(key, flight);
+                flight.result.cancel(false);
+            }
+        });
+        return admitted;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gretl.chat.singleflight.joined", joined, LongAdder::sum)
+                .description("Chat requests answered by an identical request already in flight")
+                .register(registry);
+        Gauge.builder("gretl.chat.singleflight.inflight", inFlight, Map::size)
+                .description("Distinct chat questions currently being answered")
+                .register(registry);
+    }
+
+    private TaskExecutionResult coalesce(String message, AnswerListener listener) {
+        String key = QueryText.normalize(message);
+        while (true) {
+            Flight flight = new Flight();
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                flight.join(listener);
+                return lead(key, flight, message);
+            }
+
+            existing.join(listener);
+            joined.increment();
+            try {
+                return existing.result.get();
+            } catch (CancellationException ex) {
+                // The leading request was cancelled; try again, possibly as the new leader.
+                existing.leave(listener);
+                listener.restart();
+            } catch (InterruptedException ex) {
+                existing.leave(listener);
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for an identical request");
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw new IllegalStateException("Chat request failed", ex.getCause());
+            }
+        }
+    }
+
+    private TaskExecutionResult lead(String key, Flight flight, String message) {
+        TaskExecutionResult result;
+        try {
+            result = answer(message, flight);
+        } catch (RuntimeException | Error ex) {
+            inFlight.remove(key, flight);
+            if (Thread.currentThread().isInterrupted() || ex instanceof CancellationException) {
+                flight.result.cancel(false);
+            } else {
+                flight.result.completeExceptionally(ex);
+            }
+            throw ex;
+        }
+        inFlight.remove(key, flight);
+        flight.result.complete(result);
+        return result;
+    }
+
+    private static ChatResponse toResponse(TaskExecutionResult result) {
         return new ChatResponse(result.taskType(), result.answer());
     }
+
+    private TaskExecutionResult answer(String message, AnswerListener listener) {
+        return answerCache.getOrCompute(message, lookup -> orchestrator.orchestrate(message, listener, lookup));
+    }
+
+    /**
+     * One request being answered and the listeners of all callers waiting for it.
+     */
+    private static final class Flight implements AnswerListener {
+
+        private final CompletableFuture<TaskExecutionResult> result = new CompletableFuture<>();
+        private final List<AnswerListener> listeners = new ArrayList<>();
+        private final StringBuilder streamed = new StringBuilder();
+        private TaskType streamedType;
+
+        synchronized void join(AnswerListener listener) {
+            if (streamedType != null) {
+                forward(listener, streamedType, streamed.toString());
+            }
+            listeners.add(listener);
+        }
+
+        synchronized void leave(AnswerListener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public synchronized void onPartialAnswer(TaskType taskType, String token) {
+            streamedType = taskType;
+            streamed.append(token);
+            for (AnswerListener listener : listeners) {
+                forward(listener, taskType, token);
+            }
+        }
+
+        private static void forward(AnswerListener listener, TaskType taskType, String token) {
+            try {
+                listener.onPartialAnswer(taskType, token);
+            } catch (RuntimeException ex) {
+                log.warn("Failed to forward a partial answer", ex);
+            }
+        }
+    }
 }
@@ -0,0 +1,337 @@
+package ch.so.agi.gretl.copilot.chat.cache;
+
+import ch.so.agi.gretl.copilot.embedding.EmbeddingBackend;
+import ch.so.agi.gretl.copilot.orchestration.AnswerLookup;
+import ch.so.agi.gretl.copilot.orchestration.TaskExecutionResult;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.orchestration.agent.index.RagCorpusChangedEvent;
+import ch.so.agi.gretl.copilot.support.QueryText;
+import ch.so.agi.gretl.copilot.support.VectorMath;
+import dev.langchain4j.model.embedding.DisabledEmbeddingModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache of complete answers, looked up by the similarity of the question's embedding.
+ * <p>
+ * Paraphrased questions ("XTF validieren", "Wie prüfe ich eine XTF-Datei?") usually end up with the
+ * same task type and the same documents. When the cosine similarity between a new question and a
+ * cached one of the same task type reaches {@code minSimilarity}, the cached
+ * {@link TaskExecutionResult} is returned and the agent does not run. The lookup happens after the
+ * question is classified and only searches the answers of its {@link TaskType}, so a question is
+ * never answered with an answer of another type. Answers are kept per {@link TaskType}, only for the
+ * configured types (answers of {@code GENERATE_TASK} depend on the user's own file and table names
+ * and are not cached by default), with at most {@code maxEntries} least recently used entries per
+ * type and a time-to-live. {@linkplain TaskExecutionResult#degraded() Degraded} answers, e.g. a
+ * finder answer without its semantic leg, are not cached. A {@link RagCorpusChangedEvent} drops all
+ * entries.
+ * <p>
+ * Embeddings come from the {@code finderEmbeddingModel}, whose query cache then also serves the
+ * finder agent. Without {@code copilot.answer-cache.min-similarity} the threshold depends on the
+ * {@link EmbeddingBackend}: {@code text-embedding-3-large} separates paraphrases from other questions
+ * at 0.92, while all-MiniLM-L6-v2 scores German paraphrases as low as 0.4 and questions about
+ * different tasks in the same words above 0.95, so the local backend only reuses near-identical
+ * questions. Without an embedding model the cache is bypassed. Lookups are counted in
+ * {@code gretl.answer.cache.requests}, the best similarity of each lookup is recorded in
+ * {@code gretl.answer.cache.similarity}.
+ */
+@Component
+public class SemanticAnswerCache implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    static final double OPENAI_MIN_SIMILARITY = 0.92d;
+    static final double LOCAL_MIN_SIMILARITY = 0.99d;
+
+    private final EmbeddingModel embeddingModel;
+    private final double minSimilarity;
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Set<TaskType> cachedTypes;
+    private final Clock clock;
+    private final Map<TaskType, LinkedHashMap<String, CachedAnswer>> answers = new EnumMap<>(TaskType.class);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private volatile DistributionSummary similarities;
+
+    @Autowired
+    public SemanticAnswerCache(@Qualifier("finderEmbeddingModel") ObjectProvider<EmbeddingModel> embeddingModel,
+                               @Value("${copilot.answer-cache.enabled:true}") boolean enabled,
+                               @Value("${copilot.answer-cache.min-similarity:}") String minSimilarity,
+                               @Value("${copilot.answer-cache.max-entries:500}") int maxEntries,
+                               @Value("${copilot.answer-cache.ttl:PT6H}") Duration ttl,
+                               @Value("${copilot.answer-cache.task-types:FIND_TASK,EXPLAIN_TASK}") String taskTypes,
+                               @Value("${copilot.embedding.backend:openai}") EmbeddingBackend backend) {
+        this(enabled ? embeddingModel.getIfAvailable() : null, minSimilarity(minSimilarity, backend), maxEntries, ttl,
+                parseTaskTypes(taskTypes), Clock.systemUTC());
+    }
+
+    SemanticAnswerCache(EmbeddingModel embeddingModel, double minSimilarity, int maxEntries, Duration ttl,
+                        Set<TaskType> cachedTypes, Clock clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.embeddingModel = embeddingModel instanceof DisabledEmbeddingModel ? null : embeddingModel;
+        this.minSimilarity = minSimilarity;
+        this.maxEntries = maxEntries;
+        this.ttl = ttl == null ? Duration.ZERO : ttl;
+        this.cachedTypes = cachedTypes.isEmpty() ? EnumSet.noneOf(TaskType.class) : EnumSet.copyOf(cachedTypes);
+        this.clock = clock;
+    }
+
+    /**
+     * A cache that never answers, for setups without an embedding model.
+     */
+    public static SemanticAnswerCache disabled() {
+        return new SemanticAnswerCache(null, 1.0d, 1, Duration.ZERO, Set.of(), Clock.systemUTC());
+    }
+
+    /**
+     * Computes the answer to {@code message}, passing {@code compute} an {@link AnswerLookup} that
+     * returns the cached answer of a sufficiently similar question of the given task type. A computed
+     * answer is cached if its task type is cached, it is not degraded and it does not quote the
+     * question.
+     */
+    public TaskExecutionResult getOrCompute(String message, Function<AnswerLookup, TaskExecutionResult> compute) {
+        if (embeddingModel == null || cachedTypes.isEmpty()) {
+            return compute.apply(AnswerLookup.NONE);
+        }
+        Lookup lookup = new Lookup(message);
+        TaskExecutionResult result = compute.apply(lookup);
+        if (result != null && result != lookup.hit && lookup.query != null
+                && !result.degraded() && cachedTypes.contains(result.taskType())
+                && !quotesQuestion(result, message)) {
+            store(QueryText.normalize(message), lookup.query, result);
+        }
+        return result;
+    }
+
+    /**
+     * Drops every cached answer because the documents they were generated from may have changed.
+     */
+    @EventListener(RagCorpusChangedEvent.class)
+    public void invalidateAll() {
+        synchronized (answers) {
+            answers.clear();
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), bypassed.sum(), size());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gretl.answer.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .description("Chat requests answered from the semantic answer cache")
+                .register(registry);
+        FunctionCounter.builder("gretl.answer.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .description("Chat requests without a similar cached answer")
+                .register(registry);
+        FunctionCounter.builder("gretl.answer.cache.requests", bypassed, LongAdder::sum)
+                .tag("result", "bypass")
+                .description("Chat requests that could not be embedded for the answer cache")
+                .register(registry);
+        Gauge.builder("gretl.answer.cache.hit.ratio", this, cache -> cache.stats().hitRate())
+                .description("Share of cache lookups answered from the semantic answer cache")
+                .register(registry);
+        Gauge.builder("gretl.answer.cache.size", this, cache -> cache.stats().size())
+                .description("Number of cached answers")
+                .register(registry);
+        similarities = DistributionSummary.builder("gretl.answer.cache.similarity")
+                .description("Best cosine similarity between a question and the cached questions")
+                .serviceLevelObjectives(0.8d, 0.85d, 0.9d, 0.95d, 0.99d)
+                .register(registry);
+    }
+
+    private TaskExecutionResult lookup(float[] query, TaskType taskType) {
+        long now = clock.millis();
+        double bestSimilarity = -1.0d;
+        String bestKey = null;
+        synchronized (answers) {
+            LinkedHashMap<String, CachedAnswer> partition = answers.get(taskType);
+            if (partition == null) {
+                return null;
+            }
+            Iterator<CachedAnswer> iterator = partition.values().iterator();
+            while (iterator.hasNext()) {
+                CachedAnswer answer = iterator.next();
+                if (isExpired(answer, now)) {
+                    iterator.remove();
+                    continue;
+                }
+                double similarity = dot(query, answer.embedding());
+                if (similarity > bestSimilarity) {
+                    bestSimilarity = similarity;
+                    bestKey = answer.key();
+                }
+            }
+            record(bestSimilarity);
+            if (bestKey == null || bestSimilarity < minSimilarity) {
+                return null;
+            }
+            // get() moves the entry to the end of the access order
+            return partition.get(bestKey).result();
+        }
+    }
+
+    private void store(String key, float[] embedding, TaskExecutionResult result) {
+        synchronized (answers) {
+            LinkedHashMap<String, CachedAnswer> partition =
+                    answers.computeIfAbsent(result.taskType(), type -> new LinkedHashMap<>(16, 0.75f, true));
+            partition.put(key, new CachedAnswer(key, embedding, result, clock.millis()));
+            Iterator<String> eldest = partition.keySet().iterator();
+            while (partition.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private int size() {
+        synchronized (answers) {
+            return answers.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    private void record(double similarity) {
+        DistributionSummary summary = similarities;
+        if (summary != null && similarity >= 0.0d) {
+            summary.record(similarity);
+        }
+    }
+
+    private boolean isExpired(CachedAnswer answer, long now) {
+        return !ttl.isZero() && now - answer.storedAt() > ttl.toMillis();
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0.0d;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] unit = new float[vector.length];
+        if (norm > 0.0d) {
+            for (int i = 0; i < vector.length; i++) {
+                unit[i] = (float) (vector[i] / norm);
+            }
+        }
+        return unit;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1.0d;
+        }
+        return VectorMath.dot(a, b);
+    }
+
+    /**
+     * An answer that repeats the question would show it to whoever asks a paraphrase.
+     */
+    private static boolean quotesQuestion(TaskExecutionResult result, String message) {
+        String question = message.strip();
+        return result.answer() != null && !question.isEmpty() && result.answer().contains(question);
+    }
+
+    static double minSimilarity(String configured, EmbeddingBackend backend) {
+        if (configured != null && !configured.isBlank()) {
+            return Double.parseDouble(configured.trim());
+        }
+        return backend == EmbeddingBackend.LOCAL ? LOCAL_MIN_SIMILARITY : OPENAI_MIN_SIMILARITY;
+    }
+
+    private static Set<TaskType> parseTaskTypes(String taskTypes) {
+        Set<TaskType> types = EnumSet.noneOf(TaskType.class);
+        Arrays.stream(taskTypes.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(TaskType::valueOf)
+                .forEach(types::add);
+        return types;
+    }
+
+    /**
+     * Point-in-time counters of the answer cache.
+     */
+    public record CacheStats(long hits, long misses, long bypassed, int size) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0d : (double) hits / total;
+        }
+    }
+
+    /**
+     * Embeds the message on the first lookup of a cached task type and remembers the embedding for
+     * storing the computed answer.
+     */
+    private final class Lookup implements AnswerLookup {
+
+        private final String message;
+        private float[] query;
+        private boolean unembeddable;
+        private TaskExecutionResult hit;
+
+        private Lookup(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public Optional<TaskExecutionResult> find(TaskType taskType) {
+            if (!cachedTypes.contains(taskType) || unembeddable) {
+                return Optional.empty();
+            }
+            if (query == null) {
+                try {
+                    query = normalize(embeddingModel.embed(message).content().vector());
+                } catch (RuntimeException ex) {
+                    log.debug("Could not embed message for the answer cache", ex);
+                    bypassed.increment();
+                    unembeddable = true;
+                    return Optional.empty();
+                }
+            }
+            hit = lookup(query, taskType);
+            if (hit == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+            hits.increment();
+            return Optional.of(hit);
+        }
+    }
+
+    private record CachedAnswer(String key, float[] embedding, TaskExecutionResult result, long storedAt) {
+    }
+}
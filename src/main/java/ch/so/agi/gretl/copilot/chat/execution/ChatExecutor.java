@@ -0,0 +1,241 @@
+package ch.so.agi.gretl.copilot.chat.execution;
+
+import ch.so.agi.gretl.copilot.orchestration.PipelineStage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs chat requests, which block on JDBC, embedding and LLM calls, on virtual threads.
+ * <p>
+ * At most {@code maxConcurrent} requests execute at the same time; up to {@code maxQueued} further
+ * requests wait for a slot. Beyond that, and when a client already has {@code maxPerClient} requests
+ * in progress, {@link #submit} rejects the request with a {@link ChatRejectedException} instead of
+ * letting it pile up. All requests of a client can be {@linkplain #cancel(String) cancelled}, e.g.
+ * when its SSE stream disconnects; cancelling interrupts the running thread. Requests run with the
+ * trace context of the thread that submitted them.
+ * <p>
+ * Queue depth, running requests, execution time, rejections and cancellations are published under
+ * {@code gretl.chat.*}.
+ */
+@Component
+public class ChatExecutor implements MeterBinder, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatExecutor.class);
+
+    private final ExecutorService executor;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final int maxPerClient;
+    private final Semaphore slots;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Map<String, Set<Task<?>>> tasksByClient = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder executionNanos = new LongAdder();
+    private final LongAdder rejectedBusy = new LongAdder();
+    private final LongAdder rejectedClientLimit = new LongAdder();
+    private final LongAdder cancellations = new LongAdder();
+
+    @Autowired
+    public ChatExecutor(@Value("${copilot.chat.executor.max-concurrent:16}") int maxConcurrent,
+                        @Value("${copilot.chat.executor.max-queued:64}") int maxQueued,
+                        @Value("${copilot.chat.executor.max-per-client:2}") int maxPerClient) {
+        this(PipelineStage.propagateContext(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-", 0).factory())),
+                maxConcurrent, maxQueued, maxPerClient);
+    }
+
+    ChatExecutor(ExecutorService executor, int maxConcurrent, int maxQueued, int maxPerClient) {
+        if (maxConcurrent <= 0 || maxQueued < 0 || maxPerClient <= 0) {
+            throw new IllegalArgumentException("maxConcurrent and maxPerClient must be positive, maxQueued not negative");
+        }
+        this.executor = executor;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxPerClient = maxPerClient;
+        this.slots = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Admits {@code work} for {@code clientId} and runs it asynchronously.
+     *
+     * @return the result; it is cancelled when the work is {@linkplain #cancel(String) cancelled}
+     * @throws ChatRejectedException if the executor or the client is at its limit
+     */
+    public <T> CompletableFuture<T> submit(String clientId, Callable<T> work) {
+        if (admitted.incrementAndGet() > maxConcurrent + maxQueued) {
+            admitted.decrementAndGet();
+            rejectedBusy.increment();
+            throw new ChatRejectedException(ChatRejectedException.Reason.BUSY);
+        }
+
+        Task<T> task = new Task<>();
+        boolean[] accepted = new boolean[1];
+        tasksByClient.compute(clientId, (id, tasks) -> {
+            Set<Task<?>> current = tasks == null ? ConcurrentHashMap.newKeySet() : tasks;
+            if (current.size() < maxPerClient) {
+                current.add(task);
+                accepted[0] = true;
+            }
+            return current.isEmpty() ? null : current;
+        });
+        if (!accepted[0]) {
+            admitted.decrementAndGet();
+            rejectedClientLimit.increment();
+            throw new ChatRejectedException(ChatRejectedException.Reason.CLIENT_LIMIT);
+        }
+
+        task.handle = executor.submit(() -> run(clientId, task, work));
+        if (task.result.isCancelled()) {
+            task.handle.cancel(true);
+        }
+        return task.result;
+    }
+
+    /**
+     * Cancels all queued and running requests of {@code clientId}.
+     *
+     * @return the number of cancelled requests
+     */
+    public int cancel(String clientId) {
+        Set<Task<?>> tasks = tasksByClient.remove(clientId);
+        if (tasks == null) {
+            return 0;
+        }
+        int cancelled = 0;
+        for (Task<?> task : tasks) {
+            if (task.result.cancel(false)) {
+                cancelled++;
+            }
+            Future<?> handle = task.handle;
+            if (handle != null) {
+                handle.cancel(true);
+            }
+        }
+        cancellations.add(cancelled);
+        if (cancelled > 0) {
+            log.debug("Cancelled {} chat request(s) of client {}", cancelled, clientId);
+        }
+        return cancelled;
+    }
+
+    public Stats stats() {
+        int inFlight = admitted.get();
+        int active = running.get();
+        return new Stats(Math.max(0, inFlight - active), active, executions.sum(),
+                rejectedBusy.sum() + rejectedClientLimit.sum(), cancellations.sum());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("gretl.chat.queue.depth", this, chat -> chat.stats().queued())
+                .description("Admitted chat requests waiting for an execution slot")
+                .register(registry);
+        Gauge.builder("gretl.chat.active", running, AtomicInteger::get)
+                .description("Chat requests currently executing")
+                .register(registry);
+        FunctionTimer.builder("gretl.chat.execution", this,
+                        chat -> chat.executions.sum(),
+                        chat -> chat.executionNanos.sum(),
+                        TimeUnit.NANOSECONDS)
+                .description("Execution time of chat requests, without queueing")
+                .register(registry);
+        FunctionCounter.builder("gretl.chat.rejected", rejectedBusy, LongAdder::sum)
+                .tag("reason", "busy")
+                .description("Chat requests rejected because all slots and the queue were taken")
+                .register(registry);
+        FunctionCounter.builder("gretl.chat.rejected", rejectedClientLimit, LongAdder::sum)
+                .tag("reason", "client-limit")
+                .description("Chat requests rejected because the client had too many requests in progress")
+                .register(registry);
+        FunctionCounter.builder("gretl.chat.cancelled", cancellations, LongAdder::sum)
+                .description("Chat requests cancelled, e.g. because the client disconnected")
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs {@code work} once a slot is free. The slot and the client's quota are released before the
+     * result is completed, so a client can submit its next request as soon as it sees the answer.
+     */
+    private <T> void run(String clientId, Task<T> task, Callable<T> work) {
+        boolean acquired = false;
+        boolean interrupted = false;
+        T value = null;
+        Throwable failure = null;
+        try {
+            slots.acquire();
+            acquired = true;
+            if (task.result.isDone()) {
+                return;
+            }
+            running.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                value = work.call();
+            } finally {
+                running.decrementAndGet();
+                executions.increment();
+                executionNanos.add(System.nanoTime() - start);
+            }
+        } catch (InterruptedException ex) {
+            interrupted = true;
+            Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+            failure = ex;
+        } finally {
+            if (acquired) {
+                slots.release();
+            }
+            admitted.decrementAndGet();
+            tasksByClient.computeIfPresent(clientId, (id, tasks) -> {
+                tasks.remove(task);
+                return tasks.isEmpty() ? null : tasks;
+            });
+        }
+        if (interrupted) {
+            task.result.cancel(false);
+        } else if (failure != null) {
+            task.result.completeExceptionally(failure);
+        } else {
+            task.result.complete(value);
+        }
+    }
+
+    private static final class Task<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private volatile Future<?> handle;
+    }
+
+    /**
+     * Snapshot of the executor's load and counters.
+     */
+    public record Stats(int queued, int active, long executions, long rejected, long cancelled) {
+    }
+}
@@ -0,0 +1,42 @@
+package ch.so.agi.gretl.copilot.chat.execution;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link ChatExecutor#submit} when a chat request is not admitted. The message is meant to
+ * be shown to the user.
+ */
+public class ChatRejectedException extends RejectedExecutionException {
+
+    private final Reason reason;
+
+    public ChatRejectedException(Reason reason) {
+        super(reason.message());
+        this.reason = reason;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+
+    public enum Reason {
+        /**
+         * All execution slots and the queue are taken.
+         */
+        BUSY("The copilot is busy answering other requests right now. Please try again in a moment."),
+        /**
+         * The client already has the maximum number of requests in progress.
+         */
+        CLIENT_LIMIT("Please wait until your previous request has been answered.");
+
+        private final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+
+        public String message() {
+            return message;
+        }
+    }
+}
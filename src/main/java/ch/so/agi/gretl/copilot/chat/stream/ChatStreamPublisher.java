@@ -1,33 +1,60 @@
 package ch.so.agi.gretl.copilot.chat.stream;
 
+import ch.so.agi.gretl.copilot.orchestration.PipelineStage;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 @Component
 public class ChatStreamPublisher {
 
+    /**
+     * Event swapped into the conversation by the chat page.
+     */
+    public static final String MESSAGE_EVENT = "message";
+
+    /**
+     * Event sent after the last update of an answer, with the task type or {@code error} as data.
+     * The chat page ignores it; it lets scripted clients such as the load test measure complete
+     * answers.
+     */
+    public static final String DONE_EVENT = "done";
+
     private static final Logger log = LoggerFactory.getLogger(ChatStreamPublisher.class);
 
     private final Map<String, SseEmitter> emitters = new ConcurrentHashMap<>();
     private final Supplier<SseEmitter> emitterSupplier;
+    private final List<Consumer<String>> disconnectListeners = new CopyOnWriteArrayList<>();
+    private final ObservationRegistry observationRegistry;
 
-    public ChatStreamPublisher() {
+    @Autowired
+    public ChatStreamPublisher(ObservationRegistry observationRegistry) {
         this(() -> {
             SseEmitter emitter = new SseEmitter(0L);
             emitter.onTimeout(emitter::complete);
             return emitter;
-        });
+        }, observationRegistry);
     }
 
     ChatStreamPublisher(Supplier<SseEmitter> emitterSupplier) {
+        this(emitterSupplier, ObservationRegistry.NOOP);
+    }
+
+    ChatStreamPublisher(Supplier<SseEmitter> emitterSupplier, ObservationRegistry observationRegistry) {
         this.emitterSupplier = emitterSupplier;
+        this.observationRegistry = observationRegistry;
     }
 
     public SseEmitter openStream(String clientId) {
@@ -36,12 +63,25 @@ public class ChatStreamPublisher {
         if (previous != null) {
             previous.complete();
         }
-        emitter.onCompletion(() -> emitters.remove(clientId, emitter));
-        emitter.onError(error -> emitters.remove(clientId, emitter));
+        emitter.onCompletion(() -> disconnected(clientId, emitter));
+        emitter.onError(error -> disconnected(clientId, emitter));
         return emitter;
     }
 
+    /**
+     * Registers a callback that receives the client id whenever a client's current stream ends,
+     * e.g. because the browser tab was closed. Replacing a stream via {@link #openStream(String)}
+     * does not count as a disconnect.
+     */
+    public void onDisconnect(Consumer<String> listener) {
+        disconnectListeners.add(listener);
+    }
+
     public void publish(String clientId, String payload) {
+        publish(clientId, MESSAGE_EVENT, payload);
+    }
+
+    public void publish(String clientId, String eventName, String payload) {
         if (payload == null || payload.isBlank()) {
             return;
         }
@@ -53,11 +93,25 @@ public class ChatStreamPublisher {
         }
 
         try {
-            emitter.send(SseEmitter.event().name("message").data(payload));
+            PipelineStage.SSE_PUBLISH.run(observationRegistry, () -> send(emitter, eventName, payload));
+        } catch (UncheckedIOException ex) {
+            disconnected(clientId, emitter);
+            emitter.completeWithError(ex.getCause());
+            log.warn("Failed to publish SSE payload for client {}", clientId, ex.getCause());
+        }
+    }
+
+    private static void send(SseEmitter emitter, String eventName, String payload) {
+        try {
+            emitter.send(SseEmitter.event().name(eventName).data(payload));
         } catch (IOException ex) {
-            emitters.remove(clientId, emitter);
-            emitter.completeWithError(ex);
-            log.warn("Failed to publish SSE payload for client {}", clientId, ex);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void disconnected(String clientId, SseEmitter emitter) {
+        if (emitters.remove(clientId, emitter)) {
+            disconnectListeners.forEach(listener -> listener.accept(clientId));
         }
     }
 }
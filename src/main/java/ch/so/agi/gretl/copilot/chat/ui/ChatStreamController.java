@@ -8,6 +8,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+
 @RestController
 @RequestMapping("/ui/chat")
 public class ChatStreamController {
@@ -19,7 +21,11 @@ public class ChatStreamController {
     }
 
     @GetMapping(path = "/stream/{clientId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter stream(@PathVariable("clientId") String clientId) {
-        return streamPublisher.openStream(clientId);
+    public SseEmitter stream(@PathVariable("clientId") String clientId) throws IOException {
+        SseEmitter emitter = streamPublisher.openStream(clientId);
+        // Without a first event the response headers are held back until the first message; the
+        // comment tells the client right away that the stream is registered.
+        emitter.send(SseEmitter.event().comment("connected"));
+        return emitter;
     }
 }
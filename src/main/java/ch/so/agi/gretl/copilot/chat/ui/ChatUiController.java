@@ -2,8 +2,16 @@ package ch.so.agi.gretl.copilot.chat.ui;
 
 import ch.so.agi.gretl.copilot.chat.ChatService;
 import ch.so.agi.gretl.copilot.chat.dto.ChatRequest;
+import ch.so.agi.gretl.copilot.chat.dto.ChatResponse;
+import ch.so.agi.gretl.copilot.chat.execution.ChatExecutor;
+import ch.so.agi.gretl.copilot.chat.execution.ChatRejectedException;
 import ch.so.agi.gretl.copilot.chat.stream.ChatStreamPublisher;
 import ch.so.agi.gretl.copilot.chat.view.ChatMessageView;
+import ch.so.agi.gretl.copilot.orchestration.PipelineStage;
+import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -15,24 +23,44 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Controller
 @RequestMapping("/ui/chat")
-public class ChatUiController {
+public class ChatUiController implements DisposableBean {
     private static final Logger log = LoggerFactory.getLogger(ChatUiController.class);
     
     private final ChatService chatService;
+    private final ChatExecutor chatExecutor;
     private final ChatStreamPublisher streamPublisher;
     private final ChatViewRenderer chatViewRenderer;
+    private final MarkdownRenderer markdownRenderer;
+    private final Duration streamFlushInterval;
+    private final ObservationRegistry observationRegistry;
+    // Replies of joined questions are rendered here rather than in the slot of the question they joined.
+    private final ExecutorService replyExecutor = PipelineStage.propagateContext(
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-reply-", 0).factory()));
 
     public ChatUiController(ChatService chatService,
+                            ChatExecutor chatExecutor,
                             ChatStreamPublisher streamPublisher,
-                            ChatViewRenderer chatViewRenderer) {
+                            ChatViewRenderer chatViewRenderer,
+                            MarkdownRenderer markdownRenderer,
+                            @Value("${copilot.chat.stream.flush-interval:PT0.1S}") Duration streamFlushInterval,
+                            ObservationRegistry observationRegistry) {
         this.chatService = chatService;
+        this.chatExecutor = chatExecutor;
         this.streamPublisher = streamPublisher;
         this.chatViewRenderer = chatViewRenderer;
+        this.markdownRenderer = markdownRenderer;
+        this.streamFlushInterval = streamFlushInterval;
+        this.observationRegistry = observationRegistry;
+        streamPublisher.onDisconnect(chatExecutor::cancel);
     }
 
     @GetMapping
@@ -54,18 +82,48 @@ public class ChatUiController {
         String renderedUser = chatViewRenderer.renderMessage(userMessage);
         String removeEmptyState = "<div id=\"empty-state\" hx-swap-oob=\"delete\"></div>";
 
-        CompletableFuture
-                .supplyAsync(() -> chatService.respond(new ChatRequest(sanitized)))
-                .thenApply(response -> ChatMessageView.assistant(response.answer(), response.goal()))
-                .thenApply(chatViewRenderer::renderMessage)
-                .thenAccept(rendered -> streamPublisher.publish(clientId, rendered))
-                .exceptionally(error -> {
-                    log.error("Failed to process chat message", error);
-                    streamPublisher.publish(clientId,
-                            chatViewRenderer.renderMessage(ChatMessageView.system("We could not process your request right now. Please try again.")));
-                    return null;
-                });
+        StreamingReply reply = new StreamingReply(clientId, streamPublisher, chatViewRenderer, markdownRenderer,
+                streamFlushInterval);
+        try {
+            chatService.respondAsync(new ChatRequest(sanitized), reply,
+                            answer -> chatExecutor.submit(clientId, () -> PipelineStage.REQUEST.observe(observationRegistry, () -> {
+                                ChatResponse response = answer.get();
+                                PipelineStage.tagTaskType(observationRegistry, response.goal());
+                                return response;
+                            })))
+                    // captured here: the answer of a joined question is completed in the trace of the one it joined
+                    .thenAcceptAsync(PipelineStage.propagateContext((ChatResponse response) ->
+                            PipelineStage.REPLY.observe(observationRegistry, response.goal(), () -> {
+                                reply.complete(response.answer(), response.goal());
+                                streamPublisher.publish(clientId, ChatStreamPublisher.DONE_EVENT, String.valueOf(response.goal()));
+                                return null;
+                            })), replyExecutor)
+                    .exceptionally(error -> {
+                        if (isCancellation(error)) {
+                            log.debug("Chat message of client {} was cancelled", clientId);
+                            return null;
+                        }
+                        log.error("Failed to process chat message", error);
+                        streamPublisher.publish(clientId,
+                                chatViewRenderer.renderMessage(ChatMessageView.system("We could not process your request right now. Please try again.")));
+                        streamPublisher.publish(clientId, ChatStreamPublisher.DONE_EVENT, "error");
+                        return null;
+                    });
+        } catch (ChatRejectedException ex) {
+            log.info("Rejected chat message of client {}: {}", clientId, ex.reason());
+            return removeEmptyState + renderedUser + chatViewRenderer.renderMessage(ChatMessageView.system(ex.getMessage()));
+        }
 
         return removeEmptyState + renderedUser;
     }
+
+    @Override
+    public void destroy() {
+        replyExecutor.shutdownNow();
+    }
+
+    private static boolean isCancellation(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof CancellationException;
+    }
 }
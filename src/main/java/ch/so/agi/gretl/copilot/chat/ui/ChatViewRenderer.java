@@ -1,29 +1,51 @@
 package ch.so.agi.gretl.copilot.chat.ui;
 
 import ch.so.agi.gretl.copilot.chat.view.ChatMessageView;
+import ch.so.agi.gretl.copilot.orchestration.PipelineStage;
 import gg.jte.TemplateEngine;
 import gg.jte.output.StringOutput;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
 
 @Component
 public class ChatViewRenderer {
-    private static final Logger log = LoggerFactory.getLogger(ChatViewRenderer.class);
 
     private final TemplateEngine templateEngine;
+    private final ObservationRegistry observationRegistry;
 
     public ChatViewRenderer(TemplateEngine templateEngine) {
+        this(templateEngine, ObservationRegistry.NOOP);
+    }
+
+    @Autowired
+    public ChatViewRenderer(TemplateEngine templateEngine, ObservationRegistry observationRegistry) {
         this.templateEngine = templateEngine;
+        this.observationRegistry = observationRegistry;
     }
 
     public String renderMessage(ChatMessageView messageView) {
-        log.info("ChatViewRenderer renderMessage");
-        StringOutput output = new StringOutput();
-        templateEngine.render("chat/message.jte", Map.of("message", messageView), output);
-        return output.toString();
+        return render("chat/message.jte", messageView);
+    }
+
+    /**
+     * Renders an out-of-band swap that replaces the body of the already sent message
+     * {@link ChatMessageView#id()}.
+     */
+    public String renderBodyUpdate(ChatMessageView messageView) {
+        if (messageView.id() == null) {
+            throw new IllegalArgumentException("Only messages with an id can be updated");
+        }
+        return render("chat/message-body.jte", messageView);
+    }
+
+    private String render(String template, ChatMessageView messageView) {
+        return PipelineStage.JTE_RENDER.observe(observationRegistry, () -> {
+            StringOutput output = new StringOutput();
+            templateEngine.render(template, Map.of("message", messageView), output);
+            return output.toString();
+        });
     }
 }
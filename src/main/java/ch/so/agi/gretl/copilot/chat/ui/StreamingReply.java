@@ -0,0 +1,94 @@
+package ch.so.agi.gretl.copilot.chat.ui;
+
+import ch.so.agi.gretl.copilot.chat.stream.ChatStreamPublisher;
+import ch.so.agi.gretl.copilot.chat.view.ChatMessageView;
+import ch.so.agi.gretl.copilot.orchestration.AnswerListener;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * Pushes one assistant answer to a client's SSE stream while it is generated.
+ * <p>
+ * The first token immediately sends the assistant message with an id. Later tokens are coalesced:
+ * at most once per flush interval the Markdown received so far is rendered and swapped into the
+ * message body out of band. {@link #complete(String, TaskType)} replaces the body with the final
+ * answer, or sends the whole message if the agent did not stream at all.
+ */
+final class StreamingReply implements AnswerListener {
+
+    private final String clientId;
+    private final String messageId;
+    private final ChatStreamPublisher publisher;
+    private final ChatViewRenderer viewRenderer;
+    private final MarkdownRenderer markdownRenderer;
+    private final long flushIntervalNanos;
+    private final LongSupplier nanoClock;
+
+    private final StringBuilder markdown = new StringBuilder();
+    private TaskType taskType;
+    private boolean started;
+    private long lastFlush;
+
+    StreamingReply(String clientId,
+                   ChatStreamPublisher publisher,
+                   ChatViewRenderer viewRenderer,
+                   MarkdownRenderer markdownRenderer,
+                   Duration flushInterval) {
+        this(clientId, publisher, viewRenderer, markdownRenderer, flushInterval, System::nanoTime);
+    }
+
+    StreamingReply(String clientId,
+                   ChatStreamPublisher publisher,
+                   ChatViewRenderer viewRenderer,
+                   MarkdownRenderer markdownRenderer,
+                   Duration flushInterval,
+                   LongSupplier nanoClock) {
+        this.clientId = clientId;
+        this.messageId = "msg-" + UUID.randomUUID();
+        this.publisher = publisher;
+        this.viewRenderer = viewRenderer;
+        this.markdownRenderer = markdownRenderer;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.nanoClock = nanoClock;
+    }
+
+    @Override
+    public synchronized void onPartialAnswer(TaskType taskType, String token) {
+        markdown.append(token);
+        if (!started) {
+            started = true;
+            this.taskType = taskType;
+            publisher.publish(clientId, viewRenderer.renderMessage(partialView()));
+            markFlushed();
+        } else if (nanoClock.getAsLong() - lastFlush >= flushIntervalNanos) {
+            publisher.publish(clientId, viewRenderer.renderBodyUpdate(partialView()));
+            markFlushed();
+        }
+    }
+
+    @Override
+    public synchronized void restart() {
+        markdown.setLength(0);
+    }
+
+    synchronized void complete(String answer, TaskType goal) {
+        ChatMessageView view = ChatMessageView.assistant(answer, goal);
+        if (started) {
+            publisher.publish(clientId, viewRenderer.renderBodyUpdate(view.withId(messageId)));
+        } else {
+            publisher.publish(clientId, viewRenderer.renderMessage(view));
+        }
+    }
+
+    private ChatMessageView partialView() {
+        return ChatMessageView.assistant(markdownRenderer.render(markdown.toString()), taskType).withId(messageId);
+    }
+
+    private void markFlushed() {
+        lastFlush = nanoClock.getAsLong();
+    }
+}
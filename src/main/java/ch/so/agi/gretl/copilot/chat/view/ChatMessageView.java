@@ -5,7 +5,15 @@ import gg.jte.html.HtmlContent;
 import gg.jte.html.HtmlTemplateOutput;
 import gg.jte.html.escape.Escape;
 
-public record ChatMessageView(ChatMessageAuthor author, String content, String detail) {
+/**
+ * A chat message as rendered by {@code chat/message.jte}. Messages with an {@code id} can be
+ * updated in place after they have been sent, e.g. while an answer is streamed.
+ */
+public record ChatMessageView(ChatMessageAuthor author, String content, String detail, String id) {
+
+    public ChatMessageView(ChatMessageAuthor author, String content, String detail) {
+        this(author, content, detail, null);
+    }
 
     public static ChatMessageView user(String content) {
         return new ChatMessageView(ChatMessageAuthor.USER, content, null);
@@ -20,6 +28,14 @@ public record ChatMessageView(ChatMessageAuthor author, String content, String d
         return new ChatMessageView(ChatMessageAuthor.SYSTEM, content, null);
     }
 
+    public ChatMessageView withId(String id) {
+        return new ChatMessageView(author, content, detail, id);
+    }
+
+    public String bodyId() {
+        return id == null ? null : id + "-body";
+    }
+
     public String cssClass() {
         return "message " + author.cssClass();
     }
@@ -1,26 +1,46 @@
 package ch.so.agi.gretl.copilot.config;
 
+import ch.so.agi.gretl.copilot.embedding.BatchingEmbeddingModel;
+import ch.so.agi.gretl.copilot.embedding.CachingEmbeddingModel;
+import ch.so.agi.gretl.copilot.embedding.EmbeddingBackend;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.UserMessage;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.chat.request.ChatRequest;
 import dev.langchain4j.model.chat.response.ChatResponse;
 import dev.langchain4j.model.embedding.DisabledEmbeddingModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2q.AllMiniLmL6V2QuantizedEmbeddingModel;
 import dev.langchain4j.model.openai.OpenAiChatModel;
 import dev.langchain4j.model.openai.OpenAiEmbeddingModel;
+import dev.langchain4j.model.openai.OpenAiStreamingChatModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 
 @Configuration
 public class LangChainConfiguration {
 
+    private final String baseUrl;
+
+    /**
+     * @param baseUrl endpoint of an OpenAI-compatible API, e.g. the stub server of the load test;
+     *                blank for api.openai.com
+     */
+    public LangChainConfiguration(@Value("${openai.base-url:}") String baseUrl) {
+        this.baseUrl = baseUrl == null || baseUrl.isBlank() ? null : baseUrl;
+    }
+
     @Bean("classifierModel")
     @ConditionalOnProperty(name = "openai.api-key")
     public ChatModel classifierChatModel(
@@ -38,17 +58,52 @@ public class LangChainConfiguration {
         return createOpenAiModel(apiKey, modelName);
     }
 
+    /**
+     * In-process embeddings with {@code copilot.embedding.backend=local}. Not batched: the model runs
+     * in a few milliseconds, so waiting for a batching window would only add latency.
+     */
+    @Bean("finderEmbeddingModel")
+    @ConditionalOnProperty(name = "copilot.embedding.backend", havingValue = "local")
+    public EmbeddingModel localFinderEmbeddingModel(
+            @Value("${copilot.embedding.cache.max-entries:2000}") int cacheMaxEntries,
+            @Value("${copilot.embedding.cache.ttl:PT24H}") Duration cacheTtl,
+            @Value("${copilot.embedding.cache.file:}") String cacheFile,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        CachingEmbeddingModel cachingModel = new CachingEmbeddingModel(new AllMiniLmL6V2QuantizedEmbeddingModel(),
+                EmbeddingBackend.LOCAL_MODEL + "@" + EmbeddingBackend.LOCAL_DIMENSIONS,
+                cacheMaxEntries, cacheTtl, cacheFile.isBlank() ? null : Path.of(cacheFile));
+        meterRegistry.ifAvailable(cachingModel::bindTo);
+        return cachingModel;
+    }
+
     @Bean("finderEmbeddingModel")
     @ConditionalOnProperty(name = "openai.api-key")
+    @ConditionalOnMissingBean(name = "finderEmbeddingModel")
     public EmbeddingModel finderEmbeddingModel(
             @Value("${openai.api-key}") String apiKey,
-            @Value("${openai.embedding-model:text-embedding-3-large}") String modelName) {
-        return OpenAiEmbeddingModel.builder()
+            @Value("${openai.embedding-model:text-embedding-3-large}") String modelName,
+            @Value("${openai.embedding-dimensions:3072}") int dimensions,
+            @Value("${copilot.embedding.cache.max-entries:2000}") int cacheMaxEntries,
+            @Value("${copilot.embedding.cache.ttl:PT24H}") Duration cacheTtl,
+            @Value("${copilot.embedding.cache.file:}") String cacheFile,
+            @Value("${copilot.embedding.batch.window:PT0.01S}") Duration batchWindow,
+            @Value("${copilot.embedding.batch.max-size:64}") int batchMaxSize,
+            @Value("${copilot.embedding.batch.timeout:PT30S}") Duration batchTimeout,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        EmbeddingModel model = OpenAiEmbeddingModel.builder()
+                .baseUrl(baseUrl)
                 .apiKey(apiKey)
                 .modelName(modelName)
+                .dimensions(dimensions)
 //                .logRequests(true)
 //                .logResponses(true)
                 .build();
+        BatchingEmbeddingModel batchingModel = new BatchingEmbeddingModel(model, batchWindow, batchMaxSize, batchTimeout);
+        meterRegistry.ifAvailable(batchingModel::bindTo);
+        CachingEmbeddingModel cachingModel = new CachingEmbeddingModel(batchingModel, modelName + "@" + dimensions,
+                cacheMaxEntries, cacheTtl, cacheFile.isBlank() ? null : Path.of(cacheFile));
+        meterRegistry.ifAvailable(cachingModel::bindTo);
+        return cachingModel;
     }
 
     @Bean("explanationModel")
@@ -67,6 +122,22 @@ public class LangChainConfiguration {
         return createOpenAiModel(apiKey, modelName);
     }
 
+    @Bean("explanationStreamingModel")
+    @ConditionalOnProperty(name = "openai.api-key")
+    public StreamingChatModel explanationStreamingChatModel(
+            @Value("${openai.api-key}") String apiKey,
+            @Value("${openai.explanation-model:gpt-4o-mini}") String modelName) {
+        return createOpenAiStreamingModel(apiKey, modelName);
+    }
+
+    @Bean("generatorStreamingModel")
+    @ConditionalOnProperty(name = "openai.api-key")
+    public StreamingChatModel generatorStreamingChatModel(
+            @Value("${openai.api-key}") String apiKey,
+            @Value("${openai.generator-model:gpt-4o-mini}") String modelName) {
+        return createOpenAiStreamingModel(apiKey, modelName);
+    }
+
     @Bean(name = "classifierModel")
     @ConditionalOnMissingBean(name = "classifierModel")
     public ChatModel classifierFallbackModel() {
@@ -100,6 +171,7 @@ public class LangChainConfiguration {
 
     private ChatModel createOpenAiModel(String apiKey, String modelName) {
         return OpenAiChatModel.builder()
+                .baseUrl(baseUrl)
                 .apiKey(apiKey)
                 .modelName(modelName)
 //                .logRequests(true)
@@ -107,6 +179,14 @@ public class LangChainConfiguration {
                 .build();
     }
 
+    private StreamingChatModel createOpenAiStreamingModel(String apiKey, String modelName) {
+        return OpenAiStreamingChatModel.builder()
+                .baseUrl(baseUrl)
+                .apiKey(apiKey)
+                .modelName(modelName)
+                .build();
+    }
+
     private static class KeywordClassifierChatModel implements ChatModel {
 
         @Override
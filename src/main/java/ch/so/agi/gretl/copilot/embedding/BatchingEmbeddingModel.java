@@ -0,0 +1,232 @@
+package ch.so.agi.gretl.copilot.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link EmbeddingModel} decorator that coalesces concurrent {@code embedAll} calls into one call of
+ * the delegate.
+ * <p>
+ * The first caller opens a batch and waits up to {@code window} for other callers to join, or until
+ * the batch holds {@code maxBatchSize} segments. It then sends the distinct texts of the batch in a
+ * single request and hands each caller its vectors; every caller, the opening one included, waits at
+ * most {@code callerTimeout} for that. Waiting for the window and calling the delegate happen on a
+ * virtual thread of the model, not on a caller's thread, so an interrupted or timed-out caller only
+ * gives up its own vectors and the rest of the batch is still answered. Calls with at least
+ * {@code maxBatchSize} segments, or with a zero window, are forwarded unchanged.
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel, MeterBinder, AutoCloseable {
+
+    private final EmbeddingModel delegate;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final Duration callerTimeout;
+
+    private final ExecutorService sender = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("embedding-batch-", 0).factory());
+    private final Object lock = new Object();
+    private Batch openBatch;
+
+    private final LongAdder callers = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+
+    /**
+     * @param delegate      the model computing the embeddings
+     * @param window        how long the first caller of a batch waits for others to join
+     * @param maxBatchSize  number of segments after which a batch is sent without waiting further
+     * @param callerTimeout how long a joining caller waits for the vectors of its batch
+     */
+    public BatchingEmbeddingModel(EmbeddingModel delegate, Duration window, int maxBatchSize, Duration callerTimeout) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.delegate = delegate;
+        this.window = window == null ? Duration.ZERO : window;
+        this.maxBatchSize = maxBatchSize;
+        this.callerTimeout = callerTimeout;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        if (segments.isEmpty() || window.isZero() || segments.size() >= maxBatchSize) {
+            return delegate.embedAll(segments);
+        }
+        callers.increment();
+
+        Batch batch;
+        Pending pending = new Pending(segments);
+        boolean opener;
+        synchronized (lock) {
+            if (openBatch != null && openBatch.size + segments.size() > maxBatchSize) {
+                openBatch.full.countDown();
+                openBatch = null;
+            }
+            opener = openBatch == null;
+            if (opener) {
+                openBatch = new Batch();
+            }
+            batch = openBatch;
+            batch.add(pending);
+            if (batch.size >= maxBatchSize) {
+                batch.full.countDown();
+                openBatch = null;
+            }
+        }
+
+        if (opener) {
+            try {
+                sender.execute(() -> send(batch));
+            } catch (RejectedExecutionException ex) {
+                batch.pending.forEach(caller -> caller.result.completeExceptionally(
+                        new IllegalStateException("Embedding model is closed", ex)));
+            }
+        }
+        return Response.from(await(pending));
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public BatchStats stats() {
+        return new BatchStats(callers.sum(), batches.sum(), deduplicated.sum());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gretl.embedding.batch.callers", callers, LongAdder::sum)
+                .description("embedAll calls that took part in batching")
+                .register(registry);
+        FunctionCounter.builder("gretl.embedding.batch.requests", batches, LongAdder::sum)
+                .description("Batched embedAll calls sent to the embedding model")
+                .register(registry);
+        FunctionCounter.builder("gretl.embedding.batch.deduplicated", deduplicated, LongAdder::sum)
+                .description("Segments not sent because an identical text was already in the batch")
+                .register(registry);
+    }
+
+    /**
+     * Stops the sender threads; batches still waiting for their window fail.
+     */
+    @Override
+    public void close() {
+        sender.shutdownNow();
+    }
+
+    private void send(Batch batch) {
+        InterruptedException closed = null;
+        try {
+            batch.full.await(window.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            // only close() interrupts the sender
+            closed = ex;
+        }
+        synchronized (lock) {
+            if (openBatch == batch) {
+                openBatch = null;
+            }
+        }
+        if (closed != null) {
+            IllegalStateException failure = new IllegalStateException("Embedding model is closed", closed);
+            batch.pending.forEach(pending -> pending.result.completeExceptionally(failure));
+            return;
+        }
+
+        Map<String, Integer> distinct = new LinkedHashMap<>();
+        List<TextSegment> request = new ArrayList<>(batch.size);
+        for (Pending pending : batch.pending) {
+            for (TextSegment segment : pending.segments) {
+                if (distinct.putIfAbsent(segment.text(), request.size()) == null) {
+                    request.add(segment);
+                } else {
+                    deduplicated.increment();
+                }
+            }
+        }
+
+        try {
+            batches.increment();
+            List<Embedding> embeddings = delegate.embedAll(request).content();
+            if (embeddings == null || embeddings.size() != request.size()) {
+                throw new IllegalStateException("Embedding model returned %d vectors for %d segments"
+                        .formatted(embeddings == null ? 0 : embeddings.size(), request.size()));
+            }
+            for (Pending pending : batch.pending) {
+                List<Embedding> result = new ArrayList<>(pending.segments.size());
+                for (TextSegment segment : pending.segments) {
+                    result.add(Embedding.from(embeddings.get(distinct.get(segment.text())).vector().clone()));
+                }
+                pending.result.complete(result);
+            }
+        } catch (RuntimeException ex) {
+            batch.pending.forEach(pending -> pending.result.completeExceptionally(ex));
+        }
+    }
+
+    private List<Embedding> await(Pending pending) {
+        try {
+            return pending.result.get(callerTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batched embedding", ex);
+        } catch (TimeoutException ex) {
+            throw new IllegalStateException("Batched embedding did not complete within " + callerTimeout, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException("Batched embedding failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Counters of the batching: {@code callers} calls were answered with {@code batches} calls of the
+     * delegate.
+     */
+    public record BatchStats(long callers, long batches, long deduplicated) {
+
+        public double callersPerBatch() {
+            return batches == 0 ? 0.0d : (double) callers / batches;
+        }
+    }
+
+    private static final class Batch {
+        private final List<Pending> pending = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private int size;
+
+        private void add(Pending caller) {
+            pending.add(caller);
+            size += caller.segments.size();
+        }
+    }
+
+    private record Pending(List<TextSegment> segments, CompletableFuture<List<Embedding>> result) {
+
+        private Pending(List<TextSegment> segments) {
+            this(List.copyOf(segments), new CompletableFuture<>());
+        }
+    }
+}
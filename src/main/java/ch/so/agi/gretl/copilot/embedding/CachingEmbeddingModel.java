@@ -0,0 +1,298 @@
+package ch.so.agi.gretl.copilot.embedding;
+
+import ch.so.agi.gretl.copilot.support.QueryText;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link EmbeddingModel} decorator that keeps recently computed query embeddings in memory.
+ * <p>
+ * Entries are keyed on {@link QueryText#normalize(String) normalized} text, stored as
+ * {@code float[]} and evicted in least-recently-used order once {@code maxEntries} is exceeded or
+ * when they are older than the configured time-to-live. Only cache misses are forwarded to the
+ * delegate, in a single {@code embedAll} call. If a cache file is configured, the content is
+ * written on {@link #close()} and read again on construction so that a restarted instance starts
+ * warm.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, MeterBinder, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+
+    private static final int FILE_MAGIC = 0x47454d42; // "GEMB"
+    private static final int FILE_VERSION = 1;
+
+    private final EmbeddingModel delegate;
+    private final String namespace;
+    private final int maxEntries;
+    private final Duration ttl;
+    private final Clock clock;
+    private final Path cacheFile;
+    private final LinkedHashMap<String, CachedVector> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param delegate   the model computing embeddings on a cache miss
+     * @param namespace  identifies the vector space (e.g. model name and dimensions); a persisted
+     *                   cache written for another namespace is ignored
+     * @param maxEntries upper bound of cached vectors
+     * @param ttl        maximum age of an entry, {@link Duration#ZERO} disables expiry
+     * @param cacheFile  optional file used to persist the cache across restarts
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String namespace, int maxEntries, Duration ttl,
+                                 Path cacheFile) {
+        this(delegate, namespace, maxEntries, ttl, cacheFile, Clock.systemUTC());
+    }
+
+    CachingEmbeddingModel(EmbeddingModel delegate, String namespace, int maxEntries, Duration ttl,
+                          Path cacheFile, Clock clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.delegate = delegate;
+        this.namespace = namespace == null ? "" : namespace;
+        this.maxEntries = maxEntries;
+        this.ttl = ttl == null ? Duration.ZERO : ttl;
+        this.clock = clock;
+        this.cacheFile = cacheFile;
+        load();
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        List<Embedding> result = new ArrayList<>(segments.size());
+        Map<String, List<Integer>> missingPositions = new LinkedHashMap<>();
+        List<TextSegment> missingSegments = new ArrayList<>();
+
+        long now = clock.millis();
+        synchronized (entries) {
+            for (int i = 0; i < segments.size(); i++) {
+                TextSegment segment = segments.get(i);
+                String key = QueryText.normalize(segment.text());
+                CachedVector cached = entries.get(key);
+                if (cached != null && isExpired(cached, now)) {
+                    entries.remove(key);
+                    evictions.increment();
+                    cached = null;
+                }
+                if (cached != null) {
+                    hits.increment();
+                    result.add(Embedding.from(cached.vector().clone()));
+                    continue;
+                }
+                misses.increment();
+                result.add(null);
+                List<Integer> positions = missingPositions.get(key);
+                if (positions == null) {
+                    positions = new ArrayList<>(1);
+                    missingPositions.put(key, positions);
+                    missingSegments.add(segment);
+                }
+                positions.add(i);
+            }
+        }
+
+        if (missingSegments.isEmpty()) {
+            return Response.from(result);
+        }
+
+        Response<List<Embedding>> computed = delegate.embedAll(missingSegments);
+        List<Embedding> embeddings = computed.content();
+        if (embeddings == null || embeddings.size() != missingSegments.size()) {
+            throw new IllegalStateException("Embedding model returned %d vectors for %d segments"
+                    .formatted(embeddings == null ? 0 : embeddings.size(), missingSegments.size()));
+        }
+
+        int index = 0;
+        long storedAt = clock.millis();
+        synchronized (entries) {
+            for (Map.Entry<String, List<Integer>> missing : missingPositions.entrySet()) {
+                float[] vector = embeddings.get(index++).vector();
+                entries.put(missing.getKey(), new CachedVector(vector.clone(), storedAt));
+                for (int position : missing.getValue()) {
+                    result.set(position, Embedding.from(vector.clone()));
+                }
+            }
+            evictOverflow();
+        }
+        return Response.from(result, computed.tokenUsage(), computed.finishReason());
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public CacheStats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gretl.embedding.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .description("Embedding lookups answered from the cache")
+                .register(registry);
+        FunctionCounter.builder("gretl.embedding.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .description("Embedding lookups forwarded to the embedding model")
+                .register(registry);
+        FunctionCounter.builder("gretl.embedding.cache.evictions", evictions, LongAdder::sum)
+                .description("Cache entries removed because of size or age")
+                .register(registry);
+        Gauge.builder("gretl.embedding.cache.size", this, model -> model.stats().size())
+                .description("Number of cached embedding vectors")
+                .register(registry);
+    }
+
+    /**
+     * Drops every cached vector, e.g. after the embedding model configuration changed.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Persists the cache if a cache file is configured and closes a batching delegate.
+     */
+    @Override
+    public void close() {
+        persist();
+        if (delegate instanceof BatchingEmbeddingModel batching) {
+            batching.close();
+        }
+    }
+
+    private void persist() {
+        if (cacheFile == null) {
+            return;
+        }
+        List<Map.Entry<String, CachedVector>> snapshot;
+        synchronized (entries) {
+            snapshot = new ArrayList<>(entries.entrySet());
+        }
+        try {
+            Path parent = cacheFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = Files.createTempFile(parent, "embedding-cache", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeUTF(namespace);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, CachedVector> entry : snapshot) {
+                    float[] vector = entry.getValue().vector();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().storedAt());
+                    out.writeInt(vector.length);
+                    for (float value : vector) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Persisted {} cached embeddings to {}", snapshot.size(), cacheFile);
+        } catch (IOException ex) {
+            log.warn("Failed to persist embedding cache to {}", cacheFile, ex);
+        }
+    }
+
+    private void load() {
+        if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
+            return;
+        }
+        long now = clock.millis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                log.warn("Ignoring embedding cache {}: unknown file format", cacheFile);
+                return;
+            }
+            String fileNamespace = in.readUTF();
+            if (!namespace.equals(fileNamespace)) {
+                log.info("Ignoring embedding cache {}: written for '{}' but model is '{}'", cacheFile, fileNamespace, namespace);
+                return;
+            }
+            int count = in.readInt();
+            synchronized (entries) {
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    long storedAt = in.readLong();
+                    float[] vector = new float[in.readInt()];
+                    for (int j = 0; j < vector.length; j++) {
+                        vector[j] = in.readFloat();
+                    }
+                    CachedVector cached = new CachedVector(vector, storedAt);
+                    if (!isExpired(cached, now)) {
+                        entries.put(key, cached);
+                    }
+                }
+                evictOverflow();
+                log.info("Loaded {} cached embeddings from {}", entries.size(), cacheFile);
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to read embedding cache from {}", cacheFile, ex);
+        }
+    }
+
+    private boolean isExpired(CachedVector cached, long now) {
+        return !ttl.isZero() && now - cached.storedAt() > ttl.toMillis();
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, CachedVector>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Point-in-time counters of the cache.
+     */
+    public record CacheStats(long hits, long misses, long evictions, int size) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0d : (double) hits / total;
+        }
+    }
+
+    private record CachedVector(float[] vector, long storedAt) {
+    }
+}
@@ -0,0 +1,25 @@
+package ch.so.agi.gretl.copilot.embedding;
+
+/**
+ * Where query embeddings are computed ({@code copilot.embedding.backend}). The corpus must have been
+ * embedded with the same model: {@code ingest_gretl.java} records model and dimension with every
+ * corpus version in {@code rag.corpus_state}.
+ */
+public enum EmbeddingBackend {
+
+    /** OpenAI embeddings API ({@code openai.embedding-model}); disabled without an API key. */
+    OPENAI,
+
+    /** Quantized all-MiniLM-L6-v2 on ONNX Runtime, in-process on the CPU; no API key or network needed. */
+    LOCAL;
+
+    /**
+     * Model name of {@link #LOCAL}, as recorded by the ingester ({@code EMBED_BACKEND=local}).
+     */
+    public static final String LOCAL_MODEL = "all-minilm-l6-v2-q";
+
+    /**
+     * Dimension of the {@link #LOCAL} embeddings.
+     */
+    public static final int LOCAL_DIMENSIONS = 384;
+}
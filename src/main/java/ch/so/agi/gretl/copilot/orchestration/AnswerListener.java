@@ -0,0 +1,24 @@
+package ch.so.agi.gretl.copilot.orchestration;
+
+/**
+ * Receives an answer while the selected agent is still generating it.
+ * <p>
+ * Agents that stream from a LangChain4j {@code StreamingChatModel} report every token as it
+ * arrives; all others only return their complete answer. Calls for one request happen one after
+ * the other, but not necessarily on the caller's thread.
+ */
+@FunctionalInterface
+public interface AnswerListener {
+
+    AnswerListener NONE = (taskType, token) -> {
+    };
+
+    void onPartialAnswer(TaskType taskType, String token);
+
+    /**
+     * The answer is generated again from its first token, e.g. because the request this one joined
+     * was cancelled; the tokens received so far are void.
+     */
+    default void restart() {
+    }
+}
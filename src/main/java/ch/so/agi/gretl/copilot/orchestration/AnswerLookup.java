@@ -0,0 +1,15 @@
+package ch.so.agi.gretl.copilot.orchestration;
+
+import java.util.Optional;
+
+/**
+ * Looks up a known answer to the message being orchestrated once its {@link TaskType} is known, so
+ * the agent does not have to run.
+ */
+@FunctionalInterface
+public interface AnswerLookup {
+
+    AnswerLookup NONE = taskType -> Optional.empty();
+
+    Optional<TaskExecutionResult> find(TaskType taskType);
+}
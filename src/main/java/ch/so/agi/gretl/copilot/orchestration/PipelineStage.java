@@ -0,0 +1,137 @@
+package ch.so.agi.gretl.copilot.orchestration;
+
+import io.micrometer.common.KeyValue;
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.ObservationView;
+
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Stages of answering a chat message, each observed as {@code gretl.chat.stage} with the tags
+ * {@code stage}, {@code task.type} and {@code outcome} ({@code success} or {@code error}).
+ * <p>
+ * An observation becomes a timer (and, with tracing, a span) through the handlers Spring Boot
+ * registers on the {@link ObservationRegistry}. The task type of a stage is either passed in,
+ * {@linkplain #tagTaskType(ObservationRegistry, TaskType) set while it runs}, or taken from the
+ * enclosing stage, so a Markdown render inside the explanation agent is counted for
+ * {@code EXPLAIN_TASK}. Work handed to other threads keeps its enclosing stage when the executor is
+ * wrapped with {@link #propagateContext(ExecutorService)}.
+ */
+public enum PipelineStage {
+
+    REQUEST("request"),
+    CLASSIFICATION("classification"),
+    AGENT("agent"),
+    EMBEDDING("embedding"),
+    LEXICAL_SQL("lexical_sql"),
+    SEMANTIC_SQL("semantic_sql"),
+    HYBRID_SQL("hybrid_sql"),
+    RANK_FUSION("rank_fusion"),
+    MARKDOWN_RENDER("markdown_render"),
+    JTE_RENDER("jte_render"),
+    SSE_PUBLISH("sse_publish"),
+    REPLY("reply");
+
+    public static final String OBSERVATION_NAME = "gretl.chat.stage";
+
+    private static final String STAGE = "stage";
+    private static final String TASK_TYPE = "task.type";
+    private static final String OUTCOME = "outcome";
+    private static final String NO_TASK_TYPE = "none";
+    private static final ContextSnapshotFactory SNAPSHOTS = ContextSnapshotFactory.builder().build();
+
+    private final String tag;
+
+    PipelineStage(String tag) {
+        this.tag = tag;
+    }
+
+    public String tag() {
+        return tag;
+    }
+
+    public <T> T observe(ObservationRegistry registry, Supplier<T> work) {
+        return observe(registry, null, work);
+    }
+
+    /**
+     * Runs {@code work} as this stage.
+     *
+     * @param taskType the task type to tag, or {@code null} to use the one of the enclosing stage
+     */
+    public <T> T observe(ObservationRegistry registry, TaskType taskType, Supplier<T> work) {
+        Observation observation = Observation.createNotStarted(OBSERVATION_NAME, registry)
+                .contextualName("gretl " + tag)
+                .lowCardinalityKeyValue(STAGE, tag);
+        if (taskType != null) {
+            observation.lowCardinalityKeyValue(TASK_TYPE, taskType.name());
+        }
+        observation.start();
+        String outcome = "error";
+        try (Observation.Scope scope = observation.openScope()) {
+            T result = work.get();
+            outcome = "success";
+            return result;
+        } catch (RuntimeException | Error ex) {
+            observation.error(ex);
+            throw ex;
+        } finally {
+            if (taskType == null) {
+                observation.lowCardinalityKeyValue(TASK_TYPE, enclosingTaskType(observation));
+            }
+            observation.lowCardinalityKeyValue(OUTCOME, outcome);
+            observation.stop();
+        }
+    }
+
+    public void run(ObservationRegistry registry, Runnable work) {
+        observe(registry, null, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Records the task type on the running stage once it is known, e.g. after classification.
+     * Stages started afterwards inside it inherit the type.
+     */
+    public static void tagTaskType(ObservationRegistry registry, TaskType taskType) {
+        Observation current = registry.getCurrentObservation();
+        if (current != null && taskType != null) {
+            current.lowCardinalityKeyValue(TASK_TYPE, taskType.name());
+        }
+    }
+
+    /**
+     * Wraps {@code executor} so that tasks run with the observation (and trace) context of the
+     * thread that submitted them.
+     */
+    public static ExecutorService propagateContext(ExecutorService executor) {
+        return ContextExecutorService.wrap(executor, SNAPSHOTS);
+    }
+
+    /**
+     * Wraps {@code consumer} so that it runs with the current context when it is called from another
+     * thread, e.g. by an HTTP client delivering streamed tokens.
+     */
+    public static <T> Consumer<T> propagateContext(Consumer<T> consumer) {
+        return SNAPSHOTS.captureAll().wrap(consumer);
+    }
+
+    private static String enclosingTaskType(ObservationView observation) {
+        ObservationView current = observation;
+        while (current != null) {
+            KeyValue taskType = current.getContextView().getLowCardinalityKeyValue(TASK_TYPE);
+            if (taskType != null) {
+                return taskType.getValue();
+            }
+            current = current.getContextView().getParentObservation();
+        }
+        return NO_TASK_TYPE;
+    }
+}
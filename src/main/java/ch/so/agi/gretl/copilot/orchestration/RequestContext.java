@@ -0,0 +1,105 @@
+package ch.so.agi.gretl.copilot.orchestration;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Work started for a single chat request before its {@link TaskType} is known.
+ * <p>
+ * Agents {@linkplain TaskAgent#prefetch(String, RequestContext) register} speculative work under a
+ * typed {@link Key}; the agent selected by the classifier {@linkplain #take(Key) takes} the result it
+ * needs. Whatever has not been taken when the context is closed is cancelled.
+ * <p>
+ * Once the agent is selected, the context also carries the sink for {@linkplain #emitPartial(String)
+ * partial answers} of streaming agents, and agents {@linkplain #markDegraded() mark} answers they
+ * could only give with part of their grounding.
+ */
+public final class RequestContext implements AutoCloseable {
+
+    private final Map<Key<?>, Future<?>> prefetched = new ConcurrentHashMap<>();
+    private volatile Consumer<String> partialAnswers = token -> {
+    };
+    private volatile boolean degraded;
+
+    /**
+     * A context without speculative work; agents then compute everything on demand.
+     */
+    public static RequestContext empty() {
+        return new RequestContext();
+    }
+
+    public <T> void put(Key<T> key, Future<T> work) {
+        Future<?> previous = prefetched.put(key, work);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+    }
+
+    /**
+     * Removes and returns the work registered under {@code key}, so it is no longer cancelled on
+     * {@link #close()}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<Future<T>> take(Key<T> key) {
+        return Optional.ofNullable((Future<T>) prefetched.remove(key));
+    }
+
+    public void streamTo(Consumer<String> partialAnswers) {
+        this.partialAnswers = partialAnswers;
+    }
+
+    /**
+     * Passes a token of the answer being generated on to the client, if it listens for partial answers.
+     */
+    public void emitPartial(String token) {
+        if (token != null && !token.isEmpty()) {
+            partialAnswers.accept(token);
+        }
+    }
+
+    /**
+     * Records that the answer lacks part of its usual grounding, e.g. a retrieval leg that timed out.
+     */
+    public void markDegraded() {
+        degraded = true;
+    }
+
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    /**
+     * Cancels all speculative work that has not been taken yet.
+     */
+    public void cancelAll() {
+        prefetched.values().forEach(work -> work.cancel(true));
+        prefetched.clear();
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+    }
+
+    /**
+     * Identifies one kind of prefetched result.
+     *
+     * @param <T> the type of the result
+     */
+    public static final class Key<T> {
+
+        private final String name;
+
+        public Key(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
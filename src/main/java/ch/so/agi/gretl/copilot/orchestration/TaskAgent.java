@@ -2,4 +2,19 @@ package ch.so.agi.gretl.copilot.orchestration;
 
 public interface TaskAgent {
     String handle(String userMessage);
+
+    /**
+     * Handles the message, using work this agent {@linkplain #prefetch(String, RequestContext)
+     * prefetched} into {@code context} where available.
+     */
+    default String handle(String userMessage, RequestContext context) {
+        return handle(userMessage);
+    }
+
+    /**
+     * Starts work the agent will need for {@code userMessage} while the message is still being
+     * classified. Implementations must not block; the work may be cancelled at any time.
+     */
+    default void prefetch(String userMessage, RequestContext context) {
+    }
 }
@@ -1,4 +1,14 @@
 package ch.so.agi.gretl.copilot.orchestration;
 
-public record TaskExecutionResult(TaskType taskType, String answer) {
+/**
+ * The answer to a chat message.
+ *
+ * @param degraded whether the agent answered with less than its usual grounding, e.g. because a
+ *                 retrieval leg timed out; such answers must not be reused for other requests
+ */
+public record TaskExecutionResult(TaskType taskType, String answer, boolean degraded) {
+
+    public TaskExecutionResult(TaskType taskType, String answer) {
+        this(taskType, answer, false);
+    }
 }
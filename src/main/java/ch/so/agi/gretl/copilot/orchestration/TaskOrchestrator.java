@@ -4,32 +4,70 @@ import ch.so.agi.gretl.copilot.chat.ui.ChatViewRenderer;
 import ch.so.agi.gretl.copilot.orchestration.agent.TaskExplanationAgent;
 import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderAgent;
 import ch.so.agi.gretl.copilot.orchestration.agent.TaskGeneratorAgent;
-import dev.langchain4j.data.message.SystemMessage;
-import dev.langchain4j.data.message.UserMessage;
+import ch.so.agi.gretl.copilot.orchestration.classification.TaskClassifier;
 import dev.langchain4j.model.chat.ChatModel;
-import dev.langchain4j.model.chat.response.ChatResponse;
-
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.EnumMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
+/**
+ * Classifies a user message and lets the matching agent answer it.
+ * <p>
+ * In speculative mode ({@code copilot.orchestrator.speculative=true}) every agent may
+ * {@linkplain TaskAgent#prefetch(String, RequestContext) prefetch} its grounding, e.g. the finder
+ * retrieval, while the classifier LLM is running. Messages the decision cache or the local
+ * classifier settle are not prefetched: their agent is known right away, and prefetching for every
+ * agent would cost an embedding and two finder queries per message. The selected agent consumes its
+ * part from the {@link RequestContext}; everything else, and all of it for {@link TaskType#OTHER},
+ * is cancelled.
+ * <p>
+ * Agents that generate their answer token by token report the tokens to the {@link AnswerListener}
+ * passed to {@link #orchestrate(String, AnswerListener)}.
+ * <p>
+ * Classification and the agent run as the {@link PipelineStage}s {@code classification} and
+ * {@code agent}.
+ */
 @Component
 public class TaskOrchestrator {
     private static final Logger log = LoggerFactory.getLogger(TaskOrchestrator.class);
 
-    private final ChatModel classificationModel;
+    private final TaskClassifier classifier;
     private final Map<TaskType, TaskAgent> agents;
+    private final boolean speculative;
+    private final ObservationRegistry observationRegistry;
 
-    public TaskOrchestrator(@Qualifier("classifierModel") ChatModel classificationModel,
+    public TaskOrchestrator(ChatModel classificationModel,
                             TaskFinderAgent finderAgent,
                             TaskExplanationAgent explanationAgent,
                             TaskGeneratorAgent generatorAgent) {
-        this.classificationModel = classificationModel;
+        this(new TaskClassifier(classificationModel), finderAgent, explanationAgent, generatorAgent, false);
+    }
+
+    public TaskOrchestrator(TaskClassifier classifier,
+                            TaskFinderAgent finderAgent,
+                            TaskExplanationAgent explanationAgent,
+                            TaskGeneratorAgent generatorAgent,
+                            boolean speculative) {
+        this(classifier, finderAgent, explanationAgent, generatorAgent, speculative, ObservationRegistry.NOOP);
+    }
+
+    @Autowired
+    public TaskOrchestrator(TaskClassifier classifier,
+                            TaskFinderAgent finderAgent,
+                            TaskExplanationAgent explanationAgent,
+                            TaskGeneratorAgent generatorAgent,
+                            @Value("${copilot.orchestrator.speculative:true}") boolean speculative,
+                            ObservationRegistry observationRegistry) {
+        this.classifier = classifier;
+        this.speculative = speculative;
+        this.observationRegistry = observationRegistry;
         this.agents = new EnumMap<>(TaskType.class);
         this.agents.put(TaskType.FIND_TASK, finderAgent);
         this.agents.put(TaskType.EXPLAIN_TASK, explanationAgent);
@@ -37,53 +75,52 @@ public class TaskOrchestrator {
     }
 
     public TaskExecutionResult orchestrate(String userMessage) {
-        log.info("**** orchestrate");
-        TaskType taskType = classify(userMessage);
-        TaskAgent agent = agents.get(taskType);
-        log.info("agent: " + agent);
-        if (agent == null) {
-            throw new IllegalStateException("No agent registered for task type " + taskType);
-        }
-        String answer = agent.handle(userMessage);
-        log.info("answer: " + answer);
-        return new TaskExecutionResult(taskType, answer);
+        return orchestrate(userMessage, AnswerListener.NONE);
     }
 
-    TaskType classify(String userMessage) {
-//        String prompt = buildPrompt(userMessage);
-        log.info("**** classify");
-//        String response = classificationModel.chat(prompt);
-        
-        String systemPrompt = """
-Du bist ein Klassifizierer für einen GRETL-Assistenten. GRETL ist ein Gradle-Plugin für (spatial) ETL.
-Sprache der Eingabe ist Deutsch. Gib als Antwort genau ein Wort (ohne Punkt, Anführungszeichen oder weitere Zeichen) und keine Begründung.
-
-Mögliche Antworten (englisch, GROSSBUCHSTABEN):
-- FIND_TASK – wenn der/die Benutzer:in ein Problem beschreibt und wissen will, welcher GRETL-Task dafür passt.
-- EXPLAIN_TASK – wenn der/die Benutzer:in einen konkreten Task erklärt haben möchte (Funktionsumfang, Parameter, Verhalten).
-- GENERATE_TASK – wenn der/die Benutzer:in Beispiele/Code für einen Task will (inkl. eigenen Inputs).
-
-Tie-Breaker (falls mehrdeutig): GENERATE_TASK > EXPLAIN_TASK > FIND_TASK.
-
-Nur diese vier Tokens sind erlaubt: FIND_TASK, EXPLAIN_TASK, GENERATE_TASK, OTHER. Nutze OTHER, wenn keine der drei Kategorien passt.
+    public TaskExecutionResult orchestrate(String userMessage, AnswerListener listener) {
+        return orchestrate(userMessage, listener, AnswerLookup.NONE);
+    }
 
-Beispiele (nur zur Orientierung):
-- "Ich muss eine INTERLIS-Datei validieren. Welchen Task...?" → FIND_TASK
-- "Erkläre mir den Task ilivalidator." → EXPLAIN_TASK
-- "Mach mir ein Beispiel für ilivalidator mit Datei fubar.xtf." → GENERATE_TASK
-- Wie installiere ich Gradle?" → OTHER
+    /**
+     * Like {@link #orchestrate(String, AnswerListener)}, but returns the answer {@code lookup} finds
+     * for the classified task type instead of running the agent.
+     */
+    public TaskExecutionResult orchestrate(String userMessage, AnswerListener listener, AnswerLookup lookup) {
+        try (RequestContext context = RequestContext.empty()) {
+            TaskType taskType = classify(userMessage, context);
+            if (taskType == TaskType.OTHER) {
+                context.cancelAll();
+            }
+            Optional<TaskExecutionResult> known = lookup.find(taskType);
+            if (known.isPresent()) {
+                log.debug("Answered {} from a known answer", taskType);
+                return known.get();
+            }
+            TaskAgent agent = agents.get(taskType);
+            if (agent == null) {
+                throw new IllegalStateException("No agent registered for task type " + taskType);
+            }
+            log.debug("Message classified as {}, handled by {}", taskType, agent.getClass().getSimpleName());
+            context.streamTo(token -> listener.onPartialAnswer(taskType, token));
+            String answer = PipelineStage.AGENT.observe(observationRegistry, taskType,
+                    () -> agent.handle(userMessage, context));
+            log.debug("Answered {} with {} characters", taskType, answer == null ? 0 : answer.length());
+            return new TaskExecutionResult(taskType, answer, context.isDegraded());
+        }
+    }
 
-Antworte immer nur mit einem der vier Wörter.
-                """;
-        
-        ChatResponse response = classificationModel.chat(List.of(
-                SystemMessage.from(systemPrompt),
-                UserMessage.from(userMessage)
-            ));
-        
-        
-        log.info("**** response: " + response);
-        return TaskType.fromModelResponse(response.aiMessage().text());
+    private TaskType classify(String userMessage, RequestContext context) {
+        return PipelineStage.CLASSIFICATION.observe(observationRegistry, () -> {
+            TaskType taskType = classifier.classifyWithoutModel(userMessage).orElseGet(() -> {
+                if (speculative) {
+                    agents.values().forEach(agent -> agent.prefetch(userMessage, context));
+                }
+                return classifier.classifyWithModel(userMessage);
+            });
+            PipelineStage.tagTaskType(observationRegistry, taskType);
+            return taskType;
+        });
     }
 
     private String buildPrompt(String userMessage) {
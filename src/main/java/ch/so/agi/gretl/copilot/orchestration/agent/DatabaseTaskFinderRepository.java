@@ -1,18 +1,105 @@
 package ch.so.agi.gretl.copilot.orchestration.agent;
 
-import org.postgresql.util.PGobject;
+import ch.so.agi.gretl.copilot.orchestration.agent.index.CorpusVersion;
+import ch.so.agi.gretl.copilot.orchestration.agent.index.RagCorpusChangedEvent;
+import ch.so.agi.gretl.copilot.support.PgVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.stereotype.Repository;
 
-import java.sql.SQLException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * JDBC-backed implementation that queries the GRETL RAG schema.
+ * <p>
+ * Full-text matching uses the stored, GIN-indexed {@code search_tsv} column of
+ * {@code rag.doc_chunks} when the schema has it and computes the same weighted tsvector per row
+ * otherwise. The column is looked up once, on the first lexical or hybrid query.
+ * <p>
+ * Semantic candidates come from an exact cosine scan of {@code embedding} by default. With
+ * {@code copilot.finder.vector-search=halfvec} or {@code binary}, a coarse search over the smaller
+ * {@code embedding_half} ({@code halfvec}) or {@code embedding_bit} (binary-quantized {@code bit})
+ * column first selects {@code copilot.finder.vector-oversample} times as many rows as needed, and
+ * only those are re-ranked by the exact distance. Without the quantized columns the repository
+ * stays on the exact scan.
+ * <p>
+ * In a versioned schema every query only sees the chunks of the active corpus version
+ * ({@link CorpusVersion}), so an ingest in progress never shows up half-written. Whether the schema
+ * is versioned is looked up again after each {@link RagCorpusChangedEvent}.
  */
 @Repository
-public class DatabaseTaskFinderRepository implements TaskFinderRepository {
+public class DatabaseTaskFinderRepository implements TaskFinderRepository, HybridTaskFinderRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(DatabaseTaskFinderRepository.class);
+
+    private static final String DOCUMENT_TSV = "{documentTsv}";
+
+    private static final String STORED_TSV = "dc.search_tsv";
+
+    private static final String COMPUTED_TSV = """
+            (setweight(to_tsvector('german', COALESCE(dc.heading,'')), 'A') ||
+               setweight(to_tsvector('german', COALESCE(dc.content_text,'')), 'C'))""";
+
+    private static final String SEMANTIC_CANDIDATES = "{semanticCandidates}";
+
+    /**
+     * Rows {@code (id, score)} of the {@code :semanticLimit} chunks nearest to {@code :embedding}.
+     */
+    private static final String EXACT_CANDIDATES = """
+            SELECT
+                dc.id,
+                1.0 / (1.0 + (dc.embedding <=> CAST(:embedding AS vector))) AS score
+              FROM rag.doc_chunks dc
+              WHERE dc.embedding IS NOT NULL AND {visible:dc}
+              ORDER BY dc.embedding <=> CAST(:embedding AS vector) ASC
+              LIMIT :semanticLimit""";
+
+    /**
+     * Like {@link #EXACT_CANDIDATES}, but the exact distance is only computed for the
+     * {@code :coarseLimit} rows nearest by the quantized {@code {coarseDistance}}.
+     */
+    private static final String RERANKED_CANDIDATES = """
+            SELECT
+                dc.id,
+                1.0 / (1.0 + (dc.embedding <=> CAST(:embedding AS vector))) AS score
+              FROM (
+                SELECT c.id
+                FROM rag.doc_chunks c
+                WHERE c.embedding IS NOT NULL AND {visible:c}
+                ORDER BY {coarseDistance} ASC
+                LIMIT :coarseLimit
+              ) coarse
+              JOIN rag.doc_chunks dc ON dc.id = coarse.id
+              ORDER BY dc.embedding <=> CAST(:embedding AS vector) ASC
+              LIMIT :semanticLimit""";
+
+    private static final String HALFVEC_DISTANCE = "c.embedding_half <=> CAST(CAST(:embedding AS vector) AS halfvec)";
+
+    private static final String BINARY_DISTANCE = "c.embedding_bit <~> binary_quantize(CAST(:embedding AS vector))";
+
+    private static final String QUANTIZED_COLUMNS_SQL = """
+            SELECT count(*) = 2
+            FROM information_schema.columns
+            WHERE table_schema = 'rag'
+              AND table_name = 'doc_chunks'
+              AND column_name IN ('embedding_half', 'embedding_bit')
+            """;
+
+    private static final String SEARCH_COLUMN_SQL = """
+            SELECT EXISTS (
+              SELECT 1
+              FROM information_schema.columns
+              WHERE table_schema = 'rag'
+                AND table_name = 'doc_chunks'
+                AND column_name = 'search_tsv'
+            )
+            """;
 
     private static final String LEXICAL_SQL = """
             WITH params AS (
@@ -43,25 +130,17 @@ public class DatabaseTaskFinderRepository implements TaskFinderRepository {
               COALESCE(dc.url, '') AS url,
               COALESCE(dc.anchor, '') AS anchor,
               COALESCE(dc.content_text, '') AS content,
-            ts_rank_cd(
-              setweight(to_tsvector('german', COALESCE(dc.heading,'')), 'A') ||
-              setweight(to_tsvector('german', COALESCE(dc.content_text,'')), 'C'),
-              (SELECT tsq FROM q_must),
-              32 -- normalization flag
-            ) AS lexicalScore,
+              ts_rank_cd({documentTsv}, (SELECT tsq FROM q_must), 32 /* normalization flag */) AS lexicalScore,
               0.0::double precision AS semanticScore
             FROM rag.doc_chunks dc
-            WHERE (SELECT tsq FROM q_must) @@ (
-              to_tsvector('german', COALESCE(dc.heading,'')) ||
-              to_tsvector('german', COALESCE(dc.content_text,''))
-            )
+            WHERE {documentTsv} @@ (SELECT tsq FROM q_must) AND {visible:dc}
             ORDER BY lexicalScore DESC
             LIMIT :limit;
             """;
 
     private static final String SEMANTIC_SQL = """
-            WITH query AS (
-                SELECT CAST(:embedding AS vector) AS embedding
+            WITH semantic AS (
+              {semanticCandidates}
             )
             SELECT
                 dc.task_name AS taskName,
@@ -70,18 +149,122 @@ public class DatabaseTaskFinderRepository implements TaskFinderRepository {
                 COALESCE(dc.anchor, '') AS anchor,
                 COALESCE(dc.content_text, '') AS content,
                 0.0::double precision AS lexicalScore,
-                1.0 / (1.0 + (dc.embedding <=> query.embedding)) AS semanticScore
-            FROM rag.doc_chunks dc
-            CROSS JOIN query
-            WHERE dc.embedding IS NOT NULL
-            ORDER BY dc.embedding <=> query.embedding ASC
-            LIMIT :limit
+                s.score AS semanticScore
+            FROM semantic s
+            JOIN rag.doc_chunks dc ON dc.id = s.id
+            ORDER BY s.score DESC
+            """;
+
+    /**
+     * Lexical and semantic candidates, max-normalization and weighted fusion in one statement.
+     * Chunks are merged on the same key as {@link TaskFinderDocument#compoundKey()} and only the
+     * final rows are returned, with whitespace-collapsed content cut to {@code :contentLimit}.
+     */
+    private static final String HYBRID_SQL = """
+            WITH params AS (
+              SELECT lower(:query) AS qtext
+            ),
+            q_terms AS (
+              SELECT DISTINCT unnest(tsvector_to_array(to_tsvector('german', (SELECT qtext FROM params)))) AS term
+            ),
+            q_filtered AS (
+              SELECT term
+              FROM q_terms
+              WHERE length(term) >= 3
+            ),
+            q_or AS (
+              SELECT to_tsquery('german', string_agg(quote_ident(term) || ':*', ' | ')) AS tsq
+              FROM q_filtered
+            ),
+            q_must AS (
+              SELECT COALESCE(
+                       (SELECT tsq FROM q_or),
+                       websearch_to_tsquery('german', (SELECT qtext FROM params))
+                     ) AS tsq
+            ),
+            lexical AS (
+              SELECT
+                dc.id,
+                ts_rank_cd({documentTsv}, (SELECT tsq FROM q_must), 32)::double precision AS score
+              FROM rag.doc_chunks dc
+              WHERE {documentTsv} @@ (SELECT tsq FROM q_must) AND {visible:dc}
+              ORDER BY score DESC
+              LIMIT :candidateLimit
+            ),
+            semantic AS (
+              {semanticCandidates}
+            ),
+            lexical_norm AS (
+              SELECT l.id,
+                     CASE WHEN m.max_score > 0 THEN l.score / m.max_score ELSE 0.0 END AS lexical
+              FROM lexical l
+              CROSS JOIN (SELECT max(score) FILTER (WHERE score > 0) AS max_score FROM lexical) m
+            ),
+            semantic_norm AS (
+              SELECT s.id,
+                     CASE WHEN m.max_score > 0 THEN s.score / m.max_score ELSE 0.0 END AS semantic
+              FROM semantic s
+              CROSS JOIN (SELECT max(score) FILTER (WHERE score > 0) AS max_score FROM semantic) m
+            ),
+            scored AS (
+              SELECT
+                COALESCE(ln.id, sn.id) AS id,
+                COALESCE(ln.lexical, 0.0) AS lexical,
+                COALESCE(sn.semantic, 0.0) AS semantic,
+                CASE WHEN ln.id IS NOT NULL THEN 0 ELSE 1 END AS origin
+              FROM lexical_norm ln
+              FULL OUTER JOIN semantic_norm sn ON sn.id = ln.id
+            ),
+            keyed AS (
+              SELECT
+                s.*,
+                lower(btrim(COALESCE(dc.task_name,'')) || '|' || btrim(COALESCE(dc.url,'')) || '|' || btrim(COALESCE(dc.anchor,''))) AS doc_key
+              FROM scored s
+              JOIN rag.doc_chunks dc ON dc.id = s.id
+            ),
+            fused AS (
+              SELECT DISTINCT ON (k.doc_key)
+                k.id,
+                max(k.lexical) OVER (PARTITION BY k.doc_key) AS lexical_max,
+                max(k.semantic) OVER (PARTITION BY k.doc_key) AS semantic_max
+              FROM keyed k
+              ORDER BY k.doc_key, k.origin, k.lexical DESC, k.semantic DESC
+            )
+            SELECT
+              COALESCE(dc.task_name, '') AS taskName,
+              COALESCE(dc.heading, '') AS heading,
+              COALESCE(dc.url, '') AS url,
+              COALESCE(dc.anchor, '') AS anchor,
+              left(btrim(regexp_replace(COALESCE(dc.content_text, ''), '\\s+', ' ', 'g')), :contentLimit) AS content,
+              f.lexical_max::double precision AS lexicalScore,
+              f.semantic_max::double precision AS semanticScore
+            FROM fused f
+            JOIN rag.doc_chunks dc ON dc.id = f.id
+            ORDER BY :lexicalWeight * f.lexical_max + :semanticWeight * f.semantic_max DESC
+            LIMIT :resultLimit
             """;
 
     private final JdbcClient jdbcClient;
+    private final VectorSearch vectorSearch;
+    private final int oversample;
+    private volatile Boolean storedTsvector;
+    private volatile Boolean quantizedColumns;
+    private volatile Boolean versionedCorpus;
 
     public DatabaseTaskFinderRepository(JdbcClient jdbcClient) {
+        this(jdbcClient, VectorSearch.EXACT, 1);
+    }
+
+    @Autowired
+    public DatabaseTaskFinderRepository(JdbcClient jdbcClient,
+                                        @Value("${copilot.finder.vector-search:exact}") VectorSearch vectorSearch,
+                                        @Value("${copilot.finder.vector-oversample:4}") int oversample) {
+        if (oversample < 1) {
+            throw new IllegalArgumentException("copilot.finder.vector-oversample must be at least 1");
+        }
         this.jdbcClient = jdbcClient;
+        this.vectorSearch = vectorSearch;
+        this.oversample = oversample;
     }
 
     @Override
@@ -89,7 +272,7 @@ public class DatabaseTaskFinderRepository implements TaskFinderRepository {
         if (query == null || query.isBlank()) {
             return Collections.emptyList();
         }
-        return jdbcClient.sql(LEXICAL_SQL)
+        return jdbcClient.sql(withVisibility(withDocumentTsv(LEXICAL_SQL)))
                 .param("query", query)
                 .param("limit", limit)
                 .query(TaskFinderDocument.class)
@@ -97,36 +280,115 @@ public class DatabaseTaskFinderRepository implements TaskFinderRepository {
     }
 
     @Override
-    public List<TaskFinderDocument> searchSemantic(double[] embedding, int limit) {
+    public List<TaskFinderDocument> searchSemantic(float[] embedding, int limit) {
         if (embedding == null || embedding.length == 0) {
             return Collections.emptyList();
         }
-        return jdbcClient.sql(SEMANTIC_SQL)
+        return jdbcClient.sql(withVisibility(withSemanticCandidates(SEMANTIC_SQL)))
                 .param("embedding", toVector(embedding))
-                .param("limit", limit)
+                .param("semanticLimit", limit)
+                .param("coarseLimit", limit * oversample)
+                .query(TaskFinderDocument.class)
+                .list();
+    }
+
+    @Override
+    public Optional<HybridTaskFinderRepository> hybrid() {
+        return Optional.of(this);
+    }
+
+    @Override
+    public List<TaskFinderDocument> searchHybrid(HybridSearchRequest request) {
+        if (request.query().isBlank() || request.embedding().length == 0) {
+            return Collections.emptyList();
+        }
+        return jdbcClient.sql(withVisibility(withSemanticCandidates(withDocumentTsv(HYBRID_SQL))))
+                .param("query", request.query())
+                .param("embedding", toVector(request.embedding()))
+                .param("candidateLimit", request.candidateLimit())
+                .param("semanticLimit", request.candidateLimit())
+                .param("coarseLimit", request.candidateLimit() * oversample)
+                .param("resultLimit", request.resultLimit())
+                .param("lexicalWeight", request.lexicalWeight())
+                .param("semanticWeight", request.semanticWeight())
+                .param("contentLimit", request.contentLimit())
                 .query(TaskFinderDocument.class)
                 .list();
     }
 
-    private static PGobject toVector(double[] embedding) {
-        try {
-            PGobject vector = new PGobject();
-            vector.setType("vector");
-            vector.setValue(formatVector(embedding));
-            return vector;
-        } catch (SQLException e) {
-            throw new IllegalStateException("Failed to convert embedding to pgvector", e);
+    /**
+     * A new corpus may come with a schema that was upgraded to versioning.
+     */
+    @EventListener(RagCorpusChangedEvent.class)
+    public void onCorpusChange() {
+        versionedCorpus = null;
+    }
+
+    private String withVisibility(String sql) {
+        Boolean versioned = versionedCorpus;
+        if (versioned == null) {
+            versioned = CorpusVersion.isVersioned(jdbcClient);
+            versionedCorpus = versioned;
+        }
+        return CorpusVersion.withVisibility(sql, versioned);
+    }
+
+    private String withDocumentTsv(String sql) {
+        return sql.replace(DOCUMENT_TSV, hasStoredTsvector() ? STORED_TSV : COMPUTED_TSV);
+    }
+
+    private String withSemanticCandidates(String sql) {
+        String candidates = switch (effectiveVectorSearch()) {
+            case EXACT -> EXACT_CANDIDATES;
+            case HALFVEC -> RERANKED_CANDIDATES.replace("{coarseDistance}", HALFVEC_DISTANCE);
+            case BINARY -> RERANKED_CANDIDATES.replace("{coarseDistance}", BINARY_DISTANCE);
+        };
+        return sql.replace(SEMANTIC_CANDIDATES, candidates);
+    }
+
+    private VectorSearch effectiveVectorSearch() {
+        if (vectorSearch == VectorSearch.EXACT) {
+            return VectorSearch.EXACT;
+        }
+        Boolean present = quantizedColumns;
+        if (present == null) {
+            present = Boolean.TRUE.equals(jdbcClient.sql(QUANTIZED_COLUMNS_SQL).query(Boolean.class).single());
+            if (!present) {
+                log.warn("copilot.finder.vector-search={} needs rag.doc_chunks.embedding_half and embedding_bit, "
+                        + "falling back to the exact scan. Run ingest_gretl.java or initdb/01_init.sql to add them.",
+                        vectorSearch.name().toLowerCase());
+            }
+            quantizedColumns = present;
         }
+        return present ? vectorSearch : VectorSearch.EXACT;
     }
 
-    private static String formatVector(double[] embedding) {
-        StringBuilder builder = new StringBuilder("[");
-        for (int i = 0; i < embedding.length; i++) {
-            if (i > 0) {
-                builder.append(',');
+    private boolean hasStoredTsvector() {
+        Boolean stored = storedTsvector;
+        if (stored == null) {
+            stored = Boolean.TRUE.equals(jdbcClient.sql(SEARCH_COLUMN_SQL).query(Boolean.class).single());
+            if (!stored) {
+                log.warn("rag.doc_chunks.search_tsv is missing, full-text search tokenizes every chunk per query. "
+                        + "Run ingest_gretl.java or initdb/01_init.sql to add the column and its GIN index.");
             }
-            builder.append(String.format(java.util.Locale.US, "%.8f", embedding[i]));
+            storedTsvector = stored;
         }
-        return builder.append(']').toString();
+        return stored;
+    }
+
+    /**
+     * Column the semantic candidates are selected on before the exact re-ranking.
+     */
+    public enum VectorSearch {
+        /** Exact cosine distance on the full-precision {@code vector} column. */
+        EXACT,
+        /** Coarse search on the {@code halfvec} copy, 2x smaller. */
+        HALFVEC,
+        /** Coarse Hamming search on the binary-quantized {@code bit} copy, 32x smaller. */
+        BINARY
+    }
+
+    private static PgVector toVector(float[] embedding) {
+        return new PgVector(embedding);
     }
 }
@@ -0,0 +1,116 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import ch.so.agi.gretl.copilot.embedding.EmbeddingBackend;
+import ch.so.agi.gretl.copilot.support.EmbeddingDimensions;
+import dev.langchain4j.model.embedding.DisabledEmbeddingModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Checks at startup that query embeddings ({@code openai.embedding-dimensions}, or the dimension of
+ * the local model) have the dimension of {@code rag.doc_chunks.embedding}. A mismatch would make
+ * every semantic search fail, so it stops the application; an unreachable database is only logged.
+ * If the active corpus version records another embedding model, vectors of the same length would
+ * still not be comparable, which is logged as a warning.
+ */
+@Component
+public class EmbeddingSchemaValidator {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingSchemaValidator.class);
+
+    private static final String COLUMN_DIMENSION_SQL = """
+            SELECT a.atttypmod
+            FROM pg_attribute a
+            WHERE a.attrelid = to_regclass('rag.doc_chunks')
+              AND a.attname = 'embedding'
+              AND NOT a.attisdropped
+            """;
+
+    private static final String CORPUS_MODEL_SQL = """
+            SELECT embedding_model
+            FROM rag.corpus_state
+            WHERE embedding_model IS NOT NULL
+            """;
+
+    private final JdbcClient jdbcClient;
+    private final ObjectProvider<EmbeddingModel> embeddingModel;
+    private final int dimensions;
+    private final EmbeddingBackend backend;
+    private final String modelName;
+
+    public EmbeddingSchemaValidator(JdbcClient jdbcClient,
+                                    @Qualifier("finderEmbeddingModel") ObjectProvider<EmbeddingModel> embeddingModel,
+                                    @Value("${openai.embedding-dimensions:3072}") int dimensions,
+                                    @Value("${copilot.embedding.backend:openai}") EmbeddingBackend backend,
+                                    @Value("${openai.embedding-model:text-embedding-3-large}") String openAiModel) {
+        this.jdbcClient = jdbcClient;
+        this.embeddingModel = embeddingModel;
+        this.backend = backend;
+        this.dimensions = backend == EmbeddingBackend.LOCAL ? EmbeddingBackend.LOCAL_DIMENSIONS : dimensions;
+        this.modelName = backend == EmbeddingBackend.LOCAL ? EmbeddingBackend.LOCAL_MODEL : openAiModel;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void validateOnStartup() {
+        EmbeddingModel model = embeddingModel.getIfAvailable();
+        if (model == null || model instanceof DisabledEmbeddingModel) {
+            return;
+        }
+        Optional<Integer> columnDimension;
+        try {
+            columnDimension = jdbcClient.sql(COLUMN_DIMENSION_SQL).query(Integer.class).optional();
+        } catch (DataAccessException ex) {
+            log.warn("Could not read the dimension of rag.doc_chunks.embedding, skipping the embedding check: {}",
+                    ex.getMessage());
+            return;
+        }
+        validate(columnDimension.orElse(-1));
+        try {
+            jdbcClient.sql(CORPUS_MODEL_SQL).query(String.class).optional().ifPresent(this::validateModel);
+        } catch (DataAccessException ex) {
+            log.debug("Could not read the embedding model of the RAG corpus", ex);
+        }
+    }
+
+    void validateModel(String corpusModel) {
+        if (!corpusModel.equals(modelName)) {
+            log.warn("The active RAG corpus was embedded with {}, but queries are embedded with {}: semantic search "
+                    + "compares unrelated vectors. Re-ingest with the same backend (EMBED_BACKEND, OPENAI_EMBED_MODEL).",
+                    corpusModel, modelName);
+        }
+    }
+
+    void validate(int columnDimension) {
+        if (columnDimension <= 0) {
+            log.warn("rag.doc_chunks.embedding has no fixed dimension, cannot check openai.embedding-dimensions={}",
+                    dimensions);
+            return;
+        }
+        if (columnDimension != dimensions && backend == EmbeddingBackend.LOCAL) {
+            throw new IllegalStateException("copilot.embedding.backend=local embeds queries with " + modelName
+                    + " (" + dimensions + " dimensions), which does not match rag.doc_chunks.embedding vector("
+                    + columnDimension + "). Re-ingest with EMBED_BACKEND=local (ingest_gretl.java --truncate).");
+        }
+        if (columnDimension != dimensions) {
+            throw new IllegalStateException("openai.embedding-dimensions=" + dimensions
+                    + " does not match rag.doc_chunks.embedding vector(" + columnDimension + "). "
+                    + "Re-ingest with EMB_DIM=" + dimensions + " (ingest_gretl.java --truncate) or configure "
+                    + "openai.embedding-dimensions=" + columnDimension + ".");
+        }
+        if (dimensions > EmbeddingDimensions.MAX_INDEXABLE_VECTOR) {
+            log.info("Embeddings have {} dimensions; pgvector can only index up to {} on a vector column, "
+                    + "semantic search scans the table", dimensions, EmbeddingDimensions.MAX_INDEXABLE_VECTOR);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import java.util.Objects;
+
+/**
+ * Parameters of a single-round-trip hybrid search.
+ *
+ * @param query          the user input for the full text leg
+ * @param embedding      the query embedding for the vector leg
+ * @param candidateLimit candidates fetched per leg before fusion
+ * @param resultLimit    rows returned after fusion
+ * @param lexicalWeight  weight of the normalized lexical score
+ * @param semanticWeight weight of the normalized semantic score
+ * @param contentLimit   maximum number of characters of {@code content} shipped per row
+ */
+public record HybridSearchRequest(
+        String query,
+        float[] embedding,
+        int candidateLimit,
+        int resultLimit,
+        double lexicalWeight,
+        double semanticWeight,
+        int contentLimit) {
+
+    public HybridSearchRequest {
+        Objects.requireNonNull(query, "query must not be null");
+        Objects.requireNonNull(embedding, "embedding must not be null");
+    }
+}
@@ -0,0 +1,22 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import java.util.List;
+
+/**
+ * Single-round-trip retrieval offered by repositories that can fuse both legs themselves, see
+ * {@link TaskFinderRepository#hybrid()}.
+ */
+public interface HybridTaskFinderRepository {
+
+    /**
+     * Runs both retrieval legs and the weighted score fusion in one round trip.
+     * <p>
+     * In contrast to the single-leg searches, the returned documents carry the already
+     * max-normalized scores: {@code lexicalScore} and {@code semanticScore} are in {@code [0, 1]}
+     * and the list is ordered by their weighted sum.
+     *
+     * @param request query, embedding, limits and fusion weights
+     * @return at most {@code resultLimit} fused candidates ordered by descending combined score
+     */
+    List<TaskFinderDocument> searchHybrid(HybridSearchRequest request);
+}
@@ -0,0 +1,69 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import ch.so.agi.gretl.copilot.orchestration.agent.index.DocChunkLexicalIndex;
+import ch.so.agi.gretl.copilot.orchestration.agent.index.DocChunkVectorIndex;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Routes finder searches to in-memory indexes when they are enabled and loaded, and to the
+ * {@link DatabaseTaskFinderRepository} otherwise.
+ * <p>
+ * The semantic index is selected with {@code copilot.finder.semantic-index=hnsw} and the lexical
+ * BM25 index with {@code copilot.finder.lexical-index=bm25}. Without them, or while an index is
+ * still loading, queries go to pgvector respectively the Postgres full-text search. Query
+ * embeddings of another dimension than the loaded HNSW index also go to pgvector, which rejects them
+ * if the column does not match either.
+ */
+@Primary
+@Repository
+public class IndexedTaskFinderRepository implements TaskFinderRepository {
+
+    private final DatabaseTaskFinderRepository database;
+    private final ObjectProvider<DocChunkVectorIndex> vectorIndexProvider;
+    private final ObjectProvider<DocChunkLexicalIndex> lexicalIndexProvider;
+
+    public IndexedTaskFinderRepository(DatabaseTaskFinderRepository database,
+                                       ObjectProvider<DocChunkVectorIndex> vectorIndexProvider,
+                                       ObjectProvider<DocChunkLexicalIndex> lexicalIndexProvider) {
+        this.database = database;
+        this.vectorIndexProvider = vectorIndexProvider;
+        this.lexicalIndexProvider = lexicalIndexProvider;
+    }
+
+    @Override
+    public List<TaskFinderDocument> searchLexical(String query, int limit) {
+        DocChunkLexicalIndex lexicalIndex = lexicalIndexProvider.getIfAvailable();
+        if (lexicalIndex != null && lexicalIndex.isReady()) {
+            return lexicalIndex.search(query, limit);
+        }
+        return database.searchLexical(query, limit);
+    }
+
+    @Override
+    public List<TaskFinderDocument> searchSemantic(float[] embedding, int limit) {
+        DocChunkVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+        if (vectorIndex != null && vectorIndex.isReadyFor(embedding)) {
+            return vectorIndex.search(embedding, limit);
+        }
+        return database.searchSemantic(embedding, limit);
+    }
+
+    /**
+     * The single-statement hybrid search runs entirely in Postgres, so it is only offered while no
+     * in-memory index is serving queries.
+     */
+    @Override
+    public Optional<HybridTaskFinderRepository> hybrid() {
+        DocChunkVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+        DocChunkLexicalIndex lexicalIndex = lexicalIndexProvider.getIfAvailable();
+        if ((vectorIndex != null && vectorIndex.isReady()) || (lexicalIndex != null && lexicalIndex.isReady())) {
+            return Optional.empty();
+        }
+        return database.hybrid();
+    }
+}
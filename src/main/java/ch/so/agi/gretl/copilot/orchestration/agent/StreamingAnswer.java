@@ -0,0 +1,68 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import ch.so.agi.gretl.copilot.orchestration.PipelineStage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs one streaming chat call, forwarding every token as it arrives and blocking until the model
+ * has finished the answer. Tokens are forwarded with the trace context of the calling thread.
+ */
+final class StreamingAnswer {
+
+    static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(2);
+
+    private StreamingAnswer() {
+    }
+
+    static String generate(StreamingChatModel model, List<ChatMessage> messages, Consumer<String> partials,
+                           Duration timeout) {
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        StringBuilder text = new StringBuilder();
+        Consumer<String> forward = PipelineStage.propagateContext(partials);
+        model.chat(messages, new StreamingChatResponseHandler() {
+            @Override
+            public void onPartialResponse(String token) {
+                if (answer.isDone()) {
+                    return;
+                }
+                text.append(token);
+                forward.accept(token);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse response) {
+                String complete = response.aiMessage() == null ? null : response.aiMessage().text();
+                answer.complete(complete == null ? text.toString() : complete);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                answer.completeExceptionally(error);
+            }
+        });
+
+        try {
+            return answer.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            answer.cancel(true);
+            throw new IllegalStateException("Interrupted while streaming the answer", ex);
+        } catch (TimeoutException ex) {
+            answer.cancel(true);
+            throw new IllegalStateException("Streaming answer did not complete within " + timeout, ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Streaming answer failed", ex.getCause());
+        }
+    }
+}
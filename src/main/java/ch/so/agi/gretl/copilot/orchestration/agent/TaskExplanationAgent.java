@@ -1,20 +1,63 @@
 package ch.so.agi.gretl.copilot.orchestration.agent;
 
+import ch.so.agi.gretl.copilot.orchestration.RequestContext;
 import ch.so.agi.gretl.copilot.orchestration.TaskAgent;
+import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
+/**
+ * Explains a GRETL task. With an {@code explanationStreamingModel} the answer is generated token by
+ * token and every token is {@linkplain RequestContext#emitPartial(String) emitted} as it arrives;
+ * without one the agent answers with a mock text.
+ */
 @Component
 public class TaskExplanationAgent implements TaskAgent {
 
-    // Prepared for future LangChain4j integration:
-    // private final ChatModel explanationModel;
-    //
-    // public TaskExplanationAgent(@Qualifier("explanationModel") ChatModel explanationModel) {
-    //     this.explanationModel = explanationModel;
-    // }
+    static final String SYSTEM_PROMPT = """
+Du bist ein Assistent für GRETL, ein Gradle-Plugin für (spatial) ETL.
+Erkläre den Task, nach dem der/die Benutzer:in fragt: Zweck, wichtige Parameter und typisches Verhalten.
+Antworte auf Deutsch in Markdown und erfinde keine Parameter.
+            """;
+
+    private final StreamingChatModel explanationModel;
+    private final MarkdownRenderer markdownRenderer;
+
+    public TaskExplanationAgent() {
+        this((StreamingChatModel) null, new MarkdownRenderer());
+    }
+
+    @Autowired
+    public TaskExplanationAgent(@Qualifier("explanationStreamingModel") ObjectProvider<StreamingChatModel> explanationModel,
+                                MarkdownRenderer markdownRenderer) {
+        this(explanationModel.getIfAvailable(), markdownRenderer);
+    }
+
+    TaskExplanationAgent(StreamingChatModel explanationModel, MarkdownRenderer markdownRenderer) {
+        this.explanationModel = explanationModel;
+        this.markdownRenderer = markdownRenderer;
+    }
 
     @Override
     public String handle(String userMessage) {
-        return "[Mock] Explaining the requested GRETL task: " + userMessage;
+        return handle(userMessage, RequestContext.empty());
+    }
+
+    @Override
+    public String handle(String userMessage, RequestContext context) {
+        if (explanationModel == null) {
+            return "[Mock] Explaining the requested GRETL task: " + userMessage;
+        }
+        String markdown = StreamingAnswer.generate(explanationModel,
+                List.of(SystemMessage.from(SYSTEM_PROMPT), UserMessage.from(userMessage)),
+                context::emitPartial, StreamingAnswer.DEFAULT_TIMEOUT);
+        return markdownRenderer.render(markdown);
     }
 }
@@ -1,17 +1,25 @@
 package ch.so.agi.gretl.copilot.orchestration.agent;
 
+import ch.so.agi.gretl.copilot.orchestration.PipelineStage;
+import ch.so.agi.gretl.copilot.orchestration.RequestContext;
 import ch.so.agi.gretl.copilot.orchestration.TaskAgent;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
 import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.output.Response;
+import io.micrometer.observation.ObservationRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -19,6 +27,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
  * Agent that turns a free-form user question into a ranked list of GRETL tasks.
@@ -27,9 +43,23 @@ import java.util.Optional;
  * search delivers precise lexical matches, while a semantic search (pgvector cosine similarity)
  * surfaces conceptually related documentation chunks. Both signals are normalized and fused
  * into a single score so that the user receives a concise shortlist of candidates.
+ * <p>
+ * The lexical query and the embedding plus vector search run as two concurrent legs on virtual
+ * threads, each bounded by its own deadline. If the semantic leg misses its deadline the agent
+ * answers with the lexical candidates alone.
+ * <p>
+ * With {@code copilot.finder.retrieval-mode=hybrid-sql} and a repository that
+ * {@linkplain TaskFinderRepository#hybrid() offers it}, both legs and the score fusion
+ * run as one SQL statement after the query has been embedded.
+ * <p>
+ * The retrieval can be {@linkplain #prefetch(String, RequestContext) started speculatively} while
+ * the orchestrator is still classifying the message.
+ * <p>
+ * Embedding, the SQL searches and the rank fusion are observed as {@link PipelineStage}s of
+ * {@link TaskType#FIND_TASK}; the legs run with the trace context of the request.
  */
 @Component
-public class TaskFinderAgent implements TaskAgent {
+public class TaskFinderAgent implements TaskAgent, DisposableBean {
 
     private static final Logger log = LoggerFactory.getLogger(TaskFinderAgent.class);
 
@@ -37,17 +67,62 @@ public class TaskFinderAgent implements TaskAgent {
     private static final int RESULT_LIMIT = 5;
     private static final double LEXICAL_WEIGHT = 0.3d;
     private static final double SEMANTIC_WEIGHT = 0.7d;
+    private static final Duration DEFAULT_LEXICAL_TIMEOUT = Duration.ofSeconds(3);
+    private static final Duration DEFAULT_SEMANTIC_TIMEOUT = Duration.ofSeconds(5);
+    private static final int SNIPPET_LENGTH = 220;
+    private static final RequestContext.Key<Retrieval> RETRIEVAL = new RequestContext.Key<>("finder-retrieval");
 
     private final TaskFinderRepository repository;
     private final ObjectProvider<EmbeddingModel> embeddingModelProvider;
     private final MarkdownRenderer markdownRenderer;
+    private final Duration lexicalTimeout;
+    private final Duration semanticTimeout;
+    private final RetrievalMode retrievalMode;
+    private final ExecutorService retrievalExecutor;
+    private final ObservationRegistry observationRegistry;
 
     public TaskFinderAgent(TaskFinderRepository repository,
-                           @Qualifier("finderEmbeddingModel") ObjectProvider<EmbeddingModel> embeddingModelProvider,
+                           ObjectProvider<EmbeddingModel> embeddingModelProvider,
                            MarkdownRenderer markdownRenderer) {
+        this(repository, embeddingModelProvider, markdownRenderer, DEFAULT_LEXICAL_TIMEOUT, DEFAULT_SEMANTIC_TIMEOUT,
+                RetrievalMode.PARALLEL);
+    }
+
+    public TaskFinderAgent(TaskFinderRepository repository,
+                           ObjectProvider<EmbeddingModel> embeddingModelProvider,
+                           MarkdownRenderer markdownRenderer,
+                           Duration lexicalTimeout,
+                           Duration semanticTimeout,
+                           RetrievalMode retrievalMode) {
+        this(repository, embeddingModelProvider, markdownRenderer, lexicalTimeout, semanticTimeout, retrievalMode,
+                ObservationRegistry.NOOP);
+    }
+
+    @Autowired
+    public TaskFinderAgent(TaskFinderRepository repository,
+                           @Qualifier("finderEmbeddingModel") ObjectProvider<EmbeddingModel> embeddingModelProvider,
+                           MarkdownRenderer markdownRenderer,
+                           @Value("${copilot.finder.lexical-timeout:PT3S}") Duration lexicalTimeout,
+                           @Value("${copilot.finder.semantic-timeout:PT5S}") Duration semanticTimeout,
+                           @Value("${copilot.finder.retrieval-mode:parallel}") RetrievalMode retrievalMode,
+                           ObservationRegistry observationRegistry) {
         this.repository = repository;
         this.embeddingModelProvider = embeddingModelProvider;
         this.markdownRenderer = markdownRenderer;
+        this.lexicalTimeout = lexicalTimeout;
+        this.semanticTimeout = semanticTimeout;
+        this.retrievalMode = retrievalMode;
+        this.observationRegistry = observationRegistry;
+        this.retrievalExecutor = PipelineStage.propagateContext(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("finder-", 0).factory()));
+    }
+
+    /**
+     * Interrupts retrievals still running at shutdown.
+     */
+    @Override
+    public void destroy() {
+        retrievalExecutor.shutdownNow();
     }
 
     /**
@@ -58,30 +133,208 @@ public class TaskFinderAgent implements TaskAgent {
      */
     @Override
     public String handle(String userMessage) {
+        return handle(userMessage, RequestContext.empty());
+    }
+
+    /**
+     * Like {@link #handle(String)}, but waits for a retrieval prefetched into {@code context}
+     * instead of starting a new one.
+     */
+    @Override
+    public String handle(String userMessage, RequestContext context) {
         if (userMessage == null || userMessage.isBlank()) {
             return markdownRenderer.render("Bitte beschreibe dein GRETL-Problem etwas genauer, damit ich passende Tasks suchen kann.");
         }
 
-        List<TaskFinderDocument> lexicalMatches = repository.searchLexical(userMessage, CANDIDATE_LIMIT);
-        Optional<double[]> queryEmbedding = embed(userMessage);
-        List<TaskFinderDocument> semanticMatches = queryEmbedding
-                .map(embedding -> repository.searchSemantic(embedding, CANDIDATE_LIMIT))
-                .orElseGet(List::of);
+        Optional<Future<Retrieval>> prefetched = context.take(RETRIEVAL);
+        Retrieval retrieval = prefetched.isPresent() ? awaitPrefetched(prefetched.get()) : retrieve(userMessage);
+        if (retrieval.degraded()) {
+            context.markDegraded();
+        }
 
-        List<RankedDocument> ranked = rank(lexicalMatches, semanticMatches);
-        //log.info(ranked.toString());
-        for (RankedDocument doc : ranked) {
-            log.info(doc.document.taskName() + " --- " + doc.combinedScore + " --- " + doc.lexicalContribution + " --- " + doc.semanticContribution);
+        List<RankedDocument> ranked = stage(PipelineStage.RANK_FUSION, () -> retrieval.fused()
+                ? rankFused(retrieval.lexicalMatches())
+                : rank(retrieval.lexicalMatches(), retrieval.semanticMatches()));
+        if (log.isDebugEnabled()) {
+            for (RankedDocument doc : ranked) {
+                log.debug("{}: combined {}, lexical {}, semantic {}", doc.document.taskName(), doc.combinedScore,
+                        doc.lexicalContribution, doc.semanticContribution);
+            }
         }
-        
+
         if (ranked.isEmpty()) {
             return markdownRenderer.render("Ich konnte in der GRETL-Dokumentation keine passenden Tasks zu deiner Anfrage finden.");
         }
-        boolean semanticUsed = queryEmbedding.isPresent() && !semanticMatches.isEmpty();
-        return markdownRenderer.render(formatResponse(userMessage, ranked, semanticUsed));
+        return markdownRenderer.render(formatResponse(ranked, retrieval.semanticStatus()));
     }
 
-    private List<RankedDocument> rank(List<TaskFinderDocument> lexicalMatches, List<TaskFinderDocument> semanticMatches) {
+    /**
+     * Starts the complete retrieval (embedding, lexical and semantic search) in the background.
+     * Cancelling it interrupts the legs that are still running.
+     */
+    @Override
+    public void prefetch(String userMessage, RequestContext context) {
+        if (userMessage == null || userMessage.isBlank()) {
+            return;
+        }
+        context.put(RETRIEVAL, retrievalExecutor.submit(() -> retrieve(userMessage)));
+    }
+
+    /**
+     * The prefetched retrieval applies the leg deadlines itself, so waiting without a timeout is
+     * bounded by them.
+     */
+    private static Retrieval awaitPrefetched(Future<Retrieval> prefetched) {
+        try {
+            return prefetched.get();
+        } catch (ExecutionException ex) {
+            throw propagate(ex.getCause());
+        } catch (InterruptedException ex) {
+            prefetched.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for finder retrieval", ex);
+        }
+    }
+
+    /**
+     * Runs the lexical leg and the embedding plus semantic leg concurrently. Both deadlines are
+     * measured from the moment the legs are started, so the retrieval takes roughly
+     * {@code max(lexical, embed + semantic)} instead of their sum.
+     */
+    private Retrieval retrieve(String userMessage) {
+        Optional<HybridTaskFinderRepository> hybrid = retrievalMode == RetrievalMode.HYBRID_SQL
+                ? repository.hybrid() : Optional.empty();
+        if (hybrid.isPresent()) {
+            return retrieveHybrid(userMessage, hybrid.get());
+        }
+        long startedAt = System.nanoTime();
+        Future<List<TaskFinderDocument>> lexicalLeg = retrievalExecutor.submit(
+                () -> searchLexical(userMessage));
+        Future<SemanticLeg> semanticLeg = retrievalExecutor.submit(() -> searchSemantic(userMessage));
+
+        List<TaskFinderDocument> lexicalMatches;
+        boolean lexicalTimedOut = false;
+        try {
+            lexicalMatches = awaitLeg(lexicalLeg, startedAt, lexicalTimeout);
+        } catch (TimeoutException ex) {
+            log.warn("Lexical finder search exceeded {} ms, continuing without lexical candidates.", lexicalTimeout.toMillis());
+            lexicalMatches = List.of();
+            lexicalTimedOut = true;
+        } catch (ExecutionException ex) {
+            semanticLeg.cancel(true);
+            throw propagate(ex.getCause());
+        }
+
+        SemanticLeg semantic;
+        try {
+            semantic = awaitLeg(semanticLeg, startedAt, semanticTimeout);
+        } catch (TimeoutException ex) {
+            log.warn("Semantic finder search exceeded {} ms, answering with lexical candidates only.", semanticTimeout.toMillis());
+            semantic = new SemanticLeg(List.of(), SemanticStatus.TIMED_OUT);
+        } catch (ExecutionException ex) {
+            log.warn("Semantic finder search failed, answering with lexical candidates only.", ex.getCause());
+            semantic = new SemanticLeg(List.of(), SemanticStatus.FAILED);
+        }
+        return new Retrieval(lexicalMatches, semantic.matches(), semantic.status(), false, lexicalTimedOut);
+    }
+
+    /**
+     * Embeds the query within the semantic deadline and lets the repository run both legs and the
+     * fusion in a single statement. Without an embedding the lexical search is used on its own.
+     */
+    private Retrieval retrieveHybrid(String userMessage, HybridTaskFinderRepository hybrid) {
+        long startedAt = System.nanoTime();
+        Future<Optional<float[]>> embeddingLeg = retrievalExecutor.submit(() -> embed(userMessage));
+        SemanticStatus fallbackStatus;
+        try {
+            Optional<float[]> embedding = awaitLeg(embeddingLeg, startedAt, semanticTimeout);
+            if (embedding.isPresent()) {
+                List<TaskFinderDocument> fused = stage(PipelineStage.HYBRID_SQL,
+                        () -> hybrid.searchHybrid(new HybridSearchRequest(
+                                userMessage, embedding.get(), CANDIDATE_LIMIT, RESULT_LIMIT,
+                                LEXICAL_WEIGHT, SEMANTIC_WEIGHT, SNIPPET_LENGTH + 20)));
+                boolean semanticUsed = fused.stream().anyMatch(document -> document.semanticScore() > 0.0d);
+                return new Retrieval(fused, List.of(),
+                        semanticUsed ? SemanticStatus.USED : SemanticStatus.UNAVAILABLE, true);
+            }
+            fallbackStatus = SemanticStatus.UNAVAILABLE;
+        } catch (TimeoutException ex) {
+            log.warn("Query embedding exceeded {} ms, answering with lexical candidates only.", semanticTimeout.toMillis());
+            fallbackStatus = SemanticStatus.TIMED_OUT;
+        } catch (ExecutionException ex) {
+            log.warn("Query embedding failed, answering with lexical candidates only.", ex.getCause());
+            fallbackStatus = SemanticStatus.FAILED;
+        }
+        return lexicalFallback(userMessage, fallbackStatus);
+    }
+
+    /**
+     * Runs the lexical search on its own after the query embedding was not available, with the same
+     * deadline as the lexical leg of {@link #retrieve(String)}, counted from the start of the fallback.
+     */
+    private Retrieval lexicalFallback(String userMessage, SemanticStatus semanticStatus) {
+        long startedAt = System.nanoTime();
+        Future<List<TaskFinderDocument>> lexicalLeg = retrievalExecutor.submit(() -> searchLexical(userMessage));
+        try {
+            return new Retrieval(awaitLeg(lexicalLeg, startedAt, lexicalTimeout), List.of(), semanticStatus, false);
+        } catch (TimeoutException ex) {
+            log.warn("Lexical finder search exceeded {} ms, continuing without lexical candidates.", lexicalTimeout.toMillis());
+            return new Retrieval(List.of(), List.of(), semanticStatus, false, true);
+        } catch (ExecutionException ex) {
+            throw propagate(ex.getCause());
+        }
+    }
+
+    private List<TaskFinderDocument> searchLexical(String userMessage) {
+        return stage(PipelineStage.LEXICAL_SQL, () -> repository.searchLexical(userMessage, CANDIDATE_LIMIT));
+    }
+
+    private SemanticLeg searchSemantic(String userMessage) {
+        Optional<float[]> queryEmbedding = embed(userMessage);
+        if (queryEmbedding.isEmpty()) {
+            return new SemanticLeg(List.of(), SemanticStatus.UNAVAILABLE);
+        }
+        List<TaskFinderDocument> matches = stage(PipelineStage.SEMANTIC_SQL,
+                () -> repository.searchSemantic(queryEmbedding.get(), CANDIDATE_LIMIT));
+        return new SemanticLeg(matches, matches.isEmpty() ? SemanticStatus.UNAVAILABLE : SemanticStatus.USED);
+    }
+
+    private <T> T stage(PipelineStage stage, Supplier<T> work) {
+        return stage.observe(observationRegistry, TaskType.FIND_TASK, work);
+    }
+
+    private static <T> T awaitLeg(Future<T> leg, long startedAt, Duration timeout)
+            throws TimeoutException, ExecutionException {
+        long remaining = timeout.toNanos() - (System.nanoTime() - startedAt);
+        try {
+            return leg.get(Math.max(remaining, 0L), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            leg.cancel(true);
+            throw ex;
+        } catch (CancellationException ex) {
+            throw new TimeoutException("Retrieval leg was cancelled");
+        } catch (InterruptedException ex) {
+            leg.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for finder retrieval", ex);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException("Finder retrieval failed", cause);
+    }
+
+    /**
+     * Normalizes both score lists to their maximum, merges the candidates on
+     * {@link TaskFinderDocument#compoundKey()} and orders them by the weighted sum.
+     */
+    static List<RankedDocument> rank(List<TaskFinderDocument> lexicalMatches, List<TaskFinderDocument> semanticMatches) {
         Map<String, AggregatedScore> aggregation = new HashMap<>();
 
         double maxLexical = lexicalMatches.stream()
@@ -122,25 +375,38 @@ public class TaskFinderAgent implements TaskAgent {
         return ranked;
     }
 
-    private Optional<double[]> embed(String userMessage) {
+    /**
+     * Orders candidates whose scores were already normalized and fused by the repository.
+     */
+    private static List<RankedDocument> rankFused(List<TaskFinderDocument> fused) {
+        List<RankedDocument> ranked = new ArrayList<>(fused.size());
+        for (TaskFinderDocument document : fused) {
+            double combined = LEXICAL_WEIGHT * document.lexicalScore() + SEMANTIC_WEIGHT * document.semanticScore();
+            ranked.add(new RankedDocument(document, document.lexicalScore(), document.semanticScore(), combined));
+        }
+        ranked.sort(Comparator.comparing(RankedDocument::combinedScore).reversed());
+        if (ranked.size() > RESULT_LIMIT) {
+            return ranked.subList(0, RESULT_LIMIT);
+        }
+        return ranked;
+    }
+
+    private Optional<float[]> embed(String userMessage) {
         EmbeddingModel model = embeddingModelProvider.getIfAvailable();
         if (model == null) {
             return Optional.empty();
         }
         try {
-            Response<List<Embedding>> response = model.embedAll(List.of(TextSegment.from(userMessage)));
+            Response<List<Embedding>> response = stage(PipelineStage.EMBEDDING,
+                    () -> model.embedAll(List.of(TextSegment.from(userMessage))));
             List<Embedding> embeddings = response.content();
             if (embeddings == null || embeddings.isEmpty()) {
                 return Optional.empty();
             }
-            float[] rawVector = embeddings.getFirst().vector();
-            if (rawVector.length == 0) {
+            float[] vector = embeddings.getFirst().vector();
+            if (vector.length == 0) {
                 return Optional.empty();
             }
-            double[] vector = new double[rawVector.length];
-            for (int i = 0; i < rawVector.length; i++) {
-                vector[i] = rawVector[i];
-            }
             return Optional.of(vector);
         } catch (Exception ex) {
             log.warn("Failed to embed finder query. Falling back to lexical-only search.", ex);
@@ -148,11 +414,13 @@ public class TaskFinderAgent implements TaskAgent {
         }
     }
 
-    private String formatResponse(String userMessage, List<RankedDocument> ranked, boolean semanticUsed) {
+    /**
+     * The answer does not repeat {@code userMessage}: it is cached and may be shown to someone who
+     * asked a paraphrase.
+     */
+    private String formatResponse(List<RankedDocument> ranked, SemanticStatus semanticStatus) {
         StringBuilder builder = new StringBuilder();
-        builder.append("Ich habe nach passenden GRETL-Tasks für \"")
-                .append(userMessage.trim())
-                .append("\" gesucht und folgende Treffer gefunden:\n\n");
+        builder.append("Ich habe nach passenden GRETL-Tasks gesucht und folgende Treffer gefunden:\n\n");
 
         int index = 1;
         for (RankedDocument document : ranked) {
@@ -184,15 +452,19 @@ public class TaskFinderAgent implements TaskAgent {
                         "Gewichtung: BM25 %.0f%% / Semantik %.0f%%",
                         LEXICAL_WEIGHT * 100,
                         SEMANTIC_WEIGHT * 100));
-        if (!semanticUsed) {
-            builder.append(" (Semantik deaktiviert – kein Embedding-Modell verfügbar)");
+        switch (semanticStatus) {
+            case UNAVAILABLE -> builder.append(" (Semantik deaktiviert – kein Embedding-Modell verfügbar)");
+            case TIMED_OUT -> builder.append(" (Semantik übersprungen – Zeitlimit überschritten)");
+            case FAILED -> builder.append(" (Semantik übersprungen – Vektorsuche fehlgeschlagen)");
+            case USED -> {
+            }
         }
         return builder.toString();
     }
 
-    private String extractSnippet(String content) {
+    static String extractSnippet(String content) {
         String sanitized = content.replaceAll("\s+", " ").trim();
-        if (sanitized.length() <= 220) {
+        if (sanitized.length() <= SNIPPET_LENGTH) {
             return sanitized;
         }
         return sanitized.substring(0, 217) + "...";
@@ -208,9 +480,51 @@ public class TaskFinderAgent implements TaskAgent {
         }
     }
 
-    private record RankedDocument(TaskFinderDocument document,
-                                  double lexicalContribution,
-                                  double semanticContribution,
-                                  double combinedScore) {
+    /**
+     * How the finder talks to the repository: two concurrent single-leg queries fused in Java, or
+     * one hybrid statement fused in the database.
+     */
+    public enum RetrievalMode {
+        PARALLEL,
+        HYBRID_SQL
+    }
+
+    private enum SemanticStatus {
+        USED,
+        UNAVAILABLE,
+        TIMED_OUT,
+        FAILED
+    }
+
+    private record SemanticLeg(List<TaskFinderDocument> matches, SemanticStatus status) {
+    }
+
+    /**
+     * Candidates of one request. If {@code fused} is set, {@code lexicalMatches} holds the
+     * repository-fused result and {@code semanticMatches} is empty.
+     */
+    private record Retrieval(List<TaskFinderDocument> lexicalMatches,
+                             List<TaskFinderDocument> semanticMatches,
+                             SemanticStatus semanticStatus,
+                             boolean fused,
+                             boolean lexicalTimedOut) {
+
+        Retrieval(List<TaskFinderDocument> lexicalMatches, List<TaskFinderDocument> semanticMatches,
+                  SemanticStatus semanticStatus, boolean fused) {
+            this(lexicalMatches, semanticMatches, semanticStatus, fused, false);
+        }
+
+        /**
+         * Whether a leg was skipped, so the answer may differ from the one a later request gets.
+         */
+        boolean degraded() {
+            return lexicalTimedOut || semanticStatus != SemanticStatus.USED;
+        }
+    }
+
+    record RankedDocument(TaskFinderDocument document,
+                          double lexicalContribution,
+                          double semanticContribution,
+                          double combinedScore) {
     }
 }
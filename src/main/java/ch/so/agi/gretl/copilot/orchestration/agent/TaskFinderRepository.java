@@ -1,6 +1,7 @@
 package ch.so.agi.gretl.copilot.orchestration.agent;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Repository abstraction encapsulating the SQL used for hybrid GRETL task retrieval.
@@ -23,5 +24,12 @@ public interface TaskFinderRepository {
      * @param limit maximum number of rows returned by the database
      * @return semantic candidates ordered by descending cosine similarity
      */
-    List<TaskFinderDocument> searchSemantic(double[] embedding, int limit);
+    List<TaskFinderDocument> searchSemantic(float[] embedding, int limit);
+
+    /**
+     * The single-round-trip hybrid search, if this repository can currently run it.
+     */
+    default Optional<HybridTaskFinderRepository> hybrid() {
+        return Optional.empty();
+    }
 }
@@ -1,20 +1,62 @@
 package ch.so.agi.gretl.copilot.orchestration.agent;
 
+import ch.so.agi.gretl.copilot.orchestration.RequestContext;
 import ch.so.agi.gretl.copilot.orchestration.TaskAgent;
+import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
+/**
+ * Writes GRETL task configurations. Like {@link TaskExplanationAgent}, it streams its answer when a
+ * {@code generatorStreamingModel} is available and answers with a mock text otherwise.
+ */
 @Component
 public class TaskGeneratorAgent implements TaskAgent {
 
-    // Prepared for future LangChain4j integration:
-    // private final ChatModel generatorModel;
-    //
-    // public TaskGeneratorAgent(@Qualifier("generatorModel") ChatModel generatorModel) {
-    //     this.generatorModel = generatorModel;
-    // }
+    static final String SYSTEM_PROMPT = """
+Du bist ein Assistent für GRETL, ein Gradle-Plugin für (spatial) ETL.
+Schreibe eine GRETL-Task-Konfiguration (build.gradle), die die Anfrage des/der Benutzer:in erfüllt, und übernimm die Eingaben (Dateien, Tabellen, Modelle) aus der Anfrage.
+Antworte auf Deutsch in Markdown, den Code in einem ```groovy-Block, gefolgt von einer kurzen Erläuterung.
+            """;
+
+    private final StreamingChatModel generatorModel;
+    private final MarkdownRenderer markdownRenderer;
+
+    public TaskGeneratorAgent() {
+        this((StreamingChatModel) null, new MarkdownRenderer());
+    }
+
+    @Autowired
+    public TaskGeneratorAgent(@Qualifier("generatorStreamingModel") ObjectProvider<StreamingChatModel> generatorModel,
+                              MarkdownRenderer markdownRenderer) {
+        this(generatorModel.getIfAvailable(), markdownRenderer);
+    }
+
+    TaskGeneratorAgent(StreamingChatModel generatorModel, MarkdownRenderer markdownRenderer) {
+        this.generatorModel = generatorModel;
+        this.markdownRenderer = markdownRenderer;
+    }
 
     @Override
     public String handle(String userMessage) {
-        return "[Mock] Generating a new GRETL task for: " + userMessage;
+        return handle(userMessage, RequestContext.empty());
+    }
+
+    @Override
+    public String handle(String userMessage, RequestContext context) {
+        if (generatorModel == null) {
+            return "[Mock] Generating a new GRETL task for: " + userMessage;
+        }
+        String markdown = StreamingAnswer.generate(generatorModel,
+                List.of(SystemMessage.from(SYSTEM_PROMPT), UserMessage.from(userMessage)),
+                context::emitPartial, StreamingAnswer.DEFAULT_TIMEOUT);
+        return markdownRenderer.render(markdown);
     }
 }
@@ -0,0 +1,234 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable BM25 inverted index over documents made of a heading and a content field.
+ * <p>
+ * Text is analyzed with {@link GermanAnalyzer}, so lexemes match those of
+ * {@code to_tsvector('german', ...)}. Heading occurrences count {@value #HEADING_BOOST} times, the
+ * ratio of the {@code A} and {@code C} weights used by {@code ts_rank_cd}. Postings are stored as
+ * parallel {@code int[]} arrays of document ids and weighted term frequencies, and the lexicon is a
+ * sorted array so that prefix queries resolve with a binary search.
+ * <p>
+ * Queries behave like the finder SQL: every query lexeme with at least three characters is a
+ * prefix term ({@code term:*}) and documents matching any of them are returned. A query without
+ * such lexemes falls back to documents containing all of its (short) lexemes exactly.
+ */
+public final class Bm25Index {
+
+    static final int HEADING_BOOST = 5;
+    private static final int MIN_PREFIX_LENGTH = 3;
+    private static final double K1 = 1.2d;
+    private static final double B = 0.75d;
+
+    private final String[] lexicon;
+    private final int[][] postingDocs;
+    private final int[][] postingFrequencies;
+    private final int[] documentLengths;
+    private final double averageLength;
+
+    private Bm25Index(String[] lexicon, int[][] postingDocs, int[][] postingFrequencies, int[] documentLengths) {
+        this.lexicon = lexicon;
+        this.postingDocs = postingDocs;
+        this.postingFrequencies = postingFrequencies;
+        this.documentLengths = documentLengths;
+        long total = 0;
+        for (int documentLength : documentLengths) {
+            total += documentLength;
+        }
+        this.averageLength = documentLengths.length == 0 ? 0.0d : (double) total / documentLengths.length;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return documentLengths.length;
+    }
+
+    public int lexiconSize() {
+        return lexicon.length;
+    }
+
+    /**
+     * Returns at most {@code limit} documents ordered by descending BM25 score.
+     */
+    public Result[] search(String query, int limit) {
+        if (limit <= 0 || documentLengths.length == 0) {
+            return new Result[0];
+        }
+        Set<String> terms = new LinkedHashSet<>(GermanAnalyzer.lexemes(query));
+        List<String> prefixTerms = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            if (term.length() >= MIN_PREFIX_LENGTH) {
+                prefixTerms.add(term);
+            }
+        }
+
+        float[] scores = new float[documentLengths.length];
+        if (!prefixTerms.isEmpty()) {
+            for (String term : prefixTerms) {
+                int from = lowerBound(term);
+                for (int t = from; t < lexicon.length && lexicon[t].startsWith(term); t++) {
+                    accumulate(t, scores);
+                }
+            }
+        } else {
+            if (terms.isEmpty()) {
+                return new Result[0];
+            }
+            int[] matchedTerms = new int[documentLengths.length];
+            for (String term : terms) {
+                int t = Arrays.binarySearch(lexicon, term);
+                if (t < 0) {
+                    return new Result[0];
+                }
+                accumulate(t, scores);
+                for (int doc : postingDocs[t]) {
+                    matchedTerms[doc]++;
+                }
+            }
+            for (int doc = 0; doc < scores.length; doc++) {
+                if (matchedTerms[doc] < terms.size()) {
+                    scores[doc] = 0.0f;
+                }
+            }
+        }
+        return topK(scores, limit);
+    }
+
+    private void accumulate(int term, float[] scores) {
+        int[] docs = postingDocs[term];
+        int[] frequencies = postingFrequencies[term];
+        double idf = Math.log(1.0d + (documentLengths.length - docs.length + 0.5d) / (docs.length + 0.5d));
+        for (int i = 0; i < docs.length; i++) {
+            int doc = docs[i];
+            double tf = frequencies[i];
+            double norm = K1 * (1.0d - B + B * documentLengths[doc] / averageLength);
+            scores[doc] += (float) (idf * tf * (K1 + 1.0d) / (tf + norm));
+        }
+    }
+
+    private int lowerBound(String term) {
+        int low = 0;
+        int high = lexicon.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lexicon[mid].compareTo(term) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Keeps the {@code limit} best positive scores in a small sorted array; ties keep the lower id.
+     */
+    private static Result[] topK(float[] scores, int limit) {
+        int[] ids = new int[limit];
+        float[] best = new float[limit];
+        int count = 0;
+        for (int doc = 0; doc < scores.length; doc++) {
+            float score = scores[doc];
+            if (score <= 0.0f || (count == limit && score <= best[count - 1])) {
+                continue;
+            }
+            int position = count < limit ? count++ : limit - 1;
+            while (position > 0 && best[position - 1] < score) {
+                best[position] = best[position - 1];
+                ids[position] = ids[position - 1];
+                position--;
+            }
+            best[position] = score;
+            ids[position] = doc;
+        }
+        Result[] results = new Result[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = new Result(ids[i], best[i]);
+        }
+        return results;
+    }
+
+    /**
+     * A matching document and its BM25 score.
+     */
+    public record Result(int id, float score) {
+    }
+
+    /**
+     * Collects documents and freezes them into an immutable {@link Bm25Index}.
+     */
+    public static final class Builder {
+
+        private final Map<String, TermPostings> postings = new HashMap<>();
+        private final List<Integer> lengths = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a document and returns its id, which is the insertion order starting at {@code 0}.
+         */
+        public int add(String heading, String content) {
+            int doc = lengths.size();
+            Map<String, Integer> frequencies = new HashMap<>();
+            int[] length = new int[1];
+            GermanAnalyzer.analyze(heading, term -> {
+                frequencies.merge(term, HEADING_BOOST, Integer::sum);
+                length[0]++;
+            });
+            GermanAnalyzer.analyze(content, term -> {
+                frequencies.merge(term, 1, Integer::sum);
+                length[0]++;
+            });
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), key -> new TermPostings()).add(doc, entry.getValue());
+            }
+            lengths.add(length[0]);
+            return doc;
+        }
+
+        public Bm25Index build() {
+            String[] lexicon = postings.keySet().toArray(String[]::new);
+            Arrays.sort(lexicon);
+            int[][] docs = new int[lexicon.length][];
+            int[][] frequencies = new int[lexicon.length][];
+            for (int t = 0; t < lexicon.length; t++) {
+                TermPostings termPostings = postings.get(lexicon[t]);
+                docs[t] = Arrays.copyOf(termPostings.docs, termPostings.size);
+                frequencies[t] = Arrays.copyOf(termPostings.frequencies, termPostings.size);
+            }
+            int[] documentLengths = new int[lengths.size()];
+            for (int i = 0; i < documentLengths.length; i++) {
+                documentLengths[i] = lengths.get(i);
+            }
+            return new Bm25Index(lexicon, docs, frequencies, documentLengths);
+        }
+    }
+
+    private static final class TermPostings {
+        private int[] docs = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            docs[size] = doc;
+            frequencies[size] = frequency;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Row visibility of the versioned RAG corpus.
+ * <p>
+ * {@code ingest_gretl.java} writes every run as a new corpus version: rows it adds carry the new
+ * {@code corpus_version}, rows it replaces get that version as {@code superseded_in}. Neither is
+ * visible before the ingester switches {@code rag.corpus_state.active_version} to the new version
+ * and announces it on {@link #CHANNEL}, so readers see the old corpus until the switch and the
+ * complete new one right after it. Schemas without {@code rag.corpus_state} are not versioned and
+ * all of their rows are visible.
+ */
+public final class CorpusVersion {
+
+    /**
+     * Channel of the {@code NOTIFY} sent with the switch to a new version; the payload is the version.
+     */
+    public static final String CHANNEL = "rag_corpus";
+
+    /**
+     * Placeholder for the visibility condition of the rows of the given table alias, e.g.
+     * {@code {visible:dc}}.
+     */
+    private static final Pattern VISIBLE = Pattern.compile("\\{visible:(\\w+)}");
+
+    private static final String ACTIVE_VERSION = "(SELECT active_version FROM rag.corpus_state)";
+
+    private static final String VERSIONED_SQL = "SELECT to_regclass('rag.corpus_state') IS NOT NULL";
+
+    private CorpusVersion() {
+    }
+
+    /**
+     * Whether the {@code rag} schema has the version columns.
+     */
+    public static boolean isVersioned(JdbcClient jdbcClient) {
+        return Boolean.TRUE.equals(jdbcClient.sql(VERSIONED_SQL).query(Boolean.class).single());
+    }
+
+    /**
+     * Replaces every {@code {visible:alias}} in {@code sql} by the condition that restricts the rows
+     * of {@code alias} to the active version, or by {@code TRUE} for an unversioned schema.
+     */
+    public static String withVisibility(String sql, boolean versioned) {
+        Matcher matcher = VISIBLE.matcher(sql);
+        StringBuilder result = new StringBuilder();
+        while (matcher.find()) {
+            matcher.appendReplacement(result, Matcher.quoteReplacement(
+                    versioned ? visible(matcher.group(1)) : "TRUE"));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static String visible(String alias) {
+        return "(" + alias + ".corpus_version <= " + ACTIVE_VERSION
+                + " AND (" + alias + ".superseded_in IS NULL OR " + alias + ".superseded_in > " + ACTIVE_VERSION + "))";
+    }
+}
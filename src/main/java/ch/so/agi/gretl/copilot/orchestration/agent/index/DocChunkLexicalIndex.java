@@ -0,0 +1,126 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-heap BM25 index over the headings and texts of {@code rag.doc_chunks}.
+ * <p>
+ * Like {@link DocChunkVectorIndex} it is loaded once the application is ready and can be rebuilt
+ * with {@link #reload()}. While {@link #isReady()} returns {@code false} callers are expected to use
+ * the Postgres full-text query instead. Only the rows of the active corpus version are indexed
+ * ({@link CorpusVersion}).
+ */
+@Component
+@ConditionalOnProperty(name = "copilot.finder.lexical-index", havingValue = "bm25")
+public class DocChunkLexicalIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(DocChunkLexicalIndex.class);
+
+    private static final String LOAD_SQL = """
+            SELECT
+                COALESCE(dc.task_name, '') AS taskName,
+                COALESCE(dc.heading, '') AS heading,
+                COALESCE(dc.url, '') AS url,
+                COALESCE(dc.anchor, '') AS anchor,
+                COALESCE(dc.content_text, '') AS content,
+                0.0::double precision AS lexicalScore,
+                0.0::double precision AS semanticScore
+            FROM rag.doc_chunks dc
+            WHERE {visible:dc}
+            ORDER BY dc.id
+            """;
+
+    private final JdbcClient jdbcClient;
+
+    private volatile Snapshot snapshot;
+
+    public DocChunkLexicalIndex(JdbcClient jdbcClient) {
+        this.jdbcClient = jdbcClient;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        try {
+            reload();
+        } catch (DataAccessException ex) {
+            log.warn("Could not load BM25 index from rag.doc_chunks. Lexical search stays on Postgres.", ex);
+        }
+    }
+
+    @EventListener(RagCorpusChangedEvent.class)
+    public void reloadOnCorpusChange() {
+        try {
+            reload();
+        } catch (DataAccessException ex) {
+            log.warn("Could not reload BM25 index after the RAG corpus changed. The previous index stays in use.", ex);
+        }
+    }
+
+    /**
+     * Reads all chunks and atomically replaces the current index.
+     */
+    public synchronized void reload() {
+        long started = System.nanoTime();
+        List<TaskFinderDocument> documents = jdbcClient.sql(
+                        CorpusVersion.withVisibility(LOAD_SQL, CorpusVersion.isVersioned(jdbcClient)))
+                .query(TaskFinderDocument.class)
+                .list();
+        if (documents.isEmpty()) {
+            snapshot = null;
+            log.info("BM25 index not built: rag.doc_chunks is empty");
+            return;
+        }
+        Bm25Index.Builder builder = Bm25Index.builder();
+        for (TaskFinderDocument document : documents) {
+            builder.add(document.heading(), document.content());
+        }
+        snapshot = new Snapshot(builder.build(), List.copyOf(documents));
+        log.info("BM25 index built over {} chunks ({} lexemes) in {} ms",
+                documents.size(), snapshot.index().lexiconSize(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * In-memory counterpart of the full-text query. The BM25 score is returned as
+     * {@code lexicalScore}; like {@code ts_rank_cd} it is only meaningful relative to the other
+     * results, which is how the finder uses it after max-normalization.
+     */
+    public List<TaskFinderDocument> search(String query, int limit) {
+        Snapshot current = snapshot;
+        if (current == null || query == null || query.isBlank()) {
+            return Collections.emptyList();
+        }
+        Bm25Index.Result[] results = current.index().search(query, limit);
+        List<TaskFinderDocument> documents = new ArrayList<>(results.length);
+        for (Bm25Index.Result result : results) {
+            TaskFinderDocument document = current.documents().get(result.id());
+            documents.add(new TaskFinderDocument(
+                    document.taskName(),
+                    document.heading(),
+                    document.url(),
+                    document.anchor(),
+                    document.content(),
+                    (double) result.score(),
+                    0.0d));
+        }
+        return documents;
+    }
+
+    private record Snapshot(Bm25Index index, List<TaskFinderDocument> documents) {
+    }
+}
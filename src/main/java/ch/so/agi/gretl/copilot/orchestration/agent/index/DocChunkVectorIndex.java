@@ -0,0 +1,240 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderDocument;
+import ch.so.agi.gretl.copilot.support.PgVector;
+import ch.so.agi.gretl.copilot.support.VectorMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-heap HNSW index over the embeddings of {@code rag.doc_chunks}.
+ * <p>
+ * The index is loaded once the application is ready and serves {@code searchSemantic} without a
+ * database round trip. Until it is loaded (or if loading failed) {@link #isReady()} returns
+ * {@code false} and callers are expected to fall back to the exact pgvector query. Only the rows of
+ * the active corpus version are indexed ({@link CorpusVersion}).
+ */
+@Component
+@ConditionalOnProperty(name = "copilot.finder.semantic-index", havingValue = "hnsw")
+public class DocChunkVectorIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(DocChunkVectorIndex.class);
+
+    private static final String LOAD_SQL = """
+            SELECT
+                dc.id AS id,
+                COALESCE(dc.task_name, '') AS taskName,
+                COALESCE(dc.heading, '') AS heading,
+                COALESCE(dc.url, '') AS url,
+                COALESCE(dc.anchor, '') AS anchor,
+                COALESCE(dc.content_text, '') AS content,
+                dc.embedding::text AS embedding
+            FROM rag.doc_chunks dc
+            WHERE dc.embedding IS NOT NULL AND {visible:dc}
+            ORDER BY dc.id
+            """;
+
+    private static final String EXACT_NEIGHBOURS_SQL = """
+            SELECT dc.id
+            FROM rag.doc_chunks dc
+            WHERE dc.embedding IS NOT NULL AND {visible:dc}
+            ORDER BY dc.embedding <=> (SELECT q.embedding FROM rag.doc_chunks q WHERE q.id = :id) ASC
+            LIMIT :limit
+            """;
+
+    private final JdbcClient jdbcClient;
+    private final int maxConnections;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int recallSample;
+
+    private volatile Snapshot snapshot;
+    private volatile boolean versioned;
+
+    public DocChunkVectorIndex(JdbcClient jdbcClient,
+                               @Value("${copilot.finder.hnsw.m:16}") int maxConnections,
+                               @Value("${copilot.finder.hnsw.ef-construction:200}") int efConstruction,
+                               @Value("${copilot.finder.hnsw.ef-search:64}") int efSearch,
+                               @Value("${copilot.finder.hnsw.recall-sample:0}") int recallSample) {
+        this.jdbcClient = jdbcClient;
+        this.maxConnections = maxConnections;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.recallSample = recallSample;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        try {
+            reload();
+            if (recallSample > 0) {
+                double recall = measureRecall(recallSample, 10);
+                log.info("HNSW recall@10 against exact pgvector search: {} ({} sampled queries)", recall, recallSample);
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Could not load HNSW index from rag.doc_chunks. Semantic search stays on pgvector.", ex);
+        }
+    }
+
+    @EventListener(RagCorpusChangedEvent.class)
+    public void reloadOnCorpusChange() {
+        try {
+            reload();
+        } catch (DataAccessException ex) {
+            log.warn("Could not reload HNSW index after the RAG corpus changed. The previous index stays in use.", ex);
+        }
+    }
+
+    /**
+     * Reads all chunk embeddings and atomically replaces the current index.
+     */
+    public synchronized void reload() {
+        long started = System.nanoTime();
+        versioned = CorpusVersion.isVersioned(jdbcClient);
+        List<IndexedChunk> chunks = jdbcClient.sql(CorpusVersion.withVisibility(LOAD_SQL, versioned))
+                .query((rs, rowNum) -> new IndexedChunk(
+                        rs.getLong("id"),
+                        new TaskFinderDocument(
+                                rs.getString("taskName"),
+                                rs.getString("heading"),
+                                rs.getString("url"),
+                                rs.getString("anchor"),
+                                rs.getString("content"),
+                                0.0d,
+                                0.0d),
+                        parseVector(rs.getString("embedding"))))
+                .list();
+        if (chunks.isEmpty()) {
+            snapshot = null;
+            log.info("HNSW index not built: rag.doc_chunks contains no embeddings");
+            return;
+        }
+
+        int dimension = chunks.getFirst().vector().length;
+        HnswIndex index = new HnswIndex(dimension, maxConnections, efConstruction, chunks.size(), 42L);
+        List<IndexedChunk> indexed = new ArrayList<>(chunks.size());
+        for (IndexedChunk chunk : chunks) {
+            if (chunk.vector().length != dimension) {
+                log.warn("Skipping chunk {}: expected {} dimensions but found {}", chunk.id(), dimension, chunk.vector().length);
+                continue;
+            }
+            index.add(chunk.vector());
+            indexed.add(chunk.withoutVector());
+        }
+        snapshot = new Snapshot(index, indexed);
+        log.info("HNSW index built over {} chunks ({} dimensions, {} distances) in {} ms",
+                indexed.size(), dimension, VectorMath.isAccelerated() ? "SIMD" : "scalar",
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    /**
+     * Whether the index is loaded with vectors of the dimension of {@code embedding}. After a change
+     * of the embedding dimension the old index cannot answer until it is reloaded.
+     */
+    public boolean isReadyFor(float[] embedding) {
+        Snapshot current = snapshot;
+        return current != null && current.index().dimension() == embedding.length;
+    }
+
+    /**
+     * Approximate counterpart of the exact {@code ORDER BY embedding <=> query} scan. Scores use the
+     * same {@code 1 / (1 + distance)} transformation as the SQL implementation so that both paths
+     * fuse identically.
+     *
+     * @throws IllegalArgumentException if {@code embedding} does not have the dimension of the index
+     */
+    public List<TaskFinderDocument> search(float[] embedding, int limit) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        HnswIndex.Result[] results = current.index().search(embedding, limit, efSearch);
+        List<TaskFinderDocument> documents = new ArrayList<>(results.length);
+        for (HnswIndex.Result result : results) {
+            TaskFinderDocument document = current.chunks().get(result.id()).document();
+            documents.add(new TaskFinderDocument(
+                    document.taskName(),
+                    document.heading(),
+                    document.url(),
+                    document.anchor(),
+                    document.content(),
+                    0.0d,
+                    1.0d / (1.0d + result.distance())));
+        }
+        return documents;
+    }
+
+    /**
+     * Compares the HNSW neighbours of stored chunks with the exact pgvector ordering.
+     *
+     * @param sampleSize number of chunks used as queries
+     * @param k          neighbours compared per query
+     * @return the mean recall@k, {@code 1.0} meaning identical result sets
+     */
+    public double measureRecall(int sampleSize, int k) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return 0.0d;
+        }
+        int total = current.chunks().size();
+        int samples = Math.min(sampleSize, total);
+        int stride = Math.max(1, total / Math.max(samples, 1));
+        double recallSum = 0.0d;
+        int measured = 0;
+        for (int node = 0; node < total && measured < samples; node += stride) {
+            long chunkId = current.chunks().get(node).id();
+            Set<Long> exact = new HashSet<>(jdbcClient.sql(CorpusVersion.withVisibility(EXACT_NEIGHBOURS_SQL, versioned))
+                    .param("id", chunkId)
+                    .param("limit", k)
+                    .query(Long.class)
+                    .list());
+            if (exact.isEmpty()) {
+                continue;
+            }
+            float[] query = current.index().vector(node);
+            int hits = 0;
+            for (HnswIndex.Result result : current.index().search(query, k, efSearch)) {
+                if (exact.contains(current.chunks().get(result.id()).id())) {
+                    hits++;
+                }
+            }
+            recallSum += (double) hits / exact.size();
+            measured++;
+        }
+        return measured == 0 ? 0.0d : recallSum / measured;
+    }
+
+    /**
+     * Parses pgvector's text representation ({@code [0.1,0.2,...]}) into a {@code float[]}.
+     */
+    static float[] parseVector(String literal) {
+        return PgVector.parse(literal);
+    }
+
+    private record IndexedChunk(long id, TaskFinderDocument document, float[] vector) {
+
+        IndexedChunk withoutVector() {
+            return new IndexedChunk(id, document, null);
+        }
+    }
+
+    private record Snapshot(HnswIndex index, List<IndexedChunk> chunks) {
+    }
+}
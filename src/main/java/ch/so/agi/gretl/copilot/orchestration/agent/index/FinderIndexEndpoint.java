@@ -0,0 +1,49 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Actuator endpoint {@code /actuator/finderindex} to inspect and rebuild the enabled in-memory
+ * finder indexes, e.g. after the ingester has written new chunks. A rebuild is announced as a
+ * {@link RagCorpusChangedEvent}, so caches derived from the corpus are dropped as well.
+ */
+@Component
+@Endpoint(id = "finderindex")
+public class FinderIndexEndpoint {
+
+    private final ObjectProvider<DocChunkLexicalIndex> lexicalIndexProvider;
+    private final ObjectProvider<DocChunkVectorIndex> vectorIndexProvider;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public FinderIndexEndpoint(ObjectProvider<DocChunkLexicalIndex> lexicalIndexProvider,
+                               ObjectProvider<DocChunkVectorIndex> vectorIndexProvider,
+                               ApplicationEventPublisher eventPublisher) {
+        this.lexicalIndexProvider = lexicalIndexProvider;
+        this.vectorIndexProvider = vectorIndexProvider;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @ReadOperation
+    public Map<String, String> status() {
+        Map<String, String> status = new LinkedHashMap<>();
+        DocChunkLexicalIndex lexicalIndex = lexicalIndexProvider.getIfAvailable();
+        DocChunkVectorIndex vectorIndex = vectorIndexProvider.getIfAvailable();
+        status.put("lexical", lexicalIndex == null ? "disabled" : lexicalIndex.isReady() ? "ready" : "empty");
+        status.put("semantic", vectorIndex == null ? "disabled" : vectorIndex.isReady() ? "ready" : "empty");
+        return status;
+    }
+
+    @WriteOperation
+    public Map<String, String> reload() {
+        eventPublisher.publishEvent(new RagCorpusChangedEvent(""));
+        return status();
+    }
+}
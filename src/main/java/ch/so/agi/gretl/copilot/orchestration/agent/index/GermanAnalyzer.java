@@ -0,0 +1,109 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Turns text into lexemes the way {@code to_tsvector('german', ...)} does.
+ * <p>
+ * Tokens are runs of letters and digits. Pure words are dropped if they are German stop words and
+ * stemmed with {@link GermanStemmer} otherwise; tokens containing digits (e.g. {@code ili2pg}) are
+ * kept verbatim like Postgres' {@code simple} dictionary does. Hyphenated compounds are emitted as
+ * a whole and as their parts.
+ */
+final class GermanAnalyzer {
+
+    /**
+     * Snowball German stop words, identical to Postgres' {@code german.stop}.
+     */
+    static final Set<String> STOP_WORDS = Set.of(
+            "aber", "alle", "allem", "allen", "aller", "alles", "als", "also", "am", "an", "ander", "andere",
+            "anderem", "anderen", "anderer", "anderes", "anderm", "andern", "anderr", "anders", "auch", "auf",
+            "aus", "bei", "bin", "bis", "bist", "da", "damit", "dann", "der", "den", "des", "dem", "die", "das",
+            "daß", "derselbe", "derselben", "denselben", "desselben", "demselben", "dieselbe", "dieselben",
+            "dasselbe", "dazu", "dein", "deine", "deinem", "deinen", "deiner", "deines", "denn", "derer",
+            "dessen", "dich", "dir", "du", "dies", "diese", "diesem", "diesen", "dieser", "dieses", "doch",
+            "dort", "durch", "ein", "eine", "einem", "einen", "einer", "eines", "einig", "einige", "einigem",
+            "einigen", "einiger", "einiges", "einmal", "er", "ihn", "ihm", "es", "etwas", "euer", "eure",
+            "eurem", "euren", "eurer", "eures", "für", "gegen", "gewesen", "hab", "habe", "haben", "hat",
+            "hatte", "hatten", "hier", "hin", "hinter", "ich", "mich", "mir", "ihr", "ihre", "ihrem", "ihren",
+            "ihrer", "ihres", "euch", "im", "in", "indem", "ins", "ist", "jede", "jedem", "jeden", "jeder",
+            "jedes", "jene", "jenem", "jenen", "jener", "jenes", "jetzt", "kann", "kein", "keine", "keinem",
+            "keinen", "keiner", "keines", "können", "könnte", "machen", "man", "manche", "manchem", "manchen",
+            "mancher", "manches", "mein", "meine", "meinem", "meinen", "meiner", "meines", "mit", "muss",
+            "musste", "nach", "nicht", "nichts", "noch", "nun", "nur", "ob", "oder", "ohne", "sehr", "sein",
+            "seine", "seinem", "seinen", "seiner", "seines", "selbst", "sich", "sie", "ihnen", "sind", "so",
+            "solche", "solchem", "solchen", "solcher", "solches", "soll", "sollte", "sondern", "sonst", "über",
+            "um", "und", "uns", "unsere", "unserem", "unseren", "unser", "unseres", "unter", "viel", "vom",
+            "von", "vor", "während", "war", "waren", "warst", "was", "weg", "weil", "weiter", "welche",
+            "welchem", "welchen", "welcher", "welches", "wenn", "werde", "werden", "wie", "wieder", "will",
+            "wir", "wird", "wirst", "wo", "wollen", "wollte", "würde", "würden", "zu", "zum", "zur", "zwar",
+            "zwischen");
+
+    private GermanAnalyzer() {
+    }
+
+    /**
+     * Returns all lexemes of {@code text} in order of occurrence, including duplicates.
+     */
+    static List<String> lexemes(String text) {
+        List<String> lexemes = new ArrayList<>();
+        analyze(text, lexemes::add);
+        return lexemes;
+    }
+
+    static void analyze(String text, Consumer<String> sink) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int length = lower.length();
+        int i = 0;
+        while (i < length) {
+            if (!Character.isLetterOrDigit(lower.charAt(i))) {
+                i++;
+                continue;
+            }
+            int compoundStart = i;
+            int parts = 0;
+            int end;
+            while (true) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(lower.charAt(i))) {
+                    i++;
+                }
+                emit(lower.substring(start, i), sink);
+                parts++;
+                end = i;
+                if (i + 1 < length && lower.charAt(i) == '-' && Character.isLetterOrDigit(lower.charAt(i + 1))) {
+                    i++;
+                    continue;
+                }
+                break;
+            }
+            if (parts > 1) {
+                emit(lower.substring(compoundStart, end), sink);
+            }
+        }
+    }
+
+    private static void emit(String token, Consumer<String> sink) {
+        if (containsDigit(token)) {
+            sink.accept(token);
+        } else if (!STOP_WORDS.contains(token)) {
+            sink.accept(GermanStemmer.stem(token));
+        }
+    }
+
+    private static boolean containsDigit(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.isDigit(token.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,188 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+/**
+ * Snowball German stemmer, the algorithm behind Postgres' {@code german_stem} dictionary.
+ * <p>
+ * Expects lower-case input and returns the stem without umlauts, e.g. {@code importieren} becomes
+ * {@code importi} and {@code prüfungen} becomes {@code prufung}.
+ */
+final class GermanStemmer {
+
+    private GermanStemmer() {
+    }
+
+    static String stem(String word) {
+        StringBuilder w = new StringBuilder(word.length() + 2);
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c == 'ß') {
+                w.append("ss");
+            } else {
+                w.append(c);
+            }
+        }
+
+        // Prelude: u and y between vowels are treated as consonants.
+        for (int i = 1; i < w.length() - 1; i++) {
+            char c = w.charAt(i);
+            if ((c == 'u' || c == 'y') && isVowel(w.charAt(i - 1)) && isVowel(w.charAt(i + 1))) {
+                w.setCharAt(i, Character.toUpperCase(c));
+            }
+        }
+
+        int p1 = w.length();
+        int p2 = w.length();
+        if (w.length() >= 3) {
+            int r1 = regionStart(w, 0);
+            p1 = r1 < 3 ? 3 : r1;
+            p1 = Math.min(p1, w.length());
+            p2 = r1 >= w.length() ? w.length() : regionStart(w, r1);
+        }
+
+        step1(w, p1);
+        step2(w, p1);
+        step3(w, p1, p2);
+
+        for (int i = 0; i < w.length(); i++) {
+            switch (w.charAt(i)) {
+                case 'U', 'ü' -> w.setCharAt(i, 'u');
+                case 'Y' -> w.setCharAt(i, 'y');
+                case 'ä' -> w.setCharAt(i, 'a');
+                case 'ö' -> w.setCharAt(i, 'o');
+                default -> {
+                }
+            }
+        }
+        return w.toString();
+    }
+
+    private static void step1(StringBuilder w, int p1) {
+        String suffix = longestSuffix(w, "ern", "em", "er", "en", "es", "e", "s");
+        if (suffix == null || w.length() - suffix.length() < p1) {
+            return;
+        }
+        int start = w.length() - suffix.length();
+        switch (suffix) {
+            case "em", "ern", "er" -> w.setLength(start);
+            case "e", "en", "es" -> {
+                w.setLength(start);
+                if (endsWith(w, "niss")) {
+                    w.setLength(w.length() - 1);
+                }
+            }
+            default -> {
+                if (start > 0 && isSEnding(w.charAt(start - 1))) {
+                    w.setLength(start);
+                }
+            }
+        }
+    }
+
+    private static void step2(StringBuilder w, int p1) {
+        String suffix = longestSuffix(w, "est", "en", "er", "st");
+        if (suffix == null || w.length() - suffix.length() < p1) {
+            return;
+        }
+        int start = w.length() - suffix.length();
+        if (!suffix.equals("st")) {
+            w.setLength(start);
+        } else if (start >= 4 && isStEnding(w.charAt(start - 1))) {
+            w.setLength(start);
+        }
+    }
+
+    private static void step3(StringBuilder w, int p1, int p2) {
+        String suffix = longestSuffix(w, "isch", "lich", "heit", "keit", "end", "ung", "ig", "ik");
+        if (suffix == null || w.length() - suffix.length() < p2) {
+            return;
+        }
+        int start = w.length() - suffix.length();
+        switch (suffix) {
+            case "end", "ung" -> {
+                w.setLength(start);
+                if (endsWith(w, "ig") && w.length() - 2 >= p2 && !precededByE(w, w.length() - 2)) {
+                    w.setLength(w.length() - 2);
+                }
+            }
+            case "ig", "ik", "isch" -> {
+                if (!precededByE(w, start)) {
+                    w.setLength(start);
+                }
+            }
+            case "lich", "heit" -> {
+                w.setLength(start);
+                if ((endsWith(w, "er") || endsWith(w, "en")) && w.length() - 2 >= p1) {
+                    w.setLength(w.length() - 2);
+                }
+            }
+            default -> {
+                w.setLength(start);
+                String inner = longestSuffix(w, "lich", "ig");
+                if (inner != null && w.length() - inner.length() >= p2) {
+                    w.setLength(w.length() - inner.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Position after the first non-vowel that follows a vowel, searching from {@code from}.
+     */
+    private static int regionStart(StringBuilder w, int from) {
+        int i = from;
+        while (i < w.length() && !isVowel(w.charAt(i))) {
+            i++;
+        }
+        while (i < w.length() && isVowel(w.charAt(i))) {
+            i++;
+        }
+        return Math.min(i + 1, w.length());
+    }
+
+    /**
+     * Candidates must be ordered from longest to shortest.
+     */
+    private static String longestSuffix(StringBuilder w, String... candidates) {
+        for (String candidate : candidates) {
+            if (endsWith(w, candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean endsWith(StringBuilder w, String suffix) {
+        int offset = w.length() - suffix.length();
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (w.charAt(offset + i) != suffix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean precededByE(StringBuilder w, int position) {
+        return position > 0 && w.charAt(position - 1) == 'e';
+    }
+
+    private static boolean isVowel(char c) {
+        return switch (c) {
+            case 'a', 'e', 'i', 'o', 'u', 'y', 'ä', 'ö', 'ü' -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isSEnding(char c) {
+        return switch (c) {
+            case 'b', 'd', 'f', 'g', 'h', 'k', 'l', 'm', 'n', 'r', 't' -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isStEnding(char c) {
+        return c != 'r' && isSEnding(c);
+    }
+}
@@ -0,0 +1,426 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import ch.so.agi.gretl.copilot.support.VectorMath;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * Hierarchical Navigable Small World graph for approximate cosine nearest-neighbour search.
+ * <p>
+ * Vectors are normalized on insertion and kept in one contiguous {@code float[]}, so the distance
+ * of two nodes is {@code 1 - dot(a, b)} – the same cosine distance pgvector computes for
+ * {@code <=>}. Neighbour lists are plain {@code int[]} arrays per node and layer. The index is
+ * built single-threaded; once {@link #add(float[])} is no longer called, concurrent
+ * {@link #search(float[], int, int)} calls are safe.
+ */
+public final class HnswIndex {
+
+    private final int dimension;
+    private final int maxConnections;
+    private final int maxConnectionsLayer0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random;
+
+    private float[] vectors;
+    private int[][][] neighbors;
+    private int[][] neighborCounts;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimension, int maxConnections, int efConstruction, int initialCapacity, long seed) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension must be positive");
+        }
+        if (maxConnections < 2) {
+            throw new IllegalArgumentException("maxConnections must be at least 2");
+        }
+        this.dimension = dimension;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsLayer0 = maxConnections * 2;
+        this.efConstruction = Math.max(efConstruction, maxConnections);
+        this.levelMultiplier = 1.0d / Math.log(maxConnections);
+        this.random = new SplittableRandom(seed);
+        int capacity = Math.max(initialCapacity, 16);
+        this.vectors = new float[capacity * dimension];
+        this.neighbors = new int[capacity][][];
+        this.neighborCounts = new int[capacity][];
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of the normalized vector stored for the given node.
+     */
+    public float[] vector(int node) {
+        if (node < 0 || node >= size) {
+            throw new IndexOutOfBoundsException(node);
+        }
+        return Arrays.copyOfRange(vectors, node * dimension, (node + 1) * dimension);
+    }
+
+    /**
+     * Adds a vector to the graph.
+     *
+     * @param vector the raw vector; it is copied and normalized
+     * @return the node id, assigned sequentially starting at {@code 0}
+     */
+    public int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("Expected %d dimensions but got %d".formatted(dimension, vector.length));
+        }
+        ensureCapacity(size + 1);
+        int node = size++;
+        int offset = node * dimension;
+        System.arraycopy(vector, 0, vectors, offset, dimension);
+        normalize(vectors, offset, dimension);
+
+        int level = randomLevel();
+        neighbors[node] = new int[level + 1][];
+        neighborCounts[node] = new int[level + 1];
+        for (int layer = 0; layer <= level; layer++) {
+            neighbors[node][layer] = new int[(layer == 0 ? maxConnectionsLayer0 : maxConnections) + 1];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = greedyClosest(vectors, offset, current, layer);
+        }
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            NodeHeap candidates = searchLayer(vectors, offset, current, efConstruction, layer);
+            int limit = layer == 0 ? maxConnectionsLayer0 : maxConnections;
+            int[] selected = selectNeighbors(candidates, maxConnections);
+            for (int neighbor : selected) {
+                link(node, neighbor, layer, limit);
+                link(neighbor, node, layer, limit);
+            }
+            current = candidates.closestId();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the approximate {@code k} nearest nodes of the query vector.
+     *
+     * @param query the query vector, normalized internally
+     * @param k     number of results
+     * @param ef    size of the dynamic candidate list, larger values trade latency for recall
+     * @return results ordered by ascending cosine distance
+     */
+    public Result[] search(float[] query, int k, int ef) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("Expected %d dimensions but got %d".formatted(dimension, query.length));
+        }
+        if (size == 0 || k <= 0) {
+            return new Result[0];
+        }
+        float[] normalized = Arrays.copyOf(query, dimension);
+        normalize(normalized, 0, dimension);
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            current = greedyClosest(normalized, 0, current, layer);
+        }
+        NodeHeap candidates = searchLayer(normalized, 0, current, Math.max(ef, k), 0);
+        int count = Math.min(k, candidates.size());
+        int[] ids = candidates.sortedIds();
+        float[] distances = candidates.sortedDistances();
+        Result[] results = new Result[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = new Result(ids[i], distances[i]);
+        }
+        return results;
+    }
+
+    private int greedyClosest(float[] query, int queryOffset, int start, int layer) {
+        int current = start;
+        float currentDistance = distance(query, queryOffset, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] links = neighbors[current][layer];
+            int count = neighborCounts[current][layer];
+            for (int i = 0; i < count; i++) {
+                int candidate = links[i];
+                float candidateDistance = distance(query, queryOffset, candidate);
+                if (candidateDistance < currentDistance) {
+                    currentDistance = candidateDistance;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private NodeHeap searchLayer(float[] query, int queryOffset, int start, int ef, int layer) {
+        BitSet visited = new BitSet(size);
+        NodeHeap frontier = new NodeHeap(ef, false);
+        NodeHeap results = new NodeHeap(ef, true);
+
+        float startDistance = distance(query, queryOffset, start);
+        visited.set(start);
+        frontier.push(start, startDistance);
+        results.push(start, startDistance);
+
+        while (frontier.size() > 0) {
+            float frontierDistance = frontier.peekDistance();
+            if (results.size() >= ef && frontierDistance > results.peekDistance()) {
+                break;
+            }
+            int node = frontier.pop();
+            if (layer >= neighbors[node].length) {
+                continue;
+            }
+            int[] links = neighbors[node][layer];
+            int count = neighborCounts[node][layer];
+            for (int i = 0; i < count; i++) {
+                int candidate = links[i];
+                if (visited.get(candidate)) {
+                    continue;
+                }
+                visited.set(candidate);
+                float candidateDistance = distance(query, queryOffset, candidate);
+                if (results.size() < ef || candidateDistance < results.peekDistance()) {
+                    frontier.push(candidate, candidateDistance);
+                    results.push(candidate, candidateDistance);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbour selection heuristic from the HNSW paper: a candidate is kept only if it is closer
+     * to the new node than to any neighbour selected so far, which keeps the graph navigable
+     * across clusters.
+     */
+    private int[] selectNeighbors(NodeHeap candidates, int limit) {
+        int[] ids = candidates.sortedIds();
+        float[] distances = candidates.sortedDistances();
+        int[] selected = new int[Math.min(limit, ids.length)];
+        int count = 0;
+        for (int i = 0; i < ids.length && count < selected.length; i++) {
+            int candidate = ids[i];
+            boolean keep = true;
+            for (int j = 0; j < count; j++) {
+                if (distanceBetween(candidate, selected[j]) < distances[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    private void link(int from, int to, int layer, int limit) {
+        int[] links = neighbors[from][layer];
+        int count = neighborCounts[from][layer];
+        for (int i = 0; i < count; i++) {
+            if (links[i] == to) {
+                return;
+            }
+        }
+        links[count++] = to;
+        if (count <= limit) {
+            neighborCounts[from][layer] = count;
+            return;
+        }
+        NodeHeap pruned = new NodeHeap(count, true);
+        int fromOffset = from * dimension;
+        for (int i = 0; i < count; i++) {
+            pruned.push(links[i], distance(vectors, fromOffset, links[i]));
+        }
+        int[] kept = selectNeighbors(pruned, limit);
+        System.arraycopy(kept, 0, links, 0, kept.length);
+        neighborCounts[from][layer] = kept.length;
+    }
+
+    private int randomLevel() {
+        double uniform = 1.0d - random.nextDouble();
+        return (int) Math.floor(-Math.log(uniform) * levelMultiplier);
+    }
+
+    private float distance(float[] query, int queryOffset, int node) {
+        return 1.0f - VectorMath.dot(query, queryOffset, vectors, node * dimension, dimension);
+    }
+
+    private float distanceBetween(int a, int b) {
+        return distance(vectors, a * dimension, b);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= neighbors.length) {
+            return;
+        }
+        int capacity = Math.max(required, neighbors.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        neighbors = Arrays.copyOf(neighbors, capacity);
+        neighborCounts = Arrays.copyOf(neighborCounts, capacity);
+    }
+
+    private static void normalize(float[] vector, int offset, int length) {
+        double norm = 0.0d;
+        for (int i = 0; i < length; i++) {
+            float value = vector[offset + i];
+            norm += value * value;
+        }
+        if (norm == 0.0d) {
+            return;
+        }
+        float inverse = (float) (1.0d / Math.sqrt(norm));
+        for (int i = 0; i < length; i++) {
+            vector[offset + i] *= inverse;
+        }
+    }
+
+    /**
+     * A search hit: the node id and its cosine distance to the query.
+     */
+    public record Result(int id, float distance) {
+    }
+
+    /**
+     * Binary heap over parallel {@code int}/{@code float} arrays, either min- or max-ordered by
+     * distance. Avoids boxing candidates during graph traversal.
+     */
+    private static final class NodeHeap {
+        private int[] ids;
+        private float[] distances;
+        private int size;
+        private boolean sorted;
+        private final boolean maxHeap;
+
+        private NodeHeap(int capacity, boolean maxHeap) {
+            this.ids = new int[Math.max(capacity + 1, 4)];
+            this.distances = new float[ids.length];
+            this.maxHeap = maxHeap;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float peekDistance() {
+            return distances[0];
+        }
+
+        void push(int id, float distance) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int index = size++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (!before(distance, distances[parent])) {
+                    break;
+                }
+                ids[index] = ids[parent];
+                distances[index] = distances[parent];
+                index = parent;
+            }
+            ids[index] = id;
+            distances[index] = distance;
+        }
+
+        int pop() {
+            int top = ids[0];
+            size--;
+            if (size > 0) {
+                int lastId = ids[size];
+                float lastDistance = distances[size];
+                int index = 0;
+                while (true) {
+                    int child = 2 * index + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && before(distances[child + 1], distances[child])) {
+                        child++;
+                    }
+                    if (!before(distances[child], lastDistance)) {
+                        break;
+                    }
+                    ids[index] = ids[child];
+                    distances[index] = distances[child];
+                    index = child;
+                }
+                ids[index] = lastId;
+                distances[index] = lastDistance;
+            }
+            return top;
+        }
+
+        int closestId() {
+            int best = ids[0];
+            float bestDistance = distances[0];
+            for (int i = 1; i < size; i++) {
+                if (distances[i] < bestDistance) {
+                    bestDistance = distances[i];
+                    best = ids[i];
+                }
+            }
+            return best;
+        }
+
+        int[] sortedIds() {
+            sortAscending();
+            return Arrays.copyOf(ids, size);
+        }
+
+        float[] sortedDistances() {
+            sortAscending();
+            return Arrays.copyOf(distances, size);
+        }
+
+        private void sortAscending() {
+            if (sorted) {
+                return;
+            }
+            // insertion sort is fine: heaps hold at most ef entries
+            for (int i = 1; i < size; i++) {
+                int id = ids[i];
+                float distance = distances[i];
+                int j = i - 1;
+                while (j >= 0 && distances[j] > distance) {
+                    ids[j + 1] = ids[j];
+                    distances[j + 1] = distances[j];
+                    j--;
+                }
+                ids[j + 1] = id;
+                distances[j + 1] = distance;
+            }
+            sorted = true;
+        }
+
+        private boolean before(float a, float b) {
+            return maxHeap ? a > b : a < b;
+        }
+    }
+}
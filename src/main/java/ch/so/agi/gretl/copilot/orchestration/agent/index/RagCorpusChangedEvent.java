@@ -0,0 +1,11 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+/**
+ * Published when the content of the {@code rag} schema has changed, e.g. after the ingester ran.
+ * In-memory indexes rebuild themselves and caches derived from the corpus are dropped.
+ *
+ * @param fingerprint identifies the corpus state that was detected; empty if the change was
+ *                    requested manually
+ */
+public record RagCorpusChangedEvent(String fingerprint) {
+}
@@ -0,0 +1,97 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+/**
+ * Listens on {@link CorpusVersion#CHANNEL} and lets the {@link RagCorpusWatcher} check the corpus as
+ * soon as the ingester activates a new version, instead of at its next poll.
+ * <p>
+ * {@code LISTEN} needs a session of its own, so the listener keeps a dedicated connection outside of
+ * the pool. If it is lost, the listener reconnects after {@link #RECONNECT_DELAY} and checks once,
+ * in case a version was activated in between. Disabled with {@code copilot.rag.listen=false}.
+ */
+@Component
+@ConditionalOnProperty(name = "copilot.rag.listen", havingValue = "true", matchIfMissing = true)
+public class RagCorpusListener implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RagCorpusListener.class);
+
+    static final Duration RECONNECT_DELAY = Duration.ofSeconds(30);
+
+    private static final int POLL_MILLIS = 5_000;
+
+    private final DataSourceProperties dataSource;
+    private final RagCorpusWatcher watcher;
+    private volatile boolean running;
+    private Thread thread;
+
+    public RagCorpusListener(DataSourceProperties dataSource, RagCorpusWatcher watcher) {
+        this.dataSource = dataSource;
+        this.watcher = watcher;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform().name("rag-corpus-listener").daemon().start(this::listen);
+    }
+
+    @Override
+    public synchronized void destroy() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void listen() {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(dataSource.determineUrl(),
+                    dataSource.determineUsername(), dataSource.determinePassword())) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CorpusVersion.CHANNEL);
+                }
+                log.debug("Listening for RAG corpus versions on {}", CorpusVersion.CHANNEL);
+                if (reconnect) {
+                    watcher.check();
+                }
+                reconnect = true;
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+                    if (notifications != null && notifications.length > 0) {
+                        log.info("RAG corpus version {} activated", notifications[notifications.length - 1].getParameter());
+                        watcher.check();
+                    }
+                }
+            } catch (SQLException ex) {
+                log.debug("Not listening for RAG corpus versions, retrying in {}", RECONNECT_DELAY, ex);
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
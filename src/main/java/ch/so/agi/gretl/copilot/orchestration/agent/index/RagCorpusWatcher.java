@@ -0,0 +1,104 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a cheap fingerprint of {@code rag.doc_chunks} and {@code rag.pages} every
+ * {@code copilot.rag.watch-interval} and publishes a {@link RagCorpusChangedEvent} when it differs
+ * from the one seen before. In a versioned schema the fingerprint is the active corpus version, so
+ * rows of an ingest in progress do not count ({@link CorpusVersion}); {@link RagCorpusListener}
+ * triggers a check as soon as a new version is activated. If the database was not reachable at
+ * startup, the first successful read counts as a change, so that indexes which could not be loaded
+ * then are built. A zero interval disables polling.
+ */
+@Component
+public class RagCorpusWatcher implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RagCorpusWatcher.class);
+
+    private static final String FINGERPRINT_SQL = """
+            SELECT (SELECT count(*) FROM rag.doc_chunks)
+                || ':' || (SELECT COALESCE(max(id), 0) FROM rag.doc_chunks)
+                || ':' || (SELECT COALESCE(max(fetched_at)::text, '') FROM rag.pages)
+            """;
+
+    private static final String VERSION_FINGERPRINT_SQL = "SELECT 'v' || active_version FROM rag.corpus_state";
+
+    private final JdbcClient jdbcClient;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Duration interval;
+    private ScheduledExecutorService scheduler;
+
+    private volatile String fingerprint;
+
+    public RagCorpusWatcher(JdbcClient jdbcClient,
+                            ApplicationEventPublisher eventPublisher,
+                            @Value("${copilot.rag.watch-interval:PT1M}") Duration interval) {
+        this.jdbcClient = jdbcClient;
+        this.eventPublisher = eventPublisher;
+        this.interval = interval;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (interval.isZero() || interval.isNegative() || scheduler != null) {
+            return;
+        }
+        fingerprint = readFingerprint();
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("rag-corpus-watcher").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::check, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compares the current fingerprint with the last one and publishes a change event if they differ.
+     *
+     * @return {@code true} if a change was published
+     */
+    public synchronized boolean check() {
+        String current = readFingerprint();
+        if (current == null || Objects.equals(current, fingerprint)) {
+            return false;
+        }
+        String previous = fingerprint;
+        fingerprint = current;
+        log.info("RAG corpus changed ({} -> {})", previous, current);
+        eventPublisher.publishEvent(new RagCorpusChangedEvent(current));
+        return true;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private String readFingerprint() {
+        try {
+            String sql = CorpusVersion.isVersioned(jdbcClient) ? VERSION_FINGERPRINT_SQL : FINGERPRINT_SQL;
+            return jdbcClient.sql(sql).query(String.class).single();
+        } catch (DataAccessException ex) {
+            log.debug("Could not read the RAG corpus fingerprint", ex);
+            return null;
+        } catch (RuntimeException ex) {
+            log.warn("Failed to check the RAG corpus for changes", ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package ch.so.agi.gretl.copilot.orchestration.classification;
+
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.support.QueryText;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nearest-centroid classifier over hashed character n-grams.
+ * <p>
+ * Every labelled example is turned into a sparse vector of character 3- and 4-grams and whole
+ * words of its {@link QueryText#normalize(String) normalized} text, hashed into
+ * {@value #DIMENSION} buckets. Each {@link TaskType} is represented by the normalized mean of its
+ * examples. A message is assigned to the most similar centroid (cosine); the confidence is the
+ * similarity margin to the runner-up, so that messages sitting between two classes get a low value.
+ */
+public final class LocalTaskClassifier {
+
+    static final String DEFAULT_EXAMPLES = "/classification/examples.tsv";
+
+    private static final int DIMENSION = 1 << 14;
+
+    private final TaskType[] labels;
+    private final float[][] centroids;
+
+    LocalTaskClassifier(List<Example> examples) {
+        Map<TaskType, float[]> sums = new EnumMap<>(TaskType.class);
+        for (Example example : examples) {
+            float[] sum = sums.computeIfAbsent(example.taskType(), type -> new float[DIMENSION]);
+            Features features = Features.of(example.text());
+            for (int i = 0; i < features.size(); i++) {
+                sum[features.indices()[i]] += features.weights()[i] / features.norm();
+            }
+        }
+        this.labels = sums.keySet().toArray(TaskType[]::new);
+        this.centroids = new float[labels.length][];
+        for (int c = 0; c < labels.length; c++) {
+            float[] centroid = sums.get(labels[c]);
+            double norm = 0.0d;
+            for (float value : centroid) {
+                norm += value * value;
+            }
+            float scale = norm == 0.0d ? 0.0f : (float) (1.0d / Math.sqrt(norm));
+            for (int i = 0; i < centroid.length; i++) {
+                centroid[i] *= scale;
+            }
+            centroids[c] = centroid;
+        }
+    }
+
+    /**
+     * Creates a classifier from the examples bundled in {@code classification/examples.tsv}.
+     */
+    public static LocalTaskClassifier fromDefaultExamples() {
+        return new LocalTaskClassifier(readExamples(DEFAULT_EXAMPLES));
+    }
+
+    public Prediction classify(String message) {
+        Features features = Features.of(message);
+        if (features.size() == 0 || labels.length == 0) {
+            return new Prediction(TaskType.OTHER, 0.0d, 0.0d);
+        }
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        double secondScore = 0.0d;
+        for (int c = 0; c < labels.length; c++) {
+            float[] centroid = centroids[c];
+            double dot = 0.0d;
+            for (int i = 0; i < features.size(); i++) {
+                dot += centroid[features.indices()[i]] * features.weights()[i];
+            }
+            double score = dot / features.norm();
+            if (score > bestScore) {
+                secondScore = best < 0 ? 0.0d : bestScore;
+                bestScore = score;
+                best = c;
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+        return new Prediction(labels[best], bestScore, bestScore - secondScore);
+    }
+
+    static List<Example> readExamples(String resource) {
+        List<Example> examples = new ArrayList<>();
+        try (InputStream in = LocalTaskClassifier.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Classifier examples not found: " + resource);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab < 0) {
+                    throw new IllegalStateException("Malformed classifier example: " + line);
+                }
+                examples.add(new Example(TaskType.valueOf(line.substring(0, tab).trim()), line.substring(tab + 1)));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot read classifier examples " + resource, ex);
+        }
+        return examples;
+    }
+
+    /**
+     * @param taskType   the nearest class
+     * @param similarity cosine similarity to its centroid
+     * @param confidence margin between the best and the second best similarity
+     */
+    public record Prediction(TaskType taskType, double similarity, double confidence) {
+    }
+
+    record Example(TaskType taskType, String text) {
+    }
+
+    /**
+     * Sparse feature vector with merged bucket indices.
+     */
+    private record Features(int[] indices, float[] weights, int size, double norm) {
+
+        static Features of(String message) {
+            String text = " " + QueryText.normalize(message).replaceAll("[^\\p{L}\\p{N}]+", " ").trim() + " ";
+            if (text.isBlank()) {
+                return new Features(new int[0], new float[0], 0, 0.0d);
+            }
+            int[] buckets = new int[text.length() * 3];
+            int count = 0;
+            for (int n = 3; n <= 4; n++) {
+                for (int start = 0; start + n <= text.length(); start++) {
+                    buckets[count++] = bucket(text, start, start + n, n);
+                }
+            }
+            int wordStart = 1;
+            for (int i = 1; i < text.length(); i++) {
+                if (text.charAt(i) == ' ') {
+                    if (i > wordStart) {
+                        buckets[count++] = bucket(text, wordStart, i, 0);
+                    }
+                    wordStart = i + 1;
+                }
+            }
+            Arrays.sort(buckets, 0, count);
+
+            int[] indices = new int[count];
+            float[] weights = new float[count];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (size > 0 && indices[size - 1] == buckets[i]) {
+                    weights[size - 1] += 1.0f;
+                } else {
+                    indices[size] = buckets[i];
+                    weights[size] = 1.0f;
+                    size++;
+                }
+            }
+            double norm = 0.0d;
+            for (int i = 0; i < size; i++) {
+                norm += weights[i] * weights[i];
+            }
+            return new Features(indices, weights, size, Math.sqrt(norm));
+        }
+
+        private static int bucket(String text, int start, int end, int kind) {
+            int hash = kind;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            hash ^= hash >>> 16;
+            return hash & (DIMENSION - 1);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ch.so.agi.gretl.copilot.orchestration.classification;
+
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.support.QueryText;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which agent handles a user message, asking the {@code classifierModel} LLM only when
+ * cheaper tiers cannot answer.
+ * <ol>
+ *     <li>A decision cache keyed on the {@link QueryText#normalize(String) normalized} message.</li>
+ *     <li>The {@link LocalTaskClassifier}, whose prediction is accepted when both its similarity
+ *     and its margin to the runner-up class reach the configured thresholds.</li>
+ *     <li>The LLM with the classification prompt. Its answer is added to the cache.</li>
+ * </ol>
+ * The tier that answered is counted in {@code gretl.classifier.requests}; the gauge
+ * {@code gretl.classifier.llm.skip.ratio} reports the share of messages classified without the LLM.
+ */
+@Component
+public class TaskClassifier implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(TaskClassifier.class);
+
+    static final String SYSTEM_PROMPT = """
+Du bist ein Klassifizierer für einen GRETL-Assistenten. GRETL ist ein Gradle-Plugin für (spatial) ETL.
+Sprache der Eingabe ist Deutsch. Gib als Antwort genau ein Wort (ohne Punkt, Anführungszeichen oder weitere Zeichen) und keine Begründung.
+
+Mögliche Antworten (englisch, GROSSBUCHSTABEN):
+- FIND_TASK – wenn der/die Benutzer:in ein Problem beschreibt und wissen will, welcher GRETL-Task dafür passt.
+- EXPLAIN_TASK – wenn der/die Benutzer:in einen konkreten Task erklärt haben möchte (Funktionsumfang, Parameter, Verhalten).
+- GENERATE_TASK – wenn der/die Benutzer:in Beispiele/Code für einen Task will (inkl. eigenen Inputs).
+
+Tie-Breaker (falls mehrdeutig): GENERATE_TASK > EXPLAIN_TASK > FIND_TASK.
+
+Nur diese vier Tokens sind erlaubt: FIND_TASK, EXPLAIN_TASK, GENERATE_TASK, OTHER. Nutze OTHER, wenn keine der drei Kategorien passt.
+
+Beispiele (nur zur Orientierung):
+- "Ich muss eine INTERLIS-Datei validieren. Welchen Task...?" → FIND_TASK
+- "Erkläre mir den Task ilivalidator." → EXPLAIN_TASK
+- "Mach mir ein Beispiel für ilivalidator mit Datei fubar.xtf." → GENERATE_TASK
+- Wie installiere ich Gradle?" → OTHER
+
+Antworte immer nur mit einem der vier Wörter.
+            """;
+
+    private final ChatModel classificationModel;
+    private final LocalTaskClassifier localClassifier;
+    private final double minSimilarity;
+    private final double minConfidence;
+    private final int cacheSize;
+    private final LinkedHashMap<String, TaskType> decisions = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder localDecisions = new LongAdder();
+    private final LongAdder llmDecisions = new LongAdder();
+
+    /**
+     * Classifier without the local tier: every message not in the cache goes to the LLM.
+     */
+    public TaskClassifier(ChatModel classificationModel) {
+        this(classificationModel, null, 1.0d, 1.0d, 1000);
+    }
+
+    @Autowired
+    public TaskClassifier(@Qualifier("classifierModel") ChatModel classificationModel,
+                          @Value("${copilot.classifier.local.enabled:true}") boolean localEnabled,
+                          @Value("${copilot.classifier.local.min-similarity:0.35}") double minSimilarity,
+                          @Value("${copilot.classifier.local.min-confidence:0.15}") double minConfidence,
+                          @Value("${copilot.classifier.cache-size:1000}") int cacheSize) {
+        this(classificationModel, localEnabled ? LocalTaskClassifier.fromDefaultExamples() : null,
+                minSimilarity, minConfidence, cacheSize);
+    }
+
+    TaskClassifier(ChatModel classificationModel, LocalTaskClassifier localClassifier,
+                   double minSimilarity, double minConfidence, int cacheSize) {
+        this.classificationModel = classificationModel;
+        this.localClassifier = localClassifier;
+        this.minSimilarity = minSimilarity;
+        this.minConfidence = minConfidence;
+        this.cacheSize = cacheSize;
+    }
+
+    public TaskType classify(String userMessage) {
+        return classifyWithoutModel(userMessage).orElseGet(() -> classifyWithModel(userMessage));
+    }
+
+    /**
+     * Classifies the message with the cache and the local tier only.
+     *
+     * @return the decision, or empty if only the LLM can decide
+     */
+    public Optional<TaskType> classifyWithoutModel(String userMessage) {
+        String key = QueryText.normalize(userMessage);
+        synchronized (decisions) {
+            TaskType cached = decisions.get(key);
+            if (cached != null) {
+                cacheHits.increment();
+                return Optional.of(cached);
+            }
+        }
+
+        if (localClassifier != null) {
+            LocalTaskClassifier.Prediction prediction = localClassifier.classify(userMessage);
+            if (prediction.similarity() >= minSimilarity && prediction.confidence() >= minConfidence) {
+                localDecisions.increment();
+                log.debug("Local classifier chose {} (similarity {}, margin {})",
+                        prediction.taskType(), prediction.similarity(), prediction.confidence());
+                return Optional.of(prediction.taskType());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Asks the LLM, for messages {@link #classifyWithoutModel} could not decide, and caches its answer.
+     */
+    public TaskType classifyWithModel(String userMessage) {
+        String key = QueryText.normalize(userMessage);
+        ChatResponse response = classificationModel.chat(List.of(
+                SystemMessage.from(SYSTEM_PROMPT),
+                UserMessage.from(userMessage)
+        ));
+        log.debug("Classifier LLM answered {}", response.aiMessage().text());
+        TaskType taskType = TaskType.fromModelResponse(response.aiMessage().text());
+        llmDecisions.increment();
+        remember(key, taskType);
+        return taskType;
+    }
+
+    public Stats stats() {
+        return new Stats(cacheHits.sum(), localDecisions.sum(), llmDecisions.sum());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gretl.classifier.requests", cacheHits, LongAdder::sum)
+                .tag("tier", "cache")
+                .description("Messages classified from the decision cache")
+                .register(registry);
+        FunctionCounter.builder("gretl.classifier.requests", localDecisions, LongAdder::sum)
+                .tag("tier", "local")
+                .description("Messages classified by the local n-gram classifier")
+                .register(registry);
+        FunctionCounter.builder("gretl.classifier.requests", llmDecisions, LongAdder::sum)
+                .tag("tier", "llm")
+                .description("Messages classified by the classifier LLM")
+                .register(registry);
+        Gauge.builder("gretl.classifier.llm.skip.ratio", this, classifier -> classifier.stats().llmSkipRate())
+                .description("Share of messages classified without calling the LLM")
+                .register(registry);
+    }
+
+    private void remember(String key, TaskType taskType) {
+        synchronized (decisions) {
+            decisions.put(key, taskType);
+            if (decisions.size() > cacheSize) {
+                Map.Entry<String, TaskType> eldest = decisions.entrySet().iterator().next();
+                decisions.remove(eldest.getKey());
+            }
+        }
+    }
+
+    /**
+     * Number of messages answered per tier.
+     */
+    public record Stats(long cacheHits, long localDecisions, long llmDecisions) {
+
+        public double llmSkipRate() {
+            long total = cacheHits + localDecisions + llmDecisions;
+            return total == 0 ? 0.0d : (double) (cacheHits + localDecisions) / total;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package ch.so.agi.gretl.copilot.orchestration.render;
 
+import ch.so.agi.gretl.copilot.orchestration.PipelineStage;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
@@ -16,8 +19,15 @@ public class MarkdownRenderer {
 
     private final Parser parser;
     private final HtmlRenderer renderer;
+    private final ObservationRegistry observationRegistry;
 
     public MarkdownRenderer() {
+        this(ObservationRegistry.NOOP);
+    }
+
+    @Autowired
+    public MarkdownRenderer(ObservationRegistry observationRegistry) {
+        this.observationRegistry = observationRegistry;
         MutableDataSet options = new MutableDataSet();
         List<Extension> extensions = List.of(TablesExtension.create());
         options.set(Parser.EXTENSIONS, extensions);
@@ -33,7 +43,9 @@ public class MarkdownRenderer {
         if (markdown == null || markdown.isBlank()) {
             return "";
         }
-        Node document = parser.parse(markdown);
-        return renderer.render(document);
+        return PipelineStage.MARKDOWN_RENDER.observe(observationRegistry, () -> {
+            Node document = parser.parse(markdown);
+            return renderer.render(document);
+        });
     }
 }
@@ -0,0 +1,48 @@
+package ch.so.agi.gretl.copilot.support;
+
+/**
+ * Shortening of Matryoshka-style embeddings such as OpenAI's {@code text-embedding-3-*}: the
+ * leading dimensions carry most of the meaning, so a vector is cut to the configured size and
+ * scaled back to unit length, as the API does for its {@code dimensions} parameter.
+ * <p>
+ * Shared with {@code ingest_gretl.java}, which includes this file via {@code //SOURCES}.
+ */
+public final class EmbeddingDimensions {
+
+    /**
+     * Largest dimension pgvector can index with HNSW or IVFFlat on a {@code vector} column.
+     */
+    public static final int MAX_INDEXABLE_VECTOR = 2000;
+
+    private EmbeddingDimensions() {
+    }
+
+    /**
+     * Returns the first {@code dimensions} components of {@code vector}, L2-normalized.
+     *
+     * @throws IllegalArgumentException if {@code vector} has fewer than {@code dimensions} components;
+     *                                  padding would change the meaning of the vector
+     */
+    public static float[] fit(float[] vector, int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be positive");
+        }
+        if (vector.length < dimensions) {
+            throw new IllegalArgumentException("Embedding has " + vector.length + " dimensions, "
+                    + dimensions + " are configured");
+        }
+        float[] fitted = new float[dimensions];
+        double sumOfSquares = 0.0d;
+        for (int i = 0; i < dimensions; i++) {
+            fitted[i] = vector[i];
+            sumOfSquares += (double) vector[i] * vector[i];
+        }
+        if (sumOfSquares > 0.0d) {
+            float scale = (float) (1.0d / Math.sqrt(sumOfSquares));
+            for (int i = 0; i < dimensions; i++) {
+                fitted[i] *= scale;
+            }
+        }
+        return fitted;
+    }
+}
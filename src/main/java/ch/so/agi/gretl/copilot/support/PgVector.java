@@ -0,0 +1,151 @@
+package ch.so.agi.gretl.copilot.support;
+
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * JDBC parameter for a pgvector {@code vector} value.
+ * <p>
+ * The text form is written with {@link StringBuilder#append(float)}, i.e. the shortest decimal
+ * that reads back as the same {@code float}, straight into one pre-sized builder. The driver sends
+ * the binary form ({@code int16} dimensions, {@code int16} unused, big-endian {@code float4}
+ * values, as in pgvector's {@code vector_send}) instead when binary transfer is enabled for the
+ * {@code vector} OID, e.g. {@code binaryTransferEnable=<oid>} in the JDBC URL.
+ * <p>
+ * The static helpers are shared with {@code ingest_gretl.java}, which includes this file via
+ * {@code //SOURCES}.
+ */
+public class PgVector extends PGobject implements PGBinaryObject {
+
+    private static final int HEADER_BYTES = 4;
+
+    private float[] vector;
+
+    public PgVector() {
+        setType("vector");
+    }
+
+    public PgVector(float[] vector) {
+        this();
+        this.vector = vector;
+    }
+
+    public float[] toArray() {
+        return vector;
+    }
+
+    @Override
+    public String getValue() {
+        return vector == null ? null : format(vector);
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException {
+        vector = value == null ? null : parse(value);
+    }
+
+    @Override
+    public int lengthInBytes() {
+        return vector == null ? 0 : HEADER_BYTES + 4 * vector.length;
+    }
+
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        int dimensions = vector.length;
+        bytes[offset] = (byte) (dimensions >>> 8);
+        bytes[offset + 1] = (byte) dimensions;
+        bytes[offset + 2] = 0;
+        bytes[offset + 3] = 0;
+        int position = offset + HEADER_BYTES;
+        for (float value : vector) {
+            int bits = Float.floatToRawIntBits(value);
+            bytes[position] = (byte) (bits >>> 24);
+            bytes[position + 1] = (byte) (bits >>> 16);
+            bytes[position + 2] = (byte) (bits >>> 8);
+            bytes[position + 3] = (byte) bits;
+            position += 4;
+        }
+    }
+
+    @Override
+    public void setByteValue(byte[] bytes, int offset) throws SQLException {
+        int dimensions = ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+        float[] values = new float[dimensions];
+        int position = offset + HEADER_BYTES;
+        for (int i = 0; i < dimensions; i++) {
+            int bits = ((bytes[position] & 0xff) << 24)
+                    | ((bytes[position + 1] & 0xff) << 16)
+                    | ((bytes[position + 2] & 0xff) << 8)
+                    | (bytes[position + 3] & 0xff);
+            values[i] = Float.intBitsToFloat(bits);
+            position += 4;
+        }
+        vector = values;
+    }
+
+    @Override
+    public boolean isNull() {
+        return vector == null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PgVector other && Arrays.equals(vector, other.vector);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(vector);
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        PgVector copy = (PgVector) super.clone();
+        copy.vector = vector == null ? null : vector.clone();
+        return copy;
+    }
+
+    /**
+     * Formats {@code vector} as pgvector text literal ({@code [0.1,0.2,...]}).
+     */
+    public static String format(float[] vector) {
+        StringBuilder builder = new StringBuilder(2 + 12 * vector.length);
+        builder.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(vector[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Parses pgvector's text representation ({@code [0.1,0.2,...]}) into a {@code float[]}.
+     */
+    public static float[] parse(String literal) {
+        if (literal == null || literal.length() <= 2) {
+            return new float[0];
+        }
+        int end = literal.length() - 1;
+        int count = 1;
+        for (int i = 1; i < end; i++) {
+            if (literal.charAt(i) == ',') {
+                count++;
+            }
+        }
+        float[] vector = new float[count];
+        int start = 1;
+        int index = 0;
+        for (int i = 1; i <= end; i++) {
+            if (i == end || literal.charAt(i) == ',') {
+                vector[index++] = Float.parseFloat(literal.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return vector;
+    }
+}
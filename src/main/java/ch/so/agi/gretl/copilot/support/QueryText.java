@@ -0,0 +1,38 @@
+package ch.so.agi.gretl.copilot.support;
+
+import java.util.Locale;
+
+/**
+ * Helpers for turning free-form user input into stable lookup keys.
+ */
+public final class QueryText {
+
+    private QueryText() {
+    }
+
+    /**
+     * Normalizes a user message for cache and de-duplication keys: trims, collapses any run of
+     * whitespace into a single blank and lower-cases the text. Returns an empty string for
+     * {@code null}.
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = builder.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                builder.append(' ');
+                pendingSpace = false;
+            }
+            builder.append(c);
+        }
+        return builder.toString().toLowerCase(Locale.ROOT);
+    }
+}
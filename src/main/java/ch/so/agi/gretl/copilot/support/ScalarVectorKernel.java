@@ -0,0 +1,51 @@
+package ch.so.agi.gretl.copilot.support;
+
+/**
+ * Plain loops, used when {@code jdk.incubator.vector} is not available; the JIT may still unroll
+ * them, but it does not vectorize floating-point reductions.
+ */
+final class ScalarVectorKernel implements VectorKernel {
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float cosine(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float dot = 0.0f;
+        float normA = 0.0f;
+        float normB = 0.0f;
+        for (int i = 0; i < length; i++) {
+            float x = a[aOffset + i];
+            float y = b[bOffset + i];
+            dot += x * y;
+            normA += x * x;
+            normB += y * y;
+        }
+        return VectorMath.cosine(dot, normA, normB);
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            float difference = a[aOffset + i] - b[bOffset + i];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public int dot(byte[] a, byte[] b, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
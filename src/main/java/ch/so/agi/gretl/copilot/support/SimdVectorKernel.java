@@ -0,0 +1,111 @@
+package ch.so.agi.gretl.copilot.support;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Loops over the widest float lanes of the CPU ({@link FloatVector#SPECIES_PREFERRED}, 8 with AVX2,
+ * 16 with AVX-512) with fused multiply-add; the tail that does not fill a lane is done scalar.
+ * Bytes are widened to ints before multiplying, so int8 dot products cannot overflow a lane for
+ * any realistic dimension.
+ * <p>
+ * Loading this class fails without {@code --add-modules jdk.incubator.vector}; {@link VectorMath}
+ * then falls back to {@link ScalarVectorKernel}.
+ */
+final class SimdVectorKernel implements VectorKernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES =
+            VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.length() * Byte.SIZE));
+
+    /**
+     * Whether the CPU has more than one float lane; otherwise the scalar loops are faster.
+     */
+    static boolean isAccelerated() {
+        return FLOATS.length() > 1;
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector x = FloatVector.fromArray(FLOATS, a, aOffset + i);
+            FloatVector y = FloatVector.fromArray(FLOATS, b, bOffset + i);
+            sum = x.fma(y, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public float cosine(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector dot = FloatVector.zero(FLOATS);
+        FloatVector normA = FloatVector.zero(FLOATS);
+        FloatVector normB = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector x = FloatVector.fromArray(FLOATS, a, aOffset + i);
+            FloatVector y = FloatVector.fromArray(FLOATS, b, bOffset + i);
+            dot = x.fma(y, dot);
+            normA = x.fma(x, normA);
+            normB = y.fma(y, normB);
+        }
+        float dotSum = dot.reduceLanes(VectorOperators.ADD);
+        float normASum = normA.reduceLanes(VectorOperators.ADD);
+        float normBSum = normB.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float x = a[aOffset + i];
+            float y = b[bOffset + i];
+            dotSum += x * y;
+            normASum += x * x;
+            normBSum += y * y;
+        }
+        return VectorMath.cosine(dotSum, normASum, normBSum);
+    }
+
+    @Override
+    public float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector difference = FloatVector.fromArray(FLOATS, a, aOffset + i)
+                    .sub(FloatVector.fromArray(FLOATS, b, bOffset + i));
+            sum = difference.fma(difference, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float difference = a[aOffset + i] - b[bOffset + i];
+            result += difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public int dot(byte[] a, byte[] b, int length) {
+        IntVector sum = IntVector.zero(INTS);
+        int bound = BYTES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += BYTES.length()) {
+            IntVector x = (IntVector) ByteVector.fromArray(BYTES, a, i).convertShape(VectorOperators.B2I, INTS, 0);
+            IntVector y = (IntVector) ByteVector.fromArray(BYTES, b, i).convertShape(VectorOperators.B2I, INTS, 0);
+            sum = x.mul(y).add(sum);
+        }
+        int result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[i] * b[i];
+        }
+        return result;
+    }
+}
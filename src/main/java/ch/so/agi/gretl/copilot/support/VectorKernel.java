@@ -0,0 +1,20 @@
+package ch.so.agi.gretl.copilot.support;
+
+/**
+ * The primitive loops behind {@link VectorMath}, once scalar ({@link ScalarVectorKernel}) and once
+ * with the JDK Vector API ({@link SimdVectorKernel}). Vectors are given as a slice of an array, so
+ * rows of a contiguous matrix can be scored without copying.
+ */
+interface VectorKernel {
+
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Cosine similarity, or 0 if either vector is zero.
+     */
+    float cosine(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    float squaredDistance(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    int dot(byte[] a, byte[] b, int length);
+}
@@ -0,0 +1,185 @@
+package ch.so.agi.gretl.copilot.support;
+
+import java.util.Arrays;
+
+/**
+ * Similarity of embeddings in the JVM: dot product, cosine, L2 distance, top-k over a row-major
+ * matrix and dot products of int8-quantized vectors.
+ * <p>
+ * The loops use the JDK Vector API ({@code jdk.incubator.vector}) when the module is added to the
+ * JVM ({@code --add-modules jdk.incubator.vector}, set by the Gradle build for {@code bootRun},
+ * tests and benchmarks) and the CPU has SIMD lanes. Otherwise, or with
+ * {@code -Dgretl.vector.simd=false}, they run scalar with the same results up to float rounding.
+ */
+public final class VectorMath {
+
+    static final VectorKernel KERNEL = selectKernel();
+
+    private static final int INT8_MAX = 127;
+
+    private VectorMath() {
+    }
+
+    /**
+     * Whether the Vector API kernel is in use.
+     */
+    public static boolean isAccelerated() {
+        return KERNEL instanceof SimdVectorKernel;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return KERNEL.dot(a, 0, b, 0, sameLength(a.length, b.length));
+    }
+
+    /**
+     * Dot product of {@code length} components starting at the given offsets, e.g. of a row of a
+     * contiguous matrix and a query.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        return KERNEL.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * Cosine similarity; 0 if either vector is zero. For unit vectors {@link #dot(float[], float[])}
+     * gives the same result in one pass.
+     */
+    public static float cosine(float[] a, float[] b) {
+        return KERNEL.cosine(a, 0, b, 0, sameLength(a.length, b.length));
+    }
+
+    /**
+     * Euclidean distance.
+     */
+    public static float l2Distance(float[] a, float[] b) {
+        return (float) Math.sqrt(squaredDistance(a, b));
+    }
+
+    /**
+     * Squared Euclidean distance, which ranks like {@link #l2Distance} without the square root.
+     */
+    public static float squaredDistance(float[] a, float[] b) {
+        return KERNEL.squaredDistance(a, 0, b, 0, sameLength(a.length, b.length));
+    }
+
+    /**
+     * The {@code k} rows of {@code matrix} (row-major, {@code dimension} floats per row) with the
+     * largest dot product with {@code query}, best first. For unit vectors this is the cosine ranking.
+     */
+    public static TopK topK(float[] matrix, int dimension, float[] query, int k) {
+        return topK(KERNEL, matrix, dimension, query, k);
+    }
+
+    /**
+     * {@link #topK(float[], int, float[], int)} with the given kernel, e.g. to benchmark both.
+     */
+    static TopK topK(VectorKernel kernel, float[] matrix, int dimension, float[] query, int k) {
+        if (dimension <= 0 || query.length != dimension || matrix.length % dimension != 0) {
+            throw new IllegalArgumentException("Matrix of " + matrix.length + " floats and query of "
+                    + query.length + " do not fit dimension " + dimension);
+        }
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        int rows = matrix.length / dimension;
+        int limit = Math.min(k, rows);
+        int[] best = new int[limit];
+        float[] bestScores = new float[limit];
+        int size = 0;
+        for (int row = 0; row < rows; row++) {
+            float score = kernel.dot(matrix, row * dimension, query, 0, dimension);
+            if (size == limit && (limit == 0 || score <= bestScores[size - 1])) {
+                continue;
+            }
+            int i = size == limit ? size - 1 : size++;
+            while (i > 0 && bestScores[i - 1] < score) {
+                best[i] = best[i - 1];
+                bestScores[i] = bestScores[i - 1];
+                i--;
+            }
+            best[i] = row;
+            bestScores[i] = score;
+        }
+        return new TopK(best, bestScores);
+    }
+
+    /**
+     * Scales {@code vector} symmetrically to {@code [-127, 127]}: a quarter of the memory of
+     * {@code float[]}, with dot products exact up to the rounding of each component.
+     */
+    public static Int8Vector quantize(float[] vector) {
+        float maxAbs = 0.0f;
+        for (float value : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(value));
+        }
+        byte[] values = new byte[vector.length];
+        if (maxAbs == 0.0f) {
+            return new Int8Vector(values, 0.0f);
+        }
+        float inverse = INT8_MAX / maxAbs;
+        for (int i = 0; i < vector.length; i++) {
+            values[i] = (byte) Math.round(vector[i] * inverse);
+        }
+        return new Int8Vector(values, maxAbs / INT8_MAX);
+    }
+
+    /**
+     * Dot product of the quantized components, without the scales.
+     */
+    public static int dot(byte[] a, byte[] b) {
+        return KERNEL.dot(a, b, sameLength(a.length, b.length));
+    }
+
+    /**
+     * Approximate dot product of the vectors {@code a} and {@code b} were quantized from.
+     */
+    public static float dot(Int8Vector a, Int8Vector b) {
+        return dot(a.values(), b.values()) * a.scale() * b.scale();
+    }
+
+    static float cosine(float dot, float normA, float normB) {
+        if (normA == 0.0f || normB == 0.0f) {
+            return 0.0f;
+        }
+        return (float) (dot / Math.sqrt((double) normA * normB));
+    }
+
+    private static int sameLength(int a, int b) {
+        if (a != b) {
+            throw new IllegalArgumentException("Vectors have " + a + " and " + b + " dimensions");
+        }
+        return a;
+    }
+
+    private static VectorKernel selectKernel() {
+        if (!Boolean.parseBoolean(System.getProperty("gretl.vector.simd", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return new ScalarVectorKernel();
+        }
+        try {
+            return SimdVectorKernel.isAccelerated() ? new SimdVectorKernel() : new ScalarVectorKernel();
+        } catch (LinkageError ex) {
+            return new ScalarVectorKernel();
+        }
+    }
+
+    /**
+     * Result of {@link #topK}: row indices and their dot products, best first.
+     */
+    public record TopK(int[] rows, float[] scores) {
+
+        public int size() {
+            return rows.length;
+        }
+
+        @Override
+        public String toString() {
+            return "TopK" + Arrays.toString(rows);
+        }
+    }
+
+    /**
+     * An int8-quantized vector: component {@code i} is approximately {@code values[i] * scale}.
+     */
+    public record Int8Vector(byte[] values, float scale) {
+    }
+}
@@ -0,0 +1,144 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs {@code ingest_gretl.java} against a stand-in for the database that holds a single, already
+ * ingested page in {@code rag.pages} and no current rows.
+ */
+class IngestGretlTest {
+
+    private static final String PAGE = """
+            <html><head><title>Tasks</title></head><body><main>
+            <h3 data-anchor-id="Ili2pgImport">Ili2pgImport</h3><p>Importiert Daten.</p>
+            <pre><code class="language-groovy">task x(type: Ili2pgImport) {}</code></pre>
+            </main></body></html>
+            """;
+
+    @TempDir
+    Path dir;
+
+    private String url;
+    private String storedHash;
+    private String storedEtag;
+    private final AtomicInteger rows = new AtomicInteger();
+
+    @BeforeEach
+    void storePage() throws Exception {
+        Path file = dir.resolve("tasks.html");
+        Files.writeString(file, PAGE);
+        url = file.toUri().toString();
+        storedHash = ingest_gretl.parsePage(ingest_gretl.parseLocalFile(file.toFile(), url), url, null).contentHash();
+        storedEtag = "\"v1\"";
+        ingest_gretl.openaiEnabled = false;
+    }
+
+    @Test
+    void resetWritesUnchangedPagesAgain() throws Exception {
+        Connection cx = database();
+
+        ingest_gretl.CorpusSnapshot snapshot = ingest_gretl.CorpusSnapshot.begin(cx, true);
+        boolean changed = new ingest_gretl.Pipeline(cx, false, snapshot).run(url);
+
+        assertThat(storedHash).isNull();
+        assertThat(storedEtag).isNull();
+        assertThat(changed).isTrue();
+        assertThat(rows).hasPositiveValue();
+    }
+
+    @Test
+    void incrementalRunSkipsUnchangedPages() throws Exception {
+        Connection cx = database();
+
+        ingest_gretl.CorpusSnapshot snapshot = ingest_gretl.CorpusSnapshot.begin(cx, false);
+        boolean changed = new ingest_gretl.Pipeline(cx, false, snapshot).run(url);
+
+        assertThat(storedHash).isNotNull();
+        assertThat(changed).isFalse();
+        assertThat(rows).hasValue(0);
+    }
+
+    /**
+     * Answers the queries of {@code CorpusSnapshot.begin} and {@code loadStoredPages} and applies the
+     * updates of the stored page hashes; everything else succeeds without effect.
+     */
+    private Connection database() {
+        return proxy(Connection.class, (self, method, args) -> switch (method.getName()) {
+            case "createStatement" -> proxy(Statement.class, (s, m, a) -> m.getName().equals("executeQuery")
+                    ? query((String) a[0]) : null);
+            case "prepareStatement" -> statement((String) args[0]);
+            default -> null;
+        });
+    }
+
+    private ResultSet query(String sql) {
+        if (sql.contains("rag.corpus_state")) {
+            return rows(1, (m, a) -> m.equals("getLong") ? 1L : null);
+        }
+        return rows(1, (m, a) -> switch (m) {
+            case "getString" -> switch ((int) a[0]) {
+                case 1 -> url;
+                case 3 -> storedHash;
+                case 4 -> storedEtag;
+                default -> null;
+            };
+            case "getLong" -> 1L;
+            default -> null;
+        });
+    }
+
+    private PreparedStatement statement(String sql) {
+        long[] parameter = new long[1];
+        return proxy(PreparedStatement.class, (self, method, args) -> switch (method.getName()) {
+            case "setLong" -> {
+                parameter[0] = (long) args[1];
+                yield null;
+            }
+            case "executeUpdate" -> {
+                // every stored page has corpus_version 0
+                boolean clearsPages = sql.startsWith("UPDATE rag.pages SET content_hash = NULL")
+                        && (sql.contains("<=") ? 0 <= parameter[0] : 0 > parameter[0]);
+                if (clearsPages) {
+                    storedHash = null;
+                    storedEtag = null;
+                }
+                yield 0;
+            }
+            case "addBatch" -> {
+                rows.incrementAndGet();
+                yield null;
+            }
+            case "executeBatch" -> new int[0];
+            case "executeQuery" -> rows(1, (m, a) -> m.equals("getLong") ? 1L : null);
+            default -> null;
+        });
+    }
+
+    private static ResultSet rows(int count, ColumnReader columns) {
+        int[] remaining = {count};
+        return proxy(ResultSet.class, (self, method, args) -> method.getName().equals("next")
+                ? remaining[0]-- > 0
+                : columns.read(method.getName(), args));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(IngestGretlTest.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private interface ColumnReader {
+        Object read(String method, Object[] args);
+    }
+}
@@ -0,0 +1,188 @@
+package ch.so.agi.gretl.copilot.chat;
+
+import ch.so.agi.gretl.copilot.chat.dto.ChatRequest;
+import ch.so.agi.gretl.copilot.chat.dto.ChatResponse;
+import ch.so.agi.gretl.copilot.orchestration.AnswerListener;
+import ch.so.agi.gretl.copilot.orchestration.TaskExecutionResult;
+import ch.so.agi.gretl.copilot.orchestration.TaskOrchestrator;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatServiceTest {
+
+    @Test
+    void identicalConcurrentQuestionsShareOneOrchestration() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TaskOrchestrator orchestrator = mock(TaskOrchestrator.class);
+        when(orchestrator.orchestrate(anyString(), any(), any())).thenAnswer(invocation -> {
+            AnswerListener listener = invocation.getArgument(1);
+            listener.onPartialAnswer(TaskType.EXPLAIN_TASK, "Ili2pg");
+            release.await(5, TimeUnit.SECONDS);
+            listener.onPartialAnswer(TaskType.EXPLAIN_TASK, "Import");
+            return new TaskExecutionResult(TaskType.EXPLAIN_TASK, "Ili2pgImport");
+        });
+        ChatService service = new ChatService(orchestrator);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        service.bindTo(registry);
+
+        StringBuilder firstTokens = new StringBuilder();
+        StringBuilder secondTokens = new StringBuilder();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<ChatResponse> first = executor.submit(() -> service.respond(
+                    new ChatRequest("Erkläre Ili2pgImport"), (type, token) -> firstTokens.append(token)));
+            while (registry.get("gretl.chat.singleflight.inflight").gauge().value() < 1) {
+                Thread.onSpinWait();
+            }
+            Future<ChatResponse> second = executor.submit(() -> service.respond(
+                    new ChatRequest("  erkläre ili2pgimport "), (type, token) -> secondTokens.append(token)));
+            while (registry.get("gretl.chat.singleflight.joined").functionCounter().count() < 1) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+
+            assertThat(first.get().answer()).isEqualTo("Ili2pgImport");
+            assertThat(second.get().answer()).isEqualTo("Ili2pgImport");
+        }
+
+        verify(orchestrator, times(1)).orchestrate(anyString(), any(), any());
+        assertThat(firstTokens.toString()).isEqualTo("Ili2pgImport");
+        assertThat(secondTokens.toString()).isEqualTo("Ili2pgImport");
+    }
+
+    @Test
+    void identicalQuestionsJoinWithoutBeingAdmitted() throws Exception {
+        TaskOrchestrator orchestrator = mock(TaskOrchestrator.class);
+        when(orchestrator.orchestrate(anyString(), any(), any()))
+                .thenReturn(new TaskExecutionResult(TaskType.EXPLAIN_TASK, "Ili2pgImport"));
+        ChatService service = new ChatService(orchestrator);
+
+        List<Supplier<ChatResponse>> admitted = new ArrayList<>();
+        Function<Supplier<ChatResponse>, CompletableFuture<ChatResponse>> queue = work -> {
+            admitted.add(work);
+            return new CompletableFuture<>();
+        };
+        CompletableFuture<ChatResponse> first = service.respondAsync(
+                new ChatRequest("Erkläre Ili2pgImport"), AnswerListener.NONE, queue);
+        CompletableFuture<ChatResponse> second = service.respondAsync(
+                new ChatRequest("erkläre ili2pgimport"), AnswerListener.NONE, queue);
+
+        // The first question still waits for a slot; the second one joined it without taking one.
+        assertThat(admitted).hasSize(1);
+        ChatResponse response = admitted.getFirst().get();
+        first.complete(response);
+
+        assertThat(first.get().answer()).isEqualTo("Ili2pgImport");
+        assertThat(second.get(5, TimeUnit.SECONDS).answer()).isEqualTo("Ili2pgImport");
+        verify(orchestrator, times(1)).orchestrate(anyString(), any(), any());
+    }
+
+    @Test
+    void joinedQuestionIsAdmittedWhenTheQueuedOneIsCancelled() throws Exception {
+        TaskOrchestrator orchestrator = mock(TaskOrchestrator.class);
+        when(orchestrator.orchestrate(anyString(), any(), any()))
+                .thenReturn(new TaskExecutionResult(TaskType.EXPLAIN_TASK, "Ili2pgImport"));
+        ChatService service = new ChatService(orchestrator);
+
+        List<Supplier<ChatResponse>> admitted = new ArrayList<>();
+        CompletableFuture<ChatResponse> queued = new CompletableFuture<>();
+        CompletableFuture<ChatResponse> first = service.respondAsync(
+                new ChatRequest("Erkläre Ili2pgImport"), AnswerListener.NONE, work -> {
+                    admitted.add(work);
+                    return queued;
+                });
+        CompletableFuture<ChatResponse> second = service.respondAsync(
+                new ChatRequest("Erkläre Ili2pgImport"), AnswerListener.NONE, work -> {
+                    admitted.add(work);
+                    return CompletableFuture.completedFuture(work.get());
+                });
+
+        queued.cancel(false);
+
+        assertThat(first).isCancelled();
+        assertThat(admitted).hasSize(2);
+        assertThat(second.get(5, TimeUnit.SECONDS).answer()).isEqualTo("Ili2pgImport");
+    }
+
+    @Test
+    void joinedQuestionStreamsTheAnswerOnceWhenTheLeaderIsCancelledMidStream() throws Exception {
+        CountDownLatch streamed = new CountDownLatch(1);
+        CountDownLatch cancel = new CountDownLatch(1);
+        AtomicInteger orchestrations = new AtomicInteger();
+        TaskOrchestrator orchestrator = mock(TaskOrchestrator.class);
+        when(orchestrator.orchestrate(anyString(), any(), any())).thenAnswer(invocation -> {
+            AnswerListener listener = invocation.getArgument(1);
+            listener.onPartialAnswer(TaskType.EXPLAIN_TASK, "Ili2pg");
+            if (orchestrations.incrementAndGet() == 1) {
+                streamed.countDown();
+                cancel.await(5, TimeUnit.SECONDS);
+                throw new CancellationException("client disconnected");
+            }
+            listener.onPartialAnswer(TaskType.EXPLAIN_TASK, "Import");
+            return new TaskExecutionResult(TaskType.EXPLAIN_TASK, "Ili2pgImport");
+        });
+        ChatService service = new ChatService(orchestrator);
+
+        StringBuilder joinedTokens = new StringBuilder();
+        AnswerListener joinedListener = new AnswerListener() {
+            @Override
+            public void onPartialAnswer(TaskType taskType, String token) {
+                joinedTokens.append(token);
+            }
+
+            @Override
+            public void restart() {
+                joinedTokens.setLength(0);
+            }
+        };
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CompletableFuture<ChatResponse> first = service.respondAsync(new ChatRequest("Erkläre Ili2pgImport"),
+                    AnswerListener.NONE, work -> CompletableFuture.supplyAsync(work, executor));
+            streamed.await(5, TimeUnit.SECONDS);
+            CompletableFuture<ChatResponse> second = service.respondAsync(new ChatRequest("Erkläre Ili2pgImport"),
+                    joinedListener, work -> CompletableFuture.completedFuture(work.get()));
+            assertThat(joinedTokens.toString()).isEqualTo("Ili2pg");
+            cancel.countDown();
+
+            assertThat(second.get(5, TimeUnit.SECONDS).answer()).isEqualTo("Ili2pgImport");
+            assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(CancellationException.class);
+        }
+
+        assertThat(joinedTokens.toString()).isEqualTo("Ili2pgImport");
+    }
+
+    @Test
+    void sequentialQuestionsAreAnsweredSeparately() {
+        TaskOrchestrator orchestrator = mock(TaskOrchestrator.class);
+        when(orchestrator.orchestrate(anyString(), any(), any()))
+                .thenReturn(new TaskExecutionResult(TaskType.FIND_TASK, "Ili2pgImport"));
+        ChatService service = new ChatService(orchestrator);
+
+        service.respond(new ChatRequest("xtf importieren"));
+        service.respond(new ChatRequest("xtf importieren"));
+
+        verify(orchestrator, times(2)).orchestrate(anyString(), any(), any());
+    }
+}
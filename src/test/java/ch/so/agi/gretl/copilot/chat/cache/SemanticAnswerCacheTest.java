@@ -0,0 +1,167 @@
+package ch.so.agi.gretl.copilot.chat.cache;
+
+import ch.so.agi.gretl.copilot.embedding.EmbeddingBackend;
+import ch.so.agi.gretl.copilot.orchestration.TaskExecutionResult;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderAgent;
+import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderDocument;
+import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderRepository;
+import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SemanticAnswerCacheTest {
+
+    private static final Map<String, float[]> VECTORS = Map.of(
+            "XTF validieren", new float[]{1.0f, 0.0f, 0.0f},
+            "Wie prüfe ich eine XTF-Datei?", new float[]{0.98f, 0.2f, 0.0f},
+            "CSV exportieren", new float[]{0.0f, 0.0f, 1.0f},
+            "Beispiel für Ili2pgImport", new float[]{0.0f, 1.0f, 0.0f});
+
+    private final AtomicInteger computations = new AtomicInteger();
+
+    @Test
+    void answersParaphrasesFromCache() {
+        SemanticAnswerCache cache = cache(EnumSet.of(TaskType.FIND_TASK));
+
+        TaskExecutionResult first = ask(cache, "XTF validieren", TaskType.FIND_TASK, "Ilivalidator");
+        TaskExecutionResult second = ask(cache, "Wie prüfe ich eine XTF-Datei?", TaskType.FIND_TASK, "other");
+        TaskExecutionResult unrelated = ask(cache, "CSV exportieren", TaskType.FIND_TASK, "CsvExport");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(unrelated.answer()).isEqualTo("CsvExport");
+        assertThat(computations).hasValue(2);
+        assertThat(cache.stats().hits()).isEqualTo(1);
+        assertThat(cache.stats().misses()).isEqualTo(2);
+    }
+
+    @Test
+    void cachesOnlyConfiguredTaskTypes() {
+        SemanticAnswerCache cache = cache(EnumSet.of(TaskType.FIND_TASK));
+
+        ask(cache, "Beispiel für Ili2pgImport", TaskType.GENERATE_TASK, "code");
+        ask(cache, "Beispiel für Ili2pgImport", TaskType.GENERATE_TASK, "code");
+
+        assertThat(computations).hasValue(2);
+        assertThat(cache.stats().size()).isZero();
+    }
+
+    @Test
+    void doesNotCacheDegradedAnswers() {
+        SemanticAnswerCache cache = cache(EnumSet.of(TaskType.FIND_TASK));
+
+        cache.getOrCompute("XTF validieren", lookup -> lookup.find(TaskType.FIND_TASK).orElseGet(() -> {
+            computations.incrementAndGet();
+            return new TaskExecutionResult(TaskType.FIND_TASK, "lexical only", true);
+        }));
+        TaskExecutionResult second = ask(cache, "XTF validieren", TaskType.FIND_TASK, "Ilivalidator");
+
+        assertThat(second.answer()).isEqualTo("Ilivalidator");
+        assertThat(computations).hasValue(2);
+    }
+
+    @Test
+    void looksUpOnlyAnswersOfTheClassifiedType() {
+        SemanticAnswerCache cache = cache(EnumSet.of(TaskType.FIND_TASK, TaskType.EXPLAIN_TASK));
+        ask(cache, "XTF validieren", TaskType.FIND_TASK, "Ilivalidator");
+
+        TaskExecutionResult explanation = ask(cache, "Wie prüfe ich eine XTF-Datei?", TaskType.EXPLAIN_TASK, "Erklärung");
+
+        assertThat(explanation.taskType()).isEqualTo(TaskType.EXPLAIN_TASK);
+        assertThat(explanation.answer()).isEqualTo("Erklärung");
+        assertThat(computations).hasValue(2);
+        assertThat(cache.stats().hits()).isZero();
+    }
+
+    @Test
+    void corpusChangeDropsAllAnswers() {
+        SemanticAnswerCache cache = cache(EnumSet.of(TaskType.FIND_TASK));
+        ask(cache, "XTF validieren", TaskType.FIND_TASK, "Ilivalidator");
+
+        cache.invalidateAll();
+        ask(cache, "XTF validieren", TaskType.FIND_TASK, "Ilivalidator");
+
+        assertThat(computations).hasValue(2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void paraphraseHitDoesNotShowTheEarlierQuestion() {
+        TaskFinderRepository repository = mock(TaskFinderRepository.class);
+        TaskFinderDocument validator = new TaskFinderDocument("IliValidator", "Validierung", "https://gretl.app/reference.html",
+                "IliValidator", "Prüft INTERLIS-Transferdateien.", 0.8d, 0.9d);
+        when(repository.searchLexical(anyString(), anyInt())).thenReturn(List.of(validator));
+        when(repository.searchSemantic(any(), anyInt())).thenReturn(List.of(validator));
+        ObjectProvider<EmbeddingModel> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(new FixedModel());
+        TaskFinderAgent finder = new TaskFinderAgent(repository, provider, new MarkdownRenderer());
+        SemanticAnswerCache cache = cache(EnumSet.of(TaskType.FIND_TASK));
+
+        for (String question : List.of("XTF validieren", "Wie prüfe ich eine XTF-Datei?")) {
+            TaskExecutionResult result = cache.getOrCompute(question, lookup -> lookup.find(TaskType.FIND_TASK)
+                    .orElseGet(() -> compute(TaskType.FIND_TASK, finder.handle(question))));
+            assertThat(result.answer()).contains("IliValidator").doesNotContain("XTF validieren");
+        }
+        assertThat(cache.stats().hits()).isEqualTo(1);
+    }
+
+    @Test
+    void doesNotCacheAnswersQuotingTheQuestion() {
+        SemanticAnswerCache cache = cache(EnumSet.of(TaskType.EXPLAIN_TASK));
+
+        ask(cache, "XTF validieren", TaskType.EXPLAIN_TASK, "Du fragst: XTF validieren. Nimm IliValidator.");
+        TaskExecutionResult paraphrase = ask(cache, "Wie prüfe ich eine XTF-Datei?", TaskType.EXPLAIN_TASK, "IliValidator");
+
+        assertThat(paraphrase.answer()).isEqualTo("IliValidator");
+        assertThat(computations).hasValue(2);
+    }
+
+    @Test
+    void defaultsTheThresholdPerEmbeddingBackend() {
+        assertThat(SemanticAnswerCache.minSimilarity("", EmbeddingBackend.OPENAI)).isEqualTo(0.92d);
+        assertThat(SemanticAnswerCache.minSimilarity("", EmbeddingBackend.LOCAL)).isEqualTo(0.99d);
+        assertThat(SemanticAnswerCache.minSimilarity("0.8", EmbeddingBackend.LOCAL)).isEqualTo(0.8d);
+    }
+
+    private SemanticAnswerCache cache(EnumSet<TaskType> types) {
+        return new SemanticAnswerCache(new FixedModel(), 0.95d, 10, Duration.ZERO, types, Clock.systemUTC());
+    }
+
+    /**
+     * Asks the cache the way the orchestrator does: classified as {@code taskType}, computing
+     * {@code answer} on a miss.
+     */
+    private TaskExecutionResult ask(SemanticAnswerCache cache, String message, TaskType taskType, String answer) {
+        return cache.getOrCompute(message, lookup -> lookup.find(taskType).orElseGet(() -> compute(taskType, answer)));
+    }
+
+    private TaskExecutionResult compute(TaskType taskType, String answer) {
+        computations.incrementAndGet();
+        return new TaskExecutionResult(taskType, answer);
+    }
+
+    private static final class FixedModel implements EmbeddingModel {
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            return Response.from(segments.stream().map(segment -> Embedding.from(VECTORS.get(segment.text()))).toList());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ch.so.agi.gretl.copilot.chat.execution;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ChatExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.destroy();
+    }
+
+    @Test
+    void queuesBeyondConcurrencyAndRejectsWhenFull() throws Exception {
+        executor = new ChatExecutor(Executors.newVirtualThreadPerTaskExecutor(), 1, 1, 5);
+        CountDownLatch started = new CountDownLatch(1);
+
+        CompletableFuture<String> first = executor.submit("a", () -> {
+            started.countDown();
+            release.await();
+            return "first";
+        });
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> second = executor.submit("b", () -> "second");
+
+        assertThat(executor.stats().queued()).isEqualTo(1);
+        assertThatThrownBy(() -> executor.submit("c", () -> "third"))
+                .isInstanceOfSatisfying(ChatRejectedException.class,
+                        ex -> assertThat(ex.reason()).isEqualTo(ChatRejectedException.Reason.BUSY));
+
+        release.countDown();
+        assertThat(first.get(2, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(second.get(2, TimeUnit.SECONDS)).isEqualTo("second");
+        assertThat(executor.stats().executions()).isEqualTo(2);
+        assertThat(executor.stats().rejected()).isEqualTo(1);
+    }
+
+    @Test
+    void limitsRequestsPerClient() throws Exception {
+        executor = new ChatExecutor(Executors.newVirtualThreadPerTaskExecutor(), 4, 4, 1);
+
+        CompletableFuture<String> first = executor.submit("a", () -> {
+            release.await();
+            return "first";
+        });
+
+        assertThatThrownBy(() -> executor.submit("a", () -> "again"))
+                .isInstanceOfSatisfying(ChatRejectedException.class,
+                        ex -> assertThat(ex.reason()).isEqualTo(ChatRejectedException.Reason.CLIENT_LIMIT));
+        assertThat(executor.submit("b", () -> "other").get(2, TimeUnit.SECONDS)).isEqualTo("other");
+
+        release.countDown();
+        assertThat(first.get(2, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(executor.submit("a", () -> "later").get(2, TimeUnit.SECONDS)).isEqualTo("later");
+    }
+
+    @Test
+    void cancelInterruptsRunningRequests() throws Exception {
+        executor = new ChatExecutor(Executors.newVirtualThreadPerTaskExecutor(), 2, 2, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        CompletableFuture<String> result = executor.submit("a", () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                interrupted.countDown();
+                throw ex;
+            }
+            return "never";
+        });
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(executor.cancel("a")).isEqualTo(1);
+
+        assertThat(result).isCancelled();
+        assertThat(interrupted.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(executor.stats().cancelled()).isEqualTo(1);
+    }
+
+    @Test
+    void publishesMetrics() {
+        executor = new ChatExecutor(Executors.newVirtualThreadPerTaskExecutor(), 1, 0, 1);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        executor.bindTo(registry);
+
+        executor.submit("a", () -> "done").join();
+
+        assertThat(registry.get("gretl.chat.execution").functionTimer().count()).isEqualTo(1.0d);
+        assertThat(registry.get("gretl.chat.queue.depth").gauge().value()).isZero();
+        assertThat(registry.get("gretl.chat.rejected").tag("reason", "busy").functionCounter().count()).isZero();
+    }
+}
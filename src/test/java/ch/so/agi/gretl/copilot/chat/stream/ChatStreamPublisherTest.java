@@ -39,6 +39,41 @@ class ChatStreamPublisherTest {
         Assertions.assertThat(dataLines).anyMatch(line -> line.contains("payload"));
     }
 
+    @Test
+    void publishesNamedEvent() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        ChatStreamPublisher publisher = new ChatStreamPublisher(() -> emitter);
+        publisher.openStream("client-1");
+
+        publisher.publish("client-1", ChatStreamPublisher.DONE_EVENT, "FIND_TASK");
+
+        Assertions.assertThat(emitter.events).hasSize(1);
+        Object dataCollection = ReflectionTestUtils.getField(emitter.events.get(0), "dataToSend");
+        String firstLine = String.valueOf(ReflectionTestUtils.getField(
+                ((java.util.Collection<?>) dataCollection).iterator().next(), "data"));
+        Assertions.assertThat(firstLine).contains("event:done").contains("data:");
+    }
+
+    @Test
+    void notifiesListenersWhenCurrentStreamEnds() {
+        List<RecordingEmitter> created = new CopyOnWriteArrayList<>();
+        ChatStreamPublisher publisher = new ChatStreamPublisher(() -> {
+            RecordingEmitter emitter = new RecordingEmitter();
+            created.add(emitter);
+            return emitter;
+        });
+        List<String> disconnected = new CopyOnWriteArrayList<>();
+        publisher.onDisconnect(disconnected::add);
+
+        publisher.openStream("client-1");
+        publisher.openStream("client-1");
+        created.get(0).fireCompletion();
+        Assertions.assertThat(disconnected).isEmpty();
+
+        created.get(1).fireCompletion();
+        Assertions.assertThat(disconnected).containsExactly("client-1");
+    }
+
     private static final class RecordingEmitter extends SseEmitter {
         private final List<SseEventBuilder> events = new CopyOnWriteArrayList<>();
 
@@ -46,9 +81,25 @@ class ChatStreamPublisherTest {
             super(0L);
         }
 
+        private Runnable completionCallback = () -> {
+        };
+
         @Override
         public void send(SseEventBuilder event) throws IOException {
             events.add(event);
         }
+
+        @Override
+        public synchronized void onCompletion(Runnable callback) {
+            this.completionCallback = callback;
+        }
+
+        @Override
+        public synchronized void complete() {
+        }
+
+        void fireCompletion() {
+            completionCallback.run();
+        }
     }
 }
@@ -47,7 +47,7 @@ class ChatUiIntegrationTest {
 
     @Test
     void streamsAssistantReplyOverSse() throws Exception {
-        Mockito.when(taskOrchestrator.orchestrate(Mockito.anyString()))
+        Mockito.when(taskOrchestrator.orchestrate(Mockito.anyString(), Mockito.any(), Mockito.any()))
                 .thenReturn(new TaskExecutionResult(TaskType.FIND_TASK, "<p><strong>Mock</strong> response</p>"));
 
         String clientId = UUID.randomUUID().toString();
@@ -0,0 +1,86 @@
+package ch.so.agi.gretl.copilot.chat.ui;
+
+import ch.so.agi.gretl.copilot.chat.stream.ChatStreamPublisher;
+import ch.so.agi.gretl.copilot.chat.view.ChatMessageView;
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingReplyTest {
+
+    private ChatStreamPublisher publisher;
+    private ChatViewRenderer viewRenderer;
+    private AtomicLong clock;
+    private StreamingReply reply;
+
+    @BeforeEach
+    void setUp() {
+        publisher = Mockito.mock(ChatStreamPublisher.class);
+        viewRenderer = Mockito.mock(ChatViewRenderer.class);
+        Mockito.when(viewRenderer.renderMessage(Mockito.any()))
+                .thenAnswer(invocation -> "message:" + invocation.<ChatMessageView>getArgument(0).content());
+        Mockito.when(viewRenderer.renderBodyUpdate(Mockito.any()))
+                .thenAnswer(invocation -> "body:" + invocation.<ChatMessageView>getArgument(0).content());
+        clock = new AtomicLong();
+        reply = new StreamingReply("client-1", publisher, viewRenderer, new MarkdownRenderer(),
+                Duration.ofMillis(100), clock::get);
+    }
+
+    @Test
+    void sendsMessageOnFirstTokenAndCoalescesTheRest() {
+        reply.onPartialAnswer(TaskType.GENERATE_TASK, "Ein ");
+        clock.addAndGet(Duration.ofMillis(40).toNanos());
+        reply.onPartialAnswer(TaskType.GENERATE_TASK, "**fetter** ");
+        clock.addAndGet(Duration.ofMillis(80).toNanos());
+        reply.onPartialAnswer(TaskType.GENERATE_TASK, "Text");
+
+        ArgumentCaptor<String> payloads = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(publisher, Mockito.times(2)).publish(Mockito.eq("client-1"), payloads.capture());
+        assertThat(payloads.getAllValues().get(0)).startsWith("message:").contains("Ein");
+        assertThat(payloads.getAllValues().get(1)).isEqualTo("body:<p>Ein <strong>fetter</strong> Text</p>\n");
+
+        ArgumentCaptor<ChatMessageView> views = ArgumentCaptor.forClass(ChatMessageView.class);
+        Mockito.verify(viewRenderer).renderMessage(views.capture());
+        assertThat(views.getValue().id()).startsWith("msg-");
+        assertThat(views.getValue().detail()).isEqualTo("GENERATE_TASK");
+    }
+
+    @Test
+    void restartDropsTheStreamedText() {
+        reply.onPartialAnswer(TaskType.EXPLAIN_TASK, "Alter ");
+        reply.restart();
+        clock.addAndGet(Duration.ofMillis(200).toNanos());
+        reply.onPartialAnswer(TaskType.EXPLAIN_TASK, "Neuer Text");
+
+        ArgumentCaptor<String> payloads = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(publisher, Mockito.times(2)).publish(Mockito.eq("client-1"), payloads.capture());
+        assertThat(payloads.getAllValues().get(1)).isEqualTo("body:<p>Neuer Text</p>\n");
+    }
+
+    @Test
+    void completeReplacesStreamedBody() {
+        reply.onPartialAnswer(TaskType.EXPLAIN_TASK, "Zwischenstand");
+        reply.complete("<p>Fertig</p>", TaskType.EXPLAIN_TASK);
+
+        ArgumentCaptor<ChatMessageView> views = ArgumentCaptor.forClass(ChatMessageView.class);
+        Mockito.verify(viewRenderer).renderBodyUpdate(views.capture());
+        assertThat(views.getValue().content()).isEqualTo("<p>Fertig</p>");
+        assertThat(views.getValue().id()).startsWith("msg-");
+    }
+
+    @Test
+    void completeWithoutTokensSendsWholeMessage() {
+        reply.complete("<p>Antwort</p>", TaskType.FIND_TASK);
+
+        Mockito.verify(publisher).publish("client-1", "message:<p>Antwort</p>");
+        Mockito.verify(viewRenderer, Mockito.never()).renderBodyUpdate(Mockito.any());
+    }
+}
@@ -0,0 +1,144 @@
+package ch.so.agi.gretl.copilot.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchingEmbeddingModelTest {
+
+    @Test
+    void coalescesConcurrentCallersIntoOneRequest() throws Exception {
+        RecordingModel delegate = new RecordingModel();
+        BatchingEmbeddingModel model = new BatchingEmbeddingModel(delegate, Duration.ofSeconds(5), 3, Duration.ofSeconds(5));
+
+        List<String> texts = List.of("xtf validieren", "csv import", "xtf validieren");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<float[]>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String text : texts) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return model.embed(text).content().vector();
+                }));
+            }
+            start.countDown();
+        }
+
+        assertThat(delegate.requests).hasSize(1);
+        assertThat(delegate.requests.get(0)).containsExactlyInAnyOrder("xtf validieren", "csv import");
+        for (int i = 0; i < texts.size(); i++) {
+            assertThat(results.get(i).get()).containsExactly(RecordingModel.vectorOf(texts.get(i)));
+        }
+        assertThat(model.stats().callers()).isEqualTo(3);
+        assertThat(model.stats().deduplicated()).isEqualTo(1);
+    }
+
+    @Test
+    void sendsAfterTheWindowWithoutOtherCallers() {
+        RecordingModel delegate = new RecordingModel();
+        BatchingEmbeddingModel model = new BatchingEmbeddingModel(delegate, Duration.ofMillis(1), 16, Duration.ofSeconds(5));
+
+        Response<List<Embedding>> response = model.embedAll(List.of(TextSegment.from("a"), TextSegment.from("b")));
+
+        assertThat(response.content()).extracting(Embedding::vector)
+                .containsExactly(RecordingModel.vectorOf("a"), RecordingModel.vectorOf("b"));
+        assertThat(delegate.requests).containsExactly(List.of("a", "b"));
+    }
+
+    @Test
+    void propagatesFailuresOfTheDelegate() {
+        EmbeddingModel failing = new EmbeddingModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+                throw new IllegalStateException("rate limited");
+            }
+        };
+        BatchingEmbeddingModel model = new BatchingEmbeddingModel(failing, Duration.ofMillis(1), 16, Duration.ofSeconds(5));
+
+        assertThatThrownBy(() -> model.embed("a")).hasMessage("rate limited");
+    }
+
+    @Test
+    void interruptingTheOpenerOnlyAbandonsItsOwnVectors() throws Exception {
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean delegateInterrupted = new AtomicBoolean();
+        RecordingModel recording = new RecordingModel();
+        EmbeddingModel slow = new EmbeddingModel() {
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+                requested.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    delegateInterrupted.set(true);
+                }
+                return recording.embedAll(segments);
+            }
+        };
+        BatchingEmbeddingModel model = new BatchingEmbeddingModel(slow, Duration.ofSeconds(5), 2, Duration.ofSeconds(5));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            AtomicReference<Thread> openerThread = new AtomicReference<>();
+            Future<float[]> opener = executor.submit(() -> {
+                openerThread.set(Thread.currentThread());
+                return model.embed("xtf validieren").content().vector();
+            });
+            while (model.stats().callers() == 0) {
+                Thread.onSpinWait();
+            }
+            Future<float[]> joiner = executor.submit(() -> model.embed("csv import").content().vector());
+            assertThat(requested.await(5, TimeUnit.SECONDS)).isTrue();
+
+            openerThread.get().interrupt();
+            assertThatThrownBy(() -> opener.get(5, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(IllegalStateException.class);
+            release.countDown();
+
+            assertThat(joiner.get(5, TimeUnit.SECONDS)).containsExactly(RecordingModel.vectorOf("csv import"));
+        } finally {
+            model.close();
+        }
+        assertThat(delegateInterrupted).isFalse();
+        assertThat(recording.requests).hasSize(1);
+    }
+
+    @Test
+    void failsCallersAfterClose() {
+        BatchingEmbeddingModel model = new BatchingEmbeddingModel(new RecordingModel(), Duration.ofMillis(1), 16, Duration.ofSeconds(5));
+        model.close();
+
+        assertThatThrownBy(() -> model.embed("a")).hasMessage("Embedding model is closed");
+    }
+
+    private static final class RecordingModel implements EmbeddingModel {
+        private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+
+        static float[] vectorOf(String text) {
+            return new float[]{text.length(), text.hashCode()};
+        }
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            requests.add(segments.stream().map(TextSegment::text).toList());
+            return Response.from(segments.stream().map(segment -> Embedding.from(vectorOf(segment.text()))).toList());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ch.so.agi.gretl.copilot.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CachingEmbeddingModelTest {
+
+    @Test
+    void servesNormalizedRepeatsFromCache() {
+        CountingModel delegate = new CountingModel();
+        CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test", 10, Duration.ZERO, null);
+
+        float[] first = cache.embed("XTF validieren").content().vector();
+        float[] second = cache.embed("  xtf   VALIDIEREN ").content().vector();
+
+        assertThat(second).containsExactly(first);
+        assertThat(delegate.requestedTexts).containsExactly("XTF validieren");
+        assertThat(cache.stats().hits()).isEqualTo(1);
+        assertThat(cache.stats().misses()).isEqualTo(1);
+    }
+
+    @Test
+    void deduplicatesMissesWithinOneCall() {
+        CountingModel delegate = new CountingModel();
+        CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test", 10, Duration.ZERO, null);
+
+        Response<List<Embedding>> response = cache.embedAll(List.of(
+                TextSegment.from("a"), TextSegment.from("b"), TextSegment.from("A")));
+
+        assertThat(response.content()).hasSize(3);
+        assertThat(response.content().get(2).vector()).containsExactly(response.content().get(0).vector());
+        assertThat(delegate.requestedTexts).containsExactly("a", "b");
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() {
+        CountingModel delegate = new CountingModel();
+        CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test", 2, Duration.ZERO, null);
+
+        cache.embed("one");
+        cache.embed("two");
+        cache.embed("one");
+        cache.embed("three");
+        cache.embed("one");
+        cache.embed("two");
+
+        assertThat(delegate.requestedTexts).containsExactly("one", "two", "three", "two");
+        assertThat(cache.stats().evictions()).isEqualTo(2);
+        assertThat(cache.stats().size()).isEqualTo(2);
+    }
+
+    @Test
+    void expiresEntriesAfterTtl() {
+        MutableClock clock = new MutableClock();
+        CountingModel delegate = new CountingModel();
+        CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test", 10, Duration.ofMinutes(5), null, clock);
+
+        cache.embed("query");
+        clock.advance(Duration.ofMinutes(6));
+        cache.embed("query");
+
+        assertThat(delegate.requestedTexts).containsExactly("query", "query");
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void persistsAndReloadsCacheFile(@TempDir Path tempDir) {
+        Path file = tempDir.resolve("embeddings.bin");
+        CachingEmbeddingModel writer = new CachingEmbeddingModel(new CountingModel(), "model-a", 10, Duration.ZERO, file);
+        float[] vector = writer.embed("persistiert").content().vector();
+        writer.close();
+
+        CountingModel delegate = new CountingModel();
+        CachingEmbeddingModel reader = new CachingEmbeddingModel(delegate, "model-a", 10, Duration.ZERO, file);
+        assertThat(reader.embed("persistiert").content().vector()).containsExactly(vector);
+        assertThat(delegate.requestedTexts).isEmpty();
+
+        CachingEmbeddingModel otherModel = new CachingEmbeddingModel(delegate, "model-b", 10, Duration.ZERO, file);
+        assertThat(otherModel.stats().size()).isZero();
+    }
+
+    private static final class CountingModel implements EmbeddingModel {
+        private final List<String> requestedTexts = new ArrayList<>();
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (TextSegment segment : segments) {
+                requestedTexts.add(segment.text());
+                String text = segment.text().toLowerCase();
+                embeddings.add(Embedding.from(new float[]{text.length(), text.hashCode() % 100, 0.5f}));
+            }
+            return Response.from(embeddings);
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2025-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
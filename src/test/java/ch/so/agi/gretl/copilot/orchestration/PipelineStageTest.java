@@ -0,0 +1,59 @@
+package ch.so.agi.gretl.copilot.orchestration;
+
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PipelineStageTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ObservationRegistry observationRegistry = ObservationRegistry.create();
+
+    @BeforeEach
+    void registerMeterHandler() {
+        observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+    }
+
+    @Test
+    void innerStagesInheritTheTaskTypeAcrossThreads() throws Exception {
+        try (ExecutorService executor = PipelineStage.propagateContext(Executors.newVirtualThreadPerTaskExecutor())) {
+            PipelineStage.AGENT.observe(observationRegistry, TaskType.EXPLAIN_TASK, () -> {
+                try {
+                    return executor.submit(() -> PipelineStage.MARKDOWN_RENDER.observe(observationRegistry, () -> "<p/>")).get();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        }
+
+        assertThat(meterRegistry.get(PipelineStage.OBSERVATION_NAME)
+                .tag("stage", "markdown_render")
+                .tag("task.type", "EXPLAIN_TASK")
+                .tag("outcome", "success")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void tagsTaskTypeKnownOnlyAfterTheStageRanAndFailures() {
+        PipelineStage.CLASSIFICATION.observe(observationRegistry, () -> {
+            PipelineStage.tagTaskType(observationRegistry, TaskType.FIND_TASK);
+            return TaskType.FIND_TASK;
+        });
+        assertThatThrownBy(() -> PipelineStage.LEXICAL_SQL.observe(observationRegistry, TaskType.FIND_TASK, () -> {
+            throw new IllegalStateException("db down");
+        }));
+
+        assertThat(meterRegistry.get(PipelineStage.OBSERVATION_NAME)
+                .tag("stage", "classification").tag("task.type", "FIND_TASK").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(PipelineStage.OBSERVATION_NAME)
+                .tag("stage", "lexical_sql").tag("outcome", "error").timer().count()).isEqualTo(1);
+    }
+}
@@ -5,19 +5,27 @@ import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderAgent;
 import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderDocument;
 import ch.so.agi.gretl.copilot.orchestration.agent.TaskFinderRepository;
 import ch.so.agi.gretl.copilot.orchestration.agent.TaskGeneratorAgent;
+import ch.so.agi.gretl.copilot.orchestration.classification.TaskClassifier;
 import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.chat.request.ChatRequest;
 import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.ObjectProvider;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -66,6 +74,132 @@ class TaskOrchestratorTest {
         assertThat(result.answer()).contains("Generating");
     }
 
+    @Test
+    void reportsTokensOfStreamingAgent() {
+        StreamingChatModel streamingModel = new StreamingChatModel() {
+            @Override
+            public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+                List.of("Der Task ", "**Curl** ", "lädt Dateien.").forEach(handler::onPartialResponse);
+                handler.onCompleteResponse(ChatResponse.builder()
+                        .aiMessage(AiMessage.from("Der Task **Curl** lädt Dateien."))
+                        .build());
+            }
+        };
+        ObjectProvider<StreamingChatModel> streamingProvider = mock(ObjectProvider.class);
+        when(streamingProvider.getIfAvailable()).thenReturn(streamingModel);
+        ObjectProvider<EmbeddingModel> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(null);
+        TaskOrchestrator streamingOrchestrator = new TaskOrchestrator(model,
+                new TaskFinderAgent(new StubFinderRepository(), provider, new MarkdownRenderer()),
+                new TaskExplanationAgent(streamingProvider, new MarkdownRenderer()), new TaskGeneratorAgent());
+        model.setNextResponse("EXPLAIN_TASK");
+        List<String> tokens = new ArrayList<>();
+
+        TaskExecutionResult result = streamingOrchestrator.orchestrate("Erkläre Curl", (taskType, token) -> {
+            assertThat(taskType).isEqualTo(TaskType.EXPLAIN_TASK);
+            tokens.add(token);
+        });
+
+        assertThat(tokens).containsExactly("Der Task ", "**Curl** ", "lädt Dateien.");
+        assertThat(result.answer()).contains("<strong>Curl</strong>");
+    }
+
+    @Test
+    void startsRetrievalWhileClassifying() {
+        CountDownLatch retrievalStarted = new CountDownLatch(1);
+        TaskFinderRepository repository = new StubFinderRepository() {
+            @Override
+            public List<TaskFinderDocument> searchLexical(String query, int limit) {
+                retrievalStarted.countDown();
+                return super.searchLexical(query, limit);
+            }
+        };
+        ChatModel classifierModel = new RecordingModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest request) {
+                try {
+                    setNextResponse(retrievalStarted.await(2, TimeUnit.SECONDS) ? "FIND_TASK" : "EXPLAIN_TASK");
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.doChat(request);
+            }
+        };
+        TaskOrchestrator speculativeOrchestrator = speculativeOrchestrator(classifierModel, repository);
+
+        TaskExecutionResult result = speculativeOrchestrator.orchestrate("Please find me a task");
+
+        assertThat(result.taskType()).isEqualTo(TaskType.FIND_TASK);
+        assertThat(result.answer()).contains("task-demo");
+    }
+
+    @Test
+    void cancelsSpeculativeRetrievalForOtherRequests() throws InterruptedException {
+        CountDownLatch retrievalStarted = new CountDownLatch(1);
+        CountDownLatch retrievalInterrupted = new CountDownLatch(1);
+        TaskFinderRepository repository = new StubFinderRepository() {
+            @Override
+            public List<TaskFinderDocument> searchLexical(String query, int limit) {
+                retrievalStarted.countDown();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException ex) {
+                    retrievalInterrupted.countDown();
+                }
+                return List.of();
+            }
+        };
+        ChatModel classifierModel = new RecordingModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest request) {
+                try {
+                    retrievalStarted.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                setNextResponse("OTHER");
+                return super.doChat(request);
+            }
+        };
+        TaskOrchestrator speculativeOrchestrator = speculativeOrchestrator(classifierModel, repository);
+
+        assertThatThrownBy(() -> speculativeOrchestrator.orchestrate("Wie wird das Wetter?"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(retrievalInterrupted.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void doesNotPrefetchMessagesTheLocalClassifierSettles() {
+        AtomicInteger prefetches = new AtomicInteger();
+        ObjectProvider<EmbeddingModel> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(null);
+        TaskFinderAgent finderAgent = new TaskFinderAgent(new StubFinderRepository(), provider, new MarkdownRenderer()) {
+            @Override
+            public void prefetch(String userMessage, RequestContext context) {
+                prefetches.incrementAndGet();
+                super.prefetch(userMessage, context);
+            }
+        };
+        TaskClassifier classifier = new TaskClassifier(model, true, 0.35d, 0.15d, 10);
+        TaskOrchestrator speculativeOrchestrator = new TaskOrchestrator(classifier, finderAgent,
+                new TaskExplanationAgent(), new TaskGeneratorAgent(), true);
+
+        TaskExecutionResult result = speculativeOrchestrator.orchestrate("Erkläre mir den Task Ili2pgExport");
+
+        assertThat(result.taskType()).isEqualTo(TaskType.EXPLAIN_TASK);
+        assertThat(prefetches).hasValue(0);
+        assertThat(speculativeOrchestrator.orchestrate("Please find me a task").taskType()).isEqualTo(TaskType.FIND_TASK);
+        assertThat(prefetches).hasValue(1);
+    }
+
+    private static TaskOrchestrator speculativeOrchestrator(ChatModel classifierModel, TaskFinderRepository repository) {
+        ObjectProvider<EmbeddingModel> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(null);
+        TaskFinderAgent finderAgent = new TaskFinderAgent(repository, provider, new MarkdownRenderer());
+        return new TaskOrchestrator(new TaskClassifier(classifierModel), finderAgent, new TaskExplanationAgent(),
+                new TaskGeneratorAgent(), true);
+    }
+
     private static class RecordingModel implements ChatModel {
 
         private String nextResponse;
@@ -107,7 +241,7 @@ class TaskOrchestratorTest {
         }
 
         @Override
-        public List<TaskFinderDocument> searchSemantic(double[] embedding, int limit) {
+        public List<TaskFinderDocument> searchSemantic(float[] embedding, int limit) {
             return List.of();
         }
     }
@@ -0,0 +1,45 @@
+package ch.so.agi.gretl.copilot.orchestration.agent;
+
+import ch.so.agi.gretl.copilot.embedding.EmbeddingBackend;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class EmbeddingSchemaValidatorTest {
+
+    @SuppressWarnings("unchecked")
+    private final EmbeddingSchemaValidator validator = new EmbeddingSchemaValidator(
+            mock(JdbcClient.class), mock(ObjectProvider.class), 1024, EmbeddingBackend.OPENAI, "text-embedding-3-large");
+
+    @Test
+    void acceptsMatchingColumn() {
+        assertThatCode(() -> validator.validate(1024)).doesNotThrowAnyException();
+        assertThatCode(() -> validator.validate(-1)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void rejectsDifferentColumnDimension() {
+        assertThatThrownBy(() -> validator.validate(3072))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("openai.embedding-dimensions=1024")
+                .hasMessageContaining("vector(3072)");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void checksTheLocalModelDimension() {
+        EmbeddingSchemaValidator local = new EmbeddingSchemaValidator(
+                mock(JdbcClient.class), mock(ObjectProvider.class), 3072, EmbeddingBackend.LOCAL, "text-embedding-3-large");
+
+        assertThatCode(() -> local.validate(384)).doesNotThrowAnyException();
+        assertThatThrownBy(() -> local.validate(3072))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("all-minilm-l6-v2-q (384 dimensions)")
+                .hasMessageContaining("EMBED_BACKEND=local");
+    }
+}
@@ -1,5 +1,6 @@
 package ch.so.agi.gretl.copilot.orchestration.agent;
 
+import ch.so.agi.gretl.copilot.orchestration.RequestContext;
 import ch.so.agi.gretl.copilot.orchestration.render.MarkdownRenderer;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.model.embedding.EmbeddingModel;
@@ -7,7 +8,9 @@ import dev.langchain4j.model.output.Response;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.ObjectProvider;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyList;
@@ -63,6 +66,77 @@ class TaskFinderAgentTest {
         assertThat(repository.semanticInvocations).isZero();
     }
 
+    @Test
+    void answersWithLexicalMatchesWhenSemanticLegTimesOut() {
+        StubRepository repository = new StubRepository();
+        repository.lexicalResults = List.of(
+                new TaskFinderDocument("task-a", "Heading A", "https://example.com/a", "section-a",
+                        "Der Task liest INTERLIS-Daten und importiert sie in eine Datenbank.", 0.4d, 0.0d)
+        );
+        EmbeddingModel slowModel = mock(EmbeddingModel.class);
+        when(slowModel.embedAll(anyList())).thenAnswer(invocation -> {
+            Thread.sleep(2_000);
+            return Response.from(List.of(new Embedding(new float[]{0.1f})));
+        });
+
+        TaskFinderAgent agent = new TaskFinderAgent(repository, providerReturning(slowModel), new MarkdownRenderer(),
+                Duration.ofSeconds(1), Duration.ofMillis(100), TaskFinderAgent.RetrievalMode.PARALLEL);
+
+        RequestContext context = RequestContext.empty();
+        long started = System.nanoTime();
+        String answer = agent.handle("Wie importiere ich INTERLIS-Daten?", context);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(1));
+        assertThat(answer).contains("task-a");
+        assertThat(answer).contains("Zeitlimit überschritten");
+        assertThat(context.isDegraded()).isTrue();
+        assertThat(repository.semanticInvocations).isZero();
+    }
+
+    @Test
+    void usesRepositoryFusedScoresInHybridMode() {
+        StubRepository repository = new StubRepository();
+        repository.hybridSupported = true;
+        repository.hybridResults = List.of(
+                new TaskFinderDocument("task-c", "Heading C", "https://example.com/c", "section-c",
+                        "Task zum Publizieren von Dateien.", 0.2d, 1.0d),
+                new TaskFinderDocument("task-a", "Heading A", "https://example.com/a", "section-a",
+                        "Der Task liest INTERLIS-Daten und importiert sie in eine Datenbank.", 1.0d, 0.0d)
+        );
+
+        TaskFinderAgent agent = new TaskFinderAgent(repository, providerReturning(mockEmbeddingModel()),
+                new MarkdownRenderer(), Duration.ofSeconds(1), Duration.ofSeconds(1),
+                TaskFinderAgent.RetrievalMode.HYBRID_SQL);
+
+        String answer = agent.handle("Wie publiziere ich Dateien?");
+
+        assertThat(answer.indexOf("task-c – Heading C")).isLessThan(answer.indexOf("task-a – Heading A"));
+        assertThat(repository.lastHybridRequest.query()).isEqualTo("Wie publiziere ich Dateien?");
+        assertThat(repository.lastHybridRequest.embedding()).containsExactly(0.12f, 0.23f);
+        assertThat(repository.semanticInvocations).isZero();
+    }
+
+    @Test
+    void boundsTheLexicalFallbackInHybridModeByTheLexicalTimeout() {
+        StubRepository repository = new StubRepository();
+        repository.hybridSupported = true;
+        repository.lexicalDelay = Duration.ofSeconds(2);
+        EmbeddingModel failingModel = mock(EmbeddingModel.class);
+        when(failingModel.embedAll(anyList())).thenThrow(new IllegalStateException("rate limited"));
+
+        TaskFinderAgent agent = new TaskFinderAgent(repository, providerReturning(failingModel), new MarkdownRenderer(),
+                Duration.ofMillis(100), Duration.ofSeconds(1), TaskFinderAgent.RetrievalMode.HYBRID_SQL);
+
+        RequestContext context = RequestContext.empty();
+        long started = System.nanoTime();
+        String answer = agent.handle("Wie importiere ich INTERLIS-Daten?", context);
+
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(1));
+        assertThat(answer).contains("keine passenden Tasks");
+        assertThat(context.isDegraded()).isTrue();
+        assertThat(repository.lastHybridRequest).isNull();
+    }
+
     @Test
     void returnsHelpfulMessageWhenNoMatchesAreFound() {
         StubRepository repository = new StubRepository();
@@ -87,23 +161,44 @@ class TaskFinderAgentTest {
         return model;
     }
 
-    private static final class StubRepository implements TaskFinderRepository {
+    private static final class StubRepository implements TaskFinderRepository, HybridTaskFinderRepository {
 
         private List<TaskFinderDocument> lexicalResults = List.of();
         private List<TaskFinderDocument> semanticResults = List.of();
         private int semanticInvocations;
-        private double[] lastEmbedding = new double[0];
+        private float[] lastEmbedding = new float[0];
+        private boolean hybridSupported;
+        private List<TaskFinderDocument> hybridResults = List.of();
+        private HybridSearchRequest lastHybridRequest;
+        private Duration lexicalDelay = Duration.ZERO;
 
         @Override
         public List<TaskFinderDocument> searchLexical(String query, int limit) {
+            try {
+                Thread.sleep(lexicalDelay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
             return lexicalResults;
         }
 
         @Override
-        public List<TaskFinderDocument> searchSemantic(double[] embedding, int limit) {
+        public List<TaskFinderDocument> searchSemantic(float[] embedding, int limit) {
             this.semanticInvocations++;
             this.lastEmbedding = embedding;
             return semanticResults;
         }
+
+        @Override
+        public Optional<HybridTaskFinderRepository> hybrid() {
+            return hybridSupported ? Optional.of(this) : Optional.empty();
+        }
+
+        @Override
+        public List<TaskFinderDocument> searchHybrid(HybridSearchRequest request) {
+            this.lastHybridRequest = request;
+            return hybridResults;
+        }
     }
 }
@@ -0,0 +1,52 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Bm25IndexTest {
+
+    @Test
+    void stemsLikePostgresGermanDictionary() {
+        assertThat(GermanStemmer.stem("daten")).isEqualTo("dat");
+        assertThat(GermanStemmer.stem("importieren")).isEqualTo("importi");
+        assertThat(GermanStemmer.stem("prüfungen")).isEqualTo("prufung");
+        assertThat(GermanStemmer.stem("interlis")).isEqualTo("interlis");
+        assertThat(GermanStemmer.stem("straße")).isEqualTo("strass");
+    }
+
+    @Test
+    void dropsStopWordsAndKeepsTokensWithDigits() {
+        assertThat(GermanAnalyzer.lexemes("Wie importiere ich die Daten mit ili2pg?"))
+                .containsExactly("importi", "dat", "ili2pg");
+        assertThat(GermanAnalyzer.lexemes("INTERLIS-Daten"))
+                .containsExactly("interlis", "dat", "interlis-dat");
+    }
+
+    @Test
+    void ranksHeadingMatchesAndMatchesPrefixes() {
+        Bm25Index.Builder builder = Bm25Index.builder();
+        builder.add("CsvExport", "Daten aus einer Datenbanktabelle werden in eine CSV-Datei exportiert.");
+        builder.add("Ili2pgImport", "Importiert INTERLIS-Transferdateien in eine Datenbank.");
+        builder.add("Publisher", "Publiziert Dateien auf dem Dateiserver.");
+        Bm25Index index = builder.build();
+
+        Bm25Index.Result[] results = index.search("Wie importiere ich INTERLIS-Daten?", 5);
+
+        assertThat(results).extracting(Bm25Index.Result::id).containsExactly(1, 0, 2);
+        assertThat(results[0].score()).isGreaterThan(results[1].score());
+        assertThat(index.search("Datenbank", 5)).extracting(Bm25Index.Result::id).containsExactlyInAnyOrder(0, 1);
+        assertThat(index.search("csvexport", 1)).extracting(Bm25Index.Result::id).containsExactly(0);
+    }
+
+    @Test
+    void requiresAllShortTermsWhenNoPrefixTermRemains() {
+        Bm25Index.Builder builder = Bm25Index.builder();
+        builder.add("AV", "Amtliche Vermessung");
+        builder.add("Oereb", "AV und GB");
+        Bm25Index index = builder.build();
+
+        assertThat(index.search("av gb", 5)).extracting(Bm25Index.Result::id).containsExactly(1);
+        assertThat(index.search("und", 5)).isEmpty();
+    }
+}
@@ -0,0 +1,30 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CorpusVersionTest {
+
+    private static final String SQL = """
+            SELECT c.id FROM rag.doc_chunks c
+            JOIN rag.doc_chunks dc ON dc.id = c.id
+            WHERE c.embedding IS NOT NULL AND {visible:c} AND {visible:dc}
+            """;
+
+    @Test
+    void restrictsEveryAliasToTheActiveVersion() {
+        String sql = CorpusVersion.withVisibility(SQL, true);
+
+        assertThat(sql).doesNotContain("{visible:");
+        assertThat(sql).contains("(c.corpus_version <= (SELECT active_version FROM rag.corpus_state)"
+                + " AND (c.superseded_in IS NULL OR c.superseded_in > (SELECT active_version FROM rag.corpus_state)))");
+        assertThat(sql).contains("(dc.corpus_version <= (SELECT active_version FROM rag.corpus_state)");
+    }
+
+    @Test
+    void showsAllRowsOfAnUnversionedSchema() {
+        assertThat(CorpusVersion.withVisibility(SQL, false))
+                .contains("WHERE c.embedding IS NOT NULL AND TRUE AND TRUE");
+    }
+}
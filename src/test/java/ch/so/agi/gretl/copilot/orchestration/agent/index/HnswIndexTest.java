@@ -0,0 +1,105 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 64;
+
+    @Test
+    void findsExactMatchOfStoredVector() {
+        float[][] vectors = randomVectors(300, 7L);
+        HnswIndex index = build(vectors);
+
+        HnswIndex.Result[] results = index.search(vectors[123], 1, 32);
+
+        assertThat(results).hasSize(1);
+        assertThat(results[0].id()).isEqualTo(123);
+        assertThat(results[0].distance()).isCloseTo(0.0f, within(1e-5f));
+    }
+
+    @Test
+    void rejectsQueriesOfAnotherDimension() {
+        HnswIndex index = build(randomVectors(10, 3L));
+
+        assertThatThrownBy(() -> index.search(new float[DIMENSION + 1], 1, 32))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Expected 64 dimensions but got 65");
+    }
+
+    @Test
+    void recallAgainstBruteForceIsHigh() {
+        float[][] vectors = randomVectors(1000, 11L);
+        HnswIndex index = build(vectors);
+        float[][] queries = randomVectors(50, 13L);
+
+        int k = 10;
+        double recallSum = 0.0d;
+        for (float[] query : queries) {
+            Set<Integer> exact = bruteForce(vectors, query, k);
+            int hits = 0;
+            for (HnswIndex.Result result : index.search(query, k, 64)) {
+                if (exact.contains(result.id())) {
+                    hits++;
+                }
+            }
+            recallSum += (double) hits / k;
+        }
+
+        assertThat(recallSum / queries.length).isGreaterThan(0.9d);
+    }
+
+    @Test
+    void parsesPgvectorTextLiteral() {
+        assertThat(DocChunkVectorIndex.parseVector("[0.5,-1.25,3e-2]")).containsExactly(0.5f, -1.25f, 0.03f);
+        assertThat(DocChunkVectorIndex.parseVector("[]")).isEmpty();
+    }
+
+    private static HnswIndex build(float[][] vectors) {
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 100, vectors.length, 42L);
+        for (float[] vector : vectors) {
+            index.add(vector);
+        }
+        return index;
+    }
+
+    private static Set<Integer> bruteForce(float[][] vectors, float[] query, int k) {
+        Integer[] order = IntStream.range(0, vectors.length).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.comparingDouble(i -> -cosine(vectors[i], query)));
+        return new HashSet<>(Arrays.asList(order).subList(0, k));
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0.0d;
+        double normA = 0.0d;
+        double normB = 0.0d;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private static float[][] randomVectors(int count, long seed) {
+        Random random = new Random(seed);
+        float[][] vectors = new float[count][DIMENSION];
+        for (float[] vector : vectors) {
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,34 @@
+package ch.so.agi.gretl.copilot.orchestration.agent.index;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.simple.JdbcClient;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RagCorpusWatcherTest {
+
+    @Test
+    void publishesOnlyWhenTheFingerprintChanges() {
+        JdbcClient jdbcClient = mock(JdbcClient.class, RETURNS_DEEP_STUBS);
+        when(jdbcClient.sql(anyString()).query(String.class).single())
+                .thenReturn("45:45:2025-01-01", "45:45:2025-01-01", "50:95:2025-02-01");
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        RagCorpusWatcher watcher = new RagCorpusWatcher(jdbcClient, publisher, Duration.ZERO);
+
+        assertThat(watcher.check()).isTrue();
+        assertThat(watcher.check()).isFalse();
+        assertThat(watcher.check()).isTrue();
+
+        verify(publisher, times(1)).publishEvent(new RagCorpusChangedEvent("45:45:2025-01-01"));
+        verify(publisher, times(1)).publishEvent(new RagCorpusChangedEvent("50:95:2025-02-01"));
+    }
+}
@@ -0,0 +1,65 @@
+package ch.so.agi.gretl.copilot.orchestration.classification;
+
+import ch.so.agi.gretl.copilot.orchestration.TaskType;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class TaskClassifierTest {
+
+    @Test
+    void localTierClassifiesClearMessagesWithoutLlm() {
+        CountingModel model = new CountingModel("OTHER");
+        TaskClassifier classifier = new TaskClassifier(model, LocalTaskClassifier.fromDefaultExamples(), 0.35d, 0.15d, 10);
+
+        assertThat(classifier.classify("Welcher Task validiert XTF-Dateien?")).isEqualTo(TaskType.FIND_TASK);
+        assertThat(classifier.classify("Erkläre mir den Task Ili2pgExport")).isEqualTo(TaskType.EXPLAIN_TASK);
+        assertThat(classifier.classify("Mach mir ein Beispiel für CsvExport mit der Tabelle foo.bar"))
+                .isEqualTo(TaskType.GENERATE_TASK);
+
+        assertThat(model.calls).isZero();
+        assertThat(classifier.stats().localDecisions()).isEqualTo(3);
+    }
+
+    @Test
+    void asksLlmBelowThresholdAndCachesTheDecision() {
+        CountingModel model = new CountingModel("GENERATE_TASK");
+        TaskClassifier classifier = new TaskClassifier(model, LocalTaskClassifier.fromDefaultExamples(), 0.35d, 0.15d, 10);
+
+        assertThat(classifier.classify("Please find me a task")).isEqualTo(TaskType.GENERATE_TASK);
+        assertThat(classifier.classify("  please FIND me a task ")).isEqualTo(TaskType.GENERATE_TASK);
+
+        assertThat(model.calls).isEqualTo(1);
+        assertThat(classifier.stats().cacheHits()).isEqualTo(1);
+        assertThat(classifier.stats().llmSkipRate()).isCloseTo(0.5d, within(1e-9));
+    }
+
+    @Test
+    void localExamplesAreSeparable() {
+        LocalTaskClassifier local = LocalTaskClassifier.fromDefaultExamples();
+
+        for (LocalTaskClassifier.Example example : LocalTaskClassifier.readExamples(LocalTaskClassifier.DEFAULT_EXAMPLES)) {
+            assertThat(local.classify(example.text()).taskType()).as(example.text()).isEqualTo(example.taskType());
+        }
+    }
+
+    private static final class CountingModel implements ChatModel {
+        private final String answer;
+        private int calls;
+
+        private CountingModel(String answer) {
+            this.answer = answer;
+        }
+
+        @Override
+        public ChatResponse doChat(ChatRequest request) {
+            calls++;
+            return ChatResponse.builder().aiMessage(AiMessage.from(answer)).build();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ch.so.agi.gretl.copilot.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class EmbeddingDimensionsTest {
+
+    @Test
+    void truncatesAndRenormalizes() {
+        float[] fitted = EmbeddingDimensions.fit(new float[]{0.6f, 0.0f, 0.8f, 0.5f}, 2);
+
+        assertThat(fitted).containsExactly(new float[]{1.0f, 0.0f}, within(1e-6f));
+    }
+
+    @Test
+    void keepsUnitLengthAtFullSize() {
+        float[] fitted = EmbeddingDimensions.fit(new float[]{3.0f, 4.0f}, 2);
+
+        assertThat(fitted).containsExactly(new float[]{0.6f, 0.8f}, within(1e-6f));
+    }
+
+    @Test
+    void rejectsShorterVectors() {
+        assertThatThrownBy(() -> EmbeddingDimensions.fit(new float[]{1.0f}, 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("1 dimensions");
+    }
+}
@@ -0,0 +1,46 @@
+package ch.so.agi.gretl.copilot.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PgVectorTest {
+
+    @Test
+    void textFormRoundTripsEveryFloat() {
+        float[] vector = {0.5f, -1.25f, 1.0e-7f, 0.012345679f, -0.0f, 3.4028235e38f};
+
+        String literal = PgVector.format(vector);
+
+        assertThat(literal).startsWith("[0.5,-1.25,").endsWith("]").doesNotContain(" ");
+        assertThat(PgVector.parse(literal)).containsExactly(vector);
+        assertThat(PgVector.format(new float[0])).isEqualTo("[]");
+    }
+
+    @Test
+    void binaryFormMatchesVectorSend() throws Exception {
+        PgVector parameter = new PgVector(new float[]{1.0f, -2.0f});
+        byte[] bytes = new byte[parameter.lengthInBytes() + 1];
+
+        parameter.toBytes(bytes, 1);
+
+        assertThat(bytes).containsExactly(0, 0, 2, 0, 0,
+                0x3f, 0x80, 0, 0,
+                0xc0, 0x00, 0, 0);
+        PgVector decoded = new PgVector();
+        decoded.setByteValue(bytes, 1);
+        assertThat(decoded.toArray()).containsExactly(1.0f, -2.0f);
+        assertThat(decoded).isEqualTo(parameter);
+    }
+
+    @Test
+    void exposesTypeAndTextValueToTheDriver() throws Exception {
+        PgVector parameter = new PgVector(new float[]{0.25f, 0.75f});
+
+        assertThat(parameter.getType()).isEqualTo("vector");
+        assertThat(parameter.getValue()).isEqualTo("[0.25,0.75]");
+
+        parameter.setValue("[1,2,3]");
+        assertThat(parameter.toArray()).containsExactly(1.0f, 2.0f, 3.0f);
+    }
+}
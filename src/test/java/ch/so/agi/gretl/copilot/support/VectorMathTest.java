@@ -0,0 +1,94 @@
+package ch.so.agi.gretl.copilot.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class VectorMathTest {
+
+    private static final VectorKernel SCALAR = new ScalarVectorKernel();
+    private static final VectorKernel SIMD = new SimdVectorKernel();
+
+    @Test
+    void simdKernelMatchesScalarKernelIncludingTheTail() {
+        Random random = new Random(7);
+        for (int length : new int[]{1, 7, 384, 1027, 3072}) {
+            float[] a = randomVector(random, length + 3);
+            float[] b = randomVector(random, length);
+            byte[] x = VectorMath.quantize(a).values();
+            byte[] y = VectorMath.quantize(b).values();
+
+            assertThat(SIMD.dot(a, 3, b, 0, length)).isCloseTo(SCALAR.dot(a, 3, b, 0, length), within(1e-3f));
+            assertThat(SIMD.cosine(a, 3, b, 0, length)).isCloseTo(SCALAR.cosine(a, 3, b, 0, length), within(1e-5f));
+            assertThat(SIMD.squaredDistance(a, 3, b, 0, length))
+                    .isCloseTo(SCALAR.squaredDistance(a, 3, b, 0, length), within(1e-2f));
+            assertThat(SIMD.dot(x, y, length)).isEqualTo(SCALAR.dot(x, y, length));
+        }
+    }
+
+    @Test
+    void computesDistancesOfSmallVectors() {
+        float[] a = {3.0f, 4.0f};
+        float[] b = {4.0f, 3.0f};
+
+        assertThat(VectorMath.dot(a, b)).isEqualTo(24.0f);
+        assertThat(VectorMath.cosine(a, b)).isCloseTo(0.96f, within(1e-6f));
+        assertThat(VectorMath.l2Distance(a, b)).isCloseTo((float) Math.sqrt(2.0d), within(1e-6f));
+        assertThat(VectorMath.cosine(a, new float[2])).isZero();
+    }
+
+    @Test
+    void ranksMatrixRowsByDotProduct() {
+        float[] matrix = {
+                1.0f, 0.0f,
+                0.0f, 1.0f,
+                0.6f, 0.8f,
+                0.8f, 0.6f};
+
+        VectorMath.TopK top = VectorMath.topK(matrix, 2, new float[]{0.0f, 1.0f}, 3);
+
+        assertThat(top.rows()).containsExactly(1, 2, 3);
+        assertThat(top.scores()).containsExactly(new float[]{1.0f, 0.8f, 0.6f}, within(1e-6f));
+        assertThat(VectorMath.topK(matrix, 2, new float[]{1.0f, 0.0f}, 10).size()).isEqualTo(4);
+    }
+
+    @Test
+    void rejectsInvalidTopKArguments() {
+        assertThatThrownBy(() -> VectorMath.topK(new float[4], 2, new float[2], -1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> VectorMath.topK(new float[0], 0, new float[0], 3))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(VectorMath.topK(new float[4], 2, new float[2], 0).size()).isZero();
+    }
+
+    @Test
+    void approximatesDotProductsOfQuantizedVectors() {
+        Random random = new Random(11);
+        float[] a = randomVector(random, 3072);
+        float[] b = randomVector(random, 3072);
+
+        float approximate = VectorMath.dot(VectorMath.quantize(a), VectorMath.quantize(b));
+
+        assertThat(approximate).isCloseTo(VectorMath.dot(a, b), within(0.05f * (float) Math.sqrt(3072)));
+        assertThat(VectorMath.quantize(new float[3]).values()).containsExactly(0, 0, 0);
+    }
+
+    @Test
+    void rejectsVectorsOfDifferentLength() {
+        assertThatThrownBy(() -> VectorMath.dot(new float[2], new float[3]))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("2 and 3 dimensions");
+    }
+
+    private static float[] randomVector(Random random, int length) {
+        float[] vector = new float[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}